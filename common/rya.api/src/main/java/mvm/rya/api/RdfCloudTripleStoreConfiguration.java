@@ -25,6 +25,7 @@ import java.util.List;
 import mvm.rya.api.layout.TableLayoutStrategy;
 import mvm.rya.api.layout.TablePrefixLayoutStrategy;
 import mvm.rya.api.persist.RdfEvalStatsDAO;
+import mvm.rya.api.persist.query.QueryCancellation;
 
 import org.apache.hadoop.conf.Configuration;
 import org.openrdf.query.algebra.evaluation.QueryOptimizer;
@@ -43,15 +44,27 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
     public static final String CONF_STARTTIME = "query.startTime";
     //    public static final String CONF_TIMEINDEXURIS = "query.timeindexuris";
     public static final String CONF_NUM_THREADS = "query.numthreads";
+    public static final String CONF_EXECUTOR_THREADS = "query.executor.threads";
+    public static final String CONF_EXECUTOR_QUEUE_SIZE = "query.executor.queuesize";
+    public static final String CONF_MAX_CONCURRENT_QUERIES = "query.executor.maxconcurrent";
+    public static final String CONF_ADMISSION_TIMEOUT = "query.executor.admissiontimeout";
+    public static final String CONF_QUERY_TIMEOUT = "query.timeout";
     public static final String CONF_PERFORMANT = "query.performant";
+    public static final String CONF_PARALLEL_JOIN = "query.paralleljoin";
     public static final String CONF_INFER = "query.infer";
     public static final String CONF_USE_STATS = "query.usestats";
     public static final String CONF_USE_COMPOSITE = "query.usecompositecard";
     public static final String CONF_USE_SELECTIVITY = "query.useselectivity";
+    public static final String CONF_STATS_CACHE_SIZE = "query.stats.cache.size";
+    public static final String CONF_STATS_CACHE_EXPIRY = "query.stats.cache.expiry";
     public static final String CONF_TBL_PREFIX = "query.tblprefix";
     public static final String CONF_BATCH_SIZE = "query.batchsize";
+    public static final String CONF_BINDINGSET_BATCH_SIZE = "query.bindingset.batchsize";
+    public static final String CONF_BINDINGSET_LOOKAHEAD = "query.bindingset.lookahead";
     public static final String CONF_OFFSET = "query.offset";
     public static final String CONF_LIMIT = "query.limit";
+    public static final String CONF_HASHJOIN_MAX_MEMORY = "query.join.hash.maxmemory";
+    public static final String CONF_JOIN_SPILL_DIR = "query.join.spilldir";
     public static final String CONF_QUERYPLAN_FLAG = "query.printqueryplan";
     public static final String CONF_QUERY_AUTH = "query.auth";
 	public static final String CONF_RESULT_FORMAT = "query.resultformat";
@@ -124,6 +137,7 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
     private static final String[] EMPTY_STR_ARR = new String[0];
 
     private TableLayoutStrategy tableLayoutStrategy = new TablePrefixLayoutStrategy();
+    private QueryCancellation cancellation;
 
     public RdfCloudTripleStoreConfiguration() {
     }
@@ -132,6 +146,8 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
         super(other);
         if (other instanceof RdfCloudTripleStoreConfiguration) {
             setTableLayoutStrategy(((RdfCloudTripleStoreConfiguration) other).getTableLayoutStrategy());
+            //a copy belongs to the same query
+            setCancellation(((RdfCloudTripleStoreConfiguration) other).getCancellation());
         }
     }
 
@@ -192,6 +208,77 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
         setInt(CONF_NUM_THREADS, numThreads);
     }
 
+    public Integer getExecutorThreads() {
+        return getInt(CONF_EXECUTOR_THREADS, 32);
+    }
+
+    public void setExecutorThreads(Integer executorThreads) {
+        Preconditions.checkNotNull(executorThreads);
+        Preconditions.checkArgument(executorThreads > 0, "executorThreads must be greater than 0");
+        setInt(CONF_EXECUTOR_THREADS, executorThreads);
+    }
+
+    public Integer getExecutorQueueSize() {
+        return getInt(CONF_EXECUTOR_QUEUE_SIZE, 1000);
+    }
+
+    public void setExecutorQueueSize(Integer queueSize) {
+        Preconditions.checkNotNull(queueSize);
+        Preconditions.checkArgument(queueSize > 0, "queueSize must be greater than 0");
+        setInt(CONF_EXECUTOR_QUEUE_SIZE, queueSize);
+    }
+
+    public Integer getMaxConcurrentQueries() {
+        return getInt(CONF_MAX_CONCURRENT_QUERIES, 64);
+    }
+
+    public void setMaxConcurrentQueries(Integer maxConcurrentQueries) {
+        Preconditions.checkNotNull(maxConcurrentQueries);
+        Preconditions.checkArgument(maxConcurrentQueries > 0, "maxConcurrentQueries must be greater than 0");
+        setInt(CONF_MAX_CONCURRENT_QUERIES, maxConcurrentQueries);
+    }
+
+    /**
+     * @return how long, in milliseconds, a query waits for an execution slot before it is rejected
+     */
+    public Long getAdmissionTimeout() {
+        return getLong(CONF_ADMISSION_TIMEOUT, 30000L);
+    }
+
+    public void setAdmissionTimeout(Long admissionTimeout) {
+        Preconditions.checkNotNull(admissionTimeout);
+        Preconditions.checkArgument(admissionTimeout >= 0, "admissionTimeout must be non negative");
+        setLong(CONF_ADMISSION_TIMEOUT, admissionTimeout);
+    }
+
+    /**
+     * @return milliseconds a query may run before it is cancelled, null if it may run forever
+     */
+    public Long getQueryTimeout() {
+        String val = get(CONF_QUERY_TIMEOUT);
+        if (val != null) {
+            return Long.valueOf(val);
+        }
+        return null;
+    }
+
+    public void setQueryTimeout(Long timeout) {
+        Preconditions.checkNotNull(timeout);
+        Preconditions.checkArgument(timeout >= 0, "timeout must be non negative");
+        setLong(CONF_QUERY_TIMEOUT, timeout);
+    }
+
+    /**
+     * @return the cancellation of the query this configuration was cloned for, null outside of a query
+     */
+    public QueryCancellation getCancellation() {
+        return cancellation;
+    }
+
+    public void setCancellation(QueryCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
     public Boolean isPerformant() {
         return getBoolean(CONF_PERFORMANT, true);
     }
@@ -201,6 +288,15 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
         setBoolean(CONF_PERFORMANT, val);
     }
 
+    public Boolean isParallelJoin() {
+        return getBoolean(CONF_PARALLEL_JOIN, false);
+    }
+
+    public void setParallelJoin(Boolean val) {
+        Preconditions.checkNotNull(val);
+        setBoolean(CONF_PARALLEL_JOIN, val);
+    }
+
     public Boolean isInfer() {
         return getBoolean(CONF_INFER, true);
     }
@@ -261,6 +357,32 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
         setLong(CONF_BATCH_SIZE, batchSize);
     }
 
+    /**
+     * @return the number of binding sets sent to the store in one batch by a join, before adaptive resizing
+     */
+    public Integer getBindingSetBatchSize() {
+        return getInt(CONF_BINDINGSET_BATCH_SIZE, 1000);
+    }
+
+    public void setBindingSetBatchSize(Integer batchSize) {
+        Preconditions.checkNotNull(batchSize);
+        Preconditions.checkArgument(batchSize > 0, "Batch Size must be greater than 0");
+        setInt(CONF_BINDINGSET_BATCH_SIZE, batchSize);
+    }
+
+    /**
+     * @return the number of binding set batches a join keeps in flight, 1 evaluates one batch at a time
+     */
+    public Integer getBindingSetLookahead() {
+        return getInt(CONF_BINDINGSET_LOOKAHEAD, 2);
+    }
+
+    public void setBindingSetLookahead(Integer lookahead) {
+        Preconditions.checkNotNull(lookahead);
+        Preconditions.checkArgument(lookahead > 0, "lookahead must be greater than 0");
+        setInt(CONF_BINDINGSET_LOOKAHEAD, lookahead);
+    }
+
     public Long getOffset() {
         String val = get(CONF_OFFSET);
         if (val != null) {
@@ -290,6 +412,54 @@ public abstract class RdfCloudTripleStoreConfiguration extends Configuration {
     }
 
 
+    /**
+     * @return bytes of heap a hash join may use for its build side before it spills partitions to disk
+     */
+    public Long getHashJoinMaxMemory() {
+        return getLong(CONF_HASHJOIN_MAX_MEMORY, 64L * 1024 * 1024);
+    }
+
+    public void setHashJoinMaxMemory(Long maxMemory) {
+        Preconditions.checkNotNull(maxMemory);
+        Preconditions.checkArgument(maxMemory > 0, "maxMemory must be greater than 0");
+        setLong(CONF_HASHJOIN_MAX_MEMORY, maxMemory);
+    }
+
+    public String getJoinSpillDir() {
+        return get(CONF_JOIN_SPILL_DIR, System.getProperty("java.io.tmpdir"));
+    }
+
+    public void setJoinSpillDir(String spillDir) {
+        Preconditions.checkNotNull(spillDir);
+        set(CONF_JOIN_SPILL_DIR, spillDir);
+    }
+
+    /**
+     * @return the number of cardinalities the eval stats DAOs keep between queries
+     */
+    public Long getStatsCacheSize() {
+        return getLong(CONF_STATS_CACHE_SIZE, 10000L);
+    }
+
+    public void setStatsCacheSize(Long size) {
+        Preconditions.checkNotNull(size);
+        Preconditions.checkArgument(size >= 0, "size must be positive");
+        setLong(CONF_STATS_CACHE_SIZE, size);
+    }
+
+    /**
+     * @return milliseconds a cached cardinality is kept, best set to how often the stats are recomputed
+     */
+    public Long getStatsCacheExpiry() {
+        return getLong(CONF_STATS_CACHE_EXPIRY, 60L * 60 * 1000);
+    }
+
+    public void setStatsCacheExpiry(Long expiry) {
+        Preconditions.checkNotNull(expiry);
+        Preconditions.checkArgument(expiry >= 0, "expiry must be positive");
+        setLong(CONF_STATS_CACHE_EXPIRY, expiry);
+    }
+
     public Boolean isDisplayQueryPlan() {
         return getBoolean(CONF_QUERYPLAN_FLAG, false);
     }
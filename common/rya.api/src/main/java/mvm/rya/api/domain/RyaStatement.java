@@ -129,32 +129,33 @@ public class RyaStatement {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof RyaStatement)) return false;
 
+        //compared through the getters, so a subclass may decode its fields on demand
         RyaStatement that = (RyaStatement) o;
 
-        if (!Arrays.equals(columnVisibility, that.columnVisibility)) return false;
-        if (context != null ? !context.equals(that.context) : that.context != null) return false;
-        if (object != null ? !object.equals(that.object) : that.object != null) return false;
-        if (predicate != null ? !predicate.equals(that.predicate) : that.predicate != null) return false;
-        if (qualifer != null ? !qualifer.equals(that.qualifer) : that.qualifer != null) return false;
-        if (subject != null ? !subject.equals(that.subject) : that.subject != null) return false;
-        if (timestamp != null ? !timestamp.equals(that.timestamp) : that.timestamp != null) return false;
-        if (!Arrays.equals(value, that.value)) return false;
+        if (!Arrays.equals(getColumnVisibility(), that.getColumnVisibility())) return false;
+        if (getContext() != null ? !getContext().equals(that.getContext()) : that.getContext() != null) return false;
+        if (getObject() != null ? !getObject().equals(that.getObject()) : that.getObject() != null) return false;
+        if (getPredicate() != null ? !getPredicate().equals(that.getPredicate()) : that.getPredicate() != null) return false;
+        if (getQualifer() != null ? !getQualifer().equals(that.getQualifer()) : that.getQualifer() != null) return false;
+        if (getSubject() != null ? !getSubject().equals(that.getSubject()) : that.getSubject() != null) return false;
+        if (getTimestamp() != null ? !getTimestamp().equals(that.getTimestamp()) : that.getTimestamp() != null) return false;
+        if (!Arrays.equals(getValue(), that.getValue())) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = subject != null ? subject.hashCode() : 0;
-        result = 31 * result + (predicate != null ? predicate.hashCode() : 0);
-        result = 31 * result + (object != null ? object.hashCode() : 0);
-        result = 31 * result + (context != null ? context.hashCode() : 0);
-        result = 31 * result + (qualifer != null ? qualifer.hashCode() : 0);
-        result = 31 * result + (columnVisibility != null ? Arrays.hashCode(columnVisibility) : 0);
-        result = 31 * result + (value != null ? Arrays.hashCode(value) : 0);
-        result = 31 * result + (timestamp != null ? timestamp.hashCode() : 0);
+        int result = getSubject() != null ? getSubject().hashCode() : 0;
+        result = 31 * result + (getPredicate() != null ? getPredicate().hashCode() : 0);
+        result = 31 * result + (getObject() != null ? getObject().hashCode() : 0);
+        result = 31 * result + (getContext() != null ? getContext().hashCode() : 0);
+        result = 31 * result + (getQualifer() != null ? getQualifer().hashCode() : 0);
+        result = 31 * result + (getColumnVisibility() != null ? Arrays.hashCode(getColumnVisibility()) : 0);
+        result = 31 * result + (getValue() != null ? Arrays.hashCode(getValue()) : 0);
+        result = 31 * result + (getTimestamp() != null ? getTimestamp().hashCode() : 0);
         return result;
     }
 
@@ -0,0 +1,39 @@
+package mvm.rya.api.persist;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.Map;
+
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+
+/**
+ * An {@link RdfEvalStatsDAO} that can look up many cardinalities in one round trip, so that the query planner can
+ * fetch the cardinalities of every statement pattern of a query before it orders the joins.
+ */
+public interface BatchRdfEvalStatsDAO<C extends RdfCloudTripleStoreConfiguration> extends RdfEvalStatsDAO<C> {
+
+    /**
+     * @return the cardinality of each lookup, as {@link #getCardinality} would return it
+     */
+    public Map<CardinalityLookup, Double> getCardinalities(C conf, Collection<CardinalityLookup> lookups)
+            throws RdfDAOException;
+}
@@ -0,0 +1,88 @@
+package mvm.rya.api.persist;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.List;
+
+import mvm.rya.api.persist.RdfEvalStatsDAO.CARDINALITY_OF;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The arguments of one {@link RdfEvalStatsDAO#getCardinality(mvm.rya.api.RdfCloudTripleStoreConfiguration,
+ * CARDINALITY_OF, List, Resource)} call, so that lookups can be batched and cached.
+ */
+public class CardinalityLookup {
+
+    private final CARDINALITY_OF card;
+    private final List<Value> values;
+    private final Resource context;
+
+    public CardinalityLookup(CARDINALITY_OF card, List<Value> values, Resource context) {
+        Preconditions.checkNotNull(card);
+        Preconditions.checkArgument(values != null && !values.isEmpty(), "values must not be empty");
+        this.card = card;
+        this.values = Collections.unmodifiableList(values);
+        this.context = context;
+    }
+
+    public CARDINALITY_OF getCard() {
+        return card;
+    }
+
+    public List<Value> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the context, or null for all of them
+     */
+    public Resource getContext() {
+        return context;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CardinalityLookup)) {
+            return false;
+        }
+        CardinalityLookup other = (CardinalityLookup) o;
+        return card == other.card && values.equals(other.values) && Objects.equal(context, other.context);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(card, values, context);
+    }
+
+    @Override
+    public String toString() {
+        return card + " " + values + (context != null ? " " + context : "");
+    }
+}
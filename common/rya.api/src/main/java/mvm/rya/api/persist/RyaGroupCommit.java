@@ -0,0 +1,51 @@
+package mvm.rya.api.persist;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.concurrent.Future;
+
+import mvm.rya.api.domain.RyaStatement;
+
+/**
+ * Implemented by {@link RyaDAO}s that can commit added statements in groups instead of one call at a time.
+ * Statements handed to {@link #addAsync(Iterator)} are durable once the returned future completes, or once
+ * {@link #flush()} returns.
+ */
+public interface RyaGroupCommit {
+
+    /**
+     * Queue statements for the next group commit.
+     *
+     * @param statements
+     * @return completes when the group holding the statements has been committed, or fails with a
+     * {@link RyaDAOException} if the commit failed
+     * @throws RyaDAOException
+     */
+    public Future<Void> addAsync(Iterator<RyaStatement> statements) throws RyaDAOException;
+
+    /**
+     * Commit everything added so far, waiting until it is durable.
+     *
+     * @throws RyaDAOException
+     */
+    public void flush() throws RyaDAOException;
+}
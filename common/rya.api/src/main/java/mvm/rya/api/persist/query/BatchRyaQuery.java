@@ -33,8 +33,8 @@ public class BatchRyaQuery extends RyaQueryOptions {
     //queries
     private Iterable<RyaStatement> queries;
 
-    //maximum number of ranges before we use a batchScanner
-    private int maxRanges = 2;
+    //maximum number of ranges before we use a batchScanner, negative to let the query engine choose by cost
+    private int maxRanges = -1;
 
     public BatchRyaQuery(Iterable<RyaStatement> queries) {
         Preconditions.checkNotNull(queries, "RyaStatement queries cannot be null");
@@ -0,0 +1,165 @@
+package mvm.rya.api.persist.query;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Cancels one query, either when asked to or once its deadline has passed. The scanners, cursors and worker batches of
+ * the query {@link #register(Closeable) register} with it to be closed on cancel, and loops that produce results poll
+ * {@link #isCancelled()} so they stop between results. A query carries its cancellation in
+ * {@link mvm.rya.api.RdfCloudTripleStoreConfiguration#getCancellation()}.
+ */
+public class QueryCancellation {
+    private static final Logger logger = LoggerFactory.getLogger(QueryCancellation.class);
+
+    private final long deadline;
+    private final Set<Closeable> resources = Collections.newSetFromMap(new IdentityHashMap<Closeable, Boolean>());
+    private volatile boolean cancelled = false;
+    private volatile boolean timedOut = false;
+
+    /**
+     * A cancellation without a deadline.
+     */
+    public QueryCancellation() {
+        this.deadline = Long.MAX_VALUE;
+    }
+
+    /**
+     * @param timeout milliseconds from now until the query is cancelled
+     */
+    public QueryCancellation(long timeout) {
+        Preconditions.checkArgument(timeout >= 0, "timeout must be non negative");
+        long now = System.currentTimeMillis();
+        this.deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which the query is cancelled, Long.MAX_VALUE if never
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean hasDeadline() {
+        return deadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return milliseconds left until the deadline, 0 once it has passed
+     */
+    public long getRemaining() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * @return true once the query was cancelled or its deadline passed, cancelling it in the latter case
+     */
+    public boolean isCancelled() {
+        if (!cancelled && System.currentTimeMillis() >= deadline) {
+            timeout();
+        }
+        return cancelled;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return why the query stopped, for the exception thrown to its consumer
+     */
+    public String getReason() {
+        return timedOut ? "Query exceeded its deadline" : "Query cancelled";
+    }
+
+    /**
+     * Cancels the query because its deadline passed.
+     */
+    public void timeout() {
+        if (!cancelled) {
+            timedOut = true;
+        }
+        cancel();
+    }
+
+    /**
+     * Cancels the query and closes every registered resource. Later calls do nothing.
+     */
+    public void cancel() {
+        List<Closeable> toClose;
+        synchronized (resources) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = new ArrayList<Closeable>(resources);
+            resources.clear();
+        }
+        for (Closeable resource : toClose) {
+            close(resource);
+        }
+    }
+
+    /**
+     * Closes the resource when the query is cancelled, or right away if it already is.
+     */
+    public void register(Closeable resource) {
+        Preconditions.checkNotNull(resource);
+        synchronized (resources) {
+            if (!cancelled) {
+                resources.add(resource);
+                return;
+            }
+        }
+        close(resource);
+    }
+
+    /**
+     * Forgets a resource that was closed by its owner.
+     */
+    public void unregister(Closeable resource) {
+        synchronized (resources) {
+            resources.remove(resource);
+        }
+    }
+
+    private void close(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException e) {
+            logger.warn("Could not close resource of cancelled query", e);
+        } catch (RuntimeException e) {
+            logger.warn("Could not close resource of cancelled query", e);
+        }
+    }
+}
@@ -21,31 +21,43 @@ package mvm.rya.api.persist.query.join;
  */
 
 import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.ConvertingIteration;
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
-import mvm.rya.api.RdfCloudTripleStoreUtils;
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.domain.RyaType;
 import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.persist.RdfEvalStatsDAO;
 import mvm.rya.api.persist.RyaDAOException;
 import mvm.rya.api.persist.query.RyaQueryEngine;
 import mvm.rya.api.resolver.RyaContext;
-import mvm.rya.api.utils.EnumerationWrapper;
+import mvm.rya.api.resolver.RyaTypeResolverException;
 
-import java.util.Enumeration;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Use HashTable to do a HashJoin.
+ * Hybrid hash join of statements sharing a predicate or predicate/object. The inputs are ordered by the
+ * {@link RdfEvalStatsDAO} cardinalities when one is set, so the hash table is built on the smallest input, and the
+ * other inputs are streamed against it. Keys are kept as serialized bytes, and partitions that do not fit in
+ * {@link RdfCloudTripleStoreConfiguration#getHashJoinMaxMemory()} are spilled to
+ * {@link RdfCloudTripleStoreConfiguration#getJoinSpillDir()}.
  * <p/>
- * TODO: Somehow make a more streaming way of doing this hash join. This will not support large sets.
  * Date: 7/26/12
  * Time: 8:58 AM
  */
 public class HashJoin<C extends RdfCloudTripleStoreConfiguration> implements Join<C> {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_MAX_MEMORY = 64L * 1024 * 1024;
+
     private RyaContext ryaContext = RyaContext.getInstance();
     private RyaQueryEngine ryaQueryEngine;
+    private RdfEvalStatsDAO rdfEvalStatsDAO;
 
     public HashJoin() {
     }
@@ -56,95 +68,93 @@ public class HashJoin<C extends RdfCloudTripleStoreConfiguration> implements Joi
 
     @Override
     public CloseableIteration<RyaStatement, RyaDAOException> join(C conf, RyaURI... preds) throws RyaDAOException {
-        ConcurrentHashMap<Map.Entry<RyaURI, RyaType>, Integer> ht = new ConcurrentHashMap<Map.Entry<RyaURI, RyaType>, Integer>();
-        int count = 0;
-        boolean first = true;
-        for (RyaURI pred : preds) {
-            count++;
-            //query
-            CloseableIteration<RyaStatement, RyaDAOException> results = ryaQueryEngine.query(new RyaStatement(null, pred, null), null);
-            //add to hashtable
-            while (results.hasNext()) {
-                RyaStatement next = results.next();
-                RyaURI subject = next.getSubject();
-                RyaType object = next.getObject();
-                Map.Entry<RyaURI, RyaType> entry = new RdfCloudTripleStoreUtils.CustomEntry<RyaURI, RyaType>(subject, object);
-                if (!first) {
-                    if (!ht.containsKey(entry)) {
-                        continue; //not in join
-                    }
-                }
-                ht.put(entry, count);
-            }
-            //remove from hashtable values that are under count
-            if (first) {
-                first = false;
-            } else {
-                for (Map.Entry<Map.Entry<RyaURI, RyaType>, Integer> entry : ht.entrySet()) {
-                    if (entry.getValue() < count) {
-                        ht.remove(entry.getKey());
-                    }
+        RdfCloudTripleStoreConfiguration queryConf = queryConf(conf);
+        List<HybridHashIntersection.KeyInput> inputs = new ArrayList<HybridHashIntersection.KeyInput>();
+        for (final RyaURI pred : JoinStatistics.orderPredicates(rdfEvalStatsDAO, queryConf, preds)) {
+            inputs.add(new HybridHashIntersection.KeyInput() {
+                @Override
+                public CloseableIteration<byte[], RyaDAOException> open() throws RyaDAOException {
+                    CloseableIteration<RyaStatement, RyaDAOException> results = ryaQueryEngine.query(new RyaStatement(null, pred, null), null);
+                    return new ConvertingIteration<RyaStatement, byte[], RyaDAOException>(results) {
+                        @Override
+                        protected byte[] convert(RyaStatement statement) throws RyaDAOException {
+                            return subjectObjectKey(statement.getSubject(), statement.getObject());
+                        }
+                    };
                 }
-            }
+            });
         }
-        final Enumeration<Map.Entry<RyaURI, RyaType>> keys = ht.keys();
-        return new CloseableIteration<RyaStatement, RyaDAOException>() {
-            @Override
-            public void close() throws RyaDAOException {
-
-            }
-
+        CloseableIteration<byte[], RyaDAOException> keys = intersection(queryConf).intersect(inputs);
+        return new ConvertingIteration<byte[], RyaStatement, RyaDAOException>(keys) {
             @Override
-            public boolean hasNext() throws RyaDAOException {
-                return keys.hasMoreElements();
-            }
-
-            @Override
-            public RyaStatement next() throws RyaDAOException {
-                Map.Entry<RyaURI, RyaType> subjObj = keys.nextElement();
-                return new RyaStatement(subjObj.getKey(), null, subjObj.getValue());
-            }
-
-            @Override
-            public void remove() throws RyaDAOException {
-                keys.nextElement();
+            protected RyaStatement convert(byte[] key) throws RyaDAOException {
+                ByteBuffer buffer = ByteBuffer.wrap(key);
+                int subjectLength = buffer.getInt();
+                RyaURI subject = new RyaURI(new String(key, 4, subjectLength, UTF8));
+                try {
+                    RyaType object = ryaContext.deserialize(Arrays.copyOfRange(key, 4 + subjectLength, key.length));
+                    return new RyaStatement(subject, null, object);
+                } catch (RyaTypeResolverException e) {
+                    throw new RyaDAOException(e);
+                }
             }
         };
     }
 
     @Override
     public CloseableIteration<RyaURI, RyaDAOException> join(C conf, Map.Entry<RyaURI, RyaType>... predObjs) throws RyaDAOException {
-        ConcurrentHashMap<RyaURI, Integer> ht = new ConcurrentHashMap<RyaURI, Integer>();
-        int count = 0;
-        boolean first = true;
-        for (Map.Entry<RyaURI, RyaType> predObj : predObjs) {
-            count++;
-            RyaURI pred = predObj.getKey();
-            RyaType obj = predObj.getValue();
-            //query
-            CloseableIteration<RyaStatement, RyaDAOException> results = ryaQueryEngine.query(new RyaStatement(null, pred, obj), null);
-            //add to hashtable
-            while (results.hasNext()) {
-                RyaURI subject = results.next().getSubject();
-                if (!first) {
-                    if (!ht.containsKey(subject)) {
-                        continue; //not in join
-                    }
-                }
-                ht.put(subject, count);
-            }
-            //remove from hashtable values that are under count
-            if (first) {
-                first = false;
-            } else {
-                for (Map.Entry<RyaURI, Integer> entry : ht.entrySet()) {
-                    if (entry.getValue() < count) {
-                        ht.remove(entry.getKey());
-                    }
+        RdfCloudTripleStoreConfiguration queryConf = queryConf(conf);
+        List<HybridHashIntersection.KeyInput> inputs = new ArrayList<HybridHashIntersection.KeyInput>();
+        for (final Map.Entry<RyaURI, RyaType> predObj : JoinStatistics.orderPredicateObjects(rdfEvalStatsDAO, queryConf, predObjs)) {
+            inputs.add(new HybridHashIntersection.KeyInput() {
+                @Override
+                public CloseableIteration<byte[], RyaDAOException> open() throws RyaDAOException {
+                    CloseableIteration<RyaStatement, RyaDAOException> results = ryaQueryEngine.query(
+                            new RyaStatement(null, predObj.getKey(), predObj.getValue()), null);
+                    return new ConvertingIteration<RyaStatement, byte[], RyaDAOException>(results) {
+                        @Override
+                        protected byte[] convert(RyaStatement statement) throws RyaDAOException {
+                            return statement.getSubject().getData().getBytes(UTF8);
+                        }
+                    };
                 }
+            });
+        }
+        CloseableIteration<byte[], RyaDAOException> keys = intersection(queryConf).intersect(inputs);
+        return new ConvertingIteration<byte[], RyaURI, RyaDAOException>(keys) {
+            @Override
+            protected RyaURI convert(byte[] key) throws RyaDAOException {
+                return new RyaURI(new String(key, UTF8));
             }
+        };
+    }
+
+    /**
+     * Subject and object as one compact key: the length of the subject, the subject and the serialized object.
+     */
+    protected byte[] subjectObjectKey(RyaURI subject, RyaType object) throws RyaDAOException {
+        try {
+            byte[] subjectBytes = subject.getData().getBytes(UTF8);
+            byte[] objectBytes = ryaContext.serialize(object);
+            return ByteBuffer.allocate(4 + subjectBytes.length + objectBytes.length)
+                    .putInt(subjectBytes.length).put(subjectBytes).put(objectBytes).array();
+        } catch (RyaTypeResolverException e) {
+            throw new RyaDAOException(e);
+        }
+    }
+
+    protected RdfCloudTripleStoreConfiguration queryConf(C conf) {
+        if (conf != null) {
+            return conf;
+        }
+        return (ryaQueryEngine != null) ? ryaQueryEngine.getConf() : null;
+    }
+
+    protected HybridHashIntersection intersection(RdfCloudTripleStoreConfiguration conf) {
+        if (conf == null) {
+            return new HybridHashIntersection(DEFAULT_MAX_MEMORY, null);
         }
-        return new EnumerationWrapper<RyaURI, RyaDAOException>(ht.keys());
+        return new HybridHashIntersection(conf.getHashJoinMaxMemory(), new File(conf.getJoinSpillDir()));
     }
 
     public RyaQueryEngine getRyaQueryEngine() {
@@ -154,4 +164,12 @@ public class HashJoin<C extends RdfCloudTripleStoreConfiguration> implements Joi
     public void setRyaQueryEngine(RyaQueryEngine ryaQueryEngine) {
         this.ryaQueryEngine = ryaQueryEngine;
     }
+
+    public RdfEvalStatsDAO getRdfEvalStatsDAO() {
+        return rdfEvalStatsDAO;
+    }
+
+    public void setRdfEvalStatsDAO(RdfEvalStatsDAO rdfEvalStatsDAO) {
+        this.rdfEvalStatsDAO = rdfEvalStatsDAO;
+    }
 }
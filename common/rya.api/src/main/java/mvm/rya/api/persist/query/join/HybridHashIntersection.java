@@ -0,0 +1,441 @@
+package mvm.rya.api.persist.query.join;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import mvm.rya.api.persist.RyaDAOException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Intersects streams of serialized keys with a hybrid hash join. The first input is the build side and is hashed into
+ * partitions held in memory. When the memory budget is exceeded the largest partition is spilled to a local file, and
+ * every later key of that partition, from the build or the probe inputs, is appended to a per input file instead.
+ * Probe inputs are streamed once and never held in memory. Spilled partitions are joined recursively, with a
+ * different hash seed, when the in memory results have been consumed.
+ * <p/>
+ * Callers should pass the smallest input first.
+ */
+public class HybridHashIntersection {
+
+    public static final int NUM_PARTITIONS = 16;
+    private static final int MAX_DEPTH = 4;
+    //rough per entry cost of a HashMap entry, the key wrapper and the boxed count
+    private static final long ENTRY_OVERHEAD = 80;
+
+    /**
+     * A restartable source of keys, opened once per join.
+     */
+    public interface KeyInput {
+        CloseableIteration<byte[], RyaDAOException> open() throws RyaDAOException;
+    }
+
+    private final long maxMemory;
+    private final File spillDir;
+
+    public HybridHashIntersection(long maxMemory, File spillDir) {
+        Preconditions.checkArgument(maxMemory > 0, "maxMemory must be greater than 0");
+        this.maxMemory = maxMemory;
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * @param inputs key inputs, the first one is used to build the hash table
+     * @return the keys present in every input, each returned once
+     */
+    public CloseableIteration<byte[], RyaDAOException> intersect(List<? extends KeyInput> inputs) throws RyaDAOException {
+        Preconditions.checkNotNull(inputs);
+        Preconditions.checkArgument(inputs.size() > 0, "Must join 1 or more");
+        return intersect(inputs, 0);
+    }
+
+    private CloseableIteration<byte[], RyaDAOException> intersect(List<? extends KeyInput> inputs, int depth) throws RyaDAOException {
+        long budget = depth >= MAX_DEPTH ? Long.MAX_VALUE : maxMemory; //skewed keys cannot be split any further
+        PartitionTable table = new PartitionTable(inputs.size(), depth, budget);
+        try {
+            table.build(inputs.get(0));
+            for (int i = 1; i < inputs.size(); i++) {
+                table.probe(inputs.get(i), i);
+            }
+            table.finishSpills();
+        } catch (RyaDAOException e) {
+            table.delete();
+            throw e;
+        } catch (IOException e) {
+            table.delete();
+            throw new RyaDAOException(e);
+        }
+        return new ResultIteration(table, depth);
+    }
+
+    private class PartitionTable {
+        private final int numInputs;
+        private final HashFunction hash;
+        private final long budget;
+        private final List<Map<ByteArrayKey, Integer>> partitions = new ArrayList<Map<ByteArrayKey, Integer>>(NUM_PARTITIONS);
+        private final long[] partitionMemory = new long[NUM_PARTITIONS];
+        private final SpillFile[][] spills;
+        private long memory = 0;
+
+        private PartitionTable(int numInputs, int depth, long budget) {
+            this.numInputs = numInputs;
+            this.hash = Hashing.murmur3_32(depth);
+            this.budget = budget;
+            this.spills = new SpillFile[NUM_PARTITIONS][];
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                partitions.add(new HashMap<ByteArrayKey, Integer>());
+            }
+        }
+
+        private int partition(byte[] key) {
+            return (hash.hashBytes(key).asInt() & Integer.MAX_VALUE) % NUM_PARTITIONS;
+        }
+
+        private void build(KeyInput input) throws RyaDAOException, IOException {
+            CloseableIteration<byte[], RyaDAOException> keys = input.open();
+            try {
+                while (keys.hasNext()) {
+                    byte[] key = keys.next();
+                    int p = partition(key);
+                    if (spills[p] != null) {
+                        spills[p][0].write(key);
+                        continue;
+                    }
+                    if (partitions.get(p).put(new ByteArrayKey(key), 1) == null) {
+                        long size = key.length + ENTRY_OVERHEAD;
+                        partitionMemory[p] += size;
+                        memory += size;
+                        if (memory > budget) {
+                            spillLargest();
+                        }
+                    }
+                }
+            } finally {
+                keys.close();
+            }
+        }
+
+        private void spillLargest() throws IOException {
+            int largest = -1;
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (spills[p] == null && (largest < 0 || partitionMemory[p] > partitionMemory[largest])) {
+                    largest = p;
+                }
+            }
+            if (largest < 0) {
+                return;
+            }
+            spills[largest] = new SpillFile[numInputs];
+            SpillFile buildFile = spills[largest][0] = new SpillFile(spillDir);
+            for (ByteArrayKey key : partitions.get(largest).keySet()) {
+                buildFile.write(key.bytes);
+            }
+            partitions.get(largest).clear();
+            memory -= partitionMemory[largest];
+            partitionMemory[largest] = 0;
+        }
+
+        private void probe(KeyInput input, int index) throws RyaDAOException, IOException {
+            CloseableIteration<byte[], RyaDAOException> keys = input.open();
+            try {
+                while (keys.hasNext()) {
+                    byte[] key = keys.next();
+                    int p = partition(key);
+                    if (spills[p] != null) {
+                        if (spills[p][index] == null) {
+                            spills[p][index] = new SpillFile(spillDir);
+                        }
+                        spills[p][index].write(key);
+                        continue;
+                    }
+                    ByteArrayKey wrapped = new ByteArrayKey(key);
+                    Integer matched = partitions.get(p).get(wrapped);
+                    if (matched != null && matched == index) {
+                        partitions.get(p).put(wrapped, index + 1);
+                    }
+                }
+            } finally {
+                keys.close();
+            }
+        }
+
+        private void finishSpills() throws IOException {
+            for (SpillFile[] files : spills) {
+                if (files == null) {
+                    continue;
+                }
+                for (SpillFile file : files) {
+                    if (file != null) {
+                        file.finish();
+                    }
+                }
+            }
+        }
+
+        private void delete() {
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                deleteSpill(p);
+            }
+        }
+
+        private void deleteSpill(int p) {
+            if (spills[p] == null) {
+                return;
+            }
+            for (SpillFile file : spills[p]) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+            spills[p] = null;
+        }
+    }
+
+    /**
+     * Streams the in memory matches, then joins each spilled partition in turn.
+     */
+    private class ResultIteration implements CloseableIteration<byte[], RyaDAOException> {
+        private final PartitionTable table;
+        private final int depth;
+        private int partition = 0;
+        private Iterator<Map.Entry<ByteArrayKey, Integer>> memoryIter;
+        private int spilledPartition = 0;
+        private CloseableIteration<byte[], RyaDAOException> spillIter;
+        private byte[] next;
+        private boolean closed = false;
+
+        private ResultIteration(PartitionTable table, int depth) {
+            this.table = table;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean hasNext() throws RyaDAOException {
+            if (next == null && !closed) {
+                next = computeNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() throws RyaDAOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] result = next;
+            next = null;
+            return result;
+        }
+
+        private byte[] computeNext() throws RyaDAOException {
+            while (partition < NUM_PARTITIONS) {
+                if (memoryIter == null) {
+                    memoryIter = table.partitions.get(partition).entrySet().iterator();
+                }
+                while (memoryIter.hasNext()) {
+                    Map.Entry<ByteArrayKey, Integer> entry = memoryIter.next();
+                    memoryIter.remove();
+                    if (entry.getValue() == table.numInputs) {
+                        return entry.getKey().bytes;
+                    }
+                }
+                memoryIter = null;
+                partition++;
+            }
+            while (true) {
+                if (spillIter != null) {
+                    if (spillIter.hasNext()) {
+                        return spillIter.next();
+                    }
+                    spillIter.close();
+                    spillIter = null;
+                    table.deleteSpill(spilledPartition - 1);
+                }
+                if (spilledPartition >= NUM_PARTITIONS) {
+                    return null;
+                }
+                int p = spilledPartition++;
+                SpillFile[] files = table.spills[p];
+                if (files == null) {
+                    continue;
+                }
+                List<SpillFile> inputs = Arrays.asList(files);
+                if (inputs.contains(null)) {
+                    //some input had no key in this partition, so nothing in it can match
+                    table.deleteSpill(p);
+                    continue;
+                }
+                spillIter = intersect(inputs, depth + 1);
+            }
+        }
+
+        @Override
+        public void remove() throws RyaDAOException {
+            throw new UnsupportedOperationException("Remove not supported");
+        }
+
+        @Override
+        public void close() throws RyaDAOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (spillIter != null) {
+                    spillIter.close();
+                }
+            } finally {
+                table.delete();
+                for (Map<ByteArrayKey, Integer> map : table.partitions) {
+                    map.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Length prefixed keys appended to a local temp file.
+     */
+    private static class SpillFile implements KeyInput {
+        private final File file;
+        private DataOutputStream out;
+
+        private SpillFile(File dir) throws IOException {
+            this.file = File.createTempFile("rya-hashjoin", ".spill", dir);
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        }
+
+        private void write(byte[] key) throws IOException {
+            out.writeInt(key.length);
+            out.write(key);
+        }
+
+        private void finish() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+        private void delete() {
+            try {
+                finish();
+            } catch (IOException ignore) {
+            }
+            file.delete();
+        }
+
+        @Override
+        public CloseableIteration<byte[], RyaDAOException> open() throws RyaDAOException {
+            final DataInputStream in;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            } catch (IOException e) {
+                throw new RyaDAOException(e);
+            }
+            return new CloseableIteration<byte[], RyaDAOException>() {
+                private byte[] next;
+                private boolean done = false;
+
+                @Override
+                public boolean hasNext() throws RyaDAOException {
+                    if (next == null && !done) {
+                        try {
+                            int length = in.readInt();
+                            next = new byte[length];
+                            in.readFully(next);
+                        } catch (EOFException e) {
+                            done = true;
+                        } catch (IOException e) {
+                            throw new RyaDAOException(e);
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public byte[] next() throws RyaDAOException {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    byte[] result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void remove() throws RyaDAOException {
+                    throw new UnsupportedOperationException("Remove not supported");
+                }
+
+                @Override
+                public void close() throws RyaDAOException {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new RyaDAOException(e);
+                    }
+                }
+            };
+        }
+    }
+
+    private static class ByteArrayKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        private ByteArrayKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ByteArrayKey && Arrays.equals(bytes, ((ByteArrayKey) o).bytes);
+        }
+    }
+}
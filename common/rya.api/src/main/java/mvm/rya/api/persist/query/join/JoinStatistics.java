@@ -0,0 +1,112 @@
+package mvm.rya.api.persist.query.join;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.persist.RdfDAOException;
+import mvm.rya.api.persist.RdfEvalStatsDAO;
+import mvm.rya.api.persist.RdfEvalStatsDAO.CARDINALITY_OF;
+import mvm.rya.api.resolver.RyaToRdfConversions;
+
+import org.openrdf.model.Value;
+
+/**
+ * Orders join inputs from the smallest to the largest, using the cardinalities in a {@link RdfEvalStatsDAO}.
+ * Inputs without statistics keep their relative order after the ones that have them.
+ */
+final class JoinStatistics {
+
+    private JoinStatistics() {
+    }
+
+    public static RyaURI[] orderPredicates(RdfEvalStatsDAO statsDAO, RdfCloudTripleStoreConfiguration conf, RyaURI... preds) {
+        if (statsDAO == null || conf == null || preds.length < 2) {
+            return preds;
+        }
+        List<Cardinality<RyaURI>> cards = new ArrayList<Cardinality<RyaURI>>(preds.length);
+        for (RyaURI pred : preds) {
+            List<Value> values = Arrays.<Value>asList(RyaToRdfConversions.convertURI(pred));
+            cards.add(new Cardinality<RyaURI>(pred, cardinality(statsDAO, conf, CARDINALITY_OF.PREDICATE, values)));
+        }
+        List<RyaURI> ordered = sort(cards);
+        return ordered.toArray(new RyaURI[ordered.size()]);
+    }
+
+    public static Map.Entry<RyaURI, RyaType>[] orderPredicateObjects(RdfEvalStatsDAO statsDAO, RdfCloudTripleStoreConfiguration conf,
+                                                                     Map.Entry<RyaURI, RyaType>... predObjs) {
+        if (statsDAO == null || conf == null || predObjs.length < 2) {
+            return predObjs;
+        }
+        List<Cardinality<Map.Entry<RyaURI, RyaType>>> cards = new ArrayList<Cardinality<Map.Entry<RyaURI, RyaType>>>(predObjs.length);
+        for (Map.Entry<RyaURI, RyaType> predObj : predObjs) {
+            List<Value> values = Arrays.asList((Value) RyaToRdfConversions.convertURI(predObj.getKey()),
+                    RyaToRdfConversions.convertValue(predObj.getValue()));
+            cards.add(new Cardinality<Map.Entry<RyaURI, RyaType>>(predObj,
+                    cardinality(statsDAO, conf, CARDINALITY_OF.PREDICATEOBJECT, values)));
+        }
+        List<Map.Entry<RyaURI, RyaType>> ordered = sort(cards);
+        return ordered.toArray(predObjs.clone());
+    }
+
+    private static double cardinality(RdfEvalStatsDAO statsDAO, RdfCloudTripleStoreConfiguration conf, CARDINALITY_OF card, List<Value> values) {
+        try {
+            double cardinality = statsDAO.getCardinality(conf, card, values);
+            //the stats daos return negative values when nothing has been counted
+            return cardinality < 0 ? Double.MAX_VALUE : cardinality;
+        } catch (RdfDAOException e) {
+            return Double.MAX_VALUE;
+        }
+    }
+
+    private static <T> List<T> sort(List<Cardinality<T>> cards) {
+        //Collections.sort is stable, so inputs without statistics keep their order
+        Collections.sort(cards, new Comparator<Cardinality<T>>() {
+            @Override
+            public int compare(Cardinality<T> c1, Cardinality<T> c2) {
+                return Double.compare(c1.cardinality, c2.cardinality);
+            }
+        });
+        List<T> ordered = new ArrayList<T>(cards.size());
+        for (Cardinality<T> card : cards) {
+            ordered.add(card.input);
+        }
+        return ordered;
+    }
+
+    private static class Cardinality<T> {
+        private final T input;
+        private final double cardinality;
+
+        private Cardinality(T input, double cardinality) {
+            this.input = input;
+            this.cardinality = cardinality;
+        }
+    }
+}
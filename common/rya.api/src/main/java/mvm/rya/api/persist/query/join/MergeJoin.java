@@ -21,27 +21,50 @@ package mvm.rya.api.persist.query.join;
  */
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
 import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.EmptyIteration;
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
 import mvm.rya.api.domain.*;
+import mvm.rya.api.persist.RdfEvalStatsDAO;
 import mvm.rya.api.persist.RyaDAOException;
 import mvm.rya.api.persist.query.RyaQueryEngine;
 import mvm.rya.api.resolver.RyaContext;
-import mvm.rya.api.utils.PeekingCloseableIteration;
+import mvm.rya.api.resolver.RyaTypeResolverException;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
+ * Leapfrog merge join over sorted scans. The inputs are ordered by the {@link RdfEvalStatsDAO} cardinalities when one
+ * is set, and every input skips ahead to the largest key seen so far. A subject input that is more than a few entries
+ * behind reseeks its scanner to that key instead of stepping through the entries in between.
+ * <p/>
+ * The keys are the bytes the tables sort on. Once all inputs reach the same key, the run of entries with that key is
+ * read from each input and the results are picked from the runs, so entries that share a key but differ otherwise,
+ * like objects with the same data and different datatypes, are matched exactly.
+ * <p/>
  * Date: 7/24/12
  * Time: 8:52 AM
  */
 public class MergeJoin<C extends RdfCloudTripleStoreConfiguration> implements Join<C> {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+    //entries stepped through before an input reseeks its scanner
+    private static final int GALLOP_STEPS = 8;
+
     private RyaContext ryaContext = RyaContext.getInstance();
     private RyaQueryEngine ryaQueryEngine;
+    private RdfEvalStatsDAO rdfEvalStatsDAO;
 
     public MergeJoin() {
     }
@@ -61,74 +84,46 @@ public class MergeJoin<C extends RdfCloudTripleStoreConfiguration> implements Jo
             throws RyaDAOException {
         Preconditions.checkNotNull(preds);
         Preconditions.checkArgument(preds.length > 1, "Must join 2 or more");
-        //TODO: Reorder predObjs based on statistics
-        final List<CloseableIteration<RyaStatement, RyaDAOException>> iters = new ArrayList<CloseableIteration<RyaStatement, RyaDAOException>>();
         for (RyaURI predicate : preds) {
             Preconditions.checkArgument(predicate != null && !(predicate instanceof RyaRange));
-
-            CloseableIteration<RyaStatement, RyaDAOException> iter = ryaQueryEngine.query(new RyaStatement(null, predicate, null), conf);
-            iters.add(iter);
         }
-        Preconditions.checkArgument(iters.size() > 1, "Must join 2 or more");
-
-        final CloseableIteration<RyaStatement, RyaDAOException> first = iters.remove(0);
-
-        //perform merge operation
-
-        return new CloseableIteration<RyaStatement, RyaDAOException>() {
-
-            private RyaStatement first_stmt;
-            private RyaType first_obj;
-
-            @Override
-            public void close() throws RyaDAOException {
-                for (CloseableIteration<RyaStatement, RyaDAOException> iter : iters) {
-                    iter.close();
-                }
+        int result = -1;
+        final List<Cursor> inputs = new ArrayList<Cursor>();
+        for (RyaURI predicate : JoinStatistics.orderPredicates(rdfEvalStatsDAO, queryConf(conf), preds)) {
+            ObjectCursor cursor = new ObjectCursor(predicate, conf);
+            inputs.add(cursor);
+            if (result < 0 && predicate.equals(preds[0])) {
+                //statements are returned from the first input, as before the inputs were reordered
+                result = inputs.size() - 1;
             }
-
-            @Override
-            public boolean hasNext() throws RyaDAOException {
-                return first_stmt != null || check();
+            if (!cursor.next()) {
+                closeAll(inputs);
+                return new EmptyIteration<RyaStatement, RyaDAOException>();
             }
+        }
 
+        final int resultInput = result;
+        return new LeapfrogIteration<RyaStatement>(inputs) {
             @Override
-            public RyaStatement next() throws RyaDAOException {
-                if (first_stmt != null) {
-                    RyaStatement temp = first_stmt;
-                    first_stmt = null;
-                    return temp;
-                }
-                if (check()) {
-                    RyaStatement temp = first_stmt;
-                    first_stmt = null;
-                    return temp;
+            protected void results(List<List<RyaStatement>> runs, List<RyaStatement> results) {
+                //the runs share the object data, only the objects found in every run match
+                List<Set<RyaType>> objects = new ArrayList<Set<RyaType>>(runs.size());
+                for (List<RyaStatement> run : runs) {
+                    Set<RyaType> runObjects = new HashSet<RyaType>();
+                    for (RyaStatement statement : run) {
+                        runObjects.add(statement.getObject());
+                    }
+                    objects.add(runObjects);
                 }
-                return null;
-            }
-
-            @Override
-            public void remove() throws RyaDAOException {
-                this.next();
-            }
-
-            protected boolean check() throws RyaDAOException {
-                if (!first.hasNext()) return false;
-                first_stmt = first.next();
-                first_obj = first_stmt.getObject();
-                for (CloseableIteration<RyaStatement, RyaDAOException> iter : iters) {
-                    if (!iter.hasNext()) return false; //no more left to join
-                    RyaType iter_obj = iter.next().getObject();
-                    while (first_obj.compareTo(iter_obj) < 0) {
-                        if (!first.hasNext()) return false;
-                        first_obj = first.next().getObject();
+                for (RyaStatement statement : runs.get(resultInput)) {
+                    boolean matches = true;
+                    for (Set<RyaType> runObjects : objects) {
+                        matches &= runObjects.contains(statement.getObject());
                     }
-                    while (first_obj.compareTo(iter_obj) > 0) {
-                        if (!iter.hasNext()) return false;
-                        iter_obj = iter.next().getObject();
+                    if (matches) {
+                        results.add(statement);
                     }
                 }
-                return true;
             }
         };
     }
@@ -146,91 +141,292 @@ public class MergeJoin<C extends RdfCloudTripleStoreConfiguration> implements Jo
             throws RyaDAOException {
         Preconditions.checkNotNull(predObjs);
         Preconditions.checkArgument(predObjs.length > 1, "Must join 2 or more");
-
-        //TODO: Reorder predObjs based on statistics
-        final List<CloseableIteration<RyaStatement, RyaDAOException>> iters = new ArrayList<CloseableIteration<RyaStatement, RyaDAOException>>();
-        RyaURI earliest_subject = null;
         for (Map.Entry<RyaURI, RyaType> predObj : predObjs) {
-            RyaURI predicate = predObj.getKey();
-            RyaType object = predObj.getValue();
-            Preconditions.checkArgument(predicate != null && !(predicate instanceof RyaRange));
-            Preconditions.checkArgument(object != null && !(object instanceof RyaRange));
+            Preconditions.checkArgument(predObj.getKey() != null && !(predObj.getKey() instanceof RyaRange));
+            Preconditions.checkArgument(predObj.getValue() != null && !(predObj.getValue() instanceof RyaRange));
+        }
 
-            PeekingCloseableIteration<RyaStatement, RyaDAOException> iter = null;
-            if (earliest_subject == null) {
-                iter = new PeekingCloseableIteration<RyaStatement, RyaDAOException>(
-                        ryaQueryEngine.query(new RyaStatement(null, predicate, object), conf));
-            } else {
-                iter = new PeekingCloseableIteration<RyaStatement, RyaDAOException>(
-                        ryaQueryEngine.query(new RyaStatement(new RyaURIRange(earliest_subject, RyaURIRange.LAST_URI), predicate, object), conf));
-            }
-            if (!iter.hasNext()) {
+        final List<Cursor> inputs = new ArrayList<Cursor>();
+        byte[] earliest_subject = null;
+        for (Map.Entry<RyaURI, RyaType> predObj : JoinStatistics.orderPredicateObjects(rdfEvalStatsDAO, queryConf(conf), predObjs)) {
+            SubjectCursor cursor = new SubjectCursor(predObj.getKey(), predObj.getValue(), conf);
+            inputs.add(cursor);
+            //the most selective input goes first, so later inputs can start at its first subject
+            boolean found = (earliest_subject == null) ? cursor.next() : cursor.reseek(earliest_subject);
+            if (!found) {
+                closeAll(inputs);
                 return new EmptyIteration<RyaURI, RyaDAOException>();
             }
-            //setting up range to make performant query
-            earliest_subject = iter.peek().getSubject();
-            iters.add(iter);
+            earliest_subject = cursor.key;
         }
-        Preconditions.checkArgument(iters.size() > 1, "Must join 2 or more");
 
-        final CloseableIteration<RyaStatement, RyaDAOException> first = iters.remove(0);
+        return new LeapfrogIteration<RyaURI>(inputs) {
+            @Override
+            protected void results(List<List<RyaStatement>> runs, List<RyaURI> results) {
+                //the key is the whole subject
+                results.add(runs.get(0).get(0).getSubject());
+            }
+        };
+    }
 
-        //perform merge operation
+    protected RdfCloudTripleStoreConfiguration queryConf(C conf) {
+        if (conf != null) {
+            return conf;
+        }
+        return (ryaQueryEngine != null) ? ryaQueryEngine.getConf() : null;
+    }
 
-        return new CloseableIteration<RyaURI, RyaDAOException>() {
+    private static void closeAll(List<Cursor> cursors) throws RyaDAOException {
+        RyaDAOException error = null;
+        for (Cursor cursor : cursors) {
+            try {
+                cursor.close();
+            } catch (RyaDAOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
 
-            private RyaURI first_subj;
+    /**
+     * A sorted input positioned on its current statement, and the sort key of that statement.
+     */
+    private abstract class Cursor {
+        protected CloseableIteration<RyaStatement, RyaDAOException> iter;
+        protected RyaStatement current;
+        protected byte[] key;
+
+        protected abstract CloseableIteration<RyaStatement, RyaDAOException> open() throws RyaDAOException;
+
+        protected abstract byte[] key(RyaStatement statement) throws RyaDAOException;
+
+        /**
+         * Restarts the scan at the first entry with a key greater or equal to the target.
+         *
+         * @return false if this input cannot reseek
+         */
+        protected boolean reseek(byte[] target) throws RyaDAOException {
+            return false;
+        }
 
-            @Override
-            public void close() throws RyaDAOException {
-                for (CloseableIteration<RyaStatement, RyaDAOException> iter : iters) {
-                    iter.close();
+        protected boolean next() throws RyaDAOException {
+            if (iter == null) {
+                iter = open();
+            }
+            if (iter.hasNext()) {
+                current = iter.next();
+                key = key(current);
+                return true;
+            }
+            current = null;
+            key = null;
+            return false;
+        }
+
+        /**
+         * Moves to the first entry with a key greater or equal to the target, stepping a few entries before reseeking.
+         *
+         * @return false if the input is exhausted
+         */
+        protected boolean seek(byte[] target) throws RyaDAOException {
+            for (int i = 0; i < GALLOP_STEPS; i++) {
+                if (KEY_COMPARATOR.compare(key, target) >= 0) {
+                    return true;
+                }
+                if (!next()) {
+                    return false;
+                }
+            }
+            if (KEY_COMPARATOR.compare(key, target) >= 0) {
+                return true;
+            }
+            if (reseek(target)) {
+                return seek(target);
+            }
+            while (KEY_COMPARATOR.compare(key, target) < 0) {
+                if (!next()) {
+                    return false;
                 }
             }
+            return true;
+        }
 
-            @Override
-            public boolean hasNext() throws RyaDAOException {
-                return first_subj != null || check();
+        /**
+         * Reads the entries with the target key, leaving the input on the first entry past them.
+         */
+        protected List<RyaStatement> readRun(byte[] target) throws RyaDAOException {
+            List<RyaStatement> run = new ArrayList<RyaStatement>();
+            while (key != null && KEY_COMPARATOR.compare(key, target) == 0) {
+                run.add(current);
+                next();
             }
+            return run;
+        }
 
-            @Override
-            public RyaURI next() throws RyaDAOException {
-                if (first_subj != null) {
-                    RyaURI temp = first_subj;
-                    first_subj = null;
-                    return temp;
+        protected boolean isExhausted() {
+            return key == null;
+        }
+
+        protected void close() throws RyaDAOException {
+            if (iter != null) {
+                iter.close();
+            }
+        }
+    }
+
+    /**
+     * Statements with a predicate, sorted by object.
+     */
+    private class ObjectCursor extends Cursor {
+        private final RyaURI predicate;
+        private final C conf;
+
+        private ObjectCursor(RyaURI predicate, C conf) {
+            this.predicate = predicate;
+            this.conf = conf;
+        }
+
+        @Override
+        protected CloseableIteration<RyaStatement, RyaDAOException> open() throws RyaDAOException {
+            return ryaQueryEngine.query(new RyaStatement(null, predicate, null), conf);
+        }
+
+        @Override
+        protected byte[] key(RyaStatement statement) throws RyaDAOException {
+            try {
+                //the po table sorts on the object data, then the subject, and only then the datatype
+                byte[][] serialized = ryaContext.serializeType(statement.getObject());
+                if (serialized == null) {
+                    throw new RyaDAOException("No type resolver for " + statement.getObject());
                 }
-                if (check()) {
-                    RyaURI temp = first_subj;
-                    first_subj = null;
-                    return temp;
+                return serialized[0];
+            } catch (RyaTypeResolverException e) {
+                throw new RyaDAOException(e);
+            }
+        }
+    }
+
+    /**
+     * Subjects of statements with a predicate and object, sorted by subject.
+     */
+    private class SubjectCursor extends Cursor {
+        private final RyaURI predicate;
+        private final RyaType object;
+        private final C conf;
+
+        private SubjectCursor(RyaURI predicate, RyaType object, C conf) {
+            this.predicate = predicate;
+            this.object = object;
+            this.conf = conf;
+        }
+
+        @Override
+        protected CloseableIteration<RyaStatement, RyaDAOException> open() throws RyaDAOException {
+            return ryaQueryEngine.query(new RyaStatement(null, predicate, object), conf);
+        }
+
+        @Override
+        protected byte[] key(RyaStatement statement) {
+            return statement.getSubject().getData().getBytes(UTF8);
+        }
+
+        @Override
+        protected boolean reseek(byte[] target) throws RyaDAOException {
+            if (iter != null) {
+                iter.close();
+            }
+            RyaURI start = new RyaURI(new String(target, UTF8));
+            iter = ryaQueryEngine.query(new RyaStatement(new RyaURIRange(start, RyaURIRange.LAST_URI), predicate, object), conf);
+            return next();
+        }
+    }
+
+    /**
+     * Leapfrog intersection: the inputs are kept in a ring sorted by key, and the smallest one seeks to the largest key
+     * until all of them agree. Then the run of entries with that key is read from every input.
+     */
+    private abstract class LeapfrogIteration<T> implements CloseableIteration<T, RyaDAOException> {
+        private final List<Cursor> allCursors;
+        private final Cursor[] cursors;
+        private final LinkedList<T> pending = new LinkedList<T>();
+        private int p = 0;
+        private boolean done = false;
+
+        private LeapfrogIteration(List<Cursor> cursors) {
+            this.allCursors = cursors;
+            this.cursors = cursors.toArray(new Cursor[cursors.size()]);
+            sortCursors();
+        }
+
+        private void sortCursors() {
+            Arrays.sort(this.cursors, new Comparator<Cursor>() {
+                @Override
+                public int compare(Cursor c1, Cursor c2) {
+                    return KEY_COMPARATOR.compare(c1.key, c2.key);
                 }
-                return null;
+            });
+            p = 0;
+        }
+
+        /**
+         * Adds the results of one key.
+         *
+         * @param runs the entries with the key, one run per input in input order
+         */
+        protected abstract void results(List<List<RyaStatement>> runs, List<T> results);
+
+        @Override
+        public boolean hasNext() throws RyaDAOException {
+            while (pending.isEmpty() && !done) {
+                step();
             }
+            return !pending.isEmpty();
+        }
 
-            @Override
-            public void remove() throws RyaDAOException {
-                this.next();
-            }
-
-            protected boolean check() throws RyaDAOException {
-                if (!first.hasNext()) return false;
-                first_subj = first.next().getSubject();
-                for (CloseableIteration<RyaStatement, RyaDAOException> iter : iters) {
-                    if (!iter.hasNext()) return false; //no more left to join
-                    RyaURI iter_subj = iter.next().getSubject();
-                    while (first_subj.compareTo(iter_subj) < 0) {
-                        if (!first.hasNext()) return false;
-                        first_subj = first.next().getSubject();
-                    }
-                    while (first_subj.compareTo(iter_subj) > 0) {
-                        if (!iter.hasNext()) return false;
-                        iter_subj = iter.next().getSubject();
-                    }
+        @Override
+        public T next() throws RyaDAOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.removeFirst();
+        }
+
+        private void step() throws RyaDAOException {
+            int n = cursors.length;
+            Cursor least = cursors[p];
+            Cursor greatest = cursors[(p + n - 1) % n];
+            if (KEY_COMPARATOR.compare(least.key, greatest.key) == 0) {
+                byte[] match = greatest.key;
+                List<List<RyaStatement>> runs = new ArrayList<List<RyaStatement>>(allCursors.size());
+                for (Cursor cursor : allCursors) {
+                    runs.add(cursor.readRun(match));
+                    done |= cursor.isExhausted();
                 }
-                return true;
+                results(runs, pending);
+                if (!done) {
+                    sortCursors();
+                }
+                return;
             }
-        };
+            if (!least.seek(greatest.key)) {
+                done = true;
+            }
+            p = (p + 1) % n;
+        }
+
+        @Override
+        public void remove() throws RyaDAOException {
+            throw new UnsupportedOperationException("Remove not supported");
+        }
+
+        @Override
+        public void close() throws RyaDAOException {
+            done = true;
+            pending.clear();
+            closeAll(allCursors);
+        }
     }
 
     public RyaQueryEngine getRyaQueryEngine() {
@@ -240,4 +436,12 @@ public class MergeJoin<C extends RdfCloudTripleStoreConfiguration> implements Jo
     public void setRyaQueryEngine(RyaQueryEngine ryaQueryEngine) {
         this.ryaQueryEngine = ryaQueryEngine;
     }
+
+    public RdfEvalStatsDAO getRdfEvalStatsDAO() {
+        return rdfEvalStatsDAO;
+    }
+
+    public void setRdfEvalStatsDAO(RdfEvalStatsDAO rdfEvalStatsDAO) {
+        this.rdfEvalStatsDAO = rdfEvalStatsDAO;
+    }
 }
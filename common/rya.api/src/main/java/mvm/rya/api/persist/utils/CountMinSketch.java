@@ -0,0 +1,162 @@
+package mvm.rya.api.persist.utils;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Count-Min sketch of the frequencies of string keys. The estimate of a key is never below its real count, and exceeds
+ * it by at most {@link #errorBound()} with probability 1 - e<sup>-depth</sup>. Sketches of the same size merge by
+ * adding their counters.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final long[][] counts;
+    private long total;
+
+    public CountMinSketch(int depth, int width) {
+        Preconditions.checkArgument(depth > 0, "depth must be greater than 0");
+        Preconditions.checkArgument(width > 0, "width must be greater than 0");
+        this.depth = depth;
+        this.width = width;
+        this.counts = new long[depth][width];
+    }
+
+    public void add(String key, long count) {
+        long[] hash = hash(key);
+        for (int i = 0; i < depth; i++) {
+            counts[i][column(hash, i)] += count;
+        }
+        total += count;
+    }
+
+    public long estimate(String key) {
+        long[] hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counts[i][column(hash, i)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return how much an estimate may exceed the real count
+     */
+    public long errorBound() {
+        return (long) Math.ceil(Math.E * total / width);
+    }
+
+    /**
+     * @return the sum of all counts added
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void merge(CountMinSketch other) {
+        Preconditions.checkArgument(depth == other.depth && width == other.width,
+                "Cannot merge sketches of different sizes");
+        for (int i = 0; i < depth; i++) {
+            for (int j = 0; j < width; j++) {
+                counts[i][j] += other.counts[i][j];
+            }
+        }
+        total += other.total;
+    }
+
+    /**
+     * Writes the non-zero counters only, most of a sketch of a small data set is empty.
+     */
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, depth);
+        WritableUtils.writeVInt(out, width);
+        WritableUtils.writeVLong(out, total);
+        for (long[] row : counts) {
+            int nonZero = 0;
+            for (long count : row) {
+                if (count != 0) {
+                    nonZero++;
+                }
+            }
+            WritableUtils.writeVInt(out, nonZero);
+            int last = 0;
+            for (int j = 0; j < width; j++) {
+                if (row[j] != 0) {
+                    WritableUtils.writeVInt(out, j - last);
+                    WritableUtils.writeVLong(out, row[j]);
+                    last = j;
+                }
+            }
+        }
+    }
+
+    public static CountMinSketch read(DataInput in) throws IOException {
+        CountMinSketch sketch = new CountMinSketch(WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+        sketch.total = WritableUtils.readVLong(in);
+        for (long[] row : sketch.counts) {
+            int nonZero = WritableUtils.readVInt(in);
+            int column = 0;
+            for (int j = 0; j < nonZero; j++) {
+                column += WritableUtils.readVInt(in);
+                row[column] = WritableUtils.readVLong(in);
+            }
+        }
+        return sketch;
+    }
+
+    private int column(long[] hash, int row) {
+        return (int) (((hash[0] + row * hash[1]) & Long.MAX_VALUE) % width);
+    }
+
+    /**
+     * @return two independent 64 bit hashes of the key
+     */
+    static long[] hash(String key) {
+        byte[] bytes = Hashing.murmur3_128().hashBytes(key.getBytes(Charsets.UTF_8)).asBytes();
+        return new long[] { toLong(bytes, 0), toLong(bytes, 8) };
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+}
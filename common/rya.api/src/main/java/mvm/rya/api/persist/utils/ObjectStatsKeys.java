@@ -0,0 +1,115 @@
+package mvm.rya.api.persist.utils;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+/**
+ * Keys of the object cardinalities written by the prospector and read by the eval stats DAOs.
+ * <p>
+ * Objects are counted by {@link #objectKey(String) key} and datatype, and by key alone under the datatype
+ * {@link #ANY_DATATYPE}. Objects seen at least the configured number of times get an exact count row. Every object is
+ * also added to a count-min sketch of {@link #SKETCH_DEPTH} rows of {@link #SKETCH_WIDTH} counters, whose
+ * {@link #sketchCells(String, String) cells} are counted like any other prospect, so the less frequent objects get an
+ * estimate that is never below their real count.
+ */
+public class ObjectStatsKeys {
+
+    /** longer object values are replaced by their hash */
+    public static final int MAX_KEY_LENGTH = 128;
+    public static final String HASHED_KEY_PREFIX = "#";
+
+    public static final int SKETCH_DEPTH = 4;
+    public static final int SKETCH_WIDTH = 1 << 16;
+
+    /** datatype of the counts of an object across all datatypes */
+    public static final String ANY_DATATYPE = "";
+
+    /** prospect types and layout of the prospects table, see the prospector's CountPlan */
+    public static final String PROSPECTS_TABLE_SUFFIX = "prospects";
+    public static final String OBJECT_TYPE = "object";
+    public static final String OBJECT_SKETCH_TYPE = "objectsketch";
+    public static final String COUNT = "count";
+    public static final String METADATA = "metadata";
+    public static final String PROSPECT_TIME = "prospectTime";
+    public static final String DELIM = "\u0000";
+
+    /**
+     * @return the value itself if it is short enough, otherwise a fixed length hash of it
+     */
+    public static String objectKey(String data) {
+        if (data.length() <= MAX_KEY_LENGTH) {
+            return data;
+        }
+        StringBuilder sb = new StringBuilder(HASHED_KEY_PREFIX);
+        for (byte b : md5(data)) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the datatype an object value is counted under
+     */
+    public static String dataType(Value value) {
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            return literal.getDatatype() != null ? literal.getDatatype().stringValue() : XMLSchema.STRING.stringValue();
+        }
+        return XMLSchema.ANYURI.stringValue();
+    }
+
+    /**
+     * @return the sketch counter of each sketch row that the object key counts towards, as "row:column"
+     */
+    public static String[] sketchCells(String dataType, String key) {
+        byte[] hash = md5(dataType + DELIM + key);
+        int h1 = toInt(hash, 0);
+        int h2 = toInt(hash, 4);
+        String[] cells = new String[SKETCH_DEPTH];
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int column = ((h1 + i * h2) & Integer.MAX_VALUE) % SKETCH_WIDTH;
+            cells[i] = i + ":" + column;
+        }
+        return cells;
+    }
+
+    private static int toInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static byte[] md5(String data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
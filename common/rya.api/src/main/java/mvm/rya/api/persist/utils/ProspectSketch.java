@@ -0,0 +1,178 @@
+package mvm.rya.api.persist.utils;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import mvm.rya.api.persist.RdfEvalStatsDAO.CARDINALITY_OF;
+
+import org.apache.hadoop.io.Writable;
+import org.openrdf.model.Value;
+
+/**
+ * Statistics the prospector's approximate mode keeps instead of a count per value, see its SketchPlan.
+ * <p>
+ * For each cardinality type there is a {@link CountMinSketch} of the frequencies of the {@link #key(CARDINALITY_OF,
+ * List) keys} and a {@link TopCounts} summary that has the exact counts of the most frequent ones. For each predicate
+ * there are {@link HyperLogLog} estimates of its distinct subjects and objects. Each is stored in the prospects table
+ * in a row "type\0data\0reverse time" with the column family {@link #SKETCH_CF}, like the prospector's counts: the type
+ * sketches under {@link #SKETCH_TYPE} with the lower case cardinality type as data, the distinct counts under
+ * {@link #DISTINCT_TYPE} with the predicate as data.
+ */
+public class ProspectSketch implements Writable {
+
+    public static final String SKETCH_TYPE = "sketch";
+    public static final String DISTINCT_TYPE = "distinct";
+    public static final String SKETCH_CF = "sketch";
+
+    private static final int COUNTS = 1;
+    private static final int TOP = 2;
+    private static final int SUBJECTS = 4;
+    private static final int OBJECTS = 8;
+
+    private CountMinSketch counts;
+    private TopCounts top;
+    private HyperLogLog subjects;
+    private HyperLogLog objects;
+
+    public ProspectSketch() {
+    }
+
+    public static ProspectSketch counts(int depth, int width, int heavyHitters) {
+        ProspectSketch sketch = new ProspectSketch();
+        sketch.counts = new CountMinSketch(depth, width);
+        sketch.top = new TopCounts(heavyHitters);
+        return sketch;
+    }
+
+    public static ProspectSketch distinct(int precision) {
+        ProspectSketch sketch = new ProspectSketch();
+        sketch.subjects = new HyperLogLog(precision);
+        sketch.objects = new HyperLogLog(precision);
+        return sketch;
+    }
+
+    public void add(String key) {
+        counts.add(key, 1);
+        top.add(key, 1);
+    }
+
+    public void addDistinct(String subject, String object) {
+        subjects.add(subject);
+        objects.add(object);
+    }
+
+    public boolean isEmpty() {
+        return counts == null && subjects == null;
+    }
+
+    public void merge(ProspectSketch other) {
+        if (other.counts != null) {
+            if (counts == null) {
+                counts = new CountMinSketch(other.counts.getDepth(), other.counts.getWidth());
+                top = new TopCounts(other.top.getCapacity());
+            }
+            counts.merge(other.counts);
+            top.merge(other.top);
+        }
+        if (other.subjects != null) {
+            if (subjects == null) {
+                subjects = new HyperLogLog(other.subjects.getPrecision());
+                objects = new HyperLogLog(other.objects.getPrecision());
+            }
+            subjects.merge(other.subjects);
+            objects.merge(other.objects);
+        }
+    }
+
+    public CountMinSketch getCounts() {
+        return counts;
+    }
+
+    public TopCounts getTop() {
+        return top;
+    }
+
+    public HyperLogLog getSubjects() {
+        return subjects;
+    }
+
+    public HyperLogLog getObjects() {
+        return objects;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte((counts != null ? COUNTS | TOP : 0) | (subjects != null ? SUBJECTS | OBJECTS : 0));
+        if (counts != null) {
+            counts.write(out);
+            top.write(out);
+        }
+        if (subjects != null) {
+            subjects.write(out);
+            objects.write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int parts = in.readByte();
+        counts = (parts & COUNTS) != 0 ? CountMinSketch.read(in) : null;
+        top = (parts & TOP) != 0 ? TopCounts.read(in) : null;
+        subjects = (parts & SUBJECTS) != 0 ? HyperLogLog.read(in) : null;
+        objects = (parts & OBJECTS) != 0 ? HyperLogLog.read(in) : null;
+    }
+
+    /**
+     * @return the data of the type sketch of the cardinality type
+     */
+    public static String typeName(CARDINALITY_OF card) {
+        return card.name().toLowerCase();
+    }
+
+    /**
+     * @return the key an object is counted under, its datatype and its {@link ObjectStatsKeys#objectKey(String) key}
+     */
+    public static String objectKey(String dataType, String data) {
+        return dataType + ObjectStatsKeys.DELIM + ObjectStatsKeys.objectKey(data);
+    }
+
+    /**
+     * @return the key the values of a cardinality lookup are counted under in the type sketch
+     */
+    public static String key(CARDINALITY_OF card, List<Value> values) {
+        switch (card) {
+        case OBJECT:
+            return objectKey(ObjectStatsKeys.dataType(values.get(0)), values.get(0).stringValue());
+        case SUBJECTOBJECT:
+        case PREDICATEOBJECT:
+            return values.get(0).stringValue() + ObjectStatsKeys.DELIM
+                    + ObjectStatsKeys.objectKey(values.get(1).stringValue());
+        case SUBJECTPREDICATE:
+            return values.get(0).stringValue() + ObjectStatsKeys.DELIM + values.get(1).stringValue();
+        default:
+            return values.get(0).stringValue();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package mvm.rya.api.persist.utils;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts of the most frequent string keys, a Space-Saving summary that keeps about {@code capacity} keys.
+ * <p>
+ * Each key has a count that is never below its real count, and an error that the count may exceed it by. A key that
+ * is dropped to make room had a count of at most the summary's floor, and comes back with the floor as its count and
+ * error. Summaries merge by adding counts, a key missing from one summary taking that summary's floor. A key whose
+ * error is 0 has been counted exactly, as have all keys of a summary that never dropped one.
+ */
+public class TopCounts {
+
+    private static final Comparator<Map.Entry<String, long[]>> BY_COUNT = new Comparator<Map.Entry<String, long[]>>() {
+        @Override
+        public int compare(Map.Entry<String, long[]> e1, Map.Entry<String, long[]> e2) {
+            return e1.getValue()[0] < e2.getValue()[0] ? 1 : e1.getValue()[0] > e2.getValue()[0] ? -1 : 0;
+        }
+    };
+
+    private final int capacity;
+    /** count and error by key */
+    private final Map<String, long[]> counts = new HashMap<String, long[]>();
+    private long floor;
+
+    public TopCounts(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be greater than 0");
+        this.capacity = capacity;
+    }
+
+    public void add(String key, long count) {
+        long[] c = counts.get(key);
+        if (c == null) {
+            c = new long[] { floor, floor };
+            counts.put(key, c);
+        }
+        c[0] += count;
+        // trimmed in batches, so that adding stays cheap
+        if (counts.size() > 2 * capacity) {
+            trim();
+        }
+    }
+
+    public void merge(TopCounts other) {
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            if (!other.counts.containsKey(e.getKey())) {
+                e.getValue()[0] += other.floor;
+                e.getValue()[1] += other.floor;
+            }
+        }
+        for (Map.Entry<String, long[]> e : other.counts.entrySet()) {
+            long[] c = counts.get(e.getKey());
+            if (c == null) {
+                counts.put(e.getKey(), new long[] { floor + e.getValue()[0], floor + e.getValue()[1] });
+            } else {
+                c[0] += e.getValue()[0];
+                c[1] += e.getValue()[1];
+            }
+        }
+        floor += other.floor;
+        if (counts.size() > 2 * capacity) {
+            trim();
+        }
+    }
+
+    /**
+     * @return the count of the key if it was counted exactly, null otherwise
+     */
+    public Long getExactCount(String key) {
+        long[] c = counts.get(key);
+        if (c != null) {
+            return c[1] == 0 ? c[0] : null;
+        }
+        return floor == 0 ? 0L : null;
+    }
+
+    /**
+     * @return the keys that were counted exactly, most frequent first, with their counts
+     */
+    public Map<String, Long> getExactCounts() {
+        Map<String, Long> exact = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : sorted()) {
+            if (e.getValue()[1] == 0) {
+                exact.put(e.getKey(), e.getValue()[0]);
+            }
+        }
+        return exact;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Keeps the {@code capacity} most frequent keys.
+     */
+    public void trim() {
+        if (counts.size() <= capacity) {
+            return;
+        }
+        List<Map.Entry<String, long[]>> entries = sorted();
+        for (Map.Entry<String, long[]> e : entries.subList(capacity, entries.size())) {
+            floor = Math.max(floor, e.getValue()[0]);
+            counts.remove(e.getKey());
+        }
+    }
+
+    /**
+     * Trims the summary to its capacity before writing it.
+     */
+    public void write(DataOutput out) throws IOException {
+        trim();
+        WritableUtils.writeVInt(out, capacity);
+        WritableUtils.writeVLong(out, floor);
+        WritableUtils.writeVInt(out, counts.size());
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            out.writeUTF(e.getKey());
+            WritableUtils.writeVLong(out, e.getValue()[0]);
+            WritableUtils.writeVLong(out, e.getValue()[1]);
+        }
+    }
+
+    public static TopCounts read(DataInput in) throws IOException {
+        TopCounts top = new TopCounts(WritableUtils.readVInt(in));
+        top.floor = WritableUtils.readVLong(in);
+        int size = WritableUtils.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            top.counts.put(in.readUTF(), new long[] { WritableUtils.readVLong(in), WritableUtils.readVLong(in) });
+        }
+        return top;
+    }
+
+    private List<Map.Entry<String, long[]>> sorted() {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+        Collections.sort(entries, BY_COUNT);
+        return entries;
+    }
+}
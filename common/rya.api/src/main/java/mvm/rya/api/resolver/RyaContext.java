@@ -130,6 +130,24 @@ public class RyaContext {
         return null;
     }
 
+    /**
+     * Deserializes a value stored as separate data and type ranges of one array, as in the PO and OSP index rows.
+     * Resolvers that only understand whole arrays get a copy of the two ranges.
+     */
+    public RyaType deserialize(byte[] bytes, int dataOffset, int dataLength, int typeOffset, int typeLength) throws RyaTypeResolverException {
+        RyaTypeResolver ryaTypeResolver = retrieveResolver(bytes[typeOffset + typeLength - 1]);
+        if (ryaTypeResolver instanceof RyaTypeResolverImpl) {
+            return ((RyaTypeResolverImpl) ryaTypeResolver).deserialize(bytes, dataOffset, dataLength, typeOffset, typeLength);
+        }
+        if (ryaTypeResolver != null) {
+            byte[] value = new byte[dataLength + typeLength];
+            System.arraycopy(bytes, dataOffset, value, 0, dataLength);
+            System.arraycopy(bytes, typeOffset, value, dataLength, typeLength);
+            return ryaTypeResolver.deserialize(value);
+        }
+        return null;
+    }
+
     public void addRyaTypeResolverMapping(RyaTypeResolverMapping mapping) {
         if (!uriToResolver.containsKey(mapping.getRyaDataType())) {
             if (logger.isDebugEnabled()) {
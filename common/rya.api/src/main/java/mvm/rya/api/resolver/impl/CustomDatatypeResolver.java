@@ -40,8 +40,8 @@ public class CustomDatatypeResolver extends RyaTypeResolverImpl {
 
     @Override
     public byte[][] serializeType(RyaType ryaType) throws RyaTypeResolverException {
-        byte[] bytes = serializeData(ryaType.getData()).getBytes();
-        return new byte[][]{bytes, Bytes.concat(TYPE_DELIM_BYTES, ryaType.getDataType().stringValue().getBytes(), TYPE_DELIM_BYTES, markerBytes)};
+        byte[] bytes = serializeData(ryaType.getData()).getBytes(UTF8);
+        return new byte[][]{bytes, Bytes.concat(TYPE_DELIM_BYTES, ryaType.getDataType().stringValue().getBytes(UTF8), TYPE_DELIM_BYTES, markerBytes)};
     }
 
     @Override
@@ -55,14 +55,23 @@ public class CustomDatatypeResolver extends RyaTypeResolverImpl {
         if (!deserializable(bytes)) {
             throw new RyaTypeResolverException("Bytes not deserializable");
         }
-        RyaType rt = newInstance();
-        int length = bytes.length;
         int indexOfType = Bytes.indexOf(bytes, TYPE_DELIM_BYTE);
         if (indexOfType < 1) {
             throw new RyaTypeResolverException("Not a datatype literal");
         }
-        String label = deserializeData(new String(bytes, 0, indexOfType));
-        rt.setDataType(new URIImpl(new String(bytes, indexOfType + 1, (length - indexOfType) - 3)));
+        return deserialize(bytes, 0, indexOfType, indexOfType, bytes.length - indexOfType);
+    }
+
+    @Override
+    public RyaType deserialize(byte[] bytes, int dataOffset, int dataLength, int typeOffset, int typeLength) throws RyaTypeResolverException {
+        //type range is TYPE_DELIM, datatype, TYPE_DELIM, marker
+        if (typeLength < 3 || bytes[typeOffset] != TYPE_DELIM_BYTE || bytes[typeOffset + typeLength - 2] != TYPE_DELIM_BYTE
+                || bytes[typeOffset + typeLength - 1] != getMarkerByte()) {
+            throw new RyaTypeResolverException("Not a datatype literal");
+        }
+        RyaType rt = newInstance();
+        String label = deserializeData(new String(bytes, dataOffset, dataLength, UTF8));
+        rt.setDataType(new URIImpl(new String(bytes, typeOffset + 1, typeLength - 3, UTF8)));
         rt.setData(label);
         return rt;
     }
@@ -30,6 +30,8 @@ import org.calrissian.mango.types.TypeEncoder;
 import org.openrdf.model.URI;
 import org.openrdf.model.vocabulary.XMLSchema;
 
+import java.nio.charset.Charset;
+
 import static mvm.rya.api.RdfCloudTripleStoreConstants.TYPE_DELIM_BYTE;
 import static mvm.rya.api.RdfCloudTripleStoreConstants.TYPE_DELIM_BYTES;
 
@@ -41,6 +43,7 @@ public class RyaTypeResolverImpl implements RyaTypeResolver {
     public static final int PLAIN_LITERAL_MARKER = 3;
     public static final TypeEncoder<String, String> STRING_TYPE_ENCODER = LexiTypeEncoders
             .stringEncoder();
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
 
     protected byte markerByte;
     protected URI dataType;
@@ -78,7 +81,7 @@ public class RyaTypeResolverImpl implements RyaTypeResolver {
 
     @Override
     public byte[][] serializeType(RyaType ryaType) throws RyaTypeResolverException {
-        byte[] bytes = serializeData(ryaType.getData()).getBytes();
+        byte[] bytes = serializeData(ryaType.getData()).getBytes(UTF8);
         return new byte[][]{bytes, Bytes.concat(TYPE_DELIM_BYTES, markerBytes)};
     }
 
@@ -110,9 +113,21 @@ public class RyaTypeResolverImpl implements RyaTypeResolver {
         if (!deserializable(bytes)) {
             throw new RyaTypeResolverException("Bytes not deserializable");
         }
+        return deserialize(bytes, 0, bytes.length - 2, bytes.length - 2, 2);
+    }
+
+    /**
+     * Deserializes a value whose data and type suffix are ranges of a larger array, such as an index row, so the
+     * caller does not have to copy them out first. The type range starts at the {@code TYPE_DELIM_BYTE} and ends
+     * with the marker byte.
+     */
+    public RyaType deserialize(byte[] bytes, int dataOffset, int dataLength, int typeOffset, int typeLength) throws RyaTypeResolverException {
+        if (typeLength < 2 || bytes[typeOffset] != TYPE_DELIM_BYTE || bytes[typeOffset + typeLength - 1] != getMarkerByte()) {
+            throw new RyaTypeResolverException("Bytes not deserializable");
+        }
         RyaType rt = newInstance();
         rt.setDataType(getRyaDataType());
-        String data = new String(bytes, 0, bytes.length - 2);
+        String data = new String(bytes, dataOffset, dataLength, UTF8);
         rt.setData(deserializeData(data));
         return rt;
     }
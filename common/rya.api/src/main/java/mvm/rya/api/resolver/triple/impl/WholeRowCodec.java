@@ -0,0 +1,144 @@
+package mvm.rya.api.resolver.triple.impl;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.resolver.RyaContext;
+import mvm.rya.api.resolver.RyaTypeResolverException;
+import mvm.rya.api.resolver.triple.TripleRow;
+import mvm.rya.api.resolver.triple.TripleRowResolverException;
+
+import java.nio.charset.Charset;
+
+import static mvm.rya.api.RdfCloudTripleStoreConstants.*;
+
+/**
+ * Row layout shared by the whole row resolvers: the parts joined by {@code DELIM_BYTE}, followed by the object's
+ * type suffix. Rows are written into a single array sized up front, and read back by decoding straight from offsets
+ * in the row, so neither direction makes intermediate copies.
+ */
+final class WholeRowCodec {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private WholeRowCodec() {
+    }
+
+    static byte[] utf8(String value) {
+        return value == null ? EMPTY_BYTES : value.getBytes(UTF8);
+    }
+
+    /**
+     * @return parts[0] DELIM parts[1] ... DELIM parts[n] type
+     */
+    static byte[] row(byte[] type, byte[]... parts) {
+        int length = type.length + parts.length - 1;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] row = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                row[pos++] = DELIM_BYTE;
+            }
+            System.arraycopy(parts[i], 0, row, pos, parts[i].length);
+            pos += parts[i].length;
+        }
+        System.arraycopy(type, 0, row, pos, type.length);
+        return row;
+    }
+
+    /**
+     * Decodes the triple that starts at {@code start} in the row. Anything before it, like a hash prefix, is skipped.
+     */
+    static RyaStatement deserialize(TABLE_LAYOUT table_layout, TripleRow tripleRow, int start) throws TripleRowResolverException {
+        byte[] row = tripleRow.getRow();
+        int firstIndex = indexOf(row, start, DELIM_BYTE);
+        int secondIndex = lastIndexOf(row, start, DELIM_BYTE);
+        int typeIndex = indexOf(row, start, TYPE_DELIM_BYTE);
+        if (firstIndex < 0 || secondIndex <= firstIndex || typeIndex < secondIndex) {
+            throw new TripleRowResolverException("TripleRow[" + tripleRow + "] with Table layout[" + table_layout + "] is not deserializable");
+        }
+        int firstLength = firstIndex - start;
+        int secondLength = secondIndex - firstIndex - 1;
+        int thirdLength = typeIndex - secondIndex - 1;
+        int typeLength = row.length - typeIndex;
+
+        byte[] columnFamily = tripleRow.getColumnFamily();
+        boolean contextExists = columnFamily != null && columnFamily.length > 0;
+        RyaURI context = (contextExists) ? (new RyaURI(new String(columnFamily, UTF8))) : null;
+        byte[] columnQualifier = tripleRow.getColumnQualifier();
+        String qualifier = columnQualifier != null && columnQualifier.length > 0 ? new String(columnQualifier, UTF8) : null;
+        Long timestamp = tripleRow.getTimestamp();
+        byte[] columnVisibility = tripleRow.getColumnVisibility();
+        byte[] value = tripleRow.getValue();
+
+        try {
+            RyaContext ryaContext = RyaContext.getInstance();
+            switch (table_layout) {
+                case SPO: {
+                    RyaType obj = ryaContext.deserialize(row, secondIndex + 1, thirdLength, typeIndex, typeLength);
+                    return new RyaStatement(
+                            new RyaURI(new String(row, start, firstLength, UTF8)),
+                            new RyaURI(new String(row, firstIndex + 1, secondLength, UTF8)),
+                            obj, context, qualifier, columnVisibility, value, timestamp);
+                }
+                case PO: {
+                    RyaType obj = ryaContext.deserialize(row, firstIndex + 1, secondLength, typeIndex, typeLength);
+                    return new RyaStatement(
+                            new RyaURI(new String(row, secondIndex + 1, thirdLength, UTF8)),
+                            new RyaURI(new String(row, start, firstLength, UTF8)),
+                            obj, context, qualifier, columnVisibility, value, timestamp);
+                }
+                case OSP: {
+                    RyaType obj = ryaContext.deserialize(row, start, firstLength, typeIndex, typeLength);
+                    return new RyaStatement(
+                            new RyaURI(new String(row, firstIndex + 1, secondLength, UTF8)),
+                            new RyaURI(new String(row, secondIndex + 1, thirdLength, UTF8)),
+                            obj, context, qualifier, columnVisibility, value, timestamp);
+                }
+            }
+        } catch (RyaTypeResolverException e) {
+            throw new TripleRowResolverException(e);
+        }
+        throw new TripleRowResolverException("TripleRow[" + tripleRow + "] with Table layout[" + table_layout + "] is not deserializable");
+    }
+
+    private static int indexOf(byte[] row, int start, byte target) {
+        for (int i = start; i < row.length; i++) {
+            if (row[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] row, int start, byte target) {
+        for (int i = row.length - 1; i >= start; i--) {
+            if (row[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -20,8 +20,6 @@ package mvm.rya.api.resolver.triple.impl;
  * #L%
  */
 
-import com.google.common.primitives.Bytes;
-
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.domain.RyaType;
 import mvm.rya.api.domain.RyaURI;
@@ -33,11 +31,12 @@ import mvm.rya.api.resolver.triple.TripleRowResolverException;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 
 import static mvm.rya.api.RdfCloudTripleStoreConstants.*;
+import static mvm.rya.api.resolver.triple.impl.WholeRowCodec.row;
+import static mvm.rya.api.resolver.triple.impl.WholeRowCodec.utf8;
 
 /**
  * Will store triple in spo, po, osp. Storing everything in the whole row.
@@ -45,6 +44,7 @@ import static mvm.rya.api.RdfCloudTripleStoreConstants.*;
  * Time: 8:51 AM
  */
 public class WholeRowHashedTripleResolver implements TripleRowResolver {
+    private static final int HASH_LENGTH = 16;
 
     @Override
     public Map<TABLE_LAYOUT, TripleRow> serialize(RyaStatement stmt) throws TripleRowResolverException {
@@ -55,32 +55,25 @@ public class WholeRowHashedTripleResolver implements TripleRowResolver {
             RyaURI context = stmt.getContext();
             Long timestamp = stmt.getTimestamp();
             byte[] columnVisibility = stmt.getColumnVisibility();
-            String qualifer = stmt.getQualifer();
-            byte[] qualBytes = qualifer == null ? EMPTY_BYTES : qualifer.getBytes();
+            byte[] qualBytes = utf8(stmt.getQualifer());
             byte[] value = stmt.getValue();
             assert subject != null && predicate != null && object != null;
-            byte[] cf = (context == null) ? EMPTY_BYTES : context.getData().getBytes();
-            Map<TABLE_LAYOUT, TripleRow> tripleRowMap = new HashMap<TABLE_LAYOUT, TripleRow>();
+            byte[] cf = (context == null) ? EMPTY_BYTES : utf8(context.getData());
+            Map<TABLE_LAYOUT, TripleRow> tripleRowMap = new EnumMap<TABLE_LAYOUT, TripleRow>(TABLE_LAYOUT.class);
             MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] subjBytes = subject.getData().getBytes();
+            byte[] subjBytes = utf8(subject.getData());
             byte[] subjHashBytes = md.digest(subjBytes);
-            byte[] predBytes = predicate.getData().getBytes();
+            byte[] predBytes = utf8(predicate.getData());
             byte[] predHashBytes = md.digest(predBytes);
             byte[][] objBytes = RyaContext.getInstance().serializeType(object);
             tripleRowMap.put(TABLE_LAYOUT.SPO,
-                    new TripleRow(Bytes.concat(subjHashBytes, DELIM_BYTES, subjBytes, DELIM_BYTES,
-                            predBytes, DELIM_BYTES,
-                            objBytes[0], objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], subjHashBytes, subjBytes, predBytes, objBytes[0]), cf, qualBytes,
                             timestamp, columnVisibility, value));
             tripleRowMap.put(TABLE_LAYOUT.PO,
-                    new TripleRow(Bytes.concat(predHashBytes, DELIM_BYTES, predBytes, DELIM_BYTES,
-                            objBytes[0], DELIM_BYTES,
-                            subjBytes, objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], predHashBytes, predBytes, objBytes[0], subjBytes), cf, qualBytes,
                             timestamp, columnVisibility, value));
             tripleRowMap.put(TABLE_LAYOUT.OSP,
-                    new TripleRow(Bytes.concat(objBytes[0], DELIM_BYTES,
-                            subjBytes, DELIM_BYTES,
-                            predBytes, objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], objBytes[0], subjBytes, predBytes), cf, qualBytes,
                             timestamp, columnVisibility, value));
             return tripleRowMap;
         } catch (RyaTypeResolverException e) {
@@ -92,62 +85,10 @@ public class WholeRowHashedTripleResolver implements TripleRowResolver {
 
     @Override
     public RyaStatement deserialize(TABLE_LAYOUT table_layout, TripleRow tripleRow) throws TripleRowResolverException {
-        try {
-            assert tripleRow != null && table_layout != null;
-            byte[] row = tripleRow.getRow();
-            
-            // if it is a hashed row, ony keep the row after the hash
-            if ((table_layout == TABLE_LAYOUT.SPO) || (table_layout == TABLE_LAYOUT.PO)) {
-            	int hashStart = Bytes.indexOf(row, DELIM_BYTE);
-            	row = Arrays.copyOfRange(row, hashStart + 1, row.length);
-            }
-            
-            int firstIndex = Bytes.indexOf(row, DELIM_BYTE); 
-            byte[] first= Arrays.copyOf(row, firstIndex);
-            int secondIndex = Bytes.lastIndexOf(row, DELIM_BYTE);
-            int typeIndex = Bytes.indexOf(row, TYPE_DELIM_BYTE);
-            byte[] second = Arrays.copyOfRange(row, firstIndex + 1, secondIndex);
-            byte[] third = Arrays.copyOfRange(row, secondIndex + 1, typeIndex);
-            byte[] type = Arrays.copyOfRange(row, typeIndex, row.length);
-            byte[] columnFamily = tripleRow.getColumnFamily();
-            boolean contextExists = columnFamily != null && columnFamily.length > 0;
-            RyaURI context = (contextExists) ? (new RyaURI(new String(columnFamily))) : null;
-            byte[] columnQualifier = tripleRow.getColumnQualifier();
-            String qualifier = columnQualifier != null && columnQualifier.length > 0 ? new String(columnQualifier) : null;
-            Long timestamp = tripleRow.getTimestamp();
-            byte[] columnVisibility = tripleRow.getColumnVisibility();
-            byte[] value = tripleRow.getValue();
-
-            switch (table_layout) {
-                case SPO: {
-                    byte[] obj = Bytes.concat(third, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(first)),
-                            new RyaURI(new String(second)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-                case PO: {
-                    byte[] obj = Bytes.concat(second, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(third)),
-                            new RyaURI(new String(first)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-                case OSP: {
-                    byte[] obj = Bytes.concat(first, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(second)),
-                            new RyaURI(new String(third)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-            }
-        } catch (RyaTypeResolverException e) {
-            throw new TripleRowResolverException(e);
-        }
-        throw new TripleRowResolverException("TripleRow[" + tripleRow + "] with Table layout[" + table_layout + "] is not deserializable");
+        assert tripleRow != null && table_layout != null;
+        // if it is a hashed row, only decode the row after the md5 hash and its delimiter
+        int start = (table_layout == TABLE_LAYOUT.SPO || table_layout == TABLE_LAYOUT.PO) ? HASH_LENGTH + 1 : 0;
+        return WholeRowCodec.deserialize(table_layout, tripleRow, start);
     }
 
 }
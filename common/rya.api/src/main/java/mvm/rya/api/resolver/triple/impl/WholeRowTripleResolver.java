@@ -20,7 +20,6 @@ package mvm.rya.api.resolver.triple.impl;
  * #L%
  */
 
-import com.google.common.primitives.Bytes;
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.domain.RyaType;
 import mvm.rya.api.domain.RyaURI;
@@ -30,11 +29,12 @@ import mvm.rya.api.resolver.triple.TripleRow;
 import mvm.rya.api.resolver.triple.TripleRowResolver;
 import mvm.rya.api.resolver.triple.TripleRowResolverException;
 
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 
 import static mvm.rya.api.RdfCloudTripleStoreConstants.*;
+import static mvm.rya.api.resolver.triple.impl.WholeRowCodec.row;
+import static mvm.rya.api.resolver.triple.impl.WholeRowCodec.utf8;
 
 /**
  * Will store triple in spo, po, osp. Storing everything in the whole row.
@@ -52,29 +52,22 @@ public class WholeRowTripleResolver implements TripleRowResolver {
             RyaURI context = stmt.getContext();
             Long timestamp = stmt.getTimestamp();
             byte[] columnVisibility = stmt.getColumnVisibility();
-            String qualifer = stmt.getQualifer();
-            byte[] qualBytes = qualifer == null ? EMPTY_BYTES : qualifer.getBytes();
+            byte[] qualBytes = utf8(stmt.getQualifer());
             byte[] value = stmt.getValue();
             assert subject != null && predicate != null && object != null;
-            byte[] cf = (context == null) ? EMPTY_BYTES : context.getData().getBytes();
-            Map<TABLE_LAYOUT, TripleRow> tripleRowMap = new HashMap<TABLE_LAYOUT, TripleRow>();
-            byte[] subjBytes = subject.getData().getBytes();
-            byte[] predBytes = predicate.getData().getBytes();
+            byte[] cf = (context == null) ? EMPTY_BYTES : utf8(context.getData());
+            Map<TABLE_LAYOUT, TripleRow> tripleRowMap = new EnumMap<TABLE_LAYOUT, TripleRow>(TABLE_LAYOUT.class);
+            byte[] subjBytes = utf8(subject.getData());
+            byte[] predBytes = utf8(predicate.getData());
             byte[][] objBytes = RyaContext.getInstance().serializeType(object);
             tripleRowMap.put(TABLE_LAYOUT.SPO,
-                    new TripleRow(Bytes.concat(subjBytes, DELIM_BYTES,
-                            predBytes, DELIM_BYTES,
-                            objBytes[0], objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], subjBytes, predBytes, objBytes[0]), cf, qualBytes,
                             timestamp, columnVisibility, value));
             tripleRowMap.put(TABLE_LAYOUT.PO,
-                    new TripleRow(Bytes.concat(predBytes, DELIM_BYTES,
-                            objBytes[0], DELIM_BYTES,
-                            subjBytes, objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], predBytes, objBytes[0], subjBytes), cf, qualBytes,
                             timestamp, columnVisibility, value));
             tripleRowMap.put(TABLE_LAYOUT.OSP,
-                    new TripleRow(Bytes.concat(objBytes[0], DELIM_BYTES,
-                            subjBytes, DELIM_BYTES,
-                            predBytes, objBytes[1]), cf, qualBytes,
+                    new TripleRow(row(objBytes[1], objBytes[0], subjBytes, predBytes), cf, qualBytes,
                             timestamp, columnVisibility, value));
             return tripleRowMap;
         } catch (RyaTypeResolverException e) {
@@ -84,55 +77,8 @@ public class WholeRowTripleResolver implements TripleRowResolver {
 
     @Override
     public RyaStatement deserialize(TABLE_LAYOUT table_layout, TripleRow tripleRow) throws TripleRowResolverException {
-        try {
-            assert tripleRow != null && table_layout != null;
-            byte[] row = tripleRow.getRow();
-            int firstIndex = Bytes.indexOf(row, DELIM_BYTE);
-            int secondIndex = Bytes.lastIndexOf(row, DELIM_BYTE);
-            int typeIndex = Bytes.indexOf(row, TYPE_DELIM_BYTE);
-            byte[] first = Arrays.copyOf(row, firstIndex);
-            byte[] second = Arrays.copyOfRange(row, firstIndex + 1, secondIndex);
-            byte[] third = Arrays.copyOfRange(row, secondIndex + 1, typeIndex);
-            byte[] type = Arrays.copyOfRange(row, typeIndex, row.length);
-            byte[] columnFamily = tripleRow.getColumnFamily();
-            boolean contextExists = columnFamily != null && columnFamily.length > 0;
-            RyaURI context = (contextExists) ? (new RyaURI(new String(columnFamily))) : null;
-            byte[] columnQualifier = tripleRow.getColumnQualifier();
-            String qualifier = columnQualifier != null && columnQualifier.length > 0 ? new String(columnQualifier) : null;
-            Long timestamp = tripleRow.getTimestamp();
-            byte[] columnVisibility = tripleRow.getColumnVisibility();
-            byte[] value = tripleRow.getValue();
-
-            switch (table_layout) {
-                case SPO: {
-                    byte[] obj = Bytes.concat(third, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(first)),
-                            new RyaURI(new String(second)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-                case PO: {
-                    byte[] obj = Bytes.concat(second, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(third)),
-                            new RyaURI(new String(first)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-                case OSP: {
-                    byte[] obj = Bytes.concat(first, type);
-                    return new RyaStatement(
-                            new RyaURI(new String(second)),
-                            new RyaURI(new String(third)),
-                            RyaContext.getInstance().deserialize(obj),
-                            context, qualifier, columnVisibility, value, timestamp);
-                }
-            }
-        } catch (RyaTypeResolverException e) {
-            throw new TripleRowResolverException(e);
-        }
-        throw new TripleRowResolverException("TripleRow[" + tripleRow + "] with Table layout[" + table_layout + "] is not deserializable");
+        assert tripleRow != null && table_layout != null;
+        return WholeRowCodec.deserialize(table_layout, tripleRow, 0);
     }
 
 }
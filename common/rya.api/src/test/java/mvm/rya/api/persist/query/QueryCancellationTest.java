@@ -0,0 +1,81 @@
+package mvm.rya.api.persist.query;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class QueryCancellationTest {
+
+    @Test
+    public void testCancelClosesRegistered() {
+        QueryCancellation cancellation = new QueryCancellation();
+        CountingCloseable open = new CountingCloseable();
+        CountingCloseable closedByOwner = new CountingCloseable();
+        cancellation.register(open);
+        cancellation.register(closedByOwner);
+        cancellation.unregister(closedByOwner);
+
+        assertFalse(cancellation.hasDeadline());
+        assertFalse(cancellation.isCancelled());
+        cancellation.cancel();
+        cancellation.cancel();
+        assertTrue(cancellation.isCancelled());
+        assertFalse(cancellation.isTimedOut());
+        assertEquals(1, open.closed);
+        assertEquals(0, closedByOwner.closed);
+
+        // registered after the cancel, closed right away
+        CountingCloseable late = new CountingCloseable();
+        cancellation.register(late);
+        assertEquals(1, late.closed);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        QueryCancellation cancellation = new QueryCancellation(50);
+        CountingCloseable resource = new CountingCloseable();
+        cancellation.register(resource);
+        assertTrue(cancellation.hasDeadline());
+        assertFalse(cancellation.isCancelled());
+
+        Thread.sleep(100);
+        assertEquals(0, cancellation.getRemaining());
+        assertTrue(cancellation.isCancelled());
+        assertTrue(cancellation.isTimedOut());
+        assertEquals(1, resource.closed);
+    }
+
+    private static class CountingCloseable implements Closeable {
+        private int closed = 0;
+
+        @Override
+        public void close() throws IOException {
+            closed++;
+        }
+    }
+}
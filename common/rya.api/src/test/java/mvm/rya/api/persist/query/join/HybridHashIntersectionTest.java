@@ -0,0 +1,101 @@
+package mvm.rya.api.persist.query.join;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import mvm.rya.api.persist.RyaDAOException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+public class HybridHashIntersectionTest {
+
+    @Test
+    public void testInMemory() throws Exception {
+        HybridHashIntersection intersection = new HybridHashIntersection(Long.MAX_VALUE, null);
+        Set<String> results = consume(intersection.intersect(Arrays.asList(
+                input(0, 100, 1), input(0, 100, 2), input(0, 100, 4))));
+        assertEquals(expected(0, 100, 4), results);
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        //a budget this small forces every partition to disk
+        HybridHashIntersection intersection = new HybridHashIntersection(1024, null);
+        Set<String> results = consume(intersection.intersect(Arrays.asList(
+                input(0, 5000, 1), input(0, 5000, 3), input(0, 5000, 5))));
+        assertEquals(expected(0, 5000, 15), results);
+    }
+
+    @Test
+    public void testDuplicatesAndEmptyInput() throws Exception {
+        HybridHashIntersection intersection = new HybridHashIntersection(1024, null);
+        Set<String> results = consume(intersection.intersect(Arrays.asList(
+                input(0, 1000, 1), input(0, 1000, 1), input(0, 1000, 2))));
+        assertEquals(expected(0, 1000, 2), results);
+
+        results = consume(intersection.intersect(Arrays.asList(input(0, 1000, 1), input(0, 0, 1))));
+        assertEquals(0, results.size());
+    }
+
+    private Set<String> consume(CloseableIteration<byte[], RyaDAOException> iter) throws RyaDAOException {
+        Set<String> results = new HashSet<String>();
+        try {
+            while (iter.hasNext()) {
+                //each key is returned once
+                assertEquals(true, results.add(new String(iter.next())));
+            }
+        } finally {
+            iter.close();
+        }
+        return results;
+    }
+
+    private Set<String> expected(int start, int end, int step) {
+        Set<String> expected = new HashSet<String>();
+        for (int i = start; i < end; i += step) {
+            expected.add("key" + i);
+        }
+        return expected;
+    }
+
+    private HybridHashIntersection.KeyInput input(final int start, final int end, final int step) {
+        return new HybridHashIntersection.KeyInput() {
+            @Override
+            public CloseableIteration<byte[], RyaDAOException> open() throws RyaDAOException {
+                List<byte[]> keys = new ArrayList<byte[]>();
+                for (int i = start; i < end; i += step) {
+                    keys.add(("key" + i).getBytes());
+                }
+                return new CloseableIteratorIteration<byte[], RyaDAOException>(keys.iterator());
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package mvm.rya.api.persist.utils;
+
+/*
+ * #%L
+ * mvm.rya.rya.api
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import junit.framework.TestCase;
+
+public class ProspectSketchTest extends TestCase {
+
+    public void testCounts() throws Exception {
+        ProspectSketch sketch = ProspectSketch.counts(4, 4096, 10);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("key" + i);
+            if (i % 2 == 0) {
+                sketch.add("heavy");
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            long estimate = sketch.getCounts().estimate("key" + i);
+            assertTrue(estimate >= 1);
+            assertTrue(estimate <= 1 + sketch.getCounts().errorBound());
+        }
+        assertTrue(sketch.getCounts().estimate("missing") <= sketch.getCounts().errorBound());
+        // the heavy hitter was counted from its first occurrence
+        assertEquals(Long.valueOf(500), sketch.getTop().getExactCount("heavy"));
+        assertNull(sketch.getTop().getExactCount("key999"));
+    }
+
+    public void testMergeAndSerialize() throws Exception {
+        ProspectSketch first = ProspectSketch.counts(4, 1024, 10);
+        ProspectSketch second = ProspectSketch.counts(4, 1024, 10);
+        for (int i = 0; i < 5; i++) {
+            first.add("a");
+            second.add("a");
+            second.add("b");
+        }
+        first.add("c");
+
+        ProspectSketch merged = new ProspectSketch();
+        merged.merge(roundTrip(first));
+        merged.merge(roundTrip(second));
+        assertEquals(Long.valueOf(10), merged.getTop().getExactCount("a"));
+        assertEquals(Long.valueOf(5), merged.getTop().getExactCount("b"));
+        assertEquals(Long.valueOf(1), merged.getTop().getExactCount("c"));
+        // neither summary dropped a key, so a missing key was not seen
+        assertEquals(Long.valueOf(0), merged.getTop().getExactCount("d"));
+        assertEquals(10, merged.getCounts().estimate("a"));
+        assertEquals(16, merged.getCounts().getTotal());
+    }
+
+    public void testDistinct() throws Exception {
+        ProspectSketch first = ProspectSketch.distinct(11);
+        ProspectSketch second = ProspectSketch.distinct(11);
+        for (int i = 0; i < 5000; i++) {
+            first.addDistinct("subject" + i, "object" + (i % 100));
+            second.addDistinct("subject" + (i + 2500), "object" + (i % 100));
+        }
+        ProspectSketch merged = new ProspectSketch();
+        merged.merge(roundTrip(first));
+        merged.merge(roundTrip(second));
+        assertEquals(7500, merged.getSubjects().estimate(), 7500 * 0.1);
+        assertEquals(100, merged.getObjects().estimate(), 100 * 0.1);
+    }
+
+    private ProspectSketch roundTrip(ProspectSketch sketch) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        ProspectSketch read = new ProspectSketch();
+        read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return read;
+    }
+}
@@ -23,6 +23,7 @@ package mvm.rya.api.resolver.triple.impl;
 import junit.framework.TestCase;
 import mvm.rya.api.RdfCloudTripleStoreConstants;
 import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
 import mvm.rya.api.domain.RyaURI;
 import mvm.rya.api.resolver.triple.TripleRow;
 import mvm.rya.api.resolver.triple.TripleRowRegex;
@@ -31,6 +32,9 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+
 /**
  * Date: 7/25/12
  * Time: 10:52 AM
@@ -123,4 +127,25 @@ public class WholeRowTripleResolverTest extends TestCase {
         assertEquals(stmtContext, deserialize);
     }
 
+    public void testAllLayoutsTypedAndUnicodeObjects() throws Exception {
+        RyaURI subj = new RyaURI("urn:test#s\u00e9");
+        RyaURI pred = new RyaURI("urn:test#pred");
+        RyaURI cntxt = new RyaURI("urn:test#\u4e2d");
+        RyaType[] objects = new RyaType[]{
+                new RyaType("plain \u00fc\u00f1\u00ee"),
+                new RyaType(XMLSchema.INTEGER, "42"),
+                new RyaType(new URIImpl("urn:test#customType"), "custom \u00e9")};
+        for (RyaType obj : objects) {
+            RyaStatement stmt = new RyaStatement(subj, pred, obj, cntxt, "q\u00e4", null, null, 100l);
+            Map<RdfCloudTripleStoreConstants.TABLE_LAYOUT, TripleRow> serialize = tripleResolver.serialize(stmt);
+            assertEquals(3, serialize.size());
+            for (Map.Entry<RdfCloudTripleStoreConstants.TABLE_LAYOUT, TripleRow> entry : serialize.entrySet()) {
+                RyaStatement deserialize = tripleResolver.deserialize(entry.getKey(), entry.getValue());
+                assertEquals(stmt, deserialize);
+                assertEquals(obj.getDataType(), deserialize.getObject().getDataType());
+                assertEquals(stmt.getQualifer(), deserialize.getQualifer());
+            }
+        }
+    }
+
 }
@@ -42,6 +42,12 @@ public class AccumuloRdfConfiguration extends RdfCloudTripleStoreConfiguration {
     
     public static final String CONF_ADDITIONAL_INDEXERS = "ac.additional.indexers";
 
+    public static final String CONF_GROUP_COMMIT = "ac.groupcommit";
+    public static final String CONF_GROUP_COMMIT_SIZE = "ac.groupcommit.size";
+    public static final String CONF_GROUP_COMMIT_INTERVAL = "ac.groupcommit.interval";
+    public static final String CONF_INDEXER_BATCH_SIZE = "ac.indexer.batchsize";
+    public static final String CONF_INDEXER_MAX_PENDING_BATCHES = "ac.indexer.maxpending";
+
     public AccumuloRdfConfiguration() {
         super();
     }
@@ -62,12 +68,72 @@ public class AccumuloRdfConfiguration extends RdfCloudTripleStoreConfiguration {
         return new Authorizations(auths);
     }
 
+    /**
+     * @param max the most ranges a batch query reads with serial scanners before it uses a batch scanner. When not set
+     *            the query engine chooses by cost.
+     */
     public void setMaxRangesForScanner(Integer max) {
         setInt(MAXRANGES_SCANNER, max);
     }
 
     public Integer getMaxRangesForScanner() {
-        return getInt(MAXRANGES_SCANNER, 2);
+        return getInt(MAXRANGES_SCANNER, -1);
+    }
+
+    /**
+     * When enabled, {@link AccumuloRyaDAO#add(mvm.rya.api.domain.RyaStatement)} no longer flushes on every call;
+     * added statements are committed in groups by size or time, and made durable by {@link AccumuloRyaDAO#flush()}.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        setBoolean(CONF_GROUP_COMMIT, groupCommit);
+    }
+
+    public boolean isGroupCommit() {
+        return getBoolean(CONF_GROUP_COMMIT, false);
+    }
+
+    /**
+     * @param size number of statements that triggers a group commit
+     */
+    public void setGroupCommitSize(int size) {
+        setInt(CONF_GROUP_COMMIT_SIZE, size);
+    }
+
+    public int getGroupCommitSize() {
+        return getInt(CONF_GROUP_COMMIT_SIZE, 10000);
+    }
+
+    /**
+     * @param interval longest time, in milliseconds, a statement waits before its group is committed
+     */
+    public void setGroupCommitInterval(long interval) {
+        setLong(CONF_GROUP_COMMIT_INTERVAL, interval);
+    }
+
+    public long getGroupCommitInterval() {
+        return getLong(CONF_GROUP_COMMIT_INTERVAL, 1000l);
+    }
+
+    /**
+     * @param batchSize number of statements handed to each additional indexer at a time
+     */
+    public void setIndexerBatchSize(int batchSize) {
+        setInt(CONF_INDEXER_BATCH_SIZE, batchSize);
+    }
+
+    public int getIndexerBatchSize() {
+        return getInt(CONF_INDEXER_BATCH_SIZE, 1000);
+    }
+
+    /**
+     * @param maxPending number of batches an indexer may fall behind the core tables before writers wait for it
+     */
+    public void setIndexerMaxPendingBatches(int maxPending) {
+        setInt(CONF_INDEXER_MAX_PENDING_BATCHES, maxPending);
+    }
+
+    public int getIndexerMaxPendingBatches() {
+        return getInt(CONF_INDEXER_MAX_PENDING_BATCHES, 4);
     }
 
     public void setAdditionalIndexers(Class<? extends AccumuloIndexer>... indexers) {
@@ -29,19 +29,32 @@ import static mvm.rya.api.RdfCloudTripleStoreConstants.SUBJECTPRED_CF_TXT;
 import static mvm.rya.api.RdfCloudTripleStoreConstants.PREDOBJECT_CF_TXT;
 import static mvm.rya.api.RdfCloudTripleStoreConstants.SUBJECTOBJECT_CF_TXT;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import mvm.rya.api.RdfCloudTripleStoreStatement;
 import mvm.rya.api.layout.TableLayoutStrategy;
+import mvm.rya.api.persist.BatchRdfEvalStatsDAO;
+import mvm.rya.api.persist.CardinalityLookup;
 import mvm.rya.api.persist.RdfDAOException;
-import mvm.rya.api.persist.RdfEvalStatsDAO;
+import mvm.rya.api.persist.utils.HyperLogLog;
+import mvm.rya.api.persist.utils.ObjectStatsKeys;
+import mvm.rya.api.persist.utils.ProspectSketch;
 
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.admin.TableOperations;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
@@ -50,12 +63,15 @@ import org.apache.hadoop.io.Text;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Value;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Class CloudbaseRdfEvalStatsDAO
  * Date: Feb 28, 2012
  * Time: 5:03:16 PM
  */
-public class AccumuloRdfEvalStatsDAO implements RdfEvalStatsDAO<AccumuloRdfConfiguration> {
+public class AccumuloRdfEvalStatsDAO implements BatchRdfEvalStatsDAO<AccumuloRdfConfiguration> {
 
     private boolean initialized = false;
     private AccumuloRdfConfiguration conf = new AccumuloRdfConfiguration();
@@ -66,6 +82,11 @@ public class AccumuloRdfEvalStatsDAO implements RdfEvalStatsDAO<AccumuloRdfConfi
     //    private String evalTable = TBL_EVAL;
     private TableLayoutStrategy tableLayoutStrategy;
 
+    /** cardinalities by auths and lookup, kept across queries until the stats are recomputed */
+    private Cache<List<Object>, Double> cache;
+    /** sketches of the prospector's approximate mode by auths, type and data */
+    private Cache<List<Object>, ProspectSketch> sketches;
+
     @Override
     public void init() throws RdfDAOException {
         try {
@@ -82,6 +103,10 @@ public class AccumuloRdfEvalStatsDAO implements RdfEvalStatsDAO<AccumuloRdfConfi
 //            boolean tableExists = tos.exists(evalTable);
 //            if (!tableExists)
 //                tos.create(evalTable);
+            cache = CacheBuilder.newBuilder().maximumSize(conf.getStatsCacheSize())
+                    .expireAfterWrite(conf.getStatsCacheExpiry(), TimeUnit.MILLISECONDS).build();
+            sketches = CacheBuilder.newBuilder().maximumSize(conf.getStatsCacheSize())
+                    .expireAfterWrite(conf.getStatsCacheExpiry(), TimeUnit.MILLISECONDS).build();
             initialized = true;
         } catch (Exception e) {
             throw new RdfDAOException(e);
@@ -94,6 +119,8 @@ public class AccumuloRdfEvalStatsDAO implements RdfEvalStatsDAO<AccumuloRdfConfi
         if (!isInitialized()) {
             throw new IllegalStateException("Not initialized");
         }
+        cache.invalidateAll();
+        sketches.invalidateAll();
         initialized = false;
     }
 
@@ -124,44 +151,294 @@ public class AccumuloRdfEvalStatsDAO implements RdfEvalStatsDAO<AccumuloRdfConfi
 			List<Value> val, Resource context) throws RdfDAOException {
         try {
             Authorizations authorizations = conf.getAuthorizations();
-            Scanner scanner = connector.createScanner(tableLayoutStrategy.getEval(), authorizations);
-            Text cfTxt = null;
-            if (CARDINALITY_OF.SUBJECT.equals(card)) {
-                cfTxt = SUBJECT_CF_TXT;
-            } else if (CARDINALITY_OF.PREDICATE.equals(card)) {
-                cfTxt = PRED_CF_TXT;
-            } else if (CARDINALITY_OF.OBJECT.equals(card)) {
-//                cfTxt = OBJ_CF_TXT;     //TODO: How do we do object cardinality
-                return Double.MAX_VALUE;
-            } else if (CARDINALITY_OF.SUBJECTOBJECT.equals(card)) {
-                cfTxt = SUBJECTOBJECT_CF_TXT;
-            } else if (CARDINALITY_OF.SUBJECTPREDICATE.equals(card)) {
-                cfTxt = SUBJECTPRED_CF_TXT;
-            } else if (CARDINALITY_OF.PREDICATEOBJECT.equals(card)) {
-                cfTxt = PREDOBJECT_CF_TXT;
-            } else throw new IllegalArgumentException("Not right Cardinality[" + card + "]");
-            Text cq = EMPTY_TEXT;
-            if (context != null) {
-                cq = new Text(context.stringValue().getBytes());
+            CardinalityLookup lookup = new CardinalityLookup(card, val, context);
+            List<Object> cacheKey = Arrays.<Object>asList(authorizations, lookup);
+            Double cached = cache.getIfPresent(cacheKey);
+            if (cached != null) {
+                return cached;
             }
-            scanner.fetchColumn(cfTxt, cq);
-            Iterator<Value> vals = val.iterator();
-            String compositeIndex = vals.next().stringValue();
-            while (vals.hasNext()){
-            	compositeIndex += DELIM + vals.next().stringValue();
+            double cardinality;
+            if (CARDINALITY_OF.OBJECT.equals(card)) {
+                cardinality = getObjectCardinality(conf, authorizations, val.get(0));
+            } else {
+                Scanner scanner = connector.createScanner(tableLayoutStrategy.getEval(), authorizations);
+                scanner.setRange(getRange(lookup));
+                Iterator<Map.Entry<Key, org.apache.accumulo.core.data.Value>> iter = scanner.iterator();
+                //default
+                cardinality = iter.hasNext() ? Double.parseDouble(new String(iter.next().getValue().get()))
+                        : estimateFromSketches(conf, authorizations, lookup);
             }
-            scanner.setRange(new Range(new Text(compositeIndex.getBytes())));
-            Iterator<Map.Entry<Key, org.apache.accumulo.core.data.Value>> iter = scanner.iterator();
-            if (iter.hasNext()) {
-                return Double.parseDouble(new String(iter.next().getValue().get()));
+            cache.put(cacheKey, cardinality);
+            return cardinality;
+        } catch (Exception e) {
+            throw new RdfDAOException(e);
+        }
+	}
+
+    /**
+     * Looks up all cardinalities that are not cached with one batch scan of the eval table. Object counts are read
+     * from the prospects table one at a time.
+     */
+    @Override
+    public Map<CardinalityLookup, Double> getCardinalities(AccumuloRdfConfiguration conf,
+            Collection<CardinalityLookup> lookups) throws RdfDAOException {
+        Map<CardinalityLookup, Double> cardinalities = new HashMap<CardinalityLookup, Double>();
+        Authorizations authorizations = conf.getAuthorizations();
+        Map<List<Text>, CardinalityLookup> cells = new HashMap<List<Text>, CardinalityLookup>();
+        List<Range> ranges = new ArrayList<Range>();
+        for (CardinalityLookup lookup : lookups) {
+            if (cardinalities.containsKey(lookup)) {
+                continue;
+            }
+            Double cached = cache.getIfPresent(Arrays.<Object>asList(authorizations, lookup));
+            if (cached != null) {
+                cardinalities.put(lookup, cached);
+            } else if (CARDINALITY_OF.OBJECT.equals(lookup.getCard())) {
+                cardinalities.put(lookup, getCardinality(conf, lookup.getCard(), lookup.getValues(),
+                        lookup.getContext()));
+            } else {
+                Range range = getRange(lookup);
+                Key start = range.getStartKey();
+                if (cells.put(Arrays.asList(start.getRow(), start.getColumnFamily(), start.getColumnQualifier()),
+                        lookup) == null) {
+                    ranges.add(range);
+                }
+            }
+        }
+        if (ranges.isEmpty()) {
+            return cardinalities;
+        }
+
+        BatchScanner scanner = null;
+        try {
+            scanner = connector.createBatchScanner(tableLayoutStrategy.getEval(), authorizations, conf.getNumThreads());
+            scanner.setRanges(ranges);
+            for (Map.Entry<Key, org.apache.accumulo.core.data.Value> e : scanner) {
+                Key key = e.getKey();
+                CardinalityLookup lookup = cells.remove(Arrays.asList(key.getRow(), key.getColumnFamily(),
+                        key.getColumnQualifier()));
+                if (lookup != null) {
+                    double cardinality = Double.parseDouble(new String(e.getValue().get()));
+                    cardinalities.put(lookup, cardinality);
+                    cache.put(Arrays.<Object>asList(authorizations, lookup), cardinality);
+                }
             }
         } catch (Exception e) {
             throw new RdfDAOException(e);
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
         }
+        // the cells left were not found
+        try {
+            for (CardinalityLookup lookup : cells.values()) {
+                double cardinality = estimateFromSketches(conf, authorizations, lookup);
+                cardinalities.put(lookup, cardinality);
+                cache.put(Arrays.<Object>asList(authorizations, lookup), cardinality);
+            }
+        } catch (Exception e) {
+            throw new RdfDAOException(e);
+        }
+        return cardinalities;
+    }
 
-        //default
-        return -1;
-	}
+    /**
+     * @return the eval table cell that holds the count of a lookup other than {@link CARDINALITY_OF#OBJECT}
+     */
+    private Range getRange(CardinalityLookup lookup) {
+        Text cfTxt = null;
+        CARDINALITY_OF card = lookup.getCard();
+        if (CARDINALITY_OF.SUBJECT.equals(card)) {
+            cfTxt = SUBJECT_CF_TXT;
+        } else if (CARDINALITY_OF.PREDICATE.equals(card)) {
+            cfTxt = PRED_CF_TXT;
+        } else if (CARDINALITY_OF.SUBJECTOBJECT.equals(card)) {
+            cfTxt = SUBJECTOBJECT_CF_TXT;
+        } else if (CARDINALITY_OF.SUBJECTPREDICATE.equals(card)) {
+            cfTxt = SUBJECTPRED_CF_TXT;
+        } else if (CARDINALITY_OF.PREDICATEOBJECT.equals(card)) {
+            cfTxt = PREDOBJECT_CF_TXT;
+        } else throw new IllegalArgumentException("Not right Cardinality[" + card + "]");
+        Text cq = EMPTY_TEXT;
+        if (lookup.getContext() != null) {
+            cq = new Text(lookup.getContext().stringValue().getBytes());
+        }
+        Iterator<Value> vals = lookup.getValues().iterator();
+        String compositeIndex = vals.next().stringValue();
+        while (vals.hasNext()){
+            compositeIndex += DELIM + vals.next().stringValue();
+        }
+        return Range.exact(new Text(compositeIndex.getBytes()), cfTxt, cq);
+    }
+
+    /**
+     * Object counts come from the latest run of the prospector, see {@link ObjectStatsKeys}. The frequent objects have
+     * an exact count, the others are estimated from the object sketch.
+     *
+     * @return {@link Double#MAX_VALUE} if the prospector has not been run, -1 if the object was not seen
+     */
+    private double getObjectCardinality(AccumuloRdfConfiguration conf, Authorizations authorizations, Value object)
+            throws TableNotFoundException {
+        String prospectsTable = conf.getTablePrefix() + ObjectStatsKeys.PROSPECTS_TABLE_SUFFIX;
+        if (!connector.tableOperations().exists(prospectsTable)) {
+            return Double.MAX_VALUE;
+        }
+        String prospectTime = getProspectTime(prospectsTable, authorizations);
+
+        String objectKey = ObjectStatsKeys.objectKey(object.stringValue());
+        String dataType = ObjectStatsKeys.dataType(object);
+        long count = sumCounts(prospectsTable, authorizations, ObjectStatsKeys.OBJECT_TYPE, objectKey, dataType,
+                prospectTime);
+        if (count > 0) {
+            return count;
+        }
+        long estimate = Long.MAX_VALUE;
+        for (String cell : ObjectStatsKeys.sketchCells(dataType, objectKey)) {
+            estimate = Math.min(estimate, sumCounts(prospectsTable, authorizations, ObjectStatsKeys.OBJECT_SKETCH_TYPE,
+                    cell, ObjectStatsKeys.ANY_DATATYPE, prospectTime));
+        }
+        if (estimate > 0) {
+            return estimate;
+        }
+        return estimateFromSketches(conf, authorizations, new CardinalityLookup(CARDINALITY_OF.OBJECT,
+                Collections.singletonList(object), null));
+    }
+
+    /**
+     * Estimates a cardinality from the sketches of the prospector's approximate mode, see {@link ProspectSketch}. The
+     * sketches do not count contexts. A composite is estimated at no more than its first value. A composite with a
+     * predicate whose estimate is within the sketch's error, so mostly collisions, is estimated from the predicate's
+     * average number of triples per distinct subject or object instead.
+     *
+     * @return -1 if there are no sketches or the values were not seen
+     */
+    private double estimateFromSketches(AccumuloRdfConfiguration conf, Authorizations authorizations,
+            CardinalityLookup lookup) throws TableNotFoundException {
+        CARDINALITY_OF card = lookup.getCard();
+        ProspectSketch sketch = getSketch(conf, authorizations, ProspectSketch.SKETCH_TYPE,
+                ProspectSketch.typeName(card));
+        if (sketch.isEmpty()) {
+            return -1;
+        }
+        List<Value> values = lookup.getValues();
+        String key = ProspectSketch.key(card, values);
+        Long exact = sketch.getTop().getExactCount(key);
+        if (exact != null) {
+            return exact > 0 ? exact : -1;
+        }
+        long estimate = sketch.getCounts().estimate(key);
+        if (estimate == 0) {
+            return -1;
+        }
+
+        if (CARDINALITY_OF.SUBJECTPREDICATE.equals(card) || CARDINALITY_OF.SUBJECTOBJECT.equals(card)
+                || CARDINALITY_OF.PREDICATEOBJECT.equals(card)) {
+            CARDINALITY_OF first = CARDINALITY_OF.PREDICATEOBJECT.equals(card) ? CARDINALITY_OF.PREDICATE
+                    : CARDINALITY_OF.SUBJECT;
+            double firstCount = estimateFromSketches(conf, authorizations,
+                    new CardinalityLookup(first, values.subList(0, 1), null));
+            if (firstCount > 0) {
+                estimate = Math.min(estimate, (long) firstCount);
+            }
+        }
+        if ((CARDINALITY_OF.SUBJECTPREDICATE.equals(card) || CARDINALITY_OF.PREDICATEOBJECT.equals(card))
+                && estimate <= sketch.getCounts().errorBound()) {
+            Value predicate = CARDINALITY_OF.PREDICATEOBJECT.equals(card) ? values.get(0) : values.get(1);
+            ProspectSketch distinct = getSketch(conf, authorizations, ProspectSketch.DISTINCT_TYPE,
+                    predicate.stringValue());
+            double predicateCount = estimateFromSketches(conf, authorizations,
+                    new CardinalityLookup(CARDINALITY_OF.PREDICATE, Collections.singletonList(predicate), null));
+            if (!distinct.isEmpty() && predicateCount > 0) {
+                HyperLogLog others = CARDINALITY_OF.PREDICATEOBJECT.equals(card) ? distinct.getObjects()
+                        : distinct.getSubjects();
+                estimate = Math.min(estimate, Math.max(1, Math.round(predicateCount / Math.max(1, others.estimate()))));
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the sketch of the latest prospect, merged over its visibilities, empty if there is none
+     */
+    private ProspectSketch getSketch(AccumuloRdfConfiguration conf, Authorizations authorizations, String type,
+            String data) throws TableNotFoundException {
+        List<Object> cacheKey = Arrays.<Object>asList(authorizations, type, data);
+        ProspectSketch sketch = sketches.getIfPresent(cacheKey);
+        if (sketch != null) {
+            return sketch;
+        }
+        sketch = new ProspectSketch();
+        String prospectsTable = conf.getTablePrefix() + ObjectStatsKeys.PROSPECTS_TABLE_SUFFIX;
+        if (connector.tableOperations().exists(prospectsTable)) {
+            String prospectTime = getProspectTime(prospectsTable, authorizations);
+            try {
+                for (byte[] value : readRow(prospectsTable, authorizations, type, data, ProspectSketch.SKETCH_CF, "",
+                        prospectTime)) {
+                    ProspectSketch part = new ProspectSketch();
+                    part.readFields(new DataInputStream(new ByteArrayInputStream(value)));
+                    sketch.merge(part);
+                }
+            } catch (IOException e) {
+                throw new RdfDAOException(e);
+            }
+        }
+        sketches.put(cacheKey, sketch);
+        return sketch;
+    }
+
+    /**
+     * @return the reverse time of the latest prospect, null if it cannot be seen, so that each row is read from the
+     *         latest prospect that has it
+     */
+    private String getProspectTime(String prospectsTable, Authorizations authorizations)
+            throws TableNotFoundException {
+        Scanner scanner = connector.createScanner(prospectsTable, authorizations);
+        scanner.setRange(Range.exact(ObjectStatsKeys.METADATA));
+        scanner.fetchColumnFamily(new Text(ObjectStatsKeys.PROSPECT_TIME));
+        Iterator<Map.Entry<Key, org.apache.accumulo.core.data.Value>> iter = scanner.iterator();
+        // newest first
+        return iter.hasNext() ? iter.next().getKey().getColumnQualifier().toString() : null;
+    }
+
+    /**
+     * @param prospectTime reverse time of the prospect to read, or null for the latest one
+     * @return the count of the prospect, summed over its visibilities
+     */
+    private long sumCounts(String table, Authorizations authorizations, String type, String data, String dataType,
+            String prospectTime) throws TableNotFoundException {
+        long count = 0;
+        for (byte[] value : readRow(table, authorizations, type, data, ObjectStatsKeys.COUNT, dataType, prospectTime)) {
+            count += Long.parseLong(new String(value));
+        }
+        return count;
+    }
+
+    /**
+     * @param prospectTime reverse time of the prospect to read, or null for the latest one
+     * @return the values of the column in each visibility of the prospect's row
+     */
+    private List<byte[]> readRow(String table, Authorizations authorizations, String type, String data, String cf,
+            String cq, String prospectTime) throws TableNotFoundException {
+        Scanner scanner = connector.createScanner(table, authorizations);
+        String prefix = type + ObjectStatsKeys.DELIM + data + ObjectStatsKeys.DELIM;
+        if (prospectTime != null) {
+            scanner.setRange(Range.exact(prefix + prospectTime));
+        } else {
+            scanner.setRange(Range.prefix(prefix));
+        }
+        scanner.fetchColumn(new Text(cf), new Text(cq));
+        List<byte[]> values = new ArrayList<byte[]>();
+        Text row = null;
+        for (Map.Entry<Key, org.apache.accumulo.core.data.Value> e : scanner) {
+            if (row != null && !row.equals(e.getKey().getRow())) {
+                break;
+            }
+            row = e.getKey().getRow();
+            values.add(e.getValue().get());
+        }
+        return values;
+    }
 
 	@Override
 	public double getCardinality(AccumuloRdfConfiguration conf,
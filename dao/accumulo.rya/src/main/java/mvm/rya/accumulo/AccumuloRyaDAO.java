@@ -32,12 +32,22 @@ import static mvm.rya.api.RdfCloudTripleStoreConstants.RTS_VERSION_PREDICATE_RYA
 import static mvm.rya.api.RdfCloudTripleStoreConstants.VERSION_RYA;
 import info.aduna.iteration.CloseableIteration;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import mvm.rya.accumulo.experimental.AbstractAccumuloIndexer;
 import mvm.rya.accumulo.experimental.AccumuloIndexer;
@@ -49,6 +59,7 @@ import mvm.rya.api.domain.RyaURI;
 import mvm.rya.api.layout.TableLayoutStrategy;
 import mvm.rya.api.persist.RyaDAO;
 import mvm.rya.api.persist.RyaDAOException;
+import mvm.rya.api.persist.RyaGroupCommit;
 import mvm.rya.api.persist.RyaNamespaceManager;
 import mvm.rya.api.resolver.RyaTripleContext;
 import mvm.rya.api.resolver.triple.TripleRow;
@@ -78,13 +89,16 @@ import org.openrdf.model.Namespace;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Class AccumuloRyaDAO
  * Date: Feb 29, 2012
  * Time: 12:37:22 PM
  */
-public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaNamespaceManager<AccumuloRdfConfiguration> {
+public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaNamespaceManager<AccumuloRdfConfiguration>, RyaGroupCommit {
     private static final Log logger = LogFactory.getLog(AccumuloRyaDAO.class);
 
     private boolean initialized = false;
@@ -101,6 +115,8 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
     private BatchWriter bw_ns;
 
     private List<AccumuloIndexer> secondaryIndexers;
+    private List<IndexerWorker> indexerWorkers;
+    private int indexerBatchSize;
     
     private AccumuloRdfConfiguration conf = new AccumuloRdfConfiguration();
     private RyaTableMutationsFactory ryaTableMutationsFactory;
@@ -108,6 +124,30 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
     private AccumuloRyaQueryEngine queryEngine;
     private RyaTripleContext ryaContext;
 
+    //group commit, only used when AccumuloRdfConfiguration.isGroupCommit()
+    private ScheduledExecutorService groupCommitExecutor;
+    private final Object groupLock = new Object();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean groupCommitRequested = new AtomicBoolean(false);
+    private SettableFuture<Void> currentGroup;
+    private int groupCount;
+    private int groupCommitSize;
+    private RyaDAOException groupCommitFailure;
+    private final Runnable groupCommitTask = new Runnable() {
+        @Override
+        public void run() {
+            groupCommitRequested.set(false);
+            try {
+                commitGroup();
+            } catch (RyaDAOException e) {
+                logger.error("Group commit failed", e);
+                synchronized (flushLock) {
+                    groupCommitFailure = e;
+                }
+            }
+        }
+    };
+
     @Override
     public boolean isInitialized() throws RyaDAOException {
         return initialized;
@@ -154,12 +194,24 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
             bw_ns = connector.createBatchWriter(tableLayoutStrategy.getNs(), MAX_MEMORY,
                     MAX_TIME, 1);
             
+            indexerBatchSize = conf.getIndexerBatchSize();
+            indexerWorkers = new ArrayList<IndexerWorker>(secondaryIndexers.size());
             for (AccumuloIndexer index : secondaryIndexers) {
                 index.setMultiTableBatchWriter(mt_bw);
+                indexerWorkers.add(new IndexerWorker(index, conf.getIndexerMaxPendingBatches()));
             }
 
             queryEngine = new AccumuloRyaQueryEngine(connector, conf);
 
+            if (conf.isGroupCommit()) {
+                groupCommitSize = conf.getGroupCommitSize();
+                currentGroup = SettableFuture.create();
+                groupCommitExecutor = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rya-group-commit-%d").build());
+                long interval = conf.getGroupCommitInterval();
+                groupCommitExecutor.scheduleWithFixedDelay(groupCommitTask, interval, interval, TimeUnit.MILLISECONDS);
+            }
+
             checkVersion();
 
             initialized = true;
@@ -181,12 +233,90 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
 
     @Override
     public void add(RyaStatement statement) throws RyaDAOException {
-        commit(Iterators.singletonIterator(statement));
+        add(Iterators.singletonIterator(statement));
     }
 
     @Override
     public void add(Iterator<RyaStatement> iter) throws RyaDAOException {
-        commit(iter);
+        if (groupCommitExecutor != null) {
+            addAsync(iter);
+        } else {
+            commit(iter);
+        }
+    }
+
+    /**
+     * Without group commit the statements are committed before this returns. With it they are written to the batch
+     * writers, and the returned future completes once the background flusher, or {@link #flush()}, commits them.
+     */
+    @Override
+    public Future<Void> addAsync(Iterator<RyaStatement> statements) throws RyaDAOException {
+        if (groupCommitExecutor == null) {
+            commit(statements);
+            return Futures.immediateFuture(null);
+        }
+        SettableFuture<Void> group;
+        boolean full;
+        try {
+            synchronized (groupLock) {
+                groupCount += writeStatements(statements);
+                group = currentGroup;
+                full = groupCount >= groupCommitSize;
+            }
+        } catch (Exception e) {
+            throw new RyaDAOException(e);
+        }
+        if (full && groupCommitRequested.compareAndSet(false, true)) {
+            groupCommitExecutor.execute(groupCommitTask);
+        }
+        return group;
+    }
+
+    @Override
+    public void flush() throws RyaDAOException {
+        if (groupCommitExecutor == null) {
+            try {
+                flushAll();
+            } catch (Exception e) {
+                throw new RyaDAOException(e);
+            }
+            return;
+        }
+        commitGroup();
+        synchronized (flushLock) {
+            //report a failure of a background commit that happened since the last flush
+            RyaDAOException failure = groupCommitFailure;
+            groupCommitFailure = null;
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Closes the current group and flushes everything written for it. Writes made while the flush is running go
+     * into the next group.
+     */
+    protected void commitGroup() throws RyaDAOException {
+        synchronized (flushLock) {
+            SettableFuture<Void> group;
+            synchronized (groupLock) {
+                if (groupCount == 0) {
+                    return;
+                }
+                group = currentGroup;
+                currentGroup = SettableFuture.create();
+                groupCount = 0;
+            }
+            try {
+                flushAll();
+                group.set(null);
+            } catch (Exception e) {
+                RyaDAOException failure = new RyaDAOException(e);
+                group.setException(failure);
+                throw failure;
+            }
+        }
     }
 
     @Override
@@ -197,6 +327,10 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
 
     @Override
     public void delete(Iterator<RyaStatement> statements, AccumuloRdfConfiguration conf) throws RyaDAOException {
+        if (groupCommitExecutor != null) {
+            //make queued statements visible to the queries below
+            commitGroup();
+        }
         try {
             while (statements.hasNext()) {
                 RyaStatement stmt = statements.next();
@@ -278,25 +412,69 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
     protected void commit(Iterator<RyaStatement> commitStatements) throws RyaDAOException {
         try {
             //TODO: Should have a lock here in case we are adding and committing at the same time
-            while (commitStatements.hasNext()) {
-                RyaStatement stmt = commitStatements.next();
-                
-                Map<TABLE_LAYOUT, Collection<Mutation>> mutationMap = ryaTableMutationsFactory.serialize(stmt);
-                Collection<Mutation> spo = mutationMap.get(TABLE_LAYOUT.SPO);
-                Collection<Mutation> po = mutationMap.get(TABLE_LAYOUT.PO);
-                Collection<Mutation> osp = mutationMap.get(TABLE_LAYOUT.OSP);
-                bw_spo.addMutations(spo);
-                bw_po.addMutations(po);
-                bw_osp.addMutations(osp);
-                
-                for (AccumuloIndexer index : secondaryIndexers) {
-                    index.storeStatement(stmt);
+            writeStatements(commitStatements);
+            flushAll();
+        } catch (Exception e) {
+            throw new RyaDAOException(e);
+        }
+    }
+
+    /**
+     * Writes the statements to the core tables and hands them to the additional indexers in batches of
+     * {@link AccumuloRdfConfiguration#getIndexerBatchSize()}. The indexers run on their own threads, so they may still
+     * be working when this returns; {@link #flushAll()} waits for them.
+     *
+     * @return the number of statements written to the batch writers
+     */
+    protected int writeStatements(Iterator<RyaStatement> commitStatements) throws Exception {
+        int count = 0;
+        List<RyaStatement> batch = indexerWorkers.isEmpty() ? null : new ArrayList<RyaStatement>(indexerBatchSize);
+        while (commitStatements.hasNext()) {
+            RyaStatement stmt = commitStatements.next();
+
+            Map<TABLE_LAYOUT, Collection<Mutation>> mutationMap = ryaTableMutationsFactory.serialize(stmt);
+            Collection<Mutation> spo = mutationMap.get(TABLE_LAYOUT.SPO);
+            Collection<Mutation> po = mutationMap.get(TABLE_LAYOUT.PO);
+            Collection<Mutation> osp = mutationMap.get(TABLE_LAYOUT.OSP);
+            bw_spo.addMutations(spo);
+            bw_po.addMutations(po);
+            bw_osp.addMutations(osp);
+
+            if (batch != null) {
+                batch.add(stmt);
+                if (batch.size() >= indexerBatchSize) {
+                    submitToIndexers(batch);
+                    batch = new ArrayList<RyaStatement>(indexerBatchSize);
                 }
             }
+            count++;
+        }
+        if (batch != null && !batch.isEmpty()) {
+            submitToIndexers(batch);
+        }
+        return count;
+    }
+
+    private void submitToIndexers(List<RyaStatement> batch) throws Exception {
+        //the batch is shared by the indexers, none of them may modify it
+        List<RyaStatement> shared = Collections.unmodifiableList(batch);
+        for (IndexerWorker worker : indexerWorkers) {
+            worker.submit(shared);
+        }
+    }
 
+    /**
+     * Flushes the core tables, then waits for the additional indexers to finish the batches handed to them and
+     * flushes each of them. Indexers flush after the core tables so they can read the statements they are given,
+     * and the batch writer is flushed again for the indexers that write through it.
+     */
+    protected void flushAll() throws Exception {
+        mt_bw.flush();
+        if (!indexerWorkers.isEmpty()) {
+            for (IndexerWorker worker : indexerWorkers) {
+                worker.flush();
+            }
             mt_bw.flush();
-        } catch (Exception e) {
-            throw new RyaDAOException(e);
         }
     }
 
@@ -308,7 +486,19 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
         //TODO: write lock
         try {
             initialized = false;
-            mt_bw.flush();
+            if (groupCommitExecutor != null) {
+                groupCommitExecutor.shutdown();
+                groupCommitExecutor.awaitTermination(MAX_TIME, TimeUnit.MILLISECONDS);
+                commitGroup();
+                groupCommitExecutor = null;
+            }
+            flushAll();
+            for (IndexerWorker worker : indexerWorkers) {
+                worker.shutdown();
+            }
+            for (AccumuloIndexer index : secondaryIndexers) {
+                index.close();
+            }
             bw_ns.flush();
 
             mt_bw.close();
@@ -465,9 +655,11 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
                 tableLayoutStrategy.getNs(),
                 tableLayoutStrategy.getEval());
         
-        // Additional Tables        
+        // Additional Tables, an indexer that owns none has no name
         for (AccumuloIndexer index : secondaryIndexers) {
-            tableNames.add(index.getTableName());
+            if (index.getTableName() != null) {
+                tableNames.add(index.getTableName());
+            }
         }
 
         return tableNames.toArray(new String[]{});
@@ -519,4 +711,64 @@ public class AccumuloRyaDAO implements RyaDAO<AccumuloRdfConfiguration>, RyaName
         logger.info("Dropping cloudbase table: " + tableName);
         connector.tableOperations().delete(tableName);
     }
+
+    /**
+     * Runs one additional indexer on its own thread. Batches are applied in the order they were submitted, and a
+     * writer waits once the indexer falls more than the allowed number of batches behind.
+     */
+    private static class IndexerWorker {
+        private final AccumuloIndexer index;
+        private final int maxPending;
+        private final ExecutorService executor;
+        private final Deque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+
+        private IndexerWorker(AccumuloIndexer index, int maxPending) {
+            this.index = index;
+            this.maxPending = Math.max(1, maxPending);
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("rya-indexer-" + index.getClass().getSimpleName() + "-%d").build());
+        }
+
+        private synchronized void submit(final List<RyaStatement> batch) throws Exception {
+            while (pending.size() >= maxPending) {
+                await(pending.removeFirst());
+            }
+            pending.addLast(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    index.storeStatements(batch);
+                    return null;
+                }
+            }));
+        }
+
+        private synchronized void flush() throws Exception {
+            pending.addLast(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    index.flush();
+                    return null;
+                }
+            }));
+            while (!pending.isEmpty()) {
+                await(pending.removeFirst());
+            }
+        }
+
+        private void shutdown() {
+            executor.shutdown();
+        }
+
+        private void await(Future<Void> future) throws Exception {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new RyaDAOException("Indexer " + index.getClass().getName() + " failed", cause);
+            }
+        }
+    }
 }
@@ -0,0 +1,437 @@
+package mvm.rya.accumulo.bulk;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.hadoop.io.WritableComparator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sorts the entries of one table in an off-heap buffer, and spills each full buffer to a sorted run file. The runs of
+ * any number of sorters are then merged into one sorted stream with the newest version of each key, see
+ * {@link #merge(List, byte[], byte[], File, int, FileSKVWriter)}, either whole or one row range at a time.
+ * <p>
+ * An entry is encoded as the length prefixed row, column family, qualifier and visibility, the timestamp, the delete
+ * flag and the length prefixed value. The buffer is sorted through an array of entry offsets, comparing the encoded
+ * entries in place in {@link Key} order. The run files hold the entries in the same encoding. Each run keeps the rows
+ * and file offsets of {@link #INDEX_ENTRIES} evenly spaced entries, which a range merge seeks by and which sample the
+ * rows of the run. Not thread safe.
+ */
+public class ExternalKeySorter {
+    /** entries of each run that are indexed */
+    public static final int INDEX_ENTRIES = 64;
+
+    private final ByteBuffer buffer;
+    private final File spillDir;
+    private final String name;
+    private final List<Run> runs = new ArrayList<Run>();
+
+    private int[] offsets = new int[1024];
+    private int count = 0;
+
+    /**
+     * @param bufferSize bytes of direct memory to sort in
+     * @param spillDir directory of the run files
+     * @param name prefix of the run file names
+     */
+    public ExternalKeySorter(int bufferSize, File spillDir, String name) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than 0");
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.spillDir = Preconditions.checkNotNull(spillDir);
+        this.name = Preconditions.checkNotNull(name);
+    }
+
+    public void add(Key key, Value value) throws IOException {
+        ByteSequence row = key.getRowData();
+        ByteSequence cf = key.getColumnFamilyData();
+        ByteSequence cq = key.getColumnQualifierData();
+        ByteSequence cv = key.getColumnVisibilityData();
+        int size = 4 * 5 + row.length() + cf.length() + cq.length() + cv.length() + 8 + 1 + value.getSize();
+        if (size > buffer.remaining()) {
+            Preconditions.checkArgument(size <= buffer.capacity(), "Entry of " + size
+                    + " bytes is larger than the sort buffer");
+            spill();
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = buffer.position();
+        put(row);
+        put(cf);
+        put(cq);
+        put(cv);
+        buffer.putLong(key.getTimestamp());
+        buffer.put((byte) (key.isDeleted() ? 1 : 0));
+        buffer.putInt(value.getSize());
+        buffer.put(value.get(), 0, value.getSize());
+    }
+
+    private void put(ByteSequence bytes) {
+        buffer.putInt(bytes.length());
+        buffer.put(bytes.getBackingArray(), bytes.offset(), bytes.length());
+    }
+
+    /**
+     * Sorts the buffered entries and writes them to a new run file.
+     */
+    public void spill() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        sort(0, count - 1);
+        Run run = new Run(File.createTempFile(name + "-", ".run", spillDir));
+        int interval = Math.max(1, count / INDEX_ENTRIES);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file), 1 << 16));
+        try {
+            byte[] bytes = new byte[1024];
+            long position = 0;
+            for (int i = 0; i < count; i++) {
+                int offset = offsets[i];
+                int length = entryLength(offset);
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                ByteBuffer entry = buffer.duplicate();
+                entry.position(offset);
+                entry.get(bytes, 0, length);
+                out.write(bytes, 0, length);
+                if (i % interval == 0) {
+                    run.indexRows.add(Arrays.copyOfRange(bytes, 4, 4 + buffer.getInt(offset)));
+                    run.indexOffsets.add(position);
+                }
+                position += length;
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        buffer.clear();
+        count = 0;
+    }
+
+    /**
+     * @return the run files written so far, spill first to include the buffered entries
+     */
+    public List<Run> getRuns() {
+        return runs;
+    }
+
+    private int entryLength(int offset) {
+        int pos = offset;
+        for (int field = 0; field < 4; field++) {
+            pos += 4 + buffer.getInt(pos);
+        }
+        pos += 8 + 1;
+        pos += 4 + buffer.getInt(pos);
+        return pos - offset;
+    }
+
+    private void sort(int lo, int hi) {
+        while (hi - lo > 16) {
+            int pivot = offsets[lo + (hi - lo) / 2];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compare(offsets[i], pivot) < 0) {
+                    i++;
+                }
+                while (compare(offsets[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = offsets[i];
+                    offsets[i++] = offsets[j];
+                    offsets[j--] = tmp;
+                }
+            }
+            // recurse into the smaller half
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int offset = offsets[i];
+            int j = i - 1;
+            while (j >= lo && compare(offsets[j], offset) > 0) {
+                offsets[j + 1] = offsets[j];
+                j--;
+            }
+            offsets[j + 1] = offset;
+        }
+    }
+
+    /**
+     * Compares two encoded entries in {@link Key#compareTo(Key)} order.
+     */
+    private int compare(int a, int b) {
+        for (int field = 0; field < 4; field++) {
+            int lenA = buffer.getInt(a);
+            int lenB = buffer.getInt(b);
+            a += 4;
+            b += 4;
+            int min = Math.min(lenA, lenB);
+            for (int i = 0; i < min; i++) {
+                int diff = (buffer.get(a + i) & 0xff) - (buffer.get(b + i) & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            if (lenA != lenB) {
+                return lenA - lenB;
+            }
+            a += lenA;
+            b += lenB;
+        }
+        // newest first
+        long tsA = buffer.getLong(a);
+        long tsB = buffer.getLong(b);
+        if (tsA != tsB) {
+            return tsA < tsB ? 1 : -1;
+        }
+        // deletes first
+        return buffer.get(b + 8) - buffer.get(a + 8);
+    }
+
+    /**
+     * Merges the entries of sorted runs whose rows are after one row and up to another, as a tablet holds them, into
+     * the writer. Only the newest version of each key is kept, as a table's default versioning iterator would. At most
+     * fanIn runs are read at once, more runs are first merged into intermediate runs in the temp directory. The given
+     * runs are left in place, so that the other ranges can be merged from them.
+     *
+     * @param after the row the range starts after, null to start at the first row
+     * @param through the last row of the range, null to end at the last row
+     * @return the number of entries written
+     */
+    public static long merge(List<Run> runs, byte[] after, byte[] through, File tempDir, int fanIn,
+            FileSKVWriter writer) throws IOException {
+        Preconditions.checkArgument(fanIn > 1, "fanIn must be greater than 1");
+        List<Run> pending = new ArrayList<Run>(runs);
+        List<Run> intermediate = new ArrayList<Run>();
+        try {
+            while (pending.size() > fanIn) {
+                List<Run> group = new ArrayList<Run>(pending.subList(0, fanIn));
+                pending.subList(0, fanIn).clear();
+                Run merged = new Run(File.createTempFile("merge-", ".run", tempDir));
+                intermediate.add(merged);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(merged.file), 1 << 16));
+                try {
+                    mergeRuns(group, after, through, new RunOutput(out), null);
+                } finally {
+                    out.close();
+                }
+                for (Run run : group) {
+                    if (intermediate.remove(run)) {
+                        run.file.delete();
+                    }
+                }
+                pending.add(merged);
+            }
+            return mergeRuns(pending, after, through, null, writer);
+        } finally {
+            for (Run run : intermediate) {
+                run.file.delete();
+            }
+        }
+    }
+
+    private static long mergeRuns(List<Run> runs, byte[] after, byte[] through, RunOutput runOutput,
+            FileSKVWriter writer) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+        List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+        try {
+            for (Run run : runs) {
+                RunReader reader = new RunReader(run, after, through);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            long written = 0;
+            Key last = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (last == null || !last.equals(reader.key, PartialKey.ROW_COLFAM_COLQUAL_COLVIS)) {
+                    if (writer != null) {
+                        writer.append(reader.key, reader.value);
+                    } else {
+                        runOutput.write(reader.key, reader.value);
+                    }
+                    last = reader.key;
+                    written++;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            return written;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static class RunOutput {
+        private final DataOutputStream out;
+
+        private RunOutput(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void write(Key key, Value value) throws IOException {
+            write(key.getRowData());
+            write(key.getColumnFamilyData());
+            write(key.getColumnQualifierData());
+            write(key.getColumnVisibilityData());
+            out.writeLong(key.getTimestamp());
+            out.writeByte(key.isDeleted() ? 1 : 0);
+            out.writeInt(value.getSize());
+            out.write(value.get(), 0, value.getSize());
+        }
+
+        private void write(ByteSequence bytes) throws IOException {
+            out.writeInt(bytes.length());
+            out.write(bytes.getBackingArray(), bytes.offset(), bytes.length());
+        }
+    }
+
+    private static int compareRows(byte[] a, byte[] b) {
+        return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * A sorted run file, with the rows and offsets of its indexed entries.
+     */
+    public static class Run {
+        private final File file;
+        private final List<byte[]> indexRows = new ArrayList<byte[]>();
+        private final List<Long> indexOffsets = new ArrayList<Long>();
+
+        private Run(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the rows of the indexed entries, evenly spaced through the run in sorted order
+         */
+        public List<byte[]> getSampleRows() {
+            return indexRows;
+        }
+
+        /**
+         * @return the offset of the last indexed entry whose row is not after the given one, 0 if there is none
+         */
+        private long seek(byte[] row) {
+            long offset = 0;
+            for (int i = 0; i < indexRows.size() && compareRows(indexRows.get(i), row) <= 0; i++) {
+                offset = indexOffsets.get(i);
+            }
+            return offset;
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+        private final DataInputStream in;
+        private final byte[] after;
+        private final byte[] through;
+        private Key key;
+        private Value value;
+
+        private RunReader(Run run, byte[] after, byte[] through) throws IOException {
+            FileInputStream file = new FileInputStream(run.file);
+            if (after != null) {
+                file.getChannel().position(run.seek(after));
+            }
+            this.in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            this.after = after;
+            this.through = through;
+        }
+
+        private boolean next() throws IOException {
+            while (true) {
+                byte[] row;
+                try {
+                    row = read();
+                } catch (EOFException e) {
+                    return false;
+                }
+                if (through != null && compareRows(row, through) > 0) {
+                    return false;
+                }
+                byte[] cf = read();
+                byte[] cq = read();
+                byte[] cv = read();
+                long timestamp = in.readLong();
+                boolean deleted = in.readByte() != 0;
+                byte[] val = read();
+                if (after == null || compareRows(row, after) > 0) {
+                    key = new Key(row, cf, cq, cv, timestamp, deleted, false);
+                    value = new Value(val, false);
+                    return true;
+                }
+            }
+        }
+
+        private byte[] read() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            return key.compareTo(o.key);
+        }
+
+        private void close() throws IOException {
+            in.close();
+        }
+    }
+}
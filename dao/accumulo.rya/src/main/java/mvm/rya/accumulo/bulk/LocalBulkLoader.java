@@ -0,0 +1,574 @@
+package mvm.rya.accumulo.bulk;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static mvm.rya.accumulo.AccumuloRdfUtils.extractValue;
+import static mvm.rya.accumulo.AccumuloRdfUtils.from;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.accumulo.mr.fileinput.RdfFileInputFormat;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.layout.TableLayoutStrategy;
+import mvm.rya.api.resolver.RdfToRyaConversions;
+import mvm.rya.api.resolver.RyaTripleContext;
+import mvm.rya.api.resolver.triple.TripleRow;
+import mvm.rya.api.resolver.triple.TripleRowResolver;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.admin.TableOperations;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.ContextStatementImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.rio.ParserConfig;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Loads RDF files into the spo, po and osp tables without MapReduce: the files are parsed and sorted on the local
+ * cores, written to RFiles and bulk imported.
+ * <p>
+ * N-Triples and N-Quads files are parsed in chunks of {@link #setChunkSize(long) chunkSize} bytes, aligned to lines,
+ * other formats a file at a time, all on {@link #setNumThreads(int) numThreads} threads. Each thread has an
+ * {@link ExternalKeySorter} per table, which sorts in {@link #setBufferSize(int) bufferSize} bytes of direct memory
+ * and spills sorted runs to the spill directory. The runs of each table are divided into up to numThreads row ranges,
+ * at the table's splits or at rows sampled from the runs, and the ranges of all tables are merged in parallel, keeping
+ * the newest version of each key, into an RFile each under the work directory, which must be on a file system that the
+ * tablet servers can read.
+ * <p>
+ * Progress is logged every {@link #setProgressInterval(long) progressInterval} milliseconds, and the throughput of each
+ * phase when it ends.
+ */
+public class LocalBulkLoader {
+    private static final Log logger = LogFactory.getLog(LocalBulkLoader.class);
+
+    private static final TABLE_LAYOUT[] LAYOUTS = {TABLE_LAYOUT.SPO, TABLE_LAYOUT.PO, TABLE_LAYOUT.OSP};
+
+    private static final Comparator<byte[]> ROW_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+        }
+    };
+
+    private final Connector connector;
+    private final AccumuloRdfConfiguration conf;
+    private final FileSystem fs;
+    private final Path workDir;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int bufferSize = 32 << 20;
+    private long chunkSize = 64 << 20;
+    private int mergeFanIn = 64;
+    private long progressInterval = 10000;
+    private RDFFormat format;
+    private File spillDir = new File(System.getProperty("java.io.tmpdir"));
+
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * @param connector connector to the instance to load
+     * @param conf names the tables, and holds the column visibility of the statements
+     * @param fs file system shared with the tablet servers
+     * @param workDir directory for the RFiles, replaced on every load
+     */
+    public LocalBulkLoader(Connector connector, AccumuloRdfConfiguration conf, FileSystem fs, Path workDir) {
+        this.connector = Preconditions.checkNotNull(connector);
+        this.conf = Preconditions.checkNotNull(conf);
+        this.fs = Preconditions.checkNotNull(fs);
+        this.workDir = Preconditions.checkNotNull(workDir);
+    }
+
+    public void setNumThreads(int numThreads) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be greater than 0");
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param bufferSize bytes of direct memory that each thread sorts each table's entries in
+     */
+    public void setBufferSize(int bufferSize) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than 0");
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be greater than 0");
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param mergeFanIn the most run files read at once while merging
+     */
+    public void setMergeFanIn(int mergeFanIn) {
+        Preconditions.checkArgument(mergeFanIn > 1, "mergeFanIn must be greater than 1");
+        this.mergeFanIn = mergeFanIn;
+    }
+
+    public void setProgressInterval(long progressInterval) {
+        Preconditions.checkArgument(progressInterval > 0, "progressInterval must be greater than 0");
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @param format the format of every file, by default it is guessed from each file's name
+     */
+    public void setFormat(RDFFormat format) {
+        this.format = format;
+    }
+
+    public void setSpillDir(File spillDir) {
+        this.spillDir = Preconditions.checkNotNull(spillDir);
+    }
+
+    /**
+     * @return the number of statements parsed
+     */
+    public long getStatements() {
+        return statements.get();
+    }
+
+    /**
+     * @return the number of bytes of the files parsed
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Loads the files into the tables, creating the tables that do not exist.
+     *
+     * @return the number of statements parsed
+     */
+    public long load(Collection<File> files) throws Exception {
+        TableLayoutStrategy layout = conf.getTableLayoutStrategy();
+        String[] tables = {layout.getSpo(), layout.getPo(), layout.getOsp()};
+        TableOperations tableOperations = connector.tableOperations();
+        for (String table : tables) {
+            if (!tableOperations.exists(table)) {
+                tableOperations.create(table);
+            }
+        }
+        if (fs.exists(workDir)) {
+            fs.delete(workDir, true);
+        }
+        File loadSpillDir = File.createTempFile("rya-bulk-", "", spillDir);
+        loadSpillDir.delete();
+        Preconditions.checkState(loadSpillDir.mkdirs(), "Unable to create " + loadSpillDir);
+
+        statements.set(0);
+        bytesRead.set(0);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("rya-bulk-load-%d").build());
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("rya-bulk-load-progress-%d").build());
+        try {
+            // parse and sort
+            final long start = System.currentTimeMillis();
+            progress.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("Parsed " + statements.get() + " statements, " + bytesRead.get() + " bytes, "
+                            + rate(statements.get(), start) + " statements/s");
+                }
+            }, progressInterval, progressInterval, TimeUnit.MILLISECONDS);
+
+            List<ExternalKeySorter[]> sorters = new ArrayList<ExternalKeySorter[]>(numThreads);
+            final BlockingQueue<ExternalKeySorter[]> idle = new LinkedBlockingQueue<ExternalKeySorter[]>();
+            for (int i = 0; i < numThreads; i++) {
+                ExternalKeySorter[] threadSorters = new ExternalKeySorter[LAYOUTS.length];
+                for (int j = 0; j < LAYOUTS.length; j++) {
+                    threadSorters[j] = new ExternalKeySorter(bufferSize, loadSpillDir, tables[j]);
+                }
+                sorters.add(threadSorters);
+                idle.add(threadSorters);
+            }
+
+            List<Future<Void>> parses = new ArrayList<Future<Void>>();
+            for (final Chunk chunk : getChunks(files)) {
+                parses.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ExternalKeySorter[] threadSorters = idle.take();
+                        try {
+                            parse(chunk, threadSorters);
+                        } finally {
+                            idle.add(threadSorters);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            awaitAll(parses);
+            progress.shutdownNow();
+            logger.info("Parsed " + statements.get() + " statements, " + bytesRead.get() + " bytes in "
+                    + (System.currentTimeMillis() - start) + " ms, " + rate(statements.get(), start)
+                    + " statements/s");
+
+            // spill what is left in the sorters, then merge each table's runs one row range at a time
+            long mergeStart = System.currentTimeMillis();
+            List<Future<Void>> spills = new ArrayList<Future<Void>>();
+            for (ExternalKeySorter[] threadSorters : sorters) {
+                for (final ExternalKeySorter sorter : threadSorters) {
+                    spills.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            sorter.spill();
+                            return null;
+                        }
+                    }));
+                }
+            }
+            awaitAll(spills);
+
+            List<Future<Long>> merges = new ArrayList<Future<Long>>();
+            int files = 0;
+            for (int j = 0; j < LAYOUTS.length; j++) {
+                final List<ExternalKeySorter.Run> runs = new ArrayList<ExternalKeySorter.Run>();
+                for (ExternalKeySorter[] threadSorters : sorters) {
+                    runs.addAll(threadSorters[j].getRuns());
+                }
+                List<byte[]> boundaries = getBoundaries(tables[j], runs);
+                Path tableDir = new Path(new Path(workDir, "files"), tables[j]);
+                for (int i = 0; i <= boundaries.size(); i++) {
+                    final byte[] after = i == 0 ? null : boundaries.get(i - 1);
+                    final byte[] through = i == boundaries.size() ? null : boundaries.get(i);
+                    final Path file = new Path(tableDir, "part-" + i + ".rf");
+                    final File tempDir = loadSpillDir;
+                    merges.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            FileSKVWriter writer = FileOperations.getInstance().openWriter(file.toString(), fs,
+                                    fs.getConf(), AccumuloConfiguration.getDefaultConfiguration());
+                            long written;
+                            try {
+                                writer.startDefaultLocalityGroup();
+                                written = ExternalKeySorter.merge(runs, after, through, tempDir, mergeFanIn, writer);
+                            } finally {
+                                writer.close();
+                            }
+                            if (written == 0) {
+                                fs.delete(file, false);
+                            }
+                            return written;
+                        }
+                    }));
+                    files++;
+                }
+            }
+            long entries = 0;
+            for (Long written : awaitAll(merges)) {
+                entries += written;
+            }
+            logger.info("Sorted " + entries + " entries into " + files + " files in "
+                    + (System.currentTimeMillis() - mergeStart) + " ms, " + rate(entries, mergeStart) + " entries/s");
+
+            long importStart = System.currentTimeMillis();
+            for (String table : tables) {
+                Path files = new Path(new Path(workDir, "files"), table);
+                Path failures = new Path(new Path(workDir, "failures"), table);
+                fs.mkdirs(failures);
+                tableOperations.importDirectory(table, files.toString(), failures.toString(), false);
+            }
+            logger.info("Imported " + tables.length + " tables in " + (System.currentTimeMillis() - importStart)
+                    + " ms, " + rate(statements.get(), start) + " statements/s overall");
+            return statements.get();
+        } finally {
+            progress.shutdownNow();
+            executor.shutdownNow();
+            FileUtil.fullyDelete(loadSpillDir);
+        }
+    }
+
+    /**
+     * Picks the rows that divide a table's runs into ranges merged in parallel, each range ending at its row. A table
+     * with at least a split per thread is divided at its splits, so that each file falls in one tablet, otherwise at
+     * rows sampled from the runs. There are at most {@link #getNumThreads() numThreads} ranges per table.
+     */
+    private List<byte[]> getBoundaries(String table, List<ExternalKeySorter.Run> runs) throws Exception {
+        List<byte[]> candidates = new ArrayList<byte[]>();
+        Collection<Text> splits = connector.tableOperations().listSplits(table);
+        if (splits.size() + 1 >= numThreads) {
+            for (Text split : splits) {
+                candidates.add(split.copyBytes());
+            }
+        } else {
+            for (ExternalKeySorter.Run run : runs) {
+                candidates.addAll(run.getSampleRows());
+            }
+        }
+        Collections.sort(candidates, ROW_ORDER);
+
+        List<byte[]> boundaries = new ArrayList<byte[]>();
+        int count = Math.min(numThreads - 1, candidates.size());
+        for (int i = 1; i <= count; i++) {
+            byte[] row = candidates.get((int) ((long) i * candidates.size() / (count + 1)));
+            if (boundaries.isEmpty() || ROW_ORDER.compare(boundaries.get(boundaries.size() - 1), row) < 0) {
+                boundaries.add(row);
+            }
+        }
+        return boundaries;
+    }
+
+    private static long rate(long count, long start) {
+        return count * 1000 / Math.max(1, System.currentTimeMillis() - start);
+    }
+
+    private static <T> List<T> awaitAll(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private List<Chunk> getChunks(Collection<File> files) {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (File file : files) {
+            RDFFormat fileFormat = format != null ? format : Rio.getParserFormatForFileName(file.getName());
+            Preconditions.checkArgument(fileFormat != null, "Unable to determine the format of " + file);
+            long length = file.length();
+            if (RDFFormat.NTRIPLES.equals(fileFormat) || RDFFormat.NQUADS.equals(fileFormat)) {
+                for (long start = 0; start < length; start += chunkSize) {
+                    chunks.add(new Chunk(file, fileFormat, start, Math.min(length, start + chunkSize)));
+                }
+            } else {
+                chunks.add(new Chunk(file, fileFormat, 0, length));
+            }
+        }
+        return chunks;
+    }
+
+    private void parse(Chunk chunk, final ExternalKeySorter[] threadSorters) throws Exception {
+        final TripleRowResolver rowResolver = RyaTripleContext.getInstance(conf).getTripleResolver();
+        final byte[] cv = conf.getCv() == null ? null : conf.getCv().getBytes();
+        // keep the blank node ids, prefixed by file, so a blank node is one resource across the chunks of its file
+        // and never the same resource as a blank node of another file
+        final String bnodePrefix = RdfFileInputFormat.bnodePrefix(new Path(chunk.file.toURI()));
+        RDFParser parser = Rio.createParser(chunk.format);
+        parser.setParserConfig(new ParserConfig(true, true, true, RDFParser.DatatypeHandling.VERIFY));
+        parser.setRDFHandler(new RDFHandlerBase() {
+            @Override
+            public void handleStatement(Statement statement) throws RDFHandlerException {
+                Resource subject = statement.getSubject();
+                Value object = statement.getObject();
+                Resource context = statement.getContext();
+                if (subject instanceof BNode || object instanceof BNode || context instanceof BNode) {
+                    subject = (Resource) stable(subject);
+                    object = stable(object);
+                    context = (Resource) stable(context);
+                    statement = context == null ? new StatementImpl(subject, statement.getPredicate(), object)
+                            : new ContextStatementImpl(subject, statement.getPredicate(), object, context);
+                }
+                try {
+                    RyaStatement rs = RdfToRyaConversions.convertStatement(statement);
+                    if (rs.getColumnVisibility() == null) {
+                        rs.setColumnVisibility(cv);
+                    }
+                    if (statement.getContext() != null) {
+                        rs.setContext(new RyaURI(statement.getContext().toString()));
+                    }
+                    Map<TABLE_LAYOUT, TripleRow> rows = rowResolver.serialize(rs);
+                    for (int j = 0; j < LAYOUTS.length; j++) {
+                        TripleRow row = rows.get(LAYOUTS[j]);
+                        threadSorters[j].add(from(row), extractValue(row));
+                    }
+                    statements.incrementAndGet();
+                } catch (Exception e) {
+                    throw new RDFHandlerException(e);
+                }
+            }
+
+            private Value stable(Value value) {
+                if (value instanceof BNode) {
+                    return new BNodeImpl(bnodePrefix + ((BNode) value).getID());
+                }
+                return value;
+            }
+        });
+        InputStream in = new FileInputStream(chunk.file);
+        try {
+            LineChunkInputStream chunkIn = new LineChunkInputStream(new BufferedInputStream(in, 1 << 16),
+                    chunk.start, chunk.end);
+            parser.parse(chunkIn, chunk.file.toURI().toString());
+            bytesRead.addAndGet(chunkIn.pos - chunkIn.begin);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Chunk {
+        private final File file;
+        private final RDFFormat format;
+        private final long start;
+        private final long end;
+
+        private Chunk(File file, RDFFormat format, long start, long end) {
+            this.file = file;
+            this.format = format;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Reads the lines that start in [start, end) of a stream: a chunk after the first starts after the first line
+     * break at or after start - 1, and the last line is read past end to its line break.
+     */
+    static class LineChunkInputStream extends InputStream {
+        private final InputStream in;
+        private final long end;
+        private long begin;
+        private long pos;
+        private int last = '\n';
+
+        LineChunkInputStream(InputStream in, long start, long end) throws IOException {
+            this.in = in;
+            this.end = end;
+            if (start > 0) {
+                long skip = start - 1;
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        throw new IOException("Unable to skip to " + start);
+                    }
+                    skip -= skipped;
+                }
+                pos = start - 1;
+                int b;
+                do {
+                    b = in.read();
+                    if (b >= 0) {
+                        pos++;
+                    }
+                } while (b >= 0 && b != '\n');
+            }
+            begin = pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= end && last == '\n') {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                pos++;
+                last = b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos < end) {
+                int n = in.read(b, off, (int) Math.min(len, end - pos));
+                if (n > 0) {
+                    pos += n;
+                    last = b[off + n - 1];
+                }
+                return n;
+            }
+            // finish the line that crosses the end
+            int n = 0;
+            while (n < len && last != '\n') {
+                int c = in.read();
+                if (c < 0) {
+                    break;
+                }
+                pos++;
+                last = c;
+                b[off + n++] = (byte) c;
+            }
+            return n == 0 ? -1 : n;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package mvm.rya.accumulo.experimental;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.domain.RyaURI;
@@ -14,6 +16,15 @@ public abstract class AbstractAccumuloIndexer implements AccumuloIndexer {
     public void setMultiTableBatchWriter(MultiTableBatchWriter writer) throws IOException {
     }
 
+    /**
+     * @return the table of {@link #getTableName()}, if any
+     */
+    @Override
+    public List<String> getTableNames() {
+        String tableName = getTableName();
+        return tableName == null ? Collections.<String>emptyList() : Collections.singletonList(tableName);
+    }
+
     @Override
     public void storeStatements(Collection<RyaStatement> statements) throws IOException {
         for (RyaStatement s : statements) {
@@ -1,6 +1,7 @@
 package mvm.rya.accumulo.experimental;
 
 import java.io.IOException;
+import java.util.List;
 
 import mvm.rya.api.persist.index.RyaSecondaryIndexer;
 
@@ -10,4 +11,9 @@ public interface AccumuloIndexer extends RyaSecondaryIndexer {
     
     public void setMultiTableBatchWriter(MultiTableBatchWriter writer) throws IOException;
 
+    /**
+     * @return every table that the indexer writes to through the writer it is given, empty if it writes on its own
+     */
+    public List<String> getTableNames();
+
 }
\ No newline at end of file
@@ -0,0 +1,583 @@
+package mvm.rya.accumulo.mr.fileinput;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static mvm.rya.accumulo.AccumuloRdfUtils.extractValue;
+import static mvm.rya.accumulo.AccumuloRdfUtils.from;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.accumulo.experimental.AccumuloIndexer;
+import mvm.rya.accumulo.mr.AbstractAccumuloMRTool;
+import mvm.rya.accumulo.mr.utils.MRUtils;
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+import mvm.rya.api.RdfCloudTripleStoreConstants;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.resolver.RdfToRyaConversions;
+import mvm.rya.api.resolver.RyaTripleContext;
+import mvm.rya.api.resolver.triple.TripleRow;
+import mvm.rya.api.resolver.triple.TripleRowResolver;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MultiTableBatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.admin.TableOperations;
+import org.apache.accumulo.core.client.mapreduce.AccumuloFileOutputFormat;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.ColumnUpdate;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.util.TextUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.ParserConfig;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.nquads.NQuadsParser;
+
+/**
+ * Bulk loads N-Quads files into the spo, po and osp tables and the tables of the configured additional indexers with a
+ * single MapReduce job, where {@link BulkNtripsInputTool} runs a job per core table and does not support indexers.
+ * <p/>
+ * Map: parses each line once and emits the entries of every table, keyed by a {@link TableKey}. Every statement and
+ * every indexer entry without a timestamp is stamped with the time of the load, {@link #TIMESTAMP_PROP}, so the
+ * entries of a duplicate statement have equal keys and only one of them is kept. The indexers are
+ * handed a {@link MultiTableBatchWriter} that turns their mutations into entries, so only the indexers that write
+ * through the writer they are given are bulk loaded. The rest write to Accumulo as they do on a live store.
+ * <br/>
+ * Partitioner: {@link TablePartitioner}, one reducer per tablet of each table.
+ * <br/>
+ * Reduce: writes each table's entries to RFiles under its own directory, which are then imported into the tables.
+ */
+public class MultiTableBulkInputTool extends AbstractAccumuloMRTool implements Tool {
+
+    public static final String WORKDIR_PROP = BulkNtripsInputTool.WORKDIR_PROP;
+    public static final String TABLES_PROP = "bulk.tables";
+    public static final String SPLITS_PROP_PREFIX = "bulk.splits.";
+    /** the timestamp of every entry of the load, by default the time the job is submitted */
+    public static final String TIMESTAMP_PROP = "bulk.timestamp";
+
+    /** the tables of the core layouts, in {@link TableKey} order, come before those of the indexers */
+    static final TABLE_LAYOUT[] CORE_LAYOUTS = {TABLE_LAYOUT.SPO, TABLE_LAYOUT.PO, TABLE_LAYOUT.OSP};
+
+    private String workDirBase = "/temp/bulkcb/work";
+    private String format = RDFFormat.NQUADS.getName();
+
+    public static void main(String[] args) throws Exception {
+        ToolRunner.run(new Configuration(), new MultiTableBulkInputTool(), args);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        return runJob(args);
+    }
+
+    public int runJob(String[] args) throws Exception {
+        conf.set(MRUtils.JOB_NAME_PROP, "Bulk Ingest load data to all Rya tables");
+        init();
+        workDirBase = conf.get(WORKDIR_PROP, workDirBase);
+        format = conf.get(MRUtils.FORMAT_PROP, format);
+        conf.set(MRUtils.FORMAT_PROP, format);
+        if (conf.get(RdfCloudTripleStoreConfiguration.CONF_TBL_PREFIX) == null) {
+            conf.set(RdfCloudTripleStoreConfiguration.CONF_TBL_PREFIX, tablePrefix);
+        }
+        String inputPath = conf.get(MRUtils.INPUT_PATH, args[0]);
+
+        Connector connector = mock ? new MockInstance(instance).getConnector(userName, new PasswordToken(pwd))
+                : new ZooKeeperInstance(instance, zk).getConnector(userName, new PasswordToken(pwd));
+        TableOperations tableOperations = connector.tableOperations();
+
+        List<String> tables = getTables(new AccumuloRdfConfiguration(conf));
+        int numPartitions = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            String tableName = tables.get(i);
+            if (!tableOperations.exists(tableName)) {
+                tableOperations.create(tableName);
+            }
+            Collection<Text> splits = tableOperations.getSplits(tableName, Integer.MAX_VALUE);
+            setSplits(conf, i, splits);
+            numPartitions += splits.size() + 1;
+        }
+        conf.setStrings(TABLES_PROP, tables.toArray(new String[tables.size()]));
+        conf.setLong(TIMESTAMP_PROP, conf.getLong(TIMESTAMP_PROP, System.currentTimeMillis()));
+
+        Job job = new Job(conf);
+        job.setJarByClass(MultiTableBulkInputTool.class);
+        Configuration jobConf = job.getConfiguration();
+        jobConf.setBoolean("mapred.map.tasks.speculative.execution", false);
+        jobConf.setBoolean("mapred.reduce.tasks.speculative.execution", false);
+        jobConf.set("io.sort.mb", jobConf.get("io.sort.mb", "256"));
+        jobConf.setBoolean("mapred.compress.map.output", true);
+
+        job.setInputFormatClass(TextInputFormat.class);
+        TextInputFormat.setInputPaths(job, new Path(inputPath));
+
+        job.setMapperClass(ParseRdfMapper.class);
+        job.setMapOutputKeyClass(TableKey.class);
+        job.setMapOutputValueClass(Value.class);
+        job.setCombinerClass(DuplicateCombiner.class);
+        job.setPartitionerClass(TablePartitioner.class);
+        job.setReducerClass(TableFileReducer.class);
+        job.setNumReduceTasks(numPartitions);
+        job.setOutputKeyClass(Key.class);
+        job.setOutputValueClass(Value.class);
+        job.setOutputFormatClass(AccumuloFileOutputFormat.class);
+
+        FileSystem fs = FileSystem.get(conf);
+        Path workPath = new Path(workDirBase);
+        if (fs.exists(workPath)) {
+            fs.delete(workPath, true);
+        }
+        Path filesPath = new Path(workPath, "files");
+        AccumuloFileOutputFormat.setOutputPath(job, filesPath);
+
+        Date startTime = new Date();
+        System.out.println("Job started: " + startTime);
+        if (!job.waitForCompletion(true)) {
+            System.out.println("Job Failed!!!");
+            return 1;
+        }
+        System.out.println("Job ended: " + new Date());
+
+        for (String tableName : tables) {
+            Path tableFiles = new Path(filesPath, tableName);
+            if (!fs.exists(tableFiles)) {
+                // nothing to load into this table
+                continue;
+            }
+            Path failures = new Path(new Path(workPath, "failures"), tableName);
+            fs.mkdirs(failures);
+
+            //make sure that the "accumulo" user can read/write/execute into these directories this path
+            fs.setPermission(tableFiles, new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL));
+            fs.setPermission(failures, new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL));
+
+            System.out.println("Loading data into table[" + tableName + "]");
+            tableOperations.importDirectory(tableName, tableFiles.toString(), failures.toString(), false);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the core tables followed by every table that the additional indexers write to
+     */
+    private List<String> getTables(AccumuloRdfConfiguration rdfConf) throws IOException {
+        Set<String> tables = new LinkedHashSet<String>();
+        for (TABLE_LAYOUT layout : CORE_LAYOUTS) {
+            tables.add(coreTable(tablePrefix, layout));
+        }
+        for (AccumuloIndexer index : rdfConf.getAdditionalIndexers()) {
+            index.setConf(rdfConf);
+            tables.addAll(index.getTableNames());
+            index.close();
+        }
+        return new ArrayList<String>(tables);
+    }
+
+    static String coreTable(String tablePrefix, TABLE_LAYOUT layout) {
+        switch (layout) {
+            case SPO:
+                return tablePrefix + RdfCloudTripleStoreConstants.TBL_SPO_SUFFIX;
+            case PO:
+                return tablePrefix + RdfCloudTripleStoreConstants.TBL_PO_SUFFIX;
+            case OSP:
+                return tablePrefix + RdfCloudTripleStoreConstants.TBL_OSP_SUFFIX;
+            default:
+                throw new IllegalArgumentException("Unrecognized layout[" + layout + "]");
+        }
+    }
+
+    static void setSplits(Configuration conf, int table, Collection<Text> splits) {
+        String[] encoded = new String[splits.size()];
+        int i = 0;
+        for (Text split : splits) {
+            encoded[i++] = new String(Base64.encodeBase64(TextUtil.getBytes(split)));
+        }
+        conf.setStrings(SPLITS_PROP_PREFIX + table, encoded);
+    }
+
+    static Text[] getSplits(Configuration conf, int table) {
+        String[] encoded = conf.getStrings(SPLITS_PROP_PREFIX + table, new String[0]);
+        Text[] splits = new Text[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            splits[i] = new Text(Base64.decodeBase64(encoded[i].getBytes()));
+        }
+        Arrays.sort(splits);
+        return splits;
+    }
+
+    /**
+     * An Accumulo key tagged with the index of its table in {@link #TABLES_PROP}. Sorts by table, then by key.
+     */
+    public static class TableKey implements WritableComparable<TableKey> {
+        private int table;
+        private Key key;
+
+        public TableKey() {
+            this.key = new Key();
+        }
+
+        public TableKey(int table, Key key) {
+            this.table = table;
+            this.key = key;
+        }
+
+        public int getTable() {
+            return table;
+        }
+
+        public Key getKey() {
+            return key;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            WritableUtils.writeVInt(out, table);
+            key.write(out);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            table = WritableUtils.readVInt(in);
+            key.readFields(in);
+        }
+
+        @Override
+        public int compareTo(TableKey o) {
+            if (table != o.table) {
+                return table < o.table ? -1 : 1;
+            }
+            return key.compareTo(o.key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && compareTo((TableKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table + key.hashCode();
+        }
+    }
+
+    /**
+     * Sends each table's keys to the reducers of that table, one for each of its tablets, like the
+     * {@link org.apache.accumulo.core.client.mapreduce.lib.partition.RangePartitioner} does for a single table.
+     */
+    public static class TablePartitioner extends Partitioner<TableKey, Value> implements Configurable {
+        private Configuration conf;
+        private Text[][] splits;
+        private int[] offsets;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            int numTables = conf.getStrings(TABLES_PROP).length;
+            splits = new Text[numTables][];
+            offsets = new int[numTables];
+            int offset = 0;
+            for (int i = 0; i < numTables; i++) {
+                splits[i] = getSplits(conf, i);
+                offsets[i] = offset;
+                offset += splits[i].length + 1;
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(TableKey key, Value value, int numPartitions) {
+            int index = Arrays.binarySearch(splits[key.getTable()], key.getKey().getRow());
+            index = index < 0 ? (index + 1) * -1 : index;
+            return (offsets[key.getTable()] + index) % numPartitions;
+        }
+    }
+
+    /**
+     * input: N-Quads lines
+     * <p/>
+     * output: the entries of the statements in every table
+     */
+    public static class ParseRdfMapper extends Mapper<LongWritable, Text, TableKey, Value> {
+        private RDFParser parser;
+        private String rdfFormat;
+        private Map<String, Integer> tableIndexes;
+        private List<AccumuloIndexer> indexers;
+
+        @Override
+        protected void setup(final Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            Configuration conf = context.getConfiguration();
+            String[] tables = conf.getStrings(TABLES_PROP);
+            checkNotNull(tables, "Set the " + TABLES_PROP + " property on the map reduce job");
+            tableIndexes = new HashMap<String, Integer>();
+            for (int i = 0; i < tables.length; i++) {
+                tableIndexes.put(tables[i], i);
+            }
+
+            AccumuloRdfConfiguration rdfConf = new AccumuloRdfConfiguration(conf);
+            final TripleRowResolver rowResolver = RyaTripleContext.getInstance(rdfConf).getTripleResolver();
+            final String cv_s = conf.get(MRUtils.AC_CV_PROP);
+            final byte[] cv = cv_s == null ? null : cv_s.getBytes();
+            final String namedGraph = conf.get(MRUtils.NAMED_GRAPH_PROP);
+            rdfFormat = conf.get(MRUtils.FORMAT_PROP);
+            checkNotNull(rdfFormat, "Rdf format cannot be null");
+
+            // the same in every mapper, so duplicates in different splits of the input also have equal keys
+            final long timestamp = conf.getLong(TIMESTAMP_PROP, System.currentTimeMillis());
+            MutationCaptureWriter writer = new MutationCaptureWriter(timestamp) {
+                @Override
+                protected void write(String table, Key key, Value value) throws IOException, InterruptedException {
+                    context.write(new TableKey(getTableIndex(table), key), value);
+                }
+            };
+            indexers = rdfConf.getAdditionalIndexers();
+            for (AccumuloIndexer index : indexers) {
+                index.setConf(rdfConf);
+                index.setMultiTableBatchWriter(writer);
+            }
+
+            parser = new NQuadsParser();
+            parser.setParserConfig(new ParserConfig(true, true, true, RDFParser.DatatypeHandling.VERIFY));
+            parser.setRDFHandler(new RDFHandlerBase() {
+                @Override
+                public void handleStatement(Statement statement) throws RDFHandlerException {
+                    try {
+                        RyaStatement rs = RdfToRyaConversions.convertStatement(statement);
+                        rs.setTimestamp(timestamp);
+                        if (rs.getColumnVisibility() == null) {
+                            rs.setColumnVisibility(cv);
+                        }
+
+                        // Inject the specified context into the statement.
+                        if (namedGraph != null) {
+                            rs.setContext(new RyaURI(namedGraph));
+                        } else if (statement.getContext() != null) {
+                            rs.setContext(new RyaURI(statement.getContext().toString()));
+                        }
+
+                        Map<TABLE_LAYOUT, TripleRow> serialize = rowResolver.serialize(rs);
+                        for (int i = 0; i < CORE_LAYOUTS.length; i++) {
+                            TripleRow tripleRow = serialize.get(CORE_LAYOUTS[i]);
+                            context.write(new TableKey(i, from(tripleRow)), extractValue(tripleRow));
+                        }
+                        for (AccumuloIndexer index : indexers) {
+                            index.storeStatement(rs);
+                        }
+                    } catch (Exception e) {
+                        throw new RDFHandlerException(e);
+                    }
+                }
+            });
+        }
+
+        private int getTableIndex(String table) {
+            Integer index = tableIndexes.get(table);
+            if (index == null) {
+                throw new IllegalStateException("Unrecognized table[" + table + "]");
+            }
+            return index;
+        }
+
+        @Override
+        public void map(LongWritable key, Text value, Context output) throws IOException, InterruptedException {
+            String rdf = value.toString();
+            try {
+                parser.parse(new StringReader(rdf), "");
+            } catch (RDFParseException e) {
+                System.out.println("Line[" + rdf + "] cannot be formatted with format[" + rdfFormat + "]. Exception[" + e.getMessage() + "]");
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new IOException("Exception occurred parsing triple[" + rdf + "]");
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            for (AccumuloIndexer index : indexers) {
+                index.flush();
+                index.close();
+            }
+            super.cleanup(context);
+        }
+    }
+
+    /**
+     * Keeps one entry of each duplicate key of the core tables. The indexers' entries are kept as they are, their
+     * tables may combine the values of equal keys.
+     */
+    public static class DuplicateCombiner extends Reducer<TableKey, Value, TableKey, Value> {
+        @Override
+        protected void reduce(TableKey key, Iterable<Value> values, Context context) throws IOException,
+                InterruptedException {
+            for (Value value : values) {
+                context.write(key, value);
+                if (key.getTable() < CORE_LAYOUTS.length) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of each table to the RFiles in the table's directory of the job output.
+     */
+    public static class TableFileReducer extends Reducer<TableKey, Value, Key, Value> {
+        private String[] tables;
+        private MultipleOutputs<Key, Value> outputs;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            tables = context.getConfiguration().getStrings(TABLES_PROP);
+            outputs = new MultipleOutputs<Key, Value>(context);
+        }
+
+        @Override
+        protected void reduce(TableKey key, Iterable<Value> values, Context context) throws IOException,
+                InterruptedException {
+            String output = tables[key.getTable()] + "/part";
+            for (Value value : values) {
+                outputs.write(key.getKey(), value, output);
+                if (key.getTable() < CORE_LAYOUTS.length) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+            super.cleanup(context);
+        }
+    }
+
+    /**
+     * Hands the entries of the mutations written to it to {@link #write(String, Key, Value)} instead of Accumulo.
+     * Entries without a timestamp get the given one.
+     */
+    abstract static class MutationCaptureWriter implements MultiTableBatchWriter {
+        private final long timestamp;
+        private boolean closed = false;
+
+        MutationCaptureWriter(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        protected abstract void write(String table, Key key, Value value) throws IOException, InterruptedException;
+
+        @Override
+        public BatchWriter getBatchWriter(final String table) {
+            return new BatchWriter() {
+                @Override
+                public void addMutation(Mutation m) throws MutationsRejectedException {
+                    for (ColumnUpdate update : m.getUpdates()) {
+                        Key key = new Key(m.getRow(), update.getColumnFamily(), update.getColumnQualifier(),
+                                update.getColumnVisibility(), update.hasTimestamp() ? update.getTimestamp()
+                                        : timestamp, update.isDeleted());
+                        try {
+                            write(table, key, new Value(update.getValue()));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+
+                @Override
+                public void addMutations(Iterable<Mutation> iterable) throws MutationsRejectedException {
+                    for (Mutation m : iterable) {
+                        addMutation(m);
+                    }
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
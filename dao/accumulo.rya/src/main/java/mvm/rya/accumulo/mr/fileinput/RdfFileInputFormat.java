@@ -21,8 +21,13 @@ package mvm.rya.accumulo.mr.fileinput;
  */
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import mvm.rya.accumulo.AccumuloRdfConfiguration;
 import mvm.rya.accumulo.mr.utils.MRUtils;
@@ -35,110 +40,330 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.ContextStatementImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.rio.ParserConfig;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
 /**
  * Be able to input multiple rdf formatted files. Convert from rdf format to statements.
  * Class RdfFileInputFormat
  * Date: May 16, 2011
  * Time: 2:11:24 PM
+ * <p>
+ * N-Triples and N-Quads files hold one statement per line, so they are split on line boundaries like text input, unless
+ * they are compressed with a codec that cannot be split. Each split is parsed synchronously, a batch of lines at a time.
+ * Other formats are read whole by one reader, which parses on a background thread into a queue of at most
+ * {@link #QUEUE_SIZE_PROP} statements.
+ * <p>
+ * Blank node ids are kept as written and prefixed with a hash of the file path, so a blank node is the same resource in
+ * every split of its file and distinct from blank nodes of other files.
  */
 public class RdfFileInputFormat extends FileInputFormat<LongWritable, RyaStatementWritable> {
 
+    public static final String QUEUE_SIZE_PROP = "rdf.input.queue.size";
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final String LINE_BATCH_PROP = "rdf.input.line.batch";
+    public static final int DEFAULT_LINE_BATCH = 1000;
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        if (!isLineBased(getFormat(context.getConfiguration()))) {
+            return false;
+        }
+        CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
     @Override
     public RecordReader<LongWritable, RyaStatementWritable> createRecordReader(InputSplit inputSplit,
                                                                                TaskAttemptContext taskAttemptContext)
             throws IOException, InterruptedException {
+        if (isLineBased(getFormat(taskAttemptContext.getConfiguration()))) {
+            return new LineRdfRecordReader();
+        }
         return new RdfFileRecordReader();
     }
 
-    private class RdfFileRecordReader extends RecordReader<LongWritable, RyaStatementWritable> implements RDFHandler {
+    private static RDFFormat getFormat(Configuration conf) {
+        return RDFFormat.valueOf(conf.get(MRUtils.FORMAT_PROP, RDFFormat.RDFXML.getName()));
+    }
 
-        boolean closed = false;
-        long count = 0;
-        BlockingQueue<RyaStatementWritable> queue = new LinkedBlockingQueue<RyaStatementWritable>();
-        int total = 0;
-		private RyaTripleContext tripleContext;
-        
+    private static boolean isLineBased(RDFFormat format) {
+        return RDFFormat.NTRIPLES.equals(format) || RDFFormat.NQUADS.equals(format);
+    }
 
-        @Override
-        public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
-            FileSplit fileSplit = (FileSplit) inputSplit;
-            Configuration conf = taskAttemptContext.getConfiguration();
-            String rdfForm_s = conf.get(MRUtils.FORMAT_PROP, RDFFormat.RDFXML.getName());
-            RDFFormat rdfFormat = RDFFormat.valueOf(rdfForm_s);
-            tripleContext = RyaTripleContext.getInstance(new AccumuloRdfConfiguration(conf));
+    /**
+     * @return the prefix of the blank node ids of a file, the same for every split or chunk of it
+     */
+    public static String bnodePrefix(Path file) {
+        return Hashing.md5().hashString(file.toString(), Charsets.UTF_8).toString().substring(0, 16) + "-";
+    }
 
-            Path file = fileSplit.getPath();
-            FileSystem fs = file.getFileSystem(conf);
-            FSDataInputStream fileIn = fs.open(fileSplit.getPath());
+    /**
+     * Converts the parsed statements of one file, see {@link #add(RyaStatementWritable)}.
+     */
+    private abstract static class AbstractRdfRecordReader extends RecordReader<LongWritable, RyaStatementWritable>
+            implements RDFHandler {
 
-            RDFParser rdfParser = Rio.createParser(rdfFormat);
+        protected RyaTripleContext tripleContext;
+        protected String bnodePrefix;
+        protected final LongWritable key = new LongWritable();
+        protected RyaStatementWritable value;
+        protected long count = 0;
+
+        protected RDFParser createParser(Configuration conf, Path file) {
+            tripleContext = RyaTripleContext.getInstance(new AccumuloRdfConfiguration(conf));
+            bnodePrefix = bnodePrefix(file);
+            RDFParser rdfParser = Rio.createParser(getFormat(conf));
+            rdfParser.setParserConfig(new ParserConfig(true, true, true, RDFParser.DatatypeHandling.VERIFY));
             rdfParser.setRDFHandler(this);
+            return rdfParser;
+        }
+
+        protected abstract void add(RyaStatementWritable statement) throws InterruptedException;
+
+        @Override
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return key;
+        }
+
+        @Override
+        public RyaStatementWritable getCurrentValue() throws IOException, InterruptedException {
+            return value;
+        }
+
+        @Override
+        public void startRDF() throws RDFHandlerException {
+        }
+
+        @Override
+        public void endRDF() throws RDFHandlerException {
+        }
+
+        @Override
+        public void handleNamespace(String s, String s1) throws RDFHandlerException {
+        }
+
+        @Override
+        public void handleStatement(Statement statement) throws RDFHandlerException {
+            Resource subject = statement.getSubject();
+            Value object = statement.getObject();
+            Resource context = statement.getContext();
+            if (subject instanceof BNode || object instanceof BNode || context instanceof BNode) {
+                subject = (Resource) stable(subject);
+                object = stable(object);
+                context = (Resource) stable(context);
+                statement = context == null ? new StatementImpl(subject, statement.getPredicate(), object)
+                        : new ContextStatementImpl(subject, statement.getPredicate(), object, context);
+            }
             try {
-                rdfParser.parse(fileIn, "");
-            } catch (Exception e) {
-                throw new IOException(e);
+                add(new RyaStatementWritable(RdfToRyaConversions.convertStatement(statement), tripleContext));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RDFHandlerException(e);
+            }
+        }
+
+        private Value stable(Value value) {
+            if (value instanceof BNode) {
+                return new BNodeImpl(bnodePrefix + ((BNode) value).getID());
             }
-            fileIn.close();
-            total = queue.size();
-            //TODO: Make this threaded so that you don't hold too many statements before sending them
+            return value;
         }
 
         @Override
-        public boolean nextKeyValue() throws IOException, InterruptedException {
-            return queue.size() > 0;
+        public void handleComment(String s) throws RDFHandlerException {
         }
+    }
+
+    /**
+     * Reads the lines of a split with a {@link LineRecordReader}, which skips the partial first line and reads past
+     * the end of the split to finish the last line, and parses them in batches of {@link #LINE_BATCH_PROP} lines.
+     */
+    private static class LineRdfRecordReader extends AbstractRdfRecordReader {
+
+        private final LineRecordReader lineReader = new LineRecordReader();
+        private final List<RyaStatementWritable> batch = new ArrayList<RyaStatementWritable>();
+        private final StringBuilder lines = new StringBuilder();
+        private Iterator<RyaStatementWritable> iterator = batch.iterator();
+        private RDFParser rdfParser;
+        private int batchSize;
 
         @Override
-        public LongWritable getCurrentKey() throws IOException, InterruptedException {
-            return new LongWritable(count++);
+        public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
+            Configuration conf = taskAttemptContext.getConfiguration();
+            rdfParser = createParser(conf, ((FileSplit) inputSplit).getPath());
+            batchSize = conf.getInt(LINE_BATCH_PROP, DEFAULT_LINE_BATCH);
+            lineReader.initialize(inputSplit, taskAttemptContext);
         }
 
         @Override
-        public RyaStatementWritable getCurrentValue() throws IOException, InterruptedException {
-            return queue.poll();
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            while (!iterator.hasNext()) {
+                batch.clear();
+                lines.setLength(0);
+                int read = 0;
+                while (read < batchSize && lineReader.nextKeyValue()) {
+                    Text line = lineReader.getCurrentValue();
+                    lines.append(line.toString()).append('\n');
+                    read++;
+                }
+                if (read == 0) {
+                    return false;
+                }
+                try {
+                    rdfParser.parse(new StringReader(lines.toString()), "");
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                iterator = batch.iterator();
+            }
+            value = iterator.next();
+            key.set(count++);
+            return true;
+        }
+
+        @Override
+        protected void add(RyaStatementWritable statement) {
+            batch.add(statement);
         }
 
         @Override
         public float getProgress() throws IOException, InterruptedException {
-            return ((float) (total - queue.size())) / ((float) total);
+            return lineReader.getProgress();
         }
 
         @Override
         public void close() throws IOException {
-            closed = true;
+            lineReader.close();
         }
+    }
+
+    /**
+     * Parses a whole file on a background thread. The parser blocks while the queue is full, so at most
+     * {@link #QUEUE_SIZE_PROP} statements are held no matter how far the mapper lags.
+     */
+    private static class RdfFileRecordReader extends AbstractRdfRecordReader {
+
+        /**
+         * Marks the end of the file in the queue.
+         */
+        private static final RyaStatementWritable END = new RyaStatementWritable(null);
+
+        private BlockingQueue<RyaStatementWritable> queue;
+        private FSDataInputStream fileIn;
+        private Thread parserThread;
+        private volatile Throwable error;
+        private volatile long pos = 0;
+        private long length;
+        private boolean done = false;
 
         @Override
-        public void startRDF() throws RDFHandlerException {
+        public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
+            FileSplit fileSplit = (FileSplit) inputSplit;
+            Configuration conf = taskAttemptContext.getConfiguration();
+            Path file = fileSplit.getPath();
+            final RDFParser rdfParser = createParser(conf, file);
+            queue = new ArrayBlockingQueue<RyaStatementWritable>(conf.getInt(QUEUE_SIZE_PROP, DEFAULT_QUEUE_SIZE));
+            length = fileSplit.getLength();
+
+            FileSystem fs = file.getFileSystem(conf);
+            fileIn = fs.open(file);
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+            final InputStream in = codec == null ? fileIn : codec.createInputStream(fileIn);
+
+            parserThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rdfParser.parse(in, "");
+                    } catch (Throwable t) {
+                        error = t;
+                    } finally {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            if (error == null) {
+                                error = e;
+                            }
+                        }
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException e) {
+                            // the reader is closed, nobody waits for the end
+                        }
+                    }
+                }
+            }, "rdf-parser-" + file.getName());
+            parserThread.setDaemon(true);
+            parserThread.start();
         }
 
         @Override
-        public void endRDF() throws RDFHandlerException {
+        protected void add(RyaStatementWritable statement) throws InterruptedException {
+            queue.put(statement);
+            try {
+                pos = fileIn.getPos();
+            } catch (IOException e) {
+                // only used for progress
+            }
         }
 
         @Override
-        public void handleNamespace(String s, String s1) throws RDFHandlerException {
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            if (done) {
+                return false;
+            }
+            RyaStatementWritable next = queue.take();
+            if (next == END) {
+                done = true;
+                if (error != null) {
+                    throw new IOException(error);
+                }
+                return false;
+            }
+            value = next;
+            key.set(count++);
+            return true;
         }
 
         @Override
-        public void handleStatement(Statement statement) throws RDFHandlerException {
-            queue.add(new RyaStatementWritable(RdfToRyaConversions.convertStatement(statement), tripleContext));
+        public float getProgress() throws IOException, InterruptedException {
+            if (done || length == 0) {
+                return 1.0f;
+            }
+            return Math.min(1.0f, (float) pos / (float) length);
         }
 
         @Override
-        public void handleComment(String s) throws RDFHandlerException {
+        public void close() throws IOException {
+            if (parserThread != null) {
+                parserThread.interrupt();
+            }
         }
     }
 
@@ -22,12 +22,18 @@ package mvm.rya.accumulo.query;
 
 import static mvm.rya.api.RdfCloudTripleStoreUtils.layoutToTable;
 import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LimitIteration;
+import info.aduna.iteration.UnionIteration;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 import mvm.rya.accumulo.AccumuloRdfConfiguration;
@@ -42,8 +48,10 @@ import mvm.rya.api.domain.RyaURI;
 import mvm.rya.api.layout.TableLayoutStrategy;
 import mvm.rya.api.persist.RyaDAOException;
 import mvm.rya.api.persist.query.BatchRyaQuery;
+import mvm.rya.api.persist.query.QueryCancellation;
 import mvm.rya.api.persist.query.RyaQuery;
 import mvm.rya.api.persist.query.RyaQueryEngine;
+import mvm.rya.api.persist.query.RyaQueryOptions;
 import mvm.rya.api.query.strategy.ByteRange;
 import mvm.rya.api.query.strategy.TriplePatternStrategy;
 import mvm.rya.api.resolver.RyaContext;
@@ -79,6 +87,10 @@ import com.google.common.collect.Iterators;
  */
 public class AccumuloRyaQueryEngine implements RyaQueryEngine<AccumuloRdfConfiguration> {
 
+    //relative costs used to choose between serial scanners and a batch scanner
+    private static final double RANGE_SCAN_COST = 1.0;
+    private static final double BATCH_SCANNER_SETUP_COST = 2.0;
+
     private AccumuloRdfConfiguration configuration;
     private Connector connector;
     private RyaTripleContext ryaContext;
@@ -124,66 +136,57 @@ public class AccumuloRyaQueryEngine implements RyaQueryEngine<AccumuloRdfConfigu
         Long maxResults = conf.getLimit();
         Integer maxRanges = conf.getMaxRangesForScanner();
         Integer numThreads = conf.getNumThreads();
+        QueryCancellation cancellation = conf.getCancellation();
 
-        //TODO: cannot span multiple tables here
         try {
-            Collection<Range> ranges = new HashSet<Range>();
-            RangeBindingSetEntries rangeMap = new RangeBindingSetEntries();
-            TABLE_LAYOUT layout = null;
-            RyaURI context = null;
-            TriplePatternStrategy strategy = null;
+            Map<Map.Entry<TABLE_LAYOUT, RyaURI>, ScanGroup> groups = new LinkedHashMap<Map.Entry<TABLE_LAYOUT, RyaURI>, ScanGroup>();
             for (Map.Entry<RyaStatement, BindingSet> stmtbs : stmts) {
-                RyaStatement stmt = stmtbs.getKey();
-                context = stmt.getContext(); //TODO: This will be overwritten
-                BindingSet bs = stmtbs.getValue();
-                strategy = ryaContext.retrieveStrategy(stmt);
-                if (strategy == null) {
-                    throw new IllegalArgumentException("TriplePattern[" + stmt + "] not supported");
-                }
-
-                Map.Entry<RdfCloudTripleStoreConstants.TABLE_LAYOUT, ByteRange> entry =
-                        strategy.defineRange(stmt.getSubject(), stmt.getPredicate(), stmt.getObject(), stmt.getContext(), conf);
-
-                //use range to set scanner
-                //populate scanner based on authorizations, ttl
-                layout = entry.getKey();
-                ByteRange byteRange = entry.getValue();
-                Range range = new Range(new Text(byteRange.getStart()), new Text(byteRange.getEnd()));
-                ranges.add(range);
-                rangeMap.ranges.add(new RdfCloudTripleStoreUtils.CustomEntry<Range, BindingSet>(range, bs));
+                addToGroup(groups, stmtbs.getKey(), stmtbs.getValue(), conf);
             }
             //no ranges
-            if (layout == null) return null;
+            if (groups.isEmpty()) return null;
             String regexSubject = conf.getRegexSubject();
             String regexPredicate = conf.getRegexPredicate();
             String regexObject = conf.getRegexObject();
-            TripleRowRegex tripleRowRegex = strategy.buildRegex(regexSubject, regexPredicate, regexObject, null, null);
-
-            String table = layoutToTable(layout, conf);
-            boolean useBatchScanner = ranges.size() > maxRanges;
-            RyaStatementBindingSetKeyValueIterator iterator = null;
-            if (useBatchScanner) {
-                ScannerBase scanner = connector.createBatchScanner(table, authorizations, numThreads);
-                ((BatchScanner) scanner).setRanges(ranges);
-                fillScanner(scanner, context, null, ttl, null, tripleRowRegex, conf);
-                iterator = new RyaStatementBindingSetKeyValueIterator(layout, ryaContext, scanner, rangeMap);
-            } else {
-                Scanner scannerBase = null;
-                Iterator<Map.Entry<Key, Value>>[] iters = new Iterator[ranges.size()];
-                int i = 0;
-                for (Range range : ranges) {
-                    scannerBase = connector.createScanner(table, authorizations);
-                    scannerBase.setRange(range);
-                    fillScanner(scannerBase, context, null, ttl, null, tripleRowRegex, conf);
-                    iters[i] = scannerBase.iterator();
-                    i++;
+
+            //start every group before reading any of them, so the batch scanners fetch concurrently
+            List<RyaStatementBindingSetKeyValueIterator> iterators = new ArrayList<RyaStatementBindingSetKeyValueIterator>(groups.size());
+            for (ScanGroup group : groups.values()) {
+                TripleRowRegex tripleRowRegex = group.strategy.buildRegex(regexSubject, regexPredicate, regexObject, null, null);
+                String table = layoutToTable(group.layout, conf);
+                RyaStatementBindingSetKeyValueIterator iterator;
+                if (useBatchScanner(group.ranges.size(), maxRanges, numThreads)) {
+                    ScannerBase scanner = connector.createBatchScanner(table, authorizations, numThreads);
+                    ((BatchScanner) scanner).setRanges(group.ranges);
+                    fillScanner(scanner, group.context, null, ttl, null, tripleRowRegex, conf);
+                    iterator = new RyaStatementBindingSetKeyValueIterator(group.layout, ryaContext, scanner, group.rangeMap);
+                } else {
+                    Iterator<Map.Entry<Key, Value>>[] iters = new Iterator[group.ranges.size()];
+                    int i = 0;
+                    for (Range range : group.ranges) {
+                        Scanner scannerBase = connector.createScanner(table, authorizations);
+                        scannerBase.setRange(range);
+                        fillScanner(scannerBase, group.context, null, ttl, null, tripleRowRegex, conf);
+                        iters[i] = scannerBase.iterator();
+                        i++;
+                    }
+                    iterator = new RyaStatementBindingSetKeyValueIterator(group.layout, Iterators.concat(iters), group.rangeMap, ryaContext);
+                }
+                if (maxResults != null) {
+                    iterator.setMaxResults(maxResults);
                 }
-                iterator = new RyaStatementBindingSetKeyValueIterator(layout, Iterators.concat(iters), rangeMap, ryaContext);
+                iterator.setCancellation(cancellation);
+                iterators.add(iterator);
+            }
+            if (iterators.size() == 1) {
+                return iterators.get(0);
             }
+            CloseableIteration<Map.Entry<RyaStatement, BindingSet>, RyaDAOException> union =
+                    new UnionIteration<Map.Entry<RyaStatement, BindingSet>, RyaDAOException>(iterators);
             if (maxResults != null) {
-                iterator.setMaxResults(maxResults);
+                union = new LimitIteration<Map.Entry<RyaStatement, BindingSet>, RyaDAOException>(union, maxResults);
             }
-            return iterator;
+            return union;
         } catch (Exception e) {
             throw new RyaDAOException(e);
         }
@@ -266,7 +269,7 @@ public class AccumuloRyaQueryEngine implements RyaQueryEngine<AccumuloRdfConfigu
             }
             fillScanner(scanner, context, qualifier, ttl, currentTime, tripleRowRegex, ryaQuery.getConf());
 
-            FluentCloseableIterable<RyaStatement> results = FluentCloseableIterable.from(new ScannerBaseCloseableIterable(scanner))
+            FluentCloseableIterable<RyaStatement> results = FluentCloseableIterable.from(new ScannerBaseCloseableIterable(scanner, getCancellation(ryaQuery)))
                     .transform(keyValueToRyaStatementFunctionMap.get(layout));
             if (maxResults != null) {
                 results = results.limit(maxResults.intValue());
@@ -298,61 +301,51 @@ public class AccumuloRyaQueryEngine implements RyaQueryEngine<AccumuloRdfConfigu
         TableLayoutStrategy tableLayoutStrategy = configuration.getTableLayoutStrategy();
         int maxRanges = ryaQuery.getMaxRanges();
 
-        //TODO: cannot span multiple tables here
         try {
-            Collection<Range> ranges = new HashSet<Range>();
-            TABLE_LAYOUT layout = null;
-            RyaURI context = null;
-            TriplePatternStrategy strategy = null;
+            Map<Map.Entry<TABLE_LAYOUT, RyaURI>, ScanGroup> groups = new LinkedHashMap<Map.Entry<TABLE_LAYOUT, RyaURI>, ScanGroup>();
             for (RyaStatement stmt : stmts) {
-                context = stmt.getContext(); //TODO: This will be overwritten
-                strategy = ryaContext.retrieveStrategy(stmt);
-                if (strategy == null) {
-                    throw new IllegalArgumentException("TriplePattern[" + stmt + "] not supported");
-                }
-
-                Map.Entry<RdfCloudTripleStoreConstants.TABLE_LAYOUT, ByteRange> entry =
-                        strategy.defineRange(stmt.getSubject(), stmt.getPredicate(), stmt.getObject(), stmt.getContext(), null);
-
-                //use range to set scanner
-                //populate scanner based on authorizations, ttl
-                layout = entry.getKey();
-                ByteRange byteRange = entry.getValue();
-                Range range = new Range(new Text(byteRange.getStart()), new Text(byteRange.getEnd()));
-                ranges.add(range);
+                addToGroup(groups, stmt, null, null);
             }
             //no ranges
-            if (layout == null) throw new IllegalArgumentException("No table layout specified");
-
-            final TripleRowRegex tripleRowRegex = strategy.buildRegex(regexSubject, regexPredicate, regexObject, null, null);
-
-            final String table = layoutToTable(layout, tableLayoutStrategy);
-            boolean useBatchScanner = ranges.size() > maxRanges;
-            FluentCloseableIterable<RyaStatement> results = null;
-            if (useBatchScanner) {
-                BatchScanner scanner = connector.createBatchScanner(table, authorizations, numQueryThreads);
-                scanner.setRanges(ranges);
-                fillScanner(scanner, context, null, ttl, null, tripleRowRegex, ryaQuery.getConf());
-                results = FluentCloseableIterable.from(new ScannerBaseCloseableIterable(scanner)).transform(keyValueToRyaStatementFunctionMap.get(layout));
-            } else {
-                final RyaURI fcontext = context;
-                final RdfCloudTripleStoreConfiguration fconf = ryaQuery.getConf();
-                FluentIterable<RyaStatement> fluent = FluentIterable.from(ranges).transformAndConcat(new Function<Range, Iterable<Map.Entry<Key, Value>>>() {
-                    @Override
-                    public Iterable<Map.Entry<Key, Value>> apply(Range range) {
-                        try {
-                            Scanner scanner = connector.createScanner(table, authorizations);
-                            scanner.setRange(range);
-                            fillScanner(scanner, fcontext, null, ttl, null, tripleRowRegex, fconf);
-                            return scanner;
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
+            if (groups.isEmpty()) throw new IllegalArgumentException("No table layout specified");
+
+            final RdfCloudTripleStoreConfiguration fconf = ryaQuery.getConf();
+            final QueryCancellation cancellation = getCancellation(ryaQuery);
+            List<CloseableIterable<RyaStatement>> groupResults = new ArrayList<CloseableIterable<RyaStatement>>(groups.size());
+            for (ScanGroup group : groups.values()) {
+                final TripleRowRegex tripleRowRegex = group.strategy.buildRegex(regexSubject, regexPredicate, regexObject, null, null);
+                final String table = layoutToTable(group.layout, tableLayoutStrategy);
+                final RyaURI fcontext = group.context;
+                if (useBatchScanner(group.ranges.size(), maxRanges, numQueryThreads)) {
+                    BatchScanner scanner = connector.createBatchScanner(table, authorizations, numQueryThreads);
+                    scanner.setRanges(group.ranges);
+                    fillScanner(scanner, fcontext, null, ttl, null, tripleRowRegex, fconf);
+                    groupResults.add(FluentCloseableIterable.from(new ScannerBaseCloseableIterable(scanner, cancellation))
+                            .transform(keyValueToRyaStatementFunctionMap.get(group.layout)));
+                } else {
+                    FluentIterable<RyaStatement> fluent = FluentIterable.from(group.ranges).transformAndConcat(new Function<Range, Iterable<Map.Entry<Key, Value>>>() {
+                        @Override
+                        public Iterable<Map.Entry<Key, Value>> apply(Range range) {
+                            if (cancellation != null && cancellation.isCancelled()) {
+                                //the query reports the cancellation, do not start more scans
+                                return Collections.emptyList();
+                            }
+                            try {
+                                Scanner scanner = connector.createScanner(table, authorizations);
+                                scanner.setRange(range);
+                                fillScanner(scanner, fcontext, null, ttl, null, tripleRowRegex, fconf);
+                                return scanner;
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
                         }
-                    }
-                }).transform(keyValueToRyaStatementFunctionMap.get(layout));
-
-                results = FluentCloseableIterable.from(CloseableIterables.wrap(fluent));
+                    }).transform(keyValueToRyaStatementFunctionMap.get(group.layout));
+                    groupResults.add(CloseableIterables.wrap(fluent));
+                }
             }
+            FluentCloseableIterable<RyaStatement> results = groupResults.size() == 1
+                    ? FluentCloseableIterable.from(groupResults.get(0))
+                    : FluentCloseableIterable.from(new ConcatCloseableIterable<RyaStatement>(groupResults));
             if (maxResults != null) {
                 results = results.limit(maxResults.intValue());
             }
@@ -362,6 +355,71 @@ public class AccumuloRyaQueryEngine implements RyaQueryEngine<AccumuloRdfConfigu
         }
     }
 
+    private static QueryCancellation getCancellation(RyaQueryOptions ryaQuery) {
+        return ryaQuery.getConf() != null ? ryaQuery.getConf().getCancellation() : null;
+    }
+
+    /**
+     * Adds the range of a triple pattern, and the binding set it was asked for if any, to the group for its table
+     * layout and context, creating the group if needed.
+     */
+    private void addToGroup(Map<Map.Entry<TABLE_LAYOUT, RyaURI>, ScanGroup> groups, RyaStatement stmt, BindingSet bs,
+                            RdfCloudTripleStoreConfiguration conf) throws IOException {
+        TriplePatternStrategy strategy = ryaContext.retrieveStrategy(stmt);
+        if (strategy == null) {
+            throw new IllegalArgumentException("TriplePattern[" + stmt + "] not supported");
+        }
+        Map.Entry<RdfCloudTripleStoreConstants.TABLE_LAYOUT, ByteRange> entry =
+                strategy.defineRange(stmt.getSubject(), stmt.getPredicate(), stmt.getObject(), stmt.getContext(), conf);
+        ByteRange byteRange = entry.getValue();
+        Range range = new Range(new Text(byteRange.getStart()), new Text(byteRange.getEnd()));
+
+        Map.Entry<TABLE_LAYOUT, RyaURI> key = new RdfCloudTripleStoreUtils.CustomEntry<TABLE_LAYOUT, RyaURI>(entry.getKey(), stmt.getContext());
+        ScanGroup group = groups.get(key);
+        if (group == null) {
+            group = new ScanGroup(entry.getKey(), stmt.getContext(), strategy);
+            groups.put(key, group);
+        }
+        group.ranges.add(range);
+        if (bs != null) {
+            group.rangeMap.ranges.add(new RdfCloudTripleStoreUtils.CustomEntry<Range, BindingSet>(range, bs));
+        }
+    }
+
+    /**
+     * Serial scanners pay one round trip per range, one after the other. A batch scanner pays a fixed cost to start its
+     * threads and sessions, then spreads the ranges over its threads. Use whichever is cheaper, unless the caller fixed
+     * the number of ranges a serial scan may take.
+     *
+     * @param maxRanges the most ranges to scan serially, or negative to decide by cost
+     */
+    static boolean useBatchScanner(int numRanges, Integer maxRanges, Integer numThreads) {
+        if (maxRanges != null && maxRanges >= 0) {
+            return numRanges > maxRanges;
+        }
+        int threads = numThreads == null || numThreads < 1 ? 1 : numThreads;
+        double serialCost = numRanges * RANGE_SCAN_COST;
+        double batchCost = BATCH_SCANNER_SETUP_COST + Math.ceil((double) numRanges / threads) * RANGE_SCAN_COST;
+        return batchCost < serialCost;
+    }
+
+    /**
+     * The ranges of a batch that read the same table with the same context.
+     */
+    private static class ScanGroup {
+        private final TABLE_LAYOUT layout;
+        private final RyaURI context;
+        private final TriplePatternStrategy strategy;
+        private final Collection<Range> ranges = new LinkedHashSet<Range>();
+        private final RangeBindingSetEntries rangeMap = new RangeBindingSetEntries();
+
+        private ScanGroup(TABLE_LAYOUT layout, RyaURI context, TriplePatternStrategy strategy) {
+            this.layout = layout;
+            this.context = context;
+            this.strategy = strategy;
+        }
+    }
+
     protected void fillScanner(ScannerBase scanner, RyaURI context, String qualifier, Long ttl, Long currentTime, TripleRowRegex tripleRowRegex, RdfCloudTripleStoreConfiguration conf) throws IOException {
         if (context != null && qualifier != null) {
             scanner.fetchColumn(new Text(context.getData()), new Text(qualifier));
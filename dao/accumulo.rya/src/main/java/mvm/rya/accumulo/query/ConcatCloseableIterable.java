@@ -0,0 +1,70 @@
+package mvm.rya.accumulo.query;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.calrissian.mango.collect.AbstractCloseableIterable;
+import org.calrissian.mango.collect.CloseableIterable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+/**
+ * Reads several {@link CloseableIterable}s one after the other. All of them are started when iteration begins, so
+ * sources that fetch in the background, like batch scanners, fill up while the earlier ones are being read.
+ */
+public class ConcatCloseableIterable<T> extends AbstractCloseableIterable<T> {
+
+    private final List<CloseableIterable<T>> iterables;
+
+    public ConcatCloseableIterable(List<CloseableIterable<T>> iterables) {
+        Preconditions.checkNotNull(iterables);
+        this.iterables = iterables;
+    }
+
+    @Override
+    protected void doClose() throws IOException {
+        IOException failure = null;
+        for (CloseableIterable<T> iterable : iterables) {
+            try {
+                iterable.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    protected Iterator<T> retrieveIterator() {
+        List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(iterables.size());
+        for (CloseableIterable<T> iterable : iterables) {
+            iterators.add(iterable.iterator());
+        }
+        return Iterators.concat(iterators.iterator());
+    }
+}
@@ -26,8 +26,6 @@ import mvm.rya.api.RdfCloudTripleStoreConfiguration;
 import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.resolver.RyaTripleContext;
-import mvm.rya.api.resolver.triple.TripleRow;
-import mvm.rya.api.resolver.triple.TripleRowResolverException;
 
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
@@ -50,22 +48,7 @@ public class KeyValueToRyaStatementFunction implements Function<Map.Entry<Key, V
 
     @Override
     public RyaStatement apply(Map.Entry<Key, Value> input) {
-        Key key = input.getKey();
-        Value value = input.getValue();
-        RyaStatement statement = null;
-        try {
-            statement = context.deserializeTriple(tableLayout,
-                    new TripleRow(key.getRowData().toArray(),
-                            key.getColumnFamilyData().toArray(),
-                            key.getColumnQualifierData().toArray(),
-                            key.getTimestamp(),
-                            key.getColumnVisibilityData().toArray(),
-                            (value != null) ? value.get() : null
-                    ));
-        } catch (TripleRowResolverException e) {
-            throw new RuntimeException(e);
-        }
-
-        return statement;
+        //components are decoded from the key when the caller asks for them
+        return new LazyRyaStatement(tableLayout, context, input.getKey(), input.getValue());
     }
 }
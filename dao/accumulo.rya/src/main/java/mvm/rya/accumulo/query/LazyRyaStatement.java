@@ -0,0 +1,238 @@
+package mvm.rya.accumulo.query;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.resolver.RyaTripleContext;
+import mvm.rya.api.resolver.triple.TripleRow;
+import mvm.rya.api.resolver.triple.TripleRowResolverException;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * A {@link RyaStatement} backed by a scanned {@link Key} and {@link Value}. Subject, predicate and object are decoded
+ * together from the row the first time one of them is read; context, qualifier, visibility and value are decoded
+ * separately, also on first read.
+ * <p/>
+ * Equality and hashing are those of {@link RyaStatement}, so a lazy statement equals the same statement read from any
+ * index layout or built by hand. Two lazy statements of the same layout that have not been changed through a setter
+ * are compared by their key and value bytes instead, without decoding; the bytes of a layout decode to equal fields
+ * exactly when they are equal, so the decoded hash code stays consistent with that comparison.
+ */
+public class LazyRyaStatement extends RyaStatement {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TABLE_LAYOUT tableLayout;
+    private final RyaTripleContext tripleContext;
+    private final Key key;
+    private final Value val;
+
+    private boolean tripleDecoded = false;
+    private boolean contextDecoded = false;
+    private boolean qualifierDecoded = false;
+    private boolean visibilityDecoded = false;
+    private boolean valueDecoded = false;
+    //a setter other than the timestamp's was called, so the key no longer describes the statement
+    private boolean modified = false;
+
+    public LazyRyaStatement(TABLE_LAYOUT tableLayout, RyaTripleContext tripleContext, Key key, Value value) {
+        this.tableLayout = tableLayout;
+        this.tripleContext = tripleContext;
+        this.key = key;
+        this.val = value;
+        super.setTimestamp(key.getTimestamp());
+    }
+
+    public TABLE_LAYOUT getTableLayout() {
+        return tableLayout;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    private void decodeTriple() {
+        if (tripleDecoded) {
+            return;
+        }
+        try {
+            //the column family and qualifier are decoded on their own when asked for
+            RyaStatement triple = tripleContext.deserializeTriple(tableLayout,
+                    new TripleRow(key.getRowData().toArray(), null, null, key.getTimestamp(), null, null));
+            super.setSubject(triple.getSubject());
+            super.setPredicate(triple.getPredicate());
+            super.setObject(triple.getObject());
+        } catch (TripleRowResolverException e) {
+            throw new RuntimeException(e);
+        }
+        tripleDecoded = true;
+    }
+
+    private void decodeAll() {
+        decodeTriple();
+        getContext();
+        getQualifer();
+        getColumnVisibility();
+        getValue();
+    }
+
+    private static String utf8(ByteSequence bytes) {
+        if (bytes.length() == 0) {
+            return null;
+        }
+        return new String(bytes.getBackingArray(), bytes.offset(), bytes.length(), UTF8);
+    }
+
+    @Override
+    public RyaURI getSubject() {
+        decodeTriple();
+        return super.getSubject();
+    }
+
+    @Override
+    public void setSubject(RyaURI subject) {
+        modified = true;
+        decodeTriple();
+        super.setSubject(subject);
+    }
+
+    @Override
+    public RyaURI getPredicate() {
+        decodeTriple();
+        return super.getPredicate();
+    }
+
+    @Override
+    public void setPredicate(RyaURI predicate) {
+        modified = true;
+        decodeTriple();
+        super.setPredicate(predicate);
+    }
+
+    @Override
+    public RyaType getObject() {
+        decodeTriple();
+        return super.getObject();
+    }
+
+    @Override
+    public void setObject(RyaType object) {
+        modified = true;
+        decodeTriple();
+        super.setObject(object);
+    }
+
+    @Override
+    public RyaURI getContext() {
+        if (!contextDecoded) {
+            String context = utf8(key.getColumnFamilyData());
+            super.setContext(context == null ? null : new RyaURI(context));
+            contextDecoded = true;
+        }
+        return super.getContext();
+    }
+
+    @Override
+    public void setContext(RyaURI context) {
+        modified = true;
+        contextDecoded = true;
+        super.setContext(context);
+    }
+
+    @Override
+    public String getQualifer() {
+        if (!qualifierDecoded) {
+            super.setQualifer(utf8(key.getColumnQualifierData()));
+            qualifierDecoded = true;
+        }
+        return super.getQualifer();
+    }
+
+    @Override
+    public void setQualifer(String qualifer) {
+        modified = true;
+        qualifierDecoded = true;
+        super.setQualifer(qualifer);
+    }
+
+    @Override
+    public byte[] getColumnVisibility() {
+        if (!visibilityDecoded) {
+            super.setColumnVisibility(key.getColumnVisibilityData().toArray());
+            visibilityDecoded = true;
+        }
+        return super.getColumnVisibility();
+    }
+
+    @Override
+    public void setColumnVisibility(byte[] columnVisibility) {
+        modified = true;
+        visibilityDecoded = true;
+        super.setColumnVisibility(columnVisibility);
+    }
+
+    @Override
+    public byte[] getValue() {
+        if (!valueDecoded) {
+            super.setValue(val != null ? val.get() : null);
+            valueDecoded = true;
+        }
+        return super.getValue();
+    }
+
+    @Override
+    public void setValue(byte[] value) {
+        modified = true;
+        valueDecoded = true;
+        super.setValue(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof LazyRyaStatement) {
+            LazyRyaStatement that = (LazyRyaStatement) o;
+            if (!modified && !that.modified && tableLayout == that.tableLayout) {
+                //the timestamp is compared as a field, it may have been set since the key was read
+                if (getTimestamp() != null ? !getTimestamp().equals(that.getTimestamp()) : that.getTimestamp() != null) {
+                    return false;
+                }
+                return key.equals(that.key, PartialKey.ROW_COLFAM_COLQUAL_COLVIS)
+                        && Arrays.equals(val != null ? val.get() : null, that.val != null ? that.val.get() : null);
+            }
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+}
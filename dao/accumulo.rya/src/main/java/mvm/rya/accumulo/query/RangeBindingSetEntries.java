@@ -26,6 +26,9 @@ import org.openrdf.query.BindingSet;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -36,6 +39,10 @@ import java.util.Map;
 public class RangeBindingSetEntries {
     public Collection<Map.Entry<Range, BindingSet>> ranges;
 
+    //ranges sorted by start, with the furthest reaching end seen up to each position
+    private List<Map.Entry<Range, BindingSet>> sorted;
+    private Range[] reach;
+
     public RangeBindingSetEntries() {
         this(new ArrayList<Map.Entry<Range, BindingSet>>());
     }
@@ -44,14 +51,58 @@ public class RangeBindingSetEntries {
         this.ranges = ranges;
     }
 
+    /**
+     * Finds the binding sets of every range that contains the key. The ranges are indexed by start key the first time
+     * this is called, and again if ranges were added since, so a lookup is a binary search plus a walk back over the
+     * ranges that can still reach the key.
+     */
     public Collection<BindingSet> containsKey(Key key) {
-        //TODO: need to find a better way to sort these and pull
-        //TODO: maybe fork/join here
+        if (sorted == null || sorted.size() != ranges.size()) {
+            index();
+        }
         Collection<BindingSet> bss = new ArrayList<BindingSet>();
-        for (Map.Entry<Range, BindingSet> entry : ranges) {
+        //first range that starts after the key
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getKey().beforeStartKey(key)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        for (int i = low - 1; i >= 0 && !reach[i].afterEndKey(key); i--) {
+            Map.Entry<Range, BindingSet> entry = sorted.get(i);
             if (entry.getKey().contains(key))
                 bss.add(entry.getValue());
         }
         return bss;
     }
+
+    private void index() {
+        sorted = new ArrayList<Map.Entry<Range, BindingSet>>(ranges);
+        Collections.sort(sorted, new Comparator<Map.Entry<Range, BindingSet>>() {
+            @Override
+            public int compare(Map.Entry<Range, BindingSet> e1, Map.Entry<Range, BindingSet> e2) {
+                return e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        reach = new Range[sorted.size()];
+        for (int i = 0; i < reach.length; i++) {
+            Range range = sorted.get(i).getKey();
+            reach[i] = (i == 0 || compareEnds(range, reach[i - 1]) > 0) ? range : reach[i - 1];
+        }
+    }
+
+    private static int compareEnds(Range r1, Range r2) {
+        if (r1.isInfiniteStopKey() || r2.isInfiniteStopKey()) {
+            return (r1.isInfiniteStopKey() ? 1 : 0) - (r2.isInfiniteStopKey() ? 1 : 0);
+        }
+        int cmp = r1.getEndKey().compareTo(r2.getEndKey());
+        if (cmp == 0) {
+            cmp = (r1.isEndKeyInclusive() ? 1 : 0) - (r2.isEndKeyInclusive() ? 1 : 0);
+        }
+        return cmp;
+    }
 }
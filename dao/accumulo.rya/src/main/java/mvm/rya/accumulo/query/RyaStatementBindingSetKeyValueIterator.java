@@ -22,6 +22,8 @@ package mvm.rya.accumulo.query;
 
 import info.aduna.iteration.CloseableIteration;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
@@ -31,6 +33,7 @@ import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
 import mvm.rya.api.RdfCloudTripleStoreUtils;
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.persist.RyaDAOException;
+import mvm.rya.api.persist.query.QueryCancellation;
 import mvm.rya.api.resolver.RyaContext;
 import mvm.rya.api.resolver.RyaTripleContext;
 import mvm.rya.api.resolver.triple.TripleRow;
@@ -57,6 +60,8 @@ public class RyaStatementBindingSetKeyValueIterator implements CloseableIteratio
     private Iterator<BindingSet> bsIter;
     private RyaStatement statement;
 	private RyaTripleContext ryaContext;
+    private QueryCancellation cancellation;
+    private Closeable closeOnCancel;
 
     public RyaStatementBindingSetKeyValueIterator(TABLE_LAYOUT tableLayout, RyaTripleContext context, ScannerBase scannerBase, RangeBindingSetEntries rangeMap) {
         this(tableLayout, ((scannerBase instanceof BatchScanner) ? ((BatchScanner) scannerBase).iterator() : ((Scanner) scannerBase).iterator()), rangeMap, context);
@@ -71,14 +76,39 @@ public class RyaStatementBindingSetKeyValueIterator implements CloseableIteratio
         this.ryaContext = ryaContext;
     }
 
+    /**
+     * Stops reading once the query is cancelled, and closes the batch scanner, if any, as soon as it is.
+     */
+    public void setCancellation(QueryCancellation cancellation) {
+        this.cancellation = cancellation;
+        if (cancellation != null && scanner != null && isBatchScanner) {
+            closeOnCancel = new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    ((BatchScanner) scanner).close();
+                }
+            };
+            cancellation.register(closeOnCancel);
+        }
+    }
+
     @Override
     public void close() throws RyaDAOException {
         dataIterator = null;
+        if (closeOnCancel != null) {
+            cancellation.unregister(closeOnCancel);
+        }
         if (scanner != null && isBatchScanner) {
             ((BatchScanner) scanner).close();
         }
     }
 
+    private void checkCancelled() throws RyaDAOException {
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new RyaDAOException(cancellation.getReason());
+        }
+    }
+
     public boolean isClosed() throws RyaDAOException {
         return dataIterator == null;
     }
@@ -88,11 +118,12 @@ public class RyaStatementBindingSetKeyValueIterator implements CloseableIteratio
         if (isClosed()) {
             return false;
         }
+        checkCancelled();
         if (maxResults != 0) {
             if (bsIter != null && bsIter.hasNext()) {
                 return true;
             }
-            if (dataIterator.hasNext()) {
+            if (dataIteratorHasNext()) {
                 return true;
             } else {
                 maxResults = 0l;
@@ -115,17 +146,18 @@ public class RyaStatementBindingSetKeyValueIterator implements CloseableIteratio
                     return new RdfCloudTripleStoreUtils.CustomEntry<RyaStatement, BindingSet>(statement, bsIter.next());
                 }
 
-                if (dataIterator.hasNext()) {
+                if (dataIteratorHasNext()) {
                     Map.Entry<Key, Value> next = dataIterator.next();
                     Key key = next.getKey();
-                    statement = ryaContext.deserializeTriple(tableLayout,
-                            new TripleRow(key.getRowData().toArray(), key.getColumnFamilyData().toArray(), key.getColumnQualifierData().toArray(),
-                                    key.getTimestamp(), key.getColumnVisibilityData().toArray(), next.getValue().get()));
-                    if (next.getValue() != null) {
-                        statement.setValue(next.getValue().get());
-                    }
+                    //only decode keys that map back to a binding set
                     Collection<BindingSet> bindingSets = rangeMap.containsKey(key);
                     if (!bindingSets.isEmpty()) {
+                        statement = ryaContext.deserializeTriple(tableLayout,
+                                new TripleRow(key.getRowData().toArray(), key.getColumnFamilyData().toArray(), key.getColumnQualifierData().toArray(),
+                                        key.getTimestamp(), key.getColumnVisibilityData().toArray(), next.getValue().get()));
+                        if (next.getValue() != null) {
+                            statement.setValue(next.getValue().get());
+                        }
                         bsIter = bindingSets.iterator();
                     }
                 } else {
@@ -138,6 +170,18 @@ public class RyaStatementBindingSetKeyValueIterator implements CloseableIteratio
         }
     }
 
+    /**
+     * A scanner closed by a cancel fails, report that as the cancellation.
+     */
+    private boolean dataIteratorHasNext() throws RyaDAOException {
+        try {
+            return dataIterator.hasNext();
+        } catch (RuntimeException e) {
+            checkCancelled();
+            throw e;
+        }
+    }
+
     @Override
     public void remove() throws RyaDAOException {
         next();
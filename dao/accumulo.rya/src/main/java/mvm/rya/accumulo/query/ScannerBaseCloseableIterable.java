@@ -21,11 +21,14 @@ package mvm.rya.accumulo.query;
  */
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import mvm.rya.api.persist.query.QueryCancellation;
 import org.apache.accumulo.core.client.ScannerBase;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.calrissian.mango.collect.AbstractCloseableIterable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
@@ -37,19 +40,62 @@ import java.util.Map;
 public class ScannerBaseCloseableIterable extends AbstractCloseableIterable<Map.Entry<Key, Value>> {
 
     protected ScannerBase scanner;
+    protected QueryCancellation cancellation;
+    private Closeable closeOnCancel;
 
     public ScannerBaseCloseableIterable(ScannerBase scanner) {
+        this(scanner, null);
+    }
+
+    /**
+     * @param cancellation closes the scanner when the query is cancelled, after which its iterators end, may be null
+     */
+    public ScannerBaseCloseableIterable(final ScannerBase scanner, QueryCancellation cancellation) {
         Preconditions.checkNotNull(scanner);
         this.scanner = scanner;
+        this.cancellation = cancellation;
+        if (cancellation != null) {
+            closeOnCancel = new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    scanner.close();
+                }
+            };
+            cancellation.register(closeOnCancel);
+        }
     }
 
     @Override
     protected void doClose() throws IOException {
+        if (closeOnCancel != null) {
+            cancellation.unregister(closeOnCancel);
+        }
         scanner.close();
     }
 
     @Override
     protected Iterator<Map.Entry<Key, Value>> retrieveIterator() {
-        return scanner.iterator();
+        if (cancellation == null) {
+            return scanner.iterator();
+        }
+        final Iterator<Map.Entry<Key, Value>> iterator = scanner.iterator();
+        //the query reports the cancellation, the scan just stops
+        return new AbstractIterator<Map.Entry<Key, Value>>() {
+            @Override
+            protected Map.Entry<Key, Value> computeNext() {
+                try {
+                    if (cancellation.isCancelled() || !iterator.hasNext()) {
+                        return endOfData();
+                    }
+                    return iterator.next();
+                } catch (RuntimeException e) {
+                    //a scanner closed by the cancel fails
+                    if (cancellation.isCancelled()) {
+                        return endOfData();
+                    }
+                    throw e;
+                }
+            }
+        };
     }
 }
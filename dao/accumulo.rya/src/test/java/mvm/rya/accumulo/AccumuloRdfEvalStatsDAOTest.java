@@ -0,0 +1,123 @@
+package mvm.rya.accumulo;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static mvm.rya.api.RdfCloudTripleStoreConstants.DELIM;
+import static mvm.rya.api.RdfCloudTripleStoreConstants.EMPTY_TEXT;
+import static mvm.rya.api.RdfCloudTripleStoreConstants.PREDOBJECT_CF_TXT;
+import static mvm.rya.api.RdfCloudTripleStoreConstants.PRED_CF_TXT;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import mvm.rya.api.persist.CardinalityLookup;
+import mvm.rya.api.persist.RdfEvalStatsDAO.CARDINALITY_OF;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+
+public class AccumuloRdfEvalStatsDAOTest {
+
+    private AccumuloRdfEvalStatsDAO dao;
+    private AccumuloRdfConfiguration conf;
+    private Connector connector;
+    private URI pred = new URIImpl("urn:test#pred");
+    private URI other = new URIImpl("urn:test#other");
+    private Value obj = new LiteralImpl("obj");
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance().getConnector("", "");
+        conf = new AccumuloRdfConfiguration();
+        conf.setTablePrefix("evalstats_");
+        dao = new AccumuloRdfEvalStatsDAO();
+        dao.setConnector(connector);
+        dao.setConf(conf);
+        dao.init();
+
+        writeCount(pred.stringValue(), PRED_CF_TXT, 10);
+        writeCount(pred.stringValue() + DELIM + obj.stringValue(), PREDOBJECT_CF_TXT, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dao.destroy();
+        connector.tableOperations().delete(conf.getTableLayoutStrategy().getEval());
+    }
+
+    @Test
+    public void testBatchLookup() throws Exception {
+        CardinalityLookup predLookup = new CardinalityLookup(CARDINALITY_OF.PREDICATE, Arrays.<Value>asList(pred), null);
+        CardinalityLookup predObjLookup = new CardinalityLookup(CARDINALITY_OF.PREDICATEOBJECT,
+                Arrays.asList(pred, obj), null);
+        CardinalityLookup missing = new CardinalityLookup(CARDINALITY_OF.PREDICATE, Arrays.<Value>asList(other), null);
+
+        Map<CardinalityLookup, Double> cards = dao.getCardinalities(conf,
+                Arrays.asList(predLookup, predObjLookup, missing));
+        assertEquals(3, cards.size());
+        assertEquals(10.0, cards.get(predLookup), 0.001);
+        assertEquals(3.0, cards.get(predObjLookup), 0.001);
+        assertEquals(-1.0, cards.get(missing), 0.001);
+
+        // single lookups agree with the batch
+        assertEquals(10.0, dao.getCardinality(conf, CARDINALITY_OF.PREDICATE, Arrays.<Value>asList(pred)), 0.001);
+        assertEquals(3.0, dao.getCardinality(conf, CARDINALITY_OF.PREDICATEOBJECT, Arrays.asList(pred, obj)), 0.001);
+    }
+
+    @Test
+    public void testCachedUntilExpired() throws Exception {
+        List<Value> values = Arrays.<Value>asList(pred);
+        assertEquals(10.0, dao.getCardinality(conf, CARDINALITY_OF.PREDICATE, values), 0.001);
+
+        writeCount(pred.stringValue(), PRED_CF_TXT, 20);
+        assertEquals(10.0, dao.getCardinality(conf, CARDINALITY_OF.PREDICATE, values), 0.001);
+        assertEquals(10.0, dao.getCardinalities(conf,
+                Arrays.asList(new CardinalityLookup(CARDINALITY_OF.PREDICATE, values, null))).values().iterator()
+                .next(), 0.001);
+
+        // re-initializing the DAO clears its cache
+        dao.destroy();
+        dao.init();
+        assertEquals(20.0, dao.getCardinality(conf, CARDINALITY_OF.PREDICATE, values), 0.001);
+    }
+
+    private void writeCount(String row, Text cf, long count) throws Exception {
+        BatchWriter writer = connector.createBatchWriter(conf.getTableLayoutStrategy().getEval(),
+                new BatchWriterConfig());
+        Mutation m = new Mutation(new Text(row.getBytes()));
+        m.put(cf, EMPTY_TEXT, new org.apache.accumulo.core.data.Value(String.valueOf(count).getBytes()));
+        writer.addMutation(m);
+        writer.close();
+    }
+}
@@ -21,6 +21,7 @@ package mvm.rya.accumulo;
  */
 
 import info.aduna.iteration.CloseableIteration;
+import mvm.rya.accumulo.experimental.AbstractAccumuloIndexer;
 import mvm.rya.accumulo.query.AccumuloRyaQueryEngine;
 import mvm.rya.api.RdfCloudTripleStoreUtils;
 import mvm.rya.api.domain.RyaStatement;
@@ -35,6 +36,7 @@ import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.hadoop.conf.Configuration;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.calrissian.mango.collect.FluentCloseableIterable;
 import org.junit.After;
@@ -45,7 +47,13 @@ import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.BindingSet;
 
+import com.google.common.collect.Iterators;
+
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -402,6 +410,31 @@ public class AccumuloRyaDAOTest {
         assertEquals(4, count);
     }
 
+    @Test
+    public void testBatchQueryMixedLayouts() throws Exception {
+        RyaURI cpu = new RyaURI(litdupsNS + "cpu");
+        RyaURI mem = new RyaURI(litdupsNS + "mem");
+        RyaURI loadPerc = new RyaURI(litdupsNS + "loadPerc");
+        RyaURI uri1 = new RyaURI(litdupsNS + "uri1");
+        RyaURI uri2 = new RyaURI(litdupsNS + "uri2");
+        dao.add(new RyaStatement(cpu, loadPerc, uri1));
+        dao.add(new RyaStatement(mem, loadPerc, uri2));
+
+        AccumuloRyaQueryEngine queryEngine = dao.getQueryEngine();
+
+        //the subject pattern reads spo and the predicate object pattern reads po
+        Collection<RyaStatement> coll = new ArrayList<RyaStatement>();
+        coll.add(new RyaStatement(cpu, null, null));
+        coll.add(new RyaStatement(null, loadPerc, uri2));
+        CloseableIteration<RyaStatement, RyaDAOException> iter = queryEngine.batchQuery(coll, conf);
+        Set<RyaURI> subjects = new HashSet<RyaURI>();
+        while (iter.hasNext()) {
+            subjects.add(iter.next().getSubject());
+        }
+        iter.close();
+        assertEquals(new HashSet<RyaURI>(Arrays.asList(cpu, mem)), subjects);
+    }
+
 	@Test
 	public void testQueryDates() throws Exception {
 	    RyaURI cpu = new RyaURI(litdupsNS + "cpu");
@@ -642,6 +675,99 @@ public class AccumuloRyaDAOTest {
         return true;
     }
 
+    @Test
+    public void testGroupCommit() throws Exception {
+        AccumuloRdfConfiguration groupConf = new AccumuloRdfConfiguration(conf);
+        groupConf.setGroupCommit(true);
+        groupConf.setGroupCommitSize(2);
+        groupConf.setGroupCommitInterval(60000);
+        AccumuloRyaDAO groupDao = new AccumuloRyaDAO();
+        groupDao.setConnector(connector);
+        groupDao.setConf(groupConf);
+        groupDao.init();
+        try {
+            Future<Void> first = groupDao.addAsync(Iterators.singletonIterator(newRyaStatement()));
+            assertFalse(first.isDone());
+            //filling the group commits it in the background
+            Future<Void> second = groupDao.addAsync(Iterators.singletonIterator(newRyaStatement()));
+            second.get(10, TimeUnit.SECONDS);
+            assertTrue(first.isDone());
+
+            Future<Void> third = groupDao.addAsync(Iterators.singletonIterator(newRyaStatement()));
+            groupDao.flush();
+            assertTrue(third.isDone());
+        } finally {
+            groupDao.destroy();
+        }
+    }
+
+    @Test
+    public void testIndexerBatches() throws Exception {
+        AccumuloRdfConfiguration indexConf = new AccumuloRdfConfiguration(conf);
+        indexConf.setAdditionalIndexers(CountingIndexer.class);
+        indexConf.setIndexerBatchSize(10);
+        indexConf.setIndexerMaxPendingBatches(1);
+        AccumuloRyaDAO indexDao = new AccumuloRyaDAO();
+        indexDao.setConnector(connector);
+        indexDao.setConf(indexConf);
+        indexDao.init();
+        try {
+            CountingIndexer.reset();
+            List<RyaStatement> statements = new ArrayList<RyaStatement>();
+            for (int i = 0; i < 25; i++) {
+                statements.add(newRyaStatement());
+            }
+            indexDao.add(statements.iterator());
+
+            //committed statements have been handed over and flushed
+            assertEquals(Arrays.asList(10, 10, 5), CountingIndexer.batches);
+            assertEquals(1, CountingIndexer.flushes.get());
+        } finally {
+            indexDao.destroy();
+        }
+    }
+
+    public static class CountingIndexer extends AbstractAccumuloIndexer {
+        static final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        static final AtomicInteger flushes = new AtomicInteger();
+        private Configuration conf;
+
+        static void reset() {
+            batches.clear();
+            flushes.set(0);
+        }
+
+        @Override
+        public void storeStatements(Collection<RyaStatement> statements) throws IOException {
+            batches.add(statements.size());
+        }
+
+        @Override
+        public void storeStatement(RyaStatement statement) throws IOException {
+            storeStatements(Collections.singleton(statement));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes.incrementAndGet();
+        }
+
+        @Override
+        public String getTableName() {
+            return "rya_counting_index";
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+    }
+
     private boolean tableExists(String tableName) {
         return dao.getConnector().tableOperations().exists(tableName);
     }
@@ -0,0 +1,230 @@
+package mvm.rya.accumulo.bulk;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.resolver.RyaTripleContext;
+import mvm.rya.api.resolver.triple.TripleRow;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalBulkLoaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Connector connector;
+    private AccumuloRdfConfiguration conf;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance().getConnector("", "");
+        conf = new AccumuloRdfConfiguration();
+        conf.setTablePrefix("localbulk_");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String table : connector.tableOperations().list()) {
+            if (table.startsWith("localbulk_")) {
+                connector.tableOperations().delete(table);
+            }
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        File ntriples = tempFolder.newFile("data.nt");
+        FileWriter writer = new FileWriter(ntriples);
+        for (int i = 0; i < 200; i++) {
+            writer.write("<urn:test#s" + i + "> <urn:test#p" + (i % 5) + "> \"o" + i + "\" .\n");
+        }
+        // loaded once
+        writer.write("<urn:test#s0> <urn:test#p0> \"o0\" .\n");
+        writer.close();
+
+        File turtle = tempFolder.newFile("data.ttl");
+        writer = new FileWriter(turtle);
+        writer.write("@prefix t: <urn:test#> .\n");
+        writer.write("t:a t:knows t:b , t:c .\n");
+        writer.write("t:b t:knows t:c .\n");
+        writer.close();
+
+        LocalBulkLoader loader = new LocalBulkLoader(connector, conf, FileSystem.getLocal(new Configuration()),
+                new Path(tempFolder.newFolder("work").getAbsolutePath()));
+        loader.setNumThreads(3);
+        // many chunks, many runs, and more than one merge pass
+        loader.setChunkSize(512);
+        loader.setBufferSize(2048);
+        loader.setMergeFanIn(2);
+        loader.setSpillDir(tempFolder.newFolder("spill"));
+
+        assertEquals(204, loader.load(Arrays.asList(ntriples, turtle)));
+        assertEquals(ntriples.length() + turtle.length(), loader.getBytesRead());
+
+        String[] tables = {conf.getTableLayoutStrategy().getSpo(), conf.getTableLayoutStrategy().getPo(),
+                conf.getTableLayoutStrategy().getOsp()};
+        for (String table : tables) {
+            assertEquals(table, 203, count(table));
+        }
+
+        RyaStatement rs = new RyaStatement(new RyaURI("urn:test#s42"), new RyaURI("urn:test#p2"), new RyaType("o42"));
+        Text row = new Text(RyaTripleContext.getInstance(conf).serializeTriple(rs).get(TABLE_LAYOUT.SPO).getRow());
+        Scanner scanner = connector.createScanner(tables[0], new Authorizations());
+        Set<Text> rows = new HashSet<Text>();
+        for (Map.Entry<Key, Value> e : scanner) {
+            rows.add(e.getKey().getRow());
+        }
+        assertTrue(rows.contains(row));
+    }
+
+    @Test
+    public void testLoadIntoSplitTable() throws Exception {
+        File ntriples = tempFolder.newFile("data.nt");
+        FileWriter writer = new FileWriter(ntriples);
+        for (int i = 0; i < 200; i++) {
+            writer.write("<urn:test#s" + i + "> <urn:test#p" + (i % 5) + "> \"o" + i + "\" .\n");
+        }
+        writer.close();
+
+        // the spo ranges end at its splits, the other tables are divided at sampled rows
+        String spo = conf.getTableLayoutStrategy().getSpo();
+        connector.tableOperations().create(spo);
+        connector.tableOperations().addSplits(spo, new TreeSet<Text>(Arrays.asList(new Text("urn:test#s1"),
+                new Text("urn:test#s5"))));
+
+        LocalBulkLoader loader = new LocalBulkLoader(connector, conf, FileSystem.getLocal(new Configuration()),
+                new Path(tempFolder.newFolder("work").getAbsolutePath()));
+        loader.setNumThreads(3);
+        loader.setChunkSize(1024);
+        loader.setBufferSize(4096);
+        loader.setMergeFanIn(3);
+        loader.setSpillDir(tempFolder.newFolder("spill"));
+
+        assertEquals(200, loader.load(Arrays.asList(ntriples)));
+        assertEquals(200, count(spo));
+        assertEquals(200, count(conf.getTableLayoutStrategy().getPo()));
+        assertEquals(200, count(conf.getTableLayoutStrategy().getOsp()));
+    }
+
+    @Test
+    public void testChunksCoverEveryLine() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("line ").append(i).append(i % 7 == 0 ? "\n\n" : "\n");
+        }
+        // the last line has no line break
+        sb.append("last");
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        for (int chunkSize = 1; chunkSize < 40; chunkSize++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (long start = 0; start < data.length; start += chunkSize) {
+                InputStream in = new LocalBulkLoader.LineChunkInputStream(new ByteArrayInputStream(data), start,
+                        Math.min(data.length, start + chunkSize));
+                byte[] buf = new byte[3];
+                int n;
+                while ((n = in.read(buf, 0, buf.length)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+            assertEquals("chunk size " + chunkSize, sb.toString(), new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testBlankNodesAcrossChunks() throws Exception {
+        File first = tempFolder.newFile("first.nt");
+        FileWriter writer = new FileWriter(first);
+        writer.write("_:b1 <urn:test#start> \"start\" .\n");
+        for (int i = 0; i < 50; i++) {
+            writer.write("<urn:test#s" + i + "> <urn:test#p> \"o" + i + "\" .\n");
+        }
+        writer.write("_:b1 <urn:test#end> \"end\" .\n");
+        writer.close();
+
+        // the same label in another file is another blank node
+        File second = tempFolder.newFile("second.nt");
+        writer = new FileWriter(second);
+        writer.write("_:b1 <urn:test#other> \"other\" .\n");
+        writer.close();
+
+        LocalBulkLoader loader = new LocalBulkLoader(connector, conf, FileSystem.getLocal(new Configuration()),
+                new Path(tempFolder.newFolder("work").getAbsolutePath()));
+        loader.setNumThreads(2);
+        loader.setChunkSize(256);
+        loader.setSpillDir(tempFolder.newFolder("spill"));
+        assertTrue(first.length() > 4 * 256);
+        assertEquals(53, loader.load(Arrays.asList(first, second)));
+
+        RyaTripleContext tripleContext = RyaTripleContext.getInstance(conf);
+        Map<String, RyaURI> subjects = new HashMap<String, RyaURI>();
+        for (Map.Entry<Key, Value> e : connector.createScanner(conf.getTableLayoutStrategy().getSpo(), new Authorizations())) {
+            RyaStatement rs = tripleContext.deserializeTriple(TABLE_LAYOUT.SPO, new TripleRow(e.getKey().getRowData().toArray(),
+                    null, null, e.getKey().getTimestamp(), null, null));
+            subjects.put(rs.getPredicate().getData(), rs.getSubject());
+        }
+        assertEquals(subjects.get("urn:test#start"), subjects.get("urn:test#end"));
+        assertFalse(subjects.get("urn:test#start").equals(subjects.get("urn:test#other")));
+    }
+
+    private int count(String table) throws Exception {
+        int count = 0;
+        for (Map.Entry<Key, Value> e : connector.createScanner(table, new Authorizations())) {
+            count++;
+        }
+        return count;
+    }
+}
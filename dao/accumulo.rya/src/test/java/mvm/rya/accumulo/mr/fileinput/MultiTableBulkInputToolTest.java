@@ -0,0 +1,206 @@
+package mvm.rya.accumulo.mr.fileinput;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.accumulo.experimental.AbstractAccumuloIndexer;
+import mvm.rya.accumulo.mr.fileinput.MultiTableBulkInputTool.TableKey;
+import mvm.rya.accumulo.mr.fileinput.MultiTableBulkInputTool.TablePartitioner;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MultiTableBatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.Text;
+
+public class MultiTableBulkInputToolTest extends TestCase {
+
+    private String instance = "bulkinstance";
+    private String tablePrefix = "bulk_";
+    private Connector connector;
+    private File workDir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        connector = new MockInstance(instance).getConnector("root", new PasswordToken(""));
+        workDir = File.createTempFile("multitablebulk", "");
+        workDir.delete();
+        workDir.mkdirs();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        for (String table : connector.tableOperations().list()) {
+            if (table.startsWith(tablePrefix)) {
+                connector.tableOperations().delete(table);
+            }
+        }
+        FileUtil.fullyDelete(workDir);
+    }
+
+    public void testLoadsEveryCoreTable() throws Exception {
+        File input = new File(workDir, "input.nq");
+        FileWriter writer = new FileWriter(input);
+        writer.write("<urn:test#a> <urn:test#knows> <urn:test#b> .\n");
+        writer.write("<urn:test#b> <urn:test#knows> <urn:test#c> <urn:test#graph> .\n");
+        writer.write("<urn:test#c> <urn:test#name> \"c\" .\n");
+        // a duplicate has the same key, so only one entry of it is written
+        writer.write("<urn:test#a> <urn:test#knows> <urn:test#b> .\n");
+        writer.close();
+
+        MultiTableBulkInputTool.main(new String[]{
+                "-Dac.mock=true",
+                "-Dac.instance=" + instance,
+                "-Dac.username=root",
+                "-Dac.pwd=",
+                "-Drdf.tablePrefix=" + tablePrefix,
+                "-D" + MultiTableBulkInputTool.WORKDIR_PROP + "=" + new File(workDir, "work").getAbsolutePath(),
+                input.getAbsolutePath(),
+        });
+
+        for (TABLE_LAYOUT layout : MultiTableBulkInputTool.CORE_LAYOUTS) {
+            String table = MultiTableBulkInputTool.coreTable(tablePrefix, layout);
+            // without the versioning iterator, a second version of the duplicate would be counted
+            connector.tableOperations().removeIterator(table, "vers", EnumSet.allOf(IteratorScope.class));
+            assertEquals(layout.name(), 3, count(table));
+        }
+    }
+
+    public void testLoadsIndexerTables() throws Exception {
+        File input = new File(workDir, "input.nq");
+        FileWriter writer = new FileWriter(input);
+        writer.write("<urn:test#a> <urn:test#knows> <urn:test#b> .\n");
+        writer.write("<urn:test#b> <urn:test#knows> <urn:test#c> .\n");
+        writer.close();
+
+        MultiTableBulkInputTool.main(new String[]{
+                "-Dac.mock=true",
+                "-Dac.instance=" + instance,
+                "-Dac.username=root",
+                "-Dac.pwd=",
+                "-Drdf.tablePrefix=" + tablePrefix,
+                "-D" + AccumuloRdfConfiguration.CONF_ADDITIONAL_INDEXERS + "=" + SubjectIndexer.class.getName(),
+                "-D" + MultiTableBulkInputTool.WORKDIR_PROP + "=" + new File(workDir, "work").getAbsolutePath(),
+                input.getAbsolutePath(),
+        });
+
+        assertEquals(2, count(SubjectIndexer.TABLE));
+        assertEquals(2, count(MultiTableBulkInputTool.coreTable(tablePrefix, TABLE_LAYOUT.SPO)));
+    }
+
+    public void testPartitionsByTableSplits() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setStrings(MultiTableBulkInputTool.TABLES_PROP, "t0", "t1", "t2");
+        MultiTableBulkInputTool.setSplits(conf, 0, Arrays.asList(new Text("m"), new Text("f")));
+        MultiTableBulkInputTool.setSplits(conf, 1, Collections.<Text>emptyList());
+        MultiTableBulkInputTool.setSplits(conf, 2, Arrays.asList(new Text("k")));
+        TablePartitioner partitioner = new TablePartitioner();
+        partitioner.setConf(conf);
+
+        assertEquals(0, partition(partitioner, 0, "a"));
+        assertEquals(0, partition(partitioner, 0, "f"));
+        assertEquals(1, partition(partitioner, 0, "g"));
+        assertEquals(2, partition(partitioner, 0, "z"));
+        assertEquals(3, partition(partitioner, 1, "a"));
+        assertEquals(3, partition(partitioner, 1, "z"));
+        assertEquals(4, partition(partitioner, 2, "a"));
+        assertEquals(5, partition(partitioner, 2, "z"));
+    }
+
+    private int partition(TablePartitioner partitioner, int table, String row) {
+        return partitioner.getPartition(new TableKey(table, new Key(row)), new Value(new byte[0]), 6);
+    }
+
+    private int count(String table) throws Exception {
+        Scanner scanner = connector.createScanner(table, new Authorizations());
+        int count = 0;
+        for (Map.Entry<Key, Value> e : scanner) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Indexes statements by subject, through the writer it is given.
+     */
+    public static class SubjectIndexer extends AbstractAccumuloIndexer {
+        static final String TABLE = "bulk_subject_index";
+        private Configuration conf;
+        private BatchWriter writer;
+
+        @Override
+        public String getTableName() {
+            return TABLE;
+        }
+
+        @Override
+        public void setMultiTableBatchWriter(MultiTableBatchWriter writer) throws IOException {
+            try {
+                this.writer = writer.getBatchWriter(TABLE);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void storeStatement(RyaStatement statement) throws IOException {
+            Mutation mutation = new Mutation(statement.getSubject().getData());
+            mutation.put(statement.getPredicate().getData(), statement.getObject().getData(), new Value(new byte[0]));
+            try {
+                writer.addMutation(mutation);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+    }
+}
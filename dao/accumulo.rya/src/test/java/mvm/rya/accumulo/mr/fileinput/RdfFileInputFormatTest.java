@@ -0,0 +1,137 @@
+package mvm.rya.accumulo.mr.fileinput;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import mvm.rya.accumulo.mr.utils.MRUtils;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.utils.RyaStatementWritable;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openrdf.rio.RDFFormat;
+
+public class RdfFileInputFormatTest extends TestCase {
+
+    private File workDir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        workDir = File.createTempFile("rdffileinput", "");
+        workDir.delete();
+        workDir.mkdirs();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        FileUtil.fullyDelete(workDir);
+    }
+
+    public void testSplitsNTriplesOnLines() throws Exception {
+        File input = new File(workDir, "input.nt");
+        FileWriter writer = new FileWriter(input);
+        for (int i = 0; i < 100; i++) {
+            writer.write("_:b" + (i % 10) + " <urn:test#p> \"o" + i + "\" .\n");
+        }
+        writer.close();
+
+        Job job = job(input, RDFFormat.NTRIPLES);
+        FileInputFormat.setMaxInputSplitSize(job, 256);
+        job.getConfiguration().setInt(RdfFileInputFormat.LINE_BATCH_PROP, 7);
+        RdfFileInputFormat inputFormat = new RdfFileInputFormat();
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        assertTrue(splits.size() > 1);
+
+        Set<String> objects = new HashSet<String>();
+        Set<String> subjects = new HashSet<String>();
+        for (InputSplit split : splits) {
+            for (RyaStatement rs : read(inputFormat, job, split)) {
+                assertTrue(objects.add(rs.getObject().getData()));
+                subjects.add(rs.getSubject().getData());
+            }
+        }
+        assertEquals(100, objects.size());
+        // the blank nodes of every split are the same
+        assertEquals(10, subjects.size());
+    }
+
+    public void testNamesBlankNodesPerFile() throws Exception {
+        assertEquals(RdfFileInputFormat.bnodePrefix(new Path("/data/a.nt")),
+                RdfFileInputFormat.bnodePrefix(new Path("/data/a.nt")));
+        assertFalse(RdfFileInputFormat.bnodePrefix(new Path("/data/a.nt")).equals(
+                RdfFileInputFormat.bnodePrefix(new Path("/data/b.nt"))));
+    }
+
+    public void testReadsWholeFileThroughBoundedQueue() throws Exception {
+        File input = new File(workDir, "input.ttl");
+        FileWriter writer = new FileWriter(input);
+        writer.write("@prefix t: <urn:test#> .\n");
+        for (int i = 0; i < 100; i++) {
+            writer.write("t:s" + i + " t:p \"o" + i + "\" .\n");
+        }
+        writer.close();
+
+        Job job = job(input, RDFFormat.TURTLE);
+        FileInputFormat.setMaxInputSplitSize(job, 256);
+        job.getConfiguration().setInt(RdfFileInputFormat.QUEUE_SIZE_PROP, 3);
+        RdfFileInputFormat inputFormat = new RdfFileInputFormat();
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        assertEquals(1, splits.size());
+        assertEquals(100, read(inputFormat, job, splits.get(0)).size());
+    }
+
+    private Job job(File input, RDFFormat format) throws Exception {
+        Job job = new Job();
+        job.getConfiguration().set(MRUtils.FORMAT_PROP, format.getName());
+        FileInputFormat.addInputPath(job, new Path(input.toURI()));
+        return job;
+    }
+
+    private List<RyaStatement> read(RdfFileInputFormat inputFormat, Job job, InputSplit split) throws Exception {
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(),
+                new TaskAttemptID("jtid", 0, false, 0, 0));
+        RecordReader<LongWritable, RyaStatementWritable> reader = inputFormat.createRecordReader(split, context);
+        reader.initialize(split, context);
+        List<RyaStatement> statements = new ArrayList<RyaStatement>();
+        while (reader.nextKeyValue()) {
+            statements.add(reader.getCurrentValue().getRyaStatement());
+        }
+        reader.close();
+        return statements;
+    }
+}
@@ -0,0 +1,127 @@
+package mvm.rya.accumulo.query;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.api.resolver.RyaTripleContext;
+import mvm.rya.api.resolver.triple.TripleRow;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Test;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+public class LazyRyaStatementTest {
+
+    private final RyaTripleContext tripleContext = RyaTripleContext.getInstance(new AccumuloRdfConfiguration());
+
+    @Test
+    public void testDecodeAllLayouts() throws Exception {
+        RyaStatement stmt = new RyaStatement(new RyaURI("urn:test#subj"), new RyaURI("urn:test#pred"),
+                new RyaType(XMLSchema.INTEGER, "10"), new RyaURI("urn:test#graph"), "qual", "U".getBytes(), "val".getBytes(), 100l);
+        Map<TABLE_LAYOUT, TripleRow> rows = tripleContext.serializeTriple(stmt);
+        for (TABLE_LAYOUT layout : TABLE_LAYOUT.values()) {
+            LazyRyaStatement lazy = lazy(layout, rows.get(layout));
+            assertEquals(stmt.getObject(), lazy.getObject());
+            assertEquals(stmt.getSubject(), lazy.getSubject());
+            assertEquals(stmt.getPredicate(), lazy.getPredicate());
+            assertEquals(stmt.getContext(), lazy.getContext());
+            assertEquals(stmt.getQualifer(), lazy.getQualifer());
+            assertEquals("U", new String(lazy.getColumnVisibility()));
+            assertEquals("val", new String(lazy.getValue()));
+            assertEquals(stmt.getTimestamp(), lazy.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        RyaStatement stmt = new RyaStatement(new RyaURI("urn:test#subj"), new RyaURI("urn:test#pred"), new RyaURI("urn:test#obj"));
+        Map<TABLE_LAYOUT, TripleRow> rows = tripleContext.serializeTriple(stmt);
+        LazyRyaStatement first = lazy(TABLE_LAYOUT.SPO, rows.get(TABLE_LAYOUT.SPO));
+        RyaStatement decoded = tripleContext.deserializeTriple(TABLE_LAYOUT.SPO, rows.get(TABLE_LAYOUT.SPO));
+        for (TABLE_LAYOUT layout : TABLE_LAYOUT.values()) {
+            LazyRyaStatement other = lazy(layout, rows.get(layout));
+            assertEquals(first, other);
+            assertEquals(first.hashCode(), other.hashCode());
+            //equal to the eagerly decoded statement, both ways
+            assertEquals(decoded, other);
+            assertEquals(other, decoded);
+            assertEquals(decoded.hashCode(), other.hashCode());
+        }
+
+        Set<RyaStatement> set = new HashSet<RyaStatement>();
+        set.add(lazy(TABLE_LAYOUT.PO, rows.get(TABLE_LAYOUT.PO)));
+        assertTrue(set.contains(decoded));
+        assertFalse(set.add(lazy(TABLE_LAYOUT.OSP, rows.get(TABLE_LAYOUT.OSP))));
+
+        //no context or qualifier in the key
+        assertNull(first.getContext());
+        assertNull(first.getQualifer());
+
+        LazyRyaStatement second = lazy(TABLE_LAYOUT.SPO, rows.get(TABLE_LAYOUT.SPO));
+        second.setSubject(new RyaURI("urn:test#other"));
+        assertFalse(first.equals(second));
+        assertEquals(new RyaURI("urn:test#other"), second.getSubject());
+        assertEquals(stmt.getPredicate(), second.getPredicate());
+
+        //a setter that keeps the value keeps the hash
+        LazyRyaStatement third = lazy(TABLE_LAYOUT.SPO, rows.get(TABLE_LAYOUT.SPO));
+        int hash = third.hashCode();
+        third.setPredicate(new RyaURI("urn:test#pred"));
+        assertEquals(hash, third.hashCode());
+        assertEquals(first, third);
+    }
+
+    @Test
+    public void testEqualityOfRawBytes() throws Exception {
+        //a row that does not decode, so only the raw comparison can tell these apart
+        TripleRow garbage = new TripleRow("not a triple".getBytes(), new byte[0], new byte[0], 100l, new byte[0], new byte[0]);
+        assertTrue(lazy(TABLE_LAYOUT.SPO, garbage).equals(lazy(TABLE_LAYOUT.SPO, garbage)));
+        TripleRow other = new TripleRow("not a triple".getBytes(), new byte[0], new byte[0], 100l, "U".getBytes(), new byte[0]);
+        assertFalse(lazy(TABLE_LAYOUT.SPO, garbage).equals(lazy(TABLE_LAYOUT.SPO, other)));
+
+        RyaStatement stmt = new RyaStatement(new RyaURI("urn:test#subj"), new RyaURI("urn:test#pred"), new RyaURI("urn:test#obj"));
+        TripleRow row = tripleContext.serializeTriple(stmt).get(TABLE_LAYOUT.SPO);
+        LazyRyaStatement first = lazy(TABLE_LAYOUT.SPO, row);
+        LazyRyaStatement second = lazy(TABLE_LAYOUT.SPO, row);
+        second.setTimestamp(second.getTimestamp() + 1);
+        assertFalse(first.equals(second));
+        assertFalse(second.equals(first));
+    }
+
+    private LazyRyaStatement lazy(TABLE_LAYOUT layout, TripleRow row) {
+        Key key = new Key(row.getRow(), row.getColumnFamily(), row.getColumnQualifier(), row.getColumnVisibility(), row.getTimestamp());
+        return new LazyRyaStatement(layout, tripleContext, key, new Value(row.getValue() != null ? row.getValue() : new byte[0]));
+    }
+}
@@ -0,0 +1,152 @@
+package mvm.rya.accumulo.query;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.RdfCloudTripleStoreConstants.TABLE_LAYOUT;
+import mvm.rya.api.persist.RyaDAOException;
+import mvm.rya.api.persist.query.QueryCancellation;
+import mvm.rya.api.resolver.RyaTripleContext;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCancellationTest {
+    private static final String TABLE = "cancel_test";
+
+    private Connector connector;
+    private AtomicInteger closes;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance("QueryCancellationTest").getConnector("", "");
+        if (!connector.tableOperations().exists(TABLE)) {
+            connector.tableOperations().create(TABLE);
+            BatchWriter writer = connector.createBatchWriter(TABLE, new BatchWriterConfig());
+            for (int i = 0; i < 10; i++) {
+                Mutation mutation = new Mutation("row" + i);
+                mutation.put("cf", "cq", new Value(new byte[0]));
+                writer.addMutation(mutation);
+            }
+            writer.close();
+        }
+        closes = new AtomicInteger();
+    }
+
+    @Test
+    public void testCancelClosesScanner() throws Exception {
+        QueryCancellation cancellation = new QueryCancellation();
+        ScannerBaseCloseableIterable iterable = new ScannerBaseCloseableIterable(batchScanner(), cancellation);
+        Iterator<Map.Entry<Key, Value>> iterator = iterable.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+
+        cancellation.cancel();
+        assertEquals(1, closes.get());
+        //the scan just ends, the query reports the cancellation
+        assertFalse(iterator.hasNext());
+        iterable.close();
+    }
+
+    @Test
+    public void testClosedScannerIsNotClosedAgainOnCancel() throws Exception {
+        QueryCancellation cancellation = new QueryCancellation();
+        ScannerBaseCloseableIterable iterable = new ScannerBaseCloseableIterable(batchScanner(), cancellation);
+        iterable.iterator().next();
+        iterable.close();
+        assertEquals(1, closes.get());
+
+        cancellation.cancel();
+        assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void testCancelClosesBindingSetScanner() throws Exception {
+        QueryCancellation cancellation = new QueryCancellation();
+        RyaStatementBindingSetKeyValueIterator iterator = new RyaStatementBindingSetKeyValueIterator(TABLE_LAYOUT.SPO,
+                RyaTripleContext.getInstance(new AccumuloRdfConfiguration()), batchScanner(), new RangeBindingSetEntries());
+        iterator.setCancellation(cancellation);
+
+        cancellation.cancel();
+        assertEquals(1, closes.get());
+        try {
+            iterator.hasNext();
+            fail("Expected the cancelled iterator to fail");
+        } catch (RyaDAOException e) {
+            assertEquals(cancellation.getReason(), e.getMessage());
+        }
+        iterator.close();
+    }
+
+    @Test
+    public void testScannerOfCancelledQueryIsClosedRightAway() throws Exception {
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.cancel();
+        new ScannerBaseCloseableIterable(batchScanner(), cancellation);
+        assertEquals(1, closes.get());
+    }
+
+    /**
+     * A batch scanner over the whole table that counts how often it is closed.
+     */
+    private BatchScanner batchScanner() throws Exception {
+        final BatchScanner scanner = connector.createBatchScanner(TABLE, new Authorizations(), 1);
+        scanner.setRanges(Collections.singleton(new Range()));
+        return (BatchScanner) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{BatchScanner.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            closes.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(scanner, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,88 @@
+package mvm.rya.accumulo.query;
+
+/*
+ * #%L
+ * mvm.rya.accumulo.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mvm.rya.api.RdfCloudTripleStoreUtils;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+public class RangeBindingSetEntriesTest {
+
+    @Test
+    public void testMatchesLinearScan() throws Exception {
+        RangeBindingSetEntries entries = new RangeBindingSetEntries();
+        List<Map.Entry<Range, BindingSet>> all = new ArrayList<Map.Entry<Range, BindingSet>>();
+        for (int i = 0; i < 200; i++) {
+            //overlapping ranges of different widths, plus a duplicate range for every tenth
+            Range range = new Range(new Text(row(i)), new Text(row(i + i % 7)));
+            all.add(entry(range, i));
+            if (i % 10 == 0) {
+                all.add(entry(range, -i));
+            }
+        }
+        all.add(entry(new Range(new Text(row(150)), (Text) null), 1000));
+        entries.ranges.addAll(all);
+
+        for (int i = 0; i < 220; i++) {
+            Key key = new Key(new Text(row(i)), new Text("cf"));
+            assertEquals(linear(all, key), new HashSet<BindingSet>(entries.containsKey(key)));
+        }
+
+        //ranges added after the first lookup are picked up
+        entries.ranges.add(entry(new Range(new Text(row(500))), 500));
+        assertEquals(1, entries.containsKey(new Key(new Text(row(500)))).size());
+    }
+
+    private Set<BindingSet> linear(Collection<Map.Entry<Range, BindingSet>> all, Key key) {
+        Set<BindingSet> bss = new HashSet<BindingSet>();
+        for (Map.Entry<Range, BindingSet> entry : all) {
+            if (entry.getKey().contains(key)) {
+                bss.add(entry.getValue());
+            }
+        }
+        return bss;
+    }
+
+    private Map.Entry<Range, BindingSet> entry(Range range, int id) {
+        MapBindingSet bs = new MapBindingSet();
+        bs.addBinding("id", new LiteralImpl(Integer.toString(id)));
+        return new RdfCloudTripleStoreUtils.CustomEntry<Range, BindingSet>(range, bs);
+    }
+
+    private String row(int i) {
+        return String.format("row%05d", i);
+    }
+}
@@ -293,7 +293,8 @@ public class CloudbaseRyaQueryEngine implements RyaQueryEngine<CloudbaseRdfConfi
         String regexPredicate = ryaQuery.getRegexPredicate();
         String regexObject = ryaQuery.getRegexObject();
         TableLayoutStrategy tableLayoutStrategy = configuration.getTableLayoutStrategy();
-        int maxRanges = ryaQuery.getMaxRanges();
+        //not set means the engine may choose, keep the old fixed limit here
+        int maxRanges = ryaQuery.getMaxRanges() < 0 ? 2 : ryaQuery.getMaxRanges();
 
         //TODO: cannot span multiple tables here
         try {
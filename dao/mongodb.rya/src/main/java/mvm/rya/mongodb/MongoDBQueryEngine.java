@@ -6,11 +6,12 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import mvm.rya.api.domain.RyaStatement;
 import mvm.rya.api.persist.RyaDAOException;
@@ -27,6 +28,9 @@ import mvm.rya.mongodb.iter.RyaStatementCursorIterator;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.openrdf.query.BindingSet;
 
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
@@ -42,6 +46,7 @@ public class MongoDBQueryEngine implements RyaQueryEngine<MongoDBRdfConfiguratio
 	private MongoClient mongoClient;
 	private DBCollection coll;
 	private MongoDBStorageStrategy strategy;
+	private ExecutorService executor;
     
     public MongoDBQueryEngine(MongoDBRdfConfiguration conf) throws NumberFormatException, UnknownHostException{
 		mongoClient = new MongoClient(conf.get(MongoDBRdfConfiguration.MONGO_INSTANCE),
@@ -49,6 +54,10 @@ public class MongoDBQueryEngine implements RyaQueryEngine<MongoDBRdfConfiguratio
 		DB db = mongoClient.getDB( conf.get(MongoDBRdfConfiguration.MONGO_DB_NAME));
 		coll = db.getCollection(conf.getTriplesCollectionName());
 		this.strategy = new SimpleMongoDBStorageStrategy();
+		// the client pools its connections, so the chunks of a binding set batch share it
+		this.executor = Executors.newFixedThreadPool(conf.getNumThreads(),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rya-mongo-query-%d").build());
+		this.configuration = conf;
     }
     
     
@@ -88,7 +97,8 @@ public class MongoDBQueryEngine implements RyaQueryEngine<MongoDBRdfConfiguratio
             conf = configuration;
         }
         Long maxResults = conf.getLimit();
-        Map<DBObject, BindingSet> rangeMap = new HashMap<DBObject, BindingSet>();
+        // the same pattern may come with many binding sets
+        Multimap<DBObject, BindingSet> rangeMap = LinkedHashMultimap.create();
  
         //TODO: cannot span multiple tables here
         try {
@@ -100,7 +110,8 @@ public class MongoDBQueryEngine implements RyaQueryEngine<MongoDBRdfConfiguratio
             }
             
             // TODO not sure what to do about regex ranges?
-            RyaStatementBindingSetCursorIterator iterator = new RyaStatementBindingSetCursorIterator(coll, rangeMap, strategy);
+            RyaStatementBindingSetCursorIterator iterator = new RyaStatementBindingSetCursorIterator(coll, rangeMap, strategy,
+                    executor, conf.getQueryBatchSize());
             
             if (maxResults != null) {
                 iterator.setMaxResults(maxResults);
@@ -177,6 +188,7 @@ public class MongoDBQueryEngine implements RyaQueryEngine<MongoDBRdfConfiguratio
 
     @Override
     public void close() throws IOException {
+        executor.shutdownNow();
         if (mongoClient != null){ mongoClient.close(); }
     }
 	
@@ -20,6 +20,8 @@ public class MongoDBRdfConfiguration extends RdfCloudTripleStoreConfiguration {
     public static final String  MONGO_USER_PASSWORD = "mongo.db.userpassword";
     public static final String USE_TEST_MONGO = "mongo.db.test";
     public static final String CONF_ADDITIONAL_INDEXERS = "ac.additional.indexers";
+    /** the most statement pattern queries merged into one query of a binding set batch */
+    public static final String MONGO_QUERY_BATCH_SIZE = "mongo.db.query.batchsize";
 
     public MongoDBRdfConfiguration() {
         super();
@@ -70,6 +72,14 @@ public class MongoDBRdfConfiguration extends RdfCloudTripleStoreConfiguration {
         this.set(MONGO_INSTANCE_PORT, name);
     }
 
+    public int getQueryBatchSize() {
+        return this.getInt(MONGO_QUERY_BATCH_SIZE, 100);
+    }
+
+    public void setQueryBatchSize(int batchSize) {
+        this.setInt(MONGO_QUERY_BATCH_SIZE, batchSize);
+    }
+
     public String getMongoDBName() {
         return this.get(MONGO_DB_NAME, "rya");
     }
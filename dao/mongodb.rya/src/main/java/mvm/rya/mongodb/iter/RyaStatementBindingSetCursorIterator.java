@@ -2,9 +2,17 @@ package mvm.rya.mongodb.iter;
 
 import info.aduna.iteration.CloseableIteration;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mvm.rya.api.RdfCloudTripleStoreUtils;
 import mvm.rya.api.domain.RyaStatement;
@@ -13,63 +21,196 @@ import mvm.rya.mongodb.dao.MongoDBStorageStrategy;
 
 import org.openrdf.query.BindingSet;
 
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
+/**
+ * Runs the queries of a batch of statement patterns, and returns each matching statement with every binding set whose
+ * pattern it matches.
+ * <p>
+ * The distinct queries are merged into chunks of at most batchSize queries, one {@code $in} query when the queries
+ * differ in a single field and one {@code $or} query otherwise. At most {@link #MAX_CHUNKS_IN_FLIGHT} chunks are
+ * opened ahead on the executor, which only runs the query and reads its first batch. The results of a chunk are then
+ * streamed from its cursor and matched back to the queries, and so to the binding sets, as they are read, so at most
+ * a cursor batch per chunk in flight is held in memory.
+ */
 public class RyaStatementBindingSetCursorIterator implements CloseableIteration<Entry<RyaStatement, BindingSet>, RyaDAOException> {
 
+	/** chunks opened ahead of the one being read */
+	public static final int MAX_CHUNKS_IN_FLIGHT = 2;
+
 	private DBCollection coll;
-	private Map<DBObject, BindingSet> rangeMap;
-	private Iterator<DBObject> queryIterator;
+	private Multimap<DBObject, BindingSet> rangeMap;
+	private MongoDBStorageStrategy strategy;
+	private ExecutorService executor;
+	private int batchSize;
 	private Long maxResults;
+
+	private Iterator<List<DBObject>> pendingChunks;
+	private final LinkedList<OpenedChunk> inFlight = new LinkedList<OpenedChunk>();
+	private OpenedChunk currentChunk;
 	private DBCursor currentCursor;
-	private BindingSet currentBindingSet;
-	private MongoDBStorageStrategy strategy;
+	private final LinkedList<Entry<RyaStatement, BindingSet>> currentResults = new LinkedList<Entry<RyaStatement, BindingSet>>();
+	private long returned = 0;
+	private volatile boolean closed = false;
 
 	public RyaStatementBindingSetCursorIterator(DBCollection coll,
-			Map<DBObject, BindingSet> rangeMap, MongoDBStorageStrategy strategy) {
+			Multimap<DBObject, BindingSet> rangeMap, MongoDBStorageStrategy strategy,
+			ExecutorService executor, int batchSize) {
 		this.coll = coll;
 		this.rangeMap = rangeMap;
-		this.queryIterator = rangeMap.keySet().iterator();
 		this.strategy = strategy;
+		this.executor = executor;
+		this.batchSize = batchSize;
 	}
 
 	@Override
-	public boolean hasNext() {
-		if (!currentCursorIsValid()) {
-			findNextValidCursor();
+	public boolean hasNext() throws RyaDAOException {
+		if (closed || (maxResults != null && returned >= maxResults)) {
+			return false;
 		}
-		return currentCursorIsValid();
+		if (pendingChunks == null) {
+			pendingChunks = Lists.partition(new ArrayList<DBObject>(rangeMap.keySet()), batchSize).iterator();
+			fillInFlight();
+		}
+		while (currentResults.isEmpty()) {
+			if (currentCursor != null && currentCursor.hasNext()) {
+				match(currentChunk.queries, currentCursor.next());
+				continue;
+			}
+			closeCurrent();
+			if (inFlight.isEmpty()) {
+				return false;
+			}
+			currentChunk = inFlight.removeFirst();
+			currentCursor = getCursor(currentChunk);
+			fillInFlight();
+		}
+		return true;
 	}
 
 	@Override
-	public Entry<RyaStatement, BindingSet> next() {
-		if (!currentCursorIsValid()) {
-			findNextValidCursor();
+	public Entry<RyaStatement, BindingSet> next() throws RyaDAOException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		returned++;
+		return currentResults.removeFirst();
+	}
+
+	private void fillInFlight() {
+		while (inFlight.size() < MAX_CHUNKS_IN_FLIGHT && pendingChunks.hasNext()) {
+			final List<DBObject> queries = pendingChunks.next();
+			inFlight.add(new OpenedChunk(queries, executor.submit(new Callable<DBCursor>() {
+				@Override
+				public DBCursor call() throws Exception {
+					DBCursor cursor = coll.find(batchQuery(queries));
+					// runs the query and reads the first batch
+					cursor.hasNext();
+					if (closed) {
+						cursor.close();
+					}
+					return cursor;
+				}
+			})));
+		}
+	}
+
+	private void match(List<DBObject> queries, DBObject queryResult) {
+		RyaStatement statement = null;
+		for (DBObject query : queries) {
+			if (!matches(query, queryResult)) {
+				continue;
+			}
+			if (statement == null) {
+				statement = strategy.deserializeDBObject(queryResult);
+			}
+			for (BindingSet bs : rangeMap.get(query)) {
+				currentResults.add(new RdfCloudTripleStoreUtils.CustomEntry<RyaStatement, BindingSet>(statement, bs));
+			}
+		}
+	}
+
+	private DBCursor getCursor(OpenedChunk chunk) throws RyaDAOException {
+		try {
+			return chunk.cursor.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RyaDAOException(e);
+		} catch (ExecutionException e) {
+			throw new RyaDAOException(e.getCause());
+		}
+	}
+
+	private void closeCurrent() {
+		if (currentCursor != null) {
+			currentCursor.close();
 		}
-		if (currentCursorIsValid()) {
-			// convert to Rya Statement
-			DBObject queryResult = currentCursor.next();
-			RyaStatement statement = strategy.deserializeDBObject(queryResult);
-			return new RdfCloudTripleStoreUtils.CustomEntry<RyaStatement, BindingSet>(statement, currentBindingSet);
+		currentCursor = null;
+		currentChunk = null;
+	}
+
+	private static class OpenedChunk {
+		private final List<DBObject> queries;
+		private final Future<DBCursor> cursor;
+
+		private OpenedChunk(List<DBObject> queries, Future<DBCursor> cursor) {
+			this.queries = queries;
+			this.cursor = cursor;
 		}
-		return null;
 	}
-	
-	private void findNextValidCursor() {
-		while (queryIterator.hasNext()){
-			DBObject currentQuery = queryIterator.next();
-			currentCursor = coll.find(currentQuery);
-			currentBindingSet = rangeMap.get(currentQuery);
-			if (currentCursor.hasNext()) break;
+
+	/**
+	 * @return a single query matching every document that one of the distinct queries matches
+	 */
+	static DBObject batchQuery(List<DBObject> queries) {
+		if (queries.size() == 1) {
+			return queries.get(0);
+		}
+		DBObject first = queries.get(0);
+		String varying = null;
+		for (DBObject query : queries) {
+			if (!query.keySet().equals(first.keySet())) {
+				return or(queries);
+			}
+			for (String field : first.keySet()) {
+				if (!Objects.equal(first.get(field), query.get(field))) {
+					if (varying != null && !varying.equals(field)) {
+						return or(queries);
+					}
+					varying = field;
+				}
+			}
 		}
+		List<Object> values = new ArrayList<Object>(queries.size());
+		for (DBObject query : queries) {
+			values.add(query.get(varying));
+		}
+		BasicDBObject batch = new BasicDBObject(first.toMap());
+		batch.put(varying, new BasicDBObject("$in", values));
+		return batch;
 	}
-	
-	private boolean currentCursorIsValid() {
-		return (currentCursor != null) && currentCursor.hasNext();
+
+	private static DBObject or(Collection<DBObject> queries) {
+		return new BasicDBObject("$or", new ArrayList<DBObject>(queries));
 	}
 
+	/**
+	 * @return true if the document has the value of every field of the equality query
+	 */
+	static boolean matches(DBObject query, DBObject queryResult) {
+		for (String field : query.keySet()) {
+			if (!Objects.equal(query.get(field), queryResult.get(field))) {
+				return false;
+			}
+		}
+		return true;
+	}
 
 	public void setMaxResults(Long maxResults) {
 		this.maxResults = maxResults;
@@ -77,7 +218,19 @@ public class RyaStatementBindingSetCursorIterator implements CloseableIteration<
 
 	@Override
 	public void close() throws RyaDAOException {
-		// TODO don't know what to do here
+		closed = true;
+		for (OpenedChunk chunk : inFlight) {
+			if (!chunk.cursor.cancel(true) && chunk.cursor.isDone()) {
+				try {
+					chunk.cursor.get().close();
+				} catch (Exception e) {
+					// the chunk failed, there is no cursor to close
+				}
+			}
+		}
+		inFlight.clear();
+		closeCurrent();
+		currentResults.clear();
 	}
 
 	@Override
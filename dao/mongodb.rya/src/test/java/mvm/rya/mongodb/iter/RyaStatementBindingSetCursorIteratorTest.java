@@ -0,0 +1,112 @@
+package mvm.rya.mongodb.iter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.domain.RyaType;
+import mvm.rya.api.domain.RyaURI;
+import mvm.rya.mongodb.dao.MongoDBStorageStrategy;
+import mvm.rya.mongodb.dao.SimpleMongoDBStorageStrategy;
+
+import org.junit.Test;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class RyaStatementBindingSetCursorIteratorTest {
+
+    private final MongoDBStorageStrategy strategy = new SimpleMongoDBStorageStrategy();
+    private final RyaURI pred = new RyaURI("urn:test#pred");
+
+    @Test
+    public void testSingleQuery() {
+        DBObject query = strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s1"), pred, null));
+        assertSame(query, RyaStatementBindingSetCursorIterator.batchQuery(Arrays.asList(query)));
+    }
+
+    @Test
+    public void testInWhenOneFieldVaries() {
+        List<DBObject> queries = Arrays.asList(
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s1"), pred, null)),
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s2"), pred, null)),
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s3"), pred, null)));
+        DBObject batch = RyaStatementBindingSetCursorIterator.batchQuery(queries);
+
+        assertEquals("urn:test#pred", batch.get("predicate"));
+        DBObject in = (DBObject) batch.get("subject");
+        assertEquals(Arrays.asList("urn:test#s1", "urn:test#s2", "urn:test#s3"), in.get("$in"));
+        assertFalse(batch.containsField("$or"));
+    }
+
+    @Test
+    public void testOrWhenSeveralFieldsVary() {
+        List<DBObject> queries = Arrays.asList(
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s1"), pred, new RyaType("o1"))),
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s2"), pred, new RyaType("o2"))));
+        DBObject batch = RyaStatementBindingSetCursorIterator.batchQuery(queries);
+
+        assertEquals(1, batch.keySet().size());
+        assertEquals(queries, batch.get("$or"));
+    }
+
+    @Test
+    public void testOrForMixedKeys() {
+        // one query binds the subject, the other the object
+        List<DBObject> queries = Arrays.asList(
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s1"), pred, null)),
+                strategy.getQuery(new RyaStatement(null, pred, new RyaType("o1"))),
+                strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s2"), pred, null)));
+        DBObject batch = RyaStatementBindingSetCursorIterator.batchQuery(queries);
+
+        assertEquals(1, batch.keySet().size());
+        assertEquals(queries, batch.get("$or"));
+    }
+
+    @Test
+    public void testMatches() {
+        DBObject bySubject = strategy.getQuery(new RyaStatement(new RyaURI("urn:test#s1"), pred, null));
+        DBObject byObject = strategy.getQuery(new RyaStatement(null, pred, new RyaType("o1")));
+        DBObject byIntObject = strategy.getQuery(new RyaStatement(null, pred,
+                new RyaType(XMLSchema.INT, "o1")));
+
+        DBObject document = new BasicDBObject("subject", "urn:test#s1")
+                .append("predicate", "urn:test#pred")
+                .append("object", "o1")
+                .append("objectType", new RyaType("o1").getDataType().toString())
+                .append("context", "");
+        assertTrue(RyaStatementBindingSetCursorIterator.matches(bySubject, document));
+        assertTrue(RyaStatementBindingSetCursorIterator.matches(byObject, document));
+        // same object data, another type
+        assertFalse(RyaStatementBindingSetCursorIterator.matches(byIntObject, document));
+
+        DBObject other = new BasicDBObject(document.toMap());
+        other.put("subject", "urn:test#s2");
+        assertFalse(RyaStatementBindingSetCursorIterator.matches(bySubject, other));
+        assertTrue(RyaStatementBindingSetCursorIterator.matches(byObject, other));
+    }
+
+    @Test
+    public void testNoQueries() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RyaStatementBindingSetCursorIterator iterator = new RyaStatementBindingSetCursorIterator(null,
+                    LinkedHashMultimap.<DBObject, BindingSet>create(), strategy, executor, 10);
+            assertFalse(iterator.hasNext());
+            iterator.close();
+            assertFalse(iterator.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -61,6 +61,12 @@ public class NullFreeTextIndexer extends AbstractAccumuloIndexer implements Free
         return null;
     }
 
+    @Override
+    public CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints, int topK)
+            throws IOException {
+        return null;
+    }
+
     @Override
     public Set<URI> getIndexablePredicates() {
         return null;
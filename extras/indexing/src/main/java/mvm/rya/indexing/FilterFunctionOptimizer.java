@@ -33,13 +33,17 @@ import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.Dataset;
 import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.Extension;
 import org.openrdf.query.algebra.Filter;
 import org.openrdf.query.algebra.FunctionCall;
 import org.openrdf.query.algebra.Join;
 import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.Projection;
 import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.Slice;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
 import org.openrdf.query.algebra.ValueConstant;
 import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.Var;
@@ -102,6 +106,8 @@ public class FilterFunctionOptimizer implements QueryOptimizer, Configurable {
         tupleExpr.visit(searchVars);
         // rewrites for property searches:
         processPropertySearches(tupleExpr, searchVars.searchProperties);
+        // a free text search directly under a LIMIT only needs its best matches
+        tupleExpr.visit(new FreeTextLimitVisitor());
 
     }
     
@@ -303,6 +309,33 @@ public class FilterFunctionOptimizer implements QueryOptimizer, Configurable {
     }
     
     
+    private static class FreeTextLimitVisitor extends QueryModelVisitorBase<RuntimeException> {
+
+        @Override
+        public void meet(Slice node) {
+            if (node.hasLimit()) {
+                TupleExpr arg = node.getArg();
+                // projections, extensions and the always true filters left behind by the rewrite keep every row
+                while (arg instanceof Projection || arg instanceof Extension || isTrueFilter(arg)) {
+                    arg = ((UnaryTupleOperator) arg).getArg();
+                }
+                long limit = node.getLimit() + Math.max(0, node.getOffset());
+                if (arg instanceof FreeTextTupleSet && limit <= Integer.MAX_VALUE) {
+                    ((FreeTextTupleSet) arg).setLimit((int) limit);
+                }
+            }
+            super.meet(node);
+        }
+
+        private static boolean isTrueFilter(TupleExpr expr) {
+            if (!(expr instanceof Filter)) {
+                return false;
+            }
+            ValueExpr condition = ((Filter) expr).getCondition();
+            return condition instanceof ValueConstant && Boolean.TRUE.toString().equals(((ValueConstant) condition).getValue().stringValue());
+        }
+    }
+
     private static class VarExchangeVisitor extends QueryModelVisitorBase<RuntimeException> {
 
         private final  StatementPattern exchangeVar;
@@ -48,6 +48,20 @@ public interface FreeTextIndexer extends RyaSecondaryIndexer {
 	 */
 	public abstract CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints) throws IOException;
 
+	/**
+	 * Query the Free Text Index with specific constraints and return only the best matches, most relevant first.
+	 * 
+	 * @param query
+	 *            the query to perform
+	 * @param contraints
+	 *            the constraints on the statements returned
+	 * @param topK
+	 *            the maximum number of statements to return
+	 * @return at most topK statements that meet the query and other constraints, ordered by relevance.
+	 * @throws IOException
+	 */
+	public abstract CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints, int topK) throws IOException;
+
 	/**
 	 * @return the set of predicates indexed by the indexer.
 	 */
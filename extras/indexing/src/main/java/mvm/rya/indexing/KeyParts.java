@@ -26,6 +26,9 @@ import com.google.common.collect.Constraints;
  * 		rowkey = datetime 0x/00 uniquesuffix
  * 		contraintPrefix = 0x/00 hash([subject][predicate])
  * 		uniquesuffix = some bytes to make it unique, like hash(statement).
+ * Interval rows are kept apart from the instant rows, after all of them:
+ * 		rowkey = 0x/f0 beginning/end 0x/00 uniquesuffix
+ * 		rowkey = 0x/f1 end/beginning 0x/00 uniquesuffix
  * 
  * The instance is in one of two modes depending on the constructor:
  * 		storage mode  -- construct with a triple statement, get an iterator of keys to store.  
@@ -47,6 +50,9 @@ public class KeyParts implements Iterable<KeyParts> {
         
         public static final byte[] HASH_PREFIX = new byte[] {0};
         public static final byte[] HASH_PREFIX_FOLLOWING = new byte[] {1};
+        // datetime keys are ascii, so these sort after every instant row
+        public static final byte[] INTERVAL_BEGIN_PREFIX = new byte[] {(byte) 0xf0};
+        public static final byte[] INTERVAL_END_PREFIX = new byte[] {(byte) 0xf1};
 
 		public final Text cf;
 		public final Text cq;
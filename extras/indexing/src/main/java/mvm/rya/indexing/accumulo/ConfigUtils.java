@@ -36,6 +36,7 @@ import mvm.rya.indexing.accumulo.freetext.Tokenizer;
 import mvm.rya.indexing.accumulo.geo.GeoMesaGeoIndexer;
 import mvm.rya.indexing.accumulo.temporal.AccumuloTemporalIndexer;
 import mvm.rya.indexing.external.PrecompJoinOptimizer;
+import mvm.rya.indexing.external.PrecompJoinUpdater;
 import mvm.rya.indexing.mongodb.MongoGeoIndexer;
 
 import org.apache.accumulo.core.client.AccumuloException;
@@ -86,6 +87,7 @@ public class ConfigUtils {
     public static final String FREE_TEXT_TERM_TABLENAME = "sc.freetext.termtable";
     public static final String GEO_TABLENAME = "sc.geo.table";
     public static final String GEO_NUM_PARTITIONS = "sc.geo.numPartitions";
+    public static final String GEO_BUFFER_SIZE = "sc.geo.bufferSize";
     public static final String TEMPORAL_TABLENAME = "sc.temporal.index";
     public static final String ENTITY_TABLENAME = "sc.entity.index";
     
@@ -95,6 +97,7 @@ public class ConfigUtils {
     public static final String USE_ENTITY = "sc.use_entity";
     public static final String USE_PCJ = "sc.use_pcj";
     public static final String USE_OPTIMAL_PCJ = "sc.use.optimal.pcj";
+    public static final String USE_PCJ_UPDATER = "sc.use.pcj.updater";
     
     public static final String USE_INDEXING_SAIL = "sc.use.indexing.sail";
     public static final String USE_EXTERNAL_SAIL = "sc.use.external.sail";
@@ -112,6 +115,9 @@ public class ConfigUtils {
     public static final String FREETEXT_PREDICATES_LIST = "sc.freetext.predicates";
     public static final String FREETEXT_DOC_NUM_PARTITIONS = "sc.freetext.numPartitions.text";
     public static final String FREETEXT_TERM_NUM_PARTITIONS = "sc.freetext.numPartitions.term";
+    public static final String FREETEXT_QUERY_NUM_THREADS = "sc.freetext.query.numThreads";
+    public static final String FREETEXT_WILDCARD_CACHE_SIZE = "sc.freetext.wildcard.cacheSize";
+    public static final String FREETEXT_WILDCARD_CACHE_EXPIRY = "sc.freetext.wildcard.cacheExpiry";
 
     public static final String TOKENIZER_CLASS = "sc.freetext.tokenizer.class";
 
@@ -337,9 +343,31 @@ public class ConfigUtils {
         return conf.getInt(FREETEXT_TERM_NUM_PARTITIONS, getNumPartitions(conf));
     }
 
+    public static int getFreeTextQueryNumThreads(Configuration conf) {
+        return conf.getInt(FREETEXT_QUERY_NUM_THREADS, 8);
+    }
+
+    public static int getFreeTextWildcardCacheSize(Configuration conf) {
+        return conf.getInt(FREETEXT_WILDCARD_CACHE_SIZE, 1000);
+    }
+
+    /**
+     * @return how long, in milliseconds, an expanded wildcard is reused
+     */
+    public static long getFreeTextWildcardCacheExpiry(Configuration conf) {
+        return conf.getLong(FREETEXT_WILDCARD_CACHE_EXPIRY, 60000);
+    }
+
     public static int getGeoNumPartitions(Configuration conf) {
         return conf.getInt(GEO_NUM_PARTITIONS, getNumPartitions(conf));
     }
+
+    /**
+     * @return the number of features the geo indexer holds before writing them to the feature store
+     */
+    public static int getGeoBufferSize(Configuration conf) {
+        return conf.getInt(GEO_BUFFER_SIZE, 1000);
+    }
     
     public static boolean getUseGeo(Configuration conf) {
         return conf.getBoolean(USE_GEO, false);
@@ -364,6 +392,13 @@ public class ConfigUtils {
     public static boolean getUseOptimalPCJ(Configuration conf) {
         return conf.getBoolean(USE_OPTIMAL_PCJ, false);
     }
+
+    /**
+     * @return true if the PCJ tables are updated as statements are added, see {@link PrecompJoinUpdater}
+     */
+    public static boolean getUsePcjUpdater(Configuration conf) {
+        return conf.getBoolean(USE_PCJ_UPDATER, false);
+    }
     
     public static boolean getUseMongo(Configuration conf) {
         return conf.getBoolean(USE_MONGO, false);
@@ -388,6 +423,10 @@ public class ConfigUtils {
                 conf.setPcjOptimizer(PrecompJoinOptimizer.class);
             }
 
+            if (getUsePcjUpdater(conf)) {
+                indexList.add(PrecompJoinUpdater.class.getName());
+            }
+
             if (getUseGeo(conf)) {
                 indexList.add(GeoMesaGeoIndexer.class.getName());
                 useFilterIndex = true;
@@ -22,11 +22,14 @@ package mvm.rya.indexing.accumulo.freetext;
 
 import static mvm.rya.indexing.accumulo.freetext.query.ASTNodeUtils.getNodeIterator;
 import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
 
 import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -34,6 +37,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import mvm.rya.accumulo.AccumuloRdfConfiguration;
 import mvm.rya.accumulo.experimental.AbstractAccumuloIndexer;
@@ -48,6 +53,7 @@ import mvm.rya.indexing.accumulo.ConfigUtils;
 import mvm.rya.indexing.accumulo.Md5Hash;
 import mvm.rya.indexing.accumulo.StatementSerializer;
 import mvm.rya.indexing.accumulo.freetext.iterators.BooleanTreeIterator;
+import mvm.rya.indexing.accumulo.freetext.iterators.RankedBooleanTreeIterator;
 import mvm.rya.indexing.accumulo.freetext.query.ASTExpression;
 import mvm.rya.indexing.accumulo.freetext.query.ASTNodeUtils;
 import mvm.rya.indexing.accumulo.freetext.query.ASTSimpleNode;
@@ -60,11 +66,11 @@ import mvm.rya.indexing.accumulo.freetext.query.TokenMgrError;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
-import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.admin.TableOperations;
@@ -73,7 +79,9 @@ import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.file.keyfunctor.ColumnFamilyFunctor;
+import org.apache.accumulo.core.iterators.LongCombiner;
 import org.apache.accumulo.core.iterators.user.IntersectingIterator;
+import org.apache.accumulo.core.iterators.user.SummingCombiner;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.conf.Configuration;
@@ -106,23 +114,32 @@ import com.google.common.base.Charsets;
  * shardID         | o\x00Object    | documentHash     | (empty) 
  * shardID         | c\x00Context   | documentHash     | (empty) 
  * shardID         | t\x00token     | documentHash     | (empty)
+ * shardID         | m\x00          | documentHash     | token count
+ * shardID         | n\x00          | docs             | document count (summed)
+ * shardID         | n\x00          | tokens           | token count (summed)
  * </pre>
  * <p>
  * Note: documentHash is a sha256 Hash of the Document's Content
  * <p>
+ * The last three entries are the per shard statistics used to rank results, see {@link RankedBooleanTreeIterator}. Queries
+ * scan the shards in parallel, one range per shard.
+ * <p>
  * The terms table is used for expanding wildcard search terms. For each token in the document table, the table sill store the following
  * information:
  * 
  * <pre>
- * Row (partition)   | CF/CQ/Value 
- * ==================+=============
- * l\x00token        | (empty) 
- * r\x00Reversetoken | (empty)
+ * Row (partition)   | Column Qualifier | CF/Value 
+ * ==================+==================+=========
+ * l\x00token        | (empty)          | (empty) 
+ * r\x00Reversetoken | (empty)          | (empty)
+ * g\x00trigram      | token            | (empty)
  * </pre>
  * <p>
- * There are two prefixes in the table, "token list" (keys with an "l" prefix) and "reverse token list" (keys with a "r" prefix). This table
- * is uses the "token list" to expand foo* into terms like food, foot, and football. This table uses the "reverse token list" to expand *ar
- * into car, bar, and far.
+ * There are three prefixes in the table, "token list" (keys with an "l" prefix), "reverse token list" (keys with a "r" prefix) and
+ * "trigram list" (keys with a "g" prefix). This table is uses the "token list" to expand foo* into terms like food, foot, and football.
+ * This table uses the "reverse token list" to expand *ar into car, bar, and far. The "trigram list" holds every token containing a trigram
+ * (including the ones spanning the token's start and end), and is intersected to expand wildcards elsewhere in a term, like f*t, and
+ * fuzzy terms, like hat~ (see {@link TermExpander}).
  * <p>
  * Example: Given these three statements as inputs:
  * 
@@ -192,19 +209,34 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
     private static final byte[] EMPTY_BYTES = new byte[] {};
     private static final Text EMPTY_TEXT = new Text(EMPTY_BYTES);
     private static final Value EMPTY_VALUE = new Value(EMPTY_BYTES);
+    private static final Value ONE_VALUE = new Value("1".getBytes(Charsets.UTF_8));
+
+    private static final String STATS_COMBINER_NAME = "freeTextStats";
+
+    /** stands in for a "*" inside a term while the query is parsed */
+    private static final char INFIX_WILDCARD = '\u001a';
+
+    /** term~ or term~N: matches the terms within N (default 1, at most 2) edits */
+    private static final Pattern FUZZY_TERM = Pattern.compile("(.+)~([12]?)");
 
     private Tokenizer tokenizer;
 
     private BatchWriter docTableBw;
     private BatchWriter termTableBw;
     private MultiTableBatchWriter mtbw;
+    /** false once the index writes through a writer that it was given */
+    private boolean ownsWriter = true;
 
     private int queryTermLimit;
 
     private int docTableNumPartitions;
 
+    private int queryNumThreads;
+
     private Set<URI> validPredicates;
 
+    private TermExpander termExpander;
+
     private Configuration conf;
     
     private boolean isInit = false;
@@ -225,7 +257,8 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
         if (createdTermTable && !ConfigUtils.useMockInstance(conf) && termTableNumPartitions > 0) {
             TreeSet<Text> splits = new TreeSet<Text>();
 
-            // split on the "Term List" and "Reverse Term list" boundary
+            // split on the "Trigram List", "Term List" and "Reverse Term list" boundaries
+            splits.add(new Text(ColumnPrefixes.getTermListColFam("")));
             splits.add(new Text(ColumnPrefixes.getRevTermListColFam("")));
 
             // Symmetrically split the "Term List" and "Reverse Term list"
@@ -256,6 +289,14 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
             tableOps.setProperty(doctable, "table.bloom.enabled", Boolean.TRUE.toString());
         }
 
+        // Sum the shard statistics. Also attached to tables created before the statistics existed.
+        if (!tableOps.listIterators(doctable).containsKey(STATS_COMBINER_NAME)) {
+            IteratorSetting setting = new IteratorSetting(10, STATS_COMBINER_NAME, SummingCombiner.class);
+            SummingCombiner.setColumns(setting, Collections.singletonList(new IteratorSetting.Column(ColumnPrefixes.STATS_CF_PREFIX)));
+            SummingCombiner.setEncodingType(setting, LongCombiner.Type.STRING);
+            tableOps.attachIterator(doctable, setting);
+        }
+
         mtbw = ConfigUtils.createMultitableBatchWriter(conf);
 
         docTableBw = mtbw.getBatchWriter(doctable);
@@ -265,6 +306,8 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
         validPredicates = ConfigUtils.getFreeTextPredicates(conf);
 
         queryTermLimit = ConfigUtils.getFreeTextTermLimit(conf);
+        termExpander = new TermExpander(conf);
+        queryNumThreads = Math.max(1, Math.min(ConfigUtils.getFreeTextQueryNumThreads(conf), docTableNumPartitions));
     }
     
     
@@ -332,6 +375,12 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
                 docTableMut.put(ColumnPrefixes.getObjColFam(statement), docIdText, EMPTY_VALUE);
                 docTableMut.put(ColumnPrefixes.getContextColFam(statement), docIdText, EMPTY_VALUE);
 
+                // ranking statistics
+                Value length = new Value(Integer.toString(tokens.size()).getBytes(Charsets.UTF_8));
+                docTableMut.put(ColumnPrefixes.DOC_LENGTH_CF_PREFIX, docIdText, length);
+                docTableMut.put(ColumnPrefixes.STATS_CF_PREFIX, ColumnPrefixes.STATS_DOC_COUNT_CQ, ONE_VALUE);
+                docTableMut.put(ColumnPrefixes.STATS_CF_PREFIX, ColumnPrefixes.STATS_TOKEN_COUNT_CQ, length);
+
                 // index the statement terms
                 for (String token : tokens) {
                     // tie the token to the document
@@ -340,6 +389,11 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
                     // store the term in the term table (useful for wildcard searches)
                     termTableMutations.add(createEmptyPutMutation(ColumnPrefixes.getTermListColFam(token)));
                     termTableMutations.add(createEmptyPutMutation(ColumnPrefixes.getRevTermListColFam(token)));
+                    for (String ngram : TermExpander.ngrams(token)) {
+                        Mutation m = new Mutation(ColumnPrefixes.getNgramListColFam(ngram));
+                        m.put(EMPTY_TEXT, new Text(token), EMPTY_VALUE);
+                        termTableMutations.add(m);
+                    }
                 }
 
                 // write the mutations
@@ -350,6 +404,7 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
                     logger.error("error adding mutation", e);
                     throw new IOException(e);
                 }
+                termExpander.termsWritten(tokens);
 
             }
 
@@ -377,6 +432,28 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
         return validPredicates;
     }
 
+    /**
+     * Writes the index through the given writer, which its owner closes, instead of the index's own.
+     */
+    @Override
+    public void setMultiTableBatchWriter(MultiTableBatchWriter writer) throws IOException {
+        try {
+            if (ownsWriter) {
+                mtbw.close();
+            }
+            docTableBw = writer.getBatchWriter(ConfigUtils.getFreeTextDocTablename(conf));
+            termTableBw = writer.getBatchWriter(ConfigUtils.getFreeTextTermTablename(conf));
+            mtbw = writer;
+            ownsWriter = false;
+        } catch (AccumuloException e) {
+            throw new IOException(e);
+        } catch (AccumuloSecurityException e) {
+            throw new IOException(e);
+        } catch (TableNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void flush() throws IOException {
@@ -392,37 +469,63 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
     @Override
     public void close() throws IOException {
         try {
-            mtbw.close();
+            if (ownsWriter) {
+                mtbw.close();
+            } else {
+                mtbw.flush();
+            }
         } catch (MutationsRejectedException e) {
             logger.error("error closing the batch writer", e);
             throw new IOException(e);
         }
     }
 
-    private Set<String> unrollWildcard(String string, boolean reverse) throws IOException {
-        Scanner termTableScan = getScanner(ConfigUtils.getFreeTextTermTablename(conf));
-
-        Set<String> unrolledTerms = new HashSet<String>();
-
-        Text queryTerm;
-        if (reverse) {
-            String t = StringUtils.removeStart(string, "*").toLowerCase();
-            queryTerm = ColumnPrefixes.getRevTermListColFam(t);
-        } else {
-            String t = StringUtils.removeEnd(string, "*").toLowerCase();
-            queryTerm = ColumnPrefixes.getTermListColFam(t);
+    /**
+     * Marks the "*" characters that the query parser does not accept, those that are not a term's only leading or
+     * trailing wildcard, so that the term parses and is expanded as an infix wildcard.
+     */
+    static String markInfixWildcards(String query) {
+        StringBuilder marked = new StringBuilder(query.length());
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (quoted || c == '"' || !isTermDelimiter(c)) {
+                continue;
+            }
+            String term = query.substring(start, i);
+            int stars = StringUtils.countMatches(term, "*");
+            boolean simple = stars == 0 || (stars == 1 && (term.startsWith("*") || term.endsWith("*"))) || term.indexOf('"') >= 0;
+            marked.append(simple ? term : term.replace('*', INFIX_WILDCARD));
+            if (i < query.length()) {
+                marked.append(c);
+            }
+            start = i + 1;
+        }
+        if (start < query.length()) {
+            marked.append(query.substring(start));
         }
+        return marked.toString();
+    }
 
-        // perform query and read results
-        termTableScan.setRange(Range.prefix(queryTerm));
+    private static boolean isTermDelimiter(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '!';
+    }
 
-        for (Entry<Key, Value> e : termTableScan) {
-            String term = ColumnPrefixes.removePrefix(e.getKey().getRow()).toString();
-            if (reverse) {
-                unrolledTerms.add(StringUtils.reverse(term));
-            } else {
-                unrolledTerms.add(term);
-            }
+    private Set<String> unrollWildcard(ASTTerm term) throws IOException {
+        String t = term.getTerm().toLowerCase();
+        Matcher fuzzy = FUZZY_TERM.matcher(t);
+        Set<String> unrolledTerms;
+        if (term.getType().equals(ASTTerm.TERM) && t.indexOf(INFIX_WILDCARD) >= 0) {
+            unrolledTerms = termExpander.expandWildcard(t.replace(INFIX_WILDCARD, '*'));
+        } else if (term.getType().equals(ASTTerm.TERM) && fuzzy.matches()) {
+            int distance = fuzzy.group(2).isEmpty() ? 1 : Integer.parseInt(fuzzy.group(2));
+            unrolledTerms = termExpander.expandFuzzy(fuzzy.group(1), distance);
+        } else {
+            unrolledTerms = termExpander.expandWildcard(t);
         }
 
         if (unrolledTerms.isEmpty()) {
@@ -442,8 +545,10 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
             ASTTerm term = (ASTTerm) node;
             boolean isWildTerm = term.getType().equals(ASTTerm.WILDTERM);
             boolean isPreWildTerm = term.getType().equals(ASTTerm.PREFIXTERM);
-            if (isWildTerm || isPreWildTerm) {
-                Set<String> unrolledTerms = unrollWildcard(term.getTerm(), isPreWildTerm);
+            boolean isInfixWildTerm = term.getType().equals(ASTTerm.TERM) && term.getTerm().indexOf(INFIX_WILDCARD) >= 0;
+            boolean isFuzzyTerm = term.getType().equals(ASTTerm.TERM) && FUZZY_TERM.matcher(term.getTerm()).matches();
+            if (isWildTerm || isPreWildTerm || isInfixWildTerm || isFuzzyTerm) {
+                Set<String> unrolledTerms = unrollWildcard(term);
 
                 // create a new expression
                 ASTExpression newExpression = new ASTExpression(QueryParserTreeConstants.JJTEXPRESSION);
@@ -472,9 +577,18 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
         }
     }
 
-    private Scanner getScanner(String tablename) throws IOException {
+    private BatchScanner getShardScanner() throws IOException {
+        String tablename = ConfigUtils.getFreeTextDocTablename(conf);
         try {
-            return ConfigUtils.createScanner(tablename, conf);
+            BatchScanner scanner = ConfigUtils.getConnector(conf).createBatchScanner(tablename, ConfigUtils.getAuthorizations(conf),
+                    queryNumThreads);
+            // one range per shard, so the shards are searched in parallel
+            List<Range> ranges = new ArrayList<Range>(docTableNumPartitions);
+            for (int i = 0; i < docTableNumPartitions; i++) {
+                ranges.add(Range.exact(genPartition(i, docTableNumPartitions)));
+            }
+            scanner.setRanges(ranges);
+            return scanner;
         } catch (AccumuloException e) {
             logger.error("Error connecting to " + tablename);
             throw new IOException(e);
@@ -487,14 +601,9 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
         }
     }
 
-    /** {@inheritDoc} */
-    @Override
-    public CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints)
-            throws IOException {
-        Scanner docTableScan = getScanner(ConfigUtils.getFreeTextDocTablename(conf));
-
+    private String createConstrainedQuery(String query, StatementContraints contraints) throws IOException {
         // test the query to see if it's parses correctly.
-        SimpleNode root = parseQuery(query);
+        SimpleNode root = parseQuery(markInfixWildcards(query));
 
         // unroll any wildcard nodes before it goes to the server
         unrollWildcards(root);
@@ -530,21 +639,67 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
             throw new IOException("Query contains too many terms.  Term limit: " + queryTermLimit + ".  Term Count: " + termCount);
         }
 
+        return constrainedQuery.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints)
+            throws IOException {
+        String constrainedQuery = createConstrainedQuery(query, contraints);
+
         // perform query
-        docTableScan.clearScanIterators();
-        docTableScan.clearColumns();
+        BatchScanner docTableScan = getShardScanner();
 
         int iteratorPriority = 20;
         String iteratorName = "booleanTree";
         IteratorSetting ii = new IteratorSetting(iteratorPriority, iteratorName, BooleanTreeIterator.class);
-        BooleanTreeIterator.setQuery(ii, constrainedQuery.toString());
+        BooleanTreeIterator.setQuery(ii, constrainedQuery);
         docTableScan.addScanIterator(ii);
-        docTableScan.setRange(new Range());
 
         return getIteratorWrapper(docTableScan);
     }
 
-    private static CloseableIteration<Statement, QueryEvaluationException> getIteratorWrapper(final Scanner s) {
+    /** {@inheritDoc} */
+    @Override
+    public CloseableIteration<Statement, QueryEvaluationException> queryText(String query, StatementContraints contraints, int topK)
+            throws IOException {
+        Validate.isTrue(topK > 0, "topK must be greater than 0");
+        String constrainedQuery = createConstrainedQuery(query, contraints);
+
+        // each shard returns its own top k, the best k of those are the overall top k
+        BatchScanner docTableScan = getShardScanner();
+        List<Entry<Key, Value>> hits = new ArrayList<Entry<Key, Value>>();
+        try {
+            int iteratorPriority = 20;
+            String iteratorName = "rankedBooleanTree";
+            IteratorSetting ii = new IteratorSetting(iteratorPriority, iteratorName, RankedBooleanTreeIterator.class);
+            RankedBooleanTreeIterator.setQuery(ii, constrainedQuery);
+            RankedBooleanTreeIterator.setTopK(ii, topK);
+            docTableScan.addScanIterator(ii);
+
+            for (Entry<Key, Value> entry : docTableScan) {
+                hits.add(entry);
+            }
+        } finally {
+            docTableScan.close();
+        }
+
+        Collections.sort(hits, new Comparator<Entry<Key, Value>>() {
+            @Override
+            public int compare(Entry<Key, Value> e1, Entry<Key, Value> e2) {
+                return Double.compare(RankedBooleanTreeIterator.getScore(e2.getValue()), RankedBooleanTreeIterator.getScore(e1.getValue()));
+            }
+        });
+
+        List<Statement> statements = new ArrayList<Statement>(Math.min(topK, hits.size()));
+        for (Entry<Key, Value> hit : hits.subList(0, Math.min(topK, hits.size()))) {
+            statements.add(StatementSerializer.readStatement(RankedBooleanTreeIterator.getDocument(hit.getValue()).toString()));
+        }
+        return new CloseableIteratorIteration<Statement, QueryEvaluationException>(statements.iterator());
+    }
+
+    private static CloseableIteration<Statement, QueryEvaluationException> getIteratorWrapper(final BatchScanner s) {
 
         final Iterator<Entry<Key, Value>> i = s.iterator();
 
@@ -611,5 +766,13 @@ public class AccumuloFreeTextIndexer extends AbstractAccumuloIndexer implements
        return ConfigUtils.getFreeTextDocTablename(conf);
     }
 
+    @Override
+    public List<String> getTableNames() {
+        List<String> tableNames = new ArrayList<String>(2);
+        tableNames.add(ConfigUtils.getFreeTextDocTablename(conf));
+        tableNames.add(ConfigUtils.getFreeTextTermTablename(conf));
+        return tableNames;
+    }
+
     
 }
@@ -39,12 +39,19 @@ public class ColumnPrefixes {
 	public static final Text TERM_CF_PREFIX = new Text("t\0");
 	public static final Text TERM_LIST_CF_PREFIX = new Text("l\0");
 	public static final Text REVERSE_TERM_LIST_CF_PREFIX = new Text("r\0");
+	public static final Text NGRAM_LIST_CF_PREFIX = new Text("g\0");
 
 	public static final Text SUBJECT_CF_PREFIX = new Text("s\0");
 	public static final Text PREDICATE_CF_PREFIX = new Text("p\0");
 	public static final Text OBJECT_CF_PREFIX = new Text("o\0");
 	public static final Text CONTEXT_CF_PREFIX = new Text("c\0");
 
+	// per document token count, and the per shard document and token totals used for ranking
+	public static final Text DOC_LENGTH_CF_PREFIX = new Text("m\0");
+	public static final Text STATS_CF_PREFIX = new Text("n\0");
+	public static final Text STATS_DOC_COUNT_CQ = new Text("docs");
+	public static final Text STATS_TOKEN_COUNT_CQ = new Text("tokens");
+
 	private static Text concat(Text prefix, String str) {
 		Text temp = new Text(prefix);
 
@@ -70,6 +77,10 @@ public class ColumnPrefixes {
 		return concat(REVERSE_TERM_LIST_CF_PREFIX, StringUtils.reverse(term));
 	}
 
+	public static Text getNgramListColFam(String ngram) {
+		return concat(NGRAM_LIST_CF_PREFIX, ngram);
+	}
+
 	public static Text getDocColFam(String term) {
 		return concat(DOCS_CF_PREFIX, term);
 	}
@@ -30,6 +30,7 @@ public class FreeTextTupleSet extends ExternalTupleSet {
     private Configuration conf;
     private FreeTextIndexer freeTextIndexer;
     private IndexingExpr filterInfo;
+    private int limit = -1;
     
 
     public FreeTextTupleSet(IndexingExpr filterInfo, FreeTextIndexer freeTextIndexer) {
@@ -53,7 +54,21 @@ public class FreeTextTupleSet extends ExternalTupleSet {
      * can be altered via {@link #visitChildren(QueryModelVisitor)}
      */
     public FreeTextTupleSet clone() {
-        return new FreeTextTupleSet(filterInfo, freeTextIndexer);
+        FreeTextTupleSet clone = new FreeTextTupleSet(filterInfo, freeTextIndexer);
+        clone.setLimit(limit);
+        return clone;
+    }
+
+    /**
+     * Limits the results to the given number of best matches, or returns every match if the limit is not positive. Only
+     * safe when nothing between this node and the query's LIMIT can drop results.
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
     }
 
     @Override
@@ -115,8 +130,9 @@ public class FreeTextTupleSet extends ExternalTupleSet {
             public CloseableIteration<Statement, QueryEvaluationException> performSearch(String queryText,
                     StatementContraints contraints) throws QueryEvaluationException {
                 try {
-                    CloseableIteration<Statement, QueryEvaluationException> statements = freeTextIndexer.queryText(
-                            queryText, contraints);
+                    CloseableIteration<Statement, QueryEvaluationException> statements = limit > 0
+                            ? freeTextIndexer.queryText(queryText, contraints, limit)
+                            : freeTextIndexer.queryText(queryText, contraints);
                     return statements;
                 } catch (IOException e) {
                     throw new QueryEvaluationException(e);
@@ -0,0 +1,374 @@
+package mvm.rya.indexing.accumulo.freetext;
+
+/*
+ * #%L
+ * mvm.rya.indexing.accumulo
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import mvm.rya.indexing.accumulo.ConfigUtils;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Expands wildcard and fuzzy query terms into the indexed terms they match, using the terms table. Leading and trailing
+ * wildcards use the "token list" and "reverse token list" ranges; wildcards anywhere else and fuzzy terms intersect the
+ * trigram posting lists ("g\x00" rows, see {@link #ngrams(String)}) and then check each candidate. Patterns and fuzzy
+ * terms too short for their trigrams to narrow the candidates fall back to scanning the term list, in full if nothing
+ * anchors them.
+ * <p>
+ * Expansions are cached by pattern. Writing a new term drops the cached expansions it would change, so expansions stay
+ * current for terms written through this instance; terms written elsewhere show up once the entry expires. Each
+ * expansion is indexed by trigrams, or the anchored character, that any term it matches must have, so a write only
+ * checks the expansions it could belong in; short fuzzy terms and patterns with nothing to index are checked on every
+ * write.
+ */
+class TermExpander {
+    private static final Logger logger = Logger.getLogger(TermExpander.class);
+
+    /** marks the start and end of a term, so the trigrams also capture prefixes and suffixes */
+    private static final char BOUNDARY = '\1';
+    private static final int N = 3;
+
+    private final Configuration conf;
+    private final Cache<String, Expansion> cache;
+    /** cache keys by the index keys of their expansions, "" for the ones every write must check */
+    private final SetMultimap<String, String> index = HashMultimap.create();
+
+    TermExpander(Configuration conf) {
+        this.conf = conf;
+        this.cache = CacheBuilder.newBuilder().maximumSize(ConfigUtils.getFreeTextWildcardCacheSize(conf))
+                .expireAfterWrite(ConfigUtils.getFreeTextWildcardCacheExpiry(conf), TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<String, Expansion>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Expansion> notification) {
+                        // a replacement has the same pattern, so the same index keys
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            unindex(notification.getKey(), notification.getValue());
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * @return the trigrams of the term, including the ones spanning its start and end
+     */
+    static Set<String> ngrams(String term) {
+        String padded = BOUNDARY + term + BOUNDARY;
+        Set<String> grams = new LinkedHashSet<String>();
+        for (int i = 0; i + N <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + N));
+        }
+        return grams;
+    }
+
+    /**
+     * Expands a pattern where each "*" matches any number of characters.
+     */
+    Set<String> expandWildcard(String pattern) throws IOException {
+        String key = "w:" + pattern;
+        Expansion expansion = cache.getIfPresent(key);
+        if (expansion == null) {
+            expansion = new Expansion(toRegex(pattern), -1, null, wildcardIndexKeys(pattern));
+            expansion.terms.addAll(findWildcardTerms(pattern, expansion.pattern));
+            put(key, expansion);
+        }
+        return new HashSet<String>(expansion.terms);
+    }
+
+    /**
+     * Expands a term into the indexed terms within the given edit distance of it.
+     */
+    Set<String> expandFuzzy(String term, int distance) throws IOException {
+        String key = "f" + distance + ":" + term;
+        Expansion expansion = cache.getIfPresent(key);
+        if (expansion == null) {
+            Set<String> grams = ngrams(term);
+            // a match shares at least one trigram with the term unless the edits can remove all of them
+            Set<String> indexKeys = grams.size() > N * distance ? grams : Collections.singleton("");
+            expansion = new Expansion(null, distance, term, indexKeys);
+            expansion.terms.addAll(findFuzzyTerms(term, distance));
+            put(key, expansion);
+        }
+        return new HashSet<String>(expansion.terms);
+    }
+
+    /**
+     * Drops the cached expansions that a newly written term belongs in.
+     */
+    void termsWritten(Collection<String> terms) {
+        for (String term : terms) {
+            Set<String> keys = new HashSet<String>();
+            synchronized (index) {
+                keys.addAll(index.get(""));
+                for (String gram : ngrams(term)) {
+                    keys.addAll(index.get(gram));
+                    // the anchored characters of patterns too short for a trigram
+                    if (gram.charAt(0) == BOUNDARY) {
+                        keys.addAll(index.get(gram.substring(0, 2)));
+                    }
+                    if (gram.charAt(N - 1) == BOUNDARY) {
+                        keys.addAll(index.get(gram.substring(N - 2)));
+                    }
+                }
+            }
+            for (String key : keys) {
+                Expansion expansion = cache.getIfPresent(key);
+                if (expansion != null && !expansion.terms.contains(term) && expansion.matches(term)) {
+                    cache.invalidate(key);
+                }
+            }
+        }
+    }
+
+    private void put(String key, Expansion expansion) {
+        synchronized (index) {
+            for (String indexKey : expansion.indexKeys) {
+                index.put(indexKey, key);
+            }
+        }
+        cache.put(key, expansion);
+    }
+
+    private void unindex(String key, Expansion expansion) {
+        synchronized (index) {
+            for (String indexKey : expansion.indexKeys) {
+                index.remove(indexKey, key);
+            }
+        }
+    }
+
+    /**
+     * @return the trigrams of the literal parts of the pattern, including the ones spanning its start and end
+     */
+    private static Set<String> wildcardNgrams(String pattern) {
+        String padded = BOUNDARY + pattern + BOUNDARY;
+        Set<String> grams = new LinkedHashSet<String>();
+        for (String literal : StringUtils.split(padded, '*')) {
+            for (int i = 0; i + N <= literal.length(); i++) {
+                grams.add(literal.substring(i, i + N));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * @return a trigram every match of the pattern has, or else its anchored first or last character with the boundary
+     */
+    private static Set<String> wildcardIndexKeys(String pattern) {
+        Set<String> grams = wildcardNgrams(pattern);
+        if (!grams.isEmpty()) {
+            return Collections.singleton(grams.iterator().next());
+        }
+        if (pattern.isEmpty()) {
+            return Collections.singleton("");
+        }
+        if (!pattern.startsWith("*")) {
+            return Collections.singleton(BOUNDARY + pattern.substring(0, 1));
+        }
+        if (!pattern.endsWith("*")) {
+            return Collections.singleton(pattern.substring(pattern.length() - 1) + BOUNDARY);
+        }
+        return Collections.singleton("");
+    }
+
+    private Set<String> findWildcardTerms(String pattern, Pattern regex) throws IOException {
+        int first = pattern.indexOf('*');
+        int last = pattern.lastIndexOf('*');
+        if (first == last && last == pattern.length() - 1) {
+            return scanTermList(ColumnPrefixes.getTermListColFam(pattern.substring(0, last)), false);
+        }
+        if (first == last && first == 0) {
+            return scanTermList(ColumnPrefixes.getRevTermListColFam(pattern.substring(1)), true);
+        }
+
+        Set<String> grams = wildcardNgrams(pattern);
+
+        Set<String> candidates;
+        if (!grams.isEmpty()) {
+            candidates = null;
+            for (String gram : grams) {
+                Set<String> posting = scanNgram(gram);
+                if (candidates == null) {
+                    candidates = posting;
+                } else {
+                    candidates.retainAll(posting);
+                }
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+        } else {
+            // literals too short for a trigram, fall back to the longest anchored literal
+            String prefix = pattern.substring(0, first);
+            String suffix = pattern.substring(last + 1);
+            if (prefix.isEmpty() && suffix.isEmpty()) {
+                logger.debug("Wildcard pattern " + pattern + " has no trigram or anchored literal, scanning every term");
+            }
+            if (prefix.length() >= suffix.length()) {
+                candidates = scanTermList(ColumnPrefixes.getTermListColFam(prefix), false);
+            } else {
+                candidates = scanTermList(ColumnPrefixes.getRevTermListColFam(suffix), true);
+            }
+        }
+
+        Set<String> terms = new HashSet<String>();
+        for (String candidate : candidates) {
+            if (regex.matcher(candidate).matches()) {
+                terms.add(candidate);
+            }
+        }
+        return terms;
+    }
+
+    private Set<String> findFuzzyTerms(String term, int distance) throws IOException {
+        // q-gram lemma: every edit removes at most N of the term's trigrams
+        Set<String> grams = ngrams(term);
+        int required = grams.size() - N * distance;
+
+        Map<String, Integer> shared = new HashMap<String, Integer>();
+        for (String gram : grams) {
+            for (String candidate : scanNgram(gram)) {
+                Integer count = shared.get(candidate);
+                shared.put(candidate, count == null ? 1 : count + 1);
+            }
+        }
+
+        Set<String> candidates = new HashSet<String>();
+        for (Entry<String, Integer> e : shared.entrySet()) {
+            if (e.getValue() >= required) {
+                candidates.add(e.getKey());
+            }
+        }
+        if (required <= 0) {
+            // too short for the trigrams to rule anything out, an edit may change any character
+            logger.debug("Fuzzy term " + term + "~" + distance + " is too short for its trigrams, scanning every term");
+            candidates.addAll(scanTermList(ColumnPrefixes.getTermListColFam(""), false));
+        }
+
+        Set<String> terms = new HashSet<String>();
+        for (String candidate : candidates) {
+            if (StringUtils.getLevenshteinDistance(term, candidate) <= distance) {
+                terms.add(candidate);
+            }
+        }
+        return terms;
+    }
+
+    private Set<String> scanNgram(String gram) throws IOException {
+        Scanner scanner = getScanner();
+        scanner.setRange(Range.exact(ColumnPrefixes.getNgramListColFam(gram)));
+        Set<String> terms = new HashSet<String>();
+        for (Entry<Key, Value> e : scanner) {
+            terms.add(e.getKey().getColumnQualifier().toString());
+        }
+        return terms;
+    }
+
+    private Set<String> scanTermList(Text prefix, boolean reverse) throws IOException {
+        Scanner scanner = getScanner();
+        scanner.setRange(Range.prefix(prefix));
+        Set<String> terms = new HashSet<String>();
+        for (Entry<Key, Value> e : scanner) {
+            String term = ColumnPrefixes.removePrefix(e.getKey().getRow()).toString();
+            terms.add(reverse ? StringUtils.reverse(term) : term);
+        }
+        return terms;
+    }
+
+    private Scanner getScanner() throws IOException {
+        String tablename = ConfigUtils.getFreeTextTermTablename(conf);
+        try {
+            return ConfigUtils.createScanner(tablename, conf);
+        } catch (AccumuloException e) {
+            logger.error("Error connecting to " + tablename);
+            throw new IOException(e);
+        } catch (AccumuloSecurityException e) {
+            logger.error("Error connecting to " + tablename);
+            throw new IOException(e);
+        } catch (TableNotFoundException e) {
+            logger.error("Error connecting to " + tablename);
+            throw new IOException(e);
+        }
+    }
+
+    private static Pattern toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        String[] literals = StringUtils.splitPreserveAllTokens(pattern, '*');
+        for (int i = 0; i < literals.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (!literals[i].isEmpty()) {
+                regex.append(Pattern.quote(literals[i]));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static class Expansion {
+        private final Pattern pattern;
+        private final int distance;
+        private final String term;
+        private final Set<String> indexKeys;
+        private final Set<String> terms = new HashSet<String>();
+
+        private Expansion(Pattern pattern, int distance, String term, Set<String> indexKeys) {
+            this.pattern = pattern;
+            this.distance = distance;
+            this.term = term;
+            this.indexKeys = indexKeys;
+        }
+
+        private boolean matches(String candidate) {
+            if (pattern != null) {
+                return pattern.matcher(candidate).matches();
+            }
+            return StringUtils.getLevenshteinDistance(term, candidate) <= distance;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package mvm.rya.indexing.accumulo.freetext.iterators;
+
+/*
+ * #%L
+ * mvm.rya.indexing.accumulo
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static mvm.rya.indexing.accumulo.freetext.query.ASTNodeUtils.getNodeIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import mvm.rya.indexing.accumulo.freetext.ColumnPrefixes;
+import mvm.rya.indexing.accumulo.freetext.query.ASTExpression;
+import mvm.rya.indexing.accumulo.freetext.query.ASTTerm;
+import mvm.rya.indexing.accumulo.freetext.query.ParseException;
+import mvm.rya.indexing.accumulo.freetext.query.QueryParser;
+import mvm.rya.indexing.accumulo.freetext.query.SimpleNode;
+import mvm.rya.indexing.accumulo.freetext.query.TokenMgrError;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Runs a {@link BooleanTreeIterator} query and returns only the best matches of each shard, scored with BM25 against the
+ * shard's own statistics. The statistics are the document and token totals under {@link ColumnPrefixes#STATS_CF_PREFIX}
+ * and the document lengths under {@link ColumnPrefixes#DOC_LENGTH_CF_PREFIX}; documents indexed before those existed are
+ * scored as average length documents.
+ * <p>
+ * The top k of a shard can only be known once the whole shard has been read, so every seek is widened to whole rows and
+ * the hits are returned in key order, each value holding the score followed by the document (see {@link #getScore(Value)}
+ * and {@link #getDocument(Value)}). Since the selection does not depend on where in the row the seek started, a re-seek
+ * after a partial batch picks up where the previous one stopped.
+ */
+public class RankedBooleanTreeIterator implements SortedKeyValueIterator<Key, Value>, OptionDescriber {
+    private static Logger logger = Logger.getLogger(RankedBooleanTreeIterator.class);
+
+    private static final String queryOptionName = "query";
+    private static final String topKOptionName = "topK";
+    private static final String k1OptionName = "k1";
+    private static final String bOptionName = "b";
+
+    private static final double DEFAULT_K1 = 1.2;
+    private static final double DEFAULT_B = 0.75;
+
+    private SortedKeyValueIterator<Key, Value> source;
+    private BooleanTreeIterator matcher;
+    private List<Text> scoredTerms;
+    private int topK;
+    private double k1;
+    private double b;
+
+    private Iterator<Map.Entry<Key, Value>> results = Collections.<Map.Entry<Key, Value>> emptyList().iterator();
+    private Map.Entry<Key, Value> top;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        validateOptions(options);
+        this.source = source;
+        this.topK = Integer.parseInt(options.get(topKOptionName));
+        this.k1 = options.containsKey(k1OptionName) ? Double.parseDouble(options.get(k1OptionName)) : DEFAULT_K1;
+        this.b = options.containsKey(bOptionName) ? Double.parseDouble(options.get(bOptionName)) : DEFAULT_B;
+
+        String query = options.get(queryOptionName);
+        try {
+            scoredTerms = new ArrayList<Text>();
+            collectScoredTerms(QueryParser.parse(query), scoredTerms);
+        } catch (ParseException e) {
+            logger.error("ParseException encountered while parsing: " + query, e);
+            throw new IOException(e);
+        } catch (TokenMgrError e) {
+            logger.error("TokenMgrError encountered while parsing: " + query, e);
+            throw new IOException(e);
+        }
+
+        matcher = new BooleanTreeIterator();
+        matcher.init(source.deepCopy(env), options, env);
+    }
+
+    /**
+     * Only the text terms that a document must or may contain add to its score; negated terms and the statement
+     * constraints (which are already formatted as column families) do not.
+     */
+    private static void collectScoredTerms(SimpleNode node, List<Text> terms) {
+        if (node instanceof ASTTerm) {
+            ASTTerm term = (ASTTerm) node;
+            if (!term.isNotFlag() && term.getTerm() != null && !term.getTerm().contains("\0")) {
+                Text cf = ColumnPrefixes.getTermColFam(term.getTerm().toLowerCase());
+                if (!terms.contains(cf)) {
+                    terms.add(cf);
+                }
+            }
+            return;
+        }
+        if (node instanceof ASTExpression && ((ASTExpression) node).isNotFlag()) {
+            return;
+        }
+        for (SimpleNode child : getNodeIterator(node)) {
+            collectScoredTerms(child, terms);
+        }
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        Key start = range.isInfiniteStartKey() ? null : new Key(range.getStartKey().getRow());
+        Key end = range.isInfiniteStopKey() ? null : range.getEndKey().followingKey(PartialKey.ROW);
+        matcher.seek(new Range(start, true, end, false), columnFamilies, inclusive);
+
+        TreeMap<Key, Value> selected = new TreeMap<Key, Value>();
+        Text row = null;
+        ShardStatistics stats = null;
+        PriorityQueue<Hit> best = new PriorityQueue<Hit>();
+        while (matcher.hasTop()) {
+            Key key = matcher.getTopKey();
+            if (row == null || !row.equals(key.getRow())) {
+                keep(best, range, selected);
+                row = new Text(key.getRow());
+                stats = new ShardStatistics(row);
+            }
+            double score = score(stats, row, key.getColumnQualifier());
+            if (best.size() < topK || score > best.peek().score) {
+                best.add(new Hit(new Key(key), new Value(matcher.getTopValue()), score));
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+            matcher.next();
+        }
+        keep(best, range, selected);
+
+        results = selected.entrySet().iterator();
+        top = results.hasNext() ? results.next() : null;
+    }
+
+    private static void keep(PriorityQueue<Hit> best, Range range, TreeMap<Key, Value> selected) {
+        for (Hit hit : best) {
+            if (range.contains(hit.key)) {
+                selected.put(hit.key, encode(hit.score, hit.document));
+            }
+        }
+        best.clear();
+    }
+
+    private double score(ShardStatistics stats, Text row, Text docId) throws IOException {
+        long docLength = readLong(row, ColumnPrefixes.DOC_LENGTH_CF_PREFIX, docId, -1);
+        double lengthRatio = (docLength < 0 || stats.averageLength <= 0) ? 1.0 : docLength / stats.averageLength;
+        double norm = k1 * (1 - b + b * lengthRatio);
+
+        double score = 0;
+        for (int i = 0; i < scoredTerms.size(); i++) {
+            if (contains(row, scoredTerms.get(i), docId)) {
+                // every term is indexed once per document, so the term frequency is always one
+                score += stats.idf[i] * (k1 + 1) / (1 + norm);
+            }
+        }
+        return score;
+    }
+
+    private boolean contains(Text row, Text cf, Text docId) throws IOException {
+        Key key = new Key(row, cf, docId);
+        source.seek(new Range(key, true, key.followingKey(PartialKey.ROW_COLFAM_COLQUAL), false),
+                Collections.<ByteSequence> emptyList(), false);
+        return source.hasTop();
+    }
+
+    private long readLong(Text row, Text cf, Text cq, long defaultValue) throws IOException {
+        Key key = new Key(row, cf, cq);
+        source.seek(new Range(key, true, key.followingKey(PartialKey.ROW_COLFAM_COLQUAL), false),
+                Collections.<ByteSequence> emptyList(), false);
+        if (!source.hasTop()) {
+            return defaultValue;
+        }
+        // sum in case the entries have not been combined yet
+        long sum = 0;
+        while (source.hasTop()) {
+            sum += Long.parseLong(new String(source.getTopValue().get(), Charsets.UTF_8));
+            source.next();
+        }
+        return sum;
+    }
+
+    private long count(Text row, Text cf) throws IOException {
+        Key key = new Key(row, cf);
+        source.seek(new Range(key, true, key.followingKey(PartialKey.ROW_COLFAM), false), Collections.<ByteSequence> emptyList(), false);
+        long count = 0;
+        while (source.hasTop()) {
+            count++;
+            source.next();
+        }
+        return count;
+    }
+
+    private class ShardStatistics {
+        private final double averageLength;
+        private final double[] idf;
+
+        private ShardStatistics(Text row) throws IOException {
+            long docs = readLong(row, ColumnPrefixes.STATS_CF_PREFIX, ColumnPrefixes.STATS_DOC_COUNT_CQ, 0);
+            long tokens = readLong(row, ColumnPrefixes.STATS_CF_PREFIX, ColumnPrefixes.STATS_TOKEN_COUNT_CQ, 0);
+            averageLength = docs > 0 ? (double) tokens / docs : 0;
+
+            idf = new double[scoredTerms.size()];
+            for (int i = 0; i < idf.length; i++) {
+                long df = count(row, scoredTerms.get(i));
+                // older shards have no totals, the shard then holds at least the documents that matched
+                long n = Math.max(docs, df);
+                idf[i] = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            }
+        }
+    }
+
+    private static class Hit implements Comparable<Hit> {
+        private final Key key;
+        private final Value document;
+        private final double score;
+
+        private Hit(Key key, Value document, double score) {
+            this.key = key;
+            this.document = document;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit o) {
+            // lowest score first, so the queue head is the first to drop; ties keep the lower key
+            int cmp = Double.compare(score, o.score);
+            return cmp != 0 ? cmp : o.key.compareTo(key);
+        }
+    }
+
+    private static Value encode(double score, Value document) {
+        byte[] doc = document.get();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + doc.length);
+        buffer.putDouble(score);
+        buffer.put(doc);
+        return new Value(buffer.array());
+    }
+
+    /**
+     * @return the score of a value returned by this iterator
+     */
+    public static double getScore(Value value) {
+        return ByteBuffer.wrap(value.get()).getDouble();
+    }
+
+    /**
+     * @return the document of a value returned by this iterator, as it is stored in the document table
+     */
+    public static Text getDocument(Value value) {
+        Text doc = new Text();
+        doc.set(value.get(), 8, value.getSize() - 8);
+        return doc;
+    }
+
+    @Override
+    public boolean hasTop() {
+        return top != null;
+    }
+
+    @Override
+    public void next() throws IOException {
+        top = results.hasNext() ? results.next() : null;
+    }
+
+    @Override
+    public Key getTopKey() {
+        if (top == null) {
+            throw new NoSuchElementException();
+        }
+        return top.getKey();
+    }
+
+    @Override
+    public Value getTopValue() {
+        if (top == null) {
+            throw new NoSuchElementException();
+        }
+        return top.getValue();
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void setQuery(IteratorSetting cfg, String query) {
+        cfg.addOption(queryOptionName, query);
+    }
+
+    public static void setTopK(IteratorSetting cfg, int topK) {
+        cfg.addOption(topKOptionName, Integer.toString(topK));
+    }
+
+    /**
+     * Sets the BM25 term frequency saturation (k1) and length normalization (b) parameters.
+     */
+    public static void setScoringParameters(IteratorSetting cfg, double k1, double b) {
+        cfg.addOption(k1OptionName, Double.toString(k1));
+        cfg.addOption(bOptionName, Double.toString(b));
+    }
+
+    @Override
+    public IteratorOptions describeOptions() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(queryOptionName, "the free text query");
+        options.put(topKOptionName, "the number of best matches to return per shard");
+        options.put(k1OptionName, "BM25 k1 parameter, defaults to " + DEFAULT_K1);
+        options.put(bOptionName, "BM25 b parameter, defaults to " + DEFAULT_B);
+        return new IteratorOptions("FreeTextRankedBooleanTree", "Return the best scoring matches of a FreeText Query on each shard",
+                options, null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options) {
+        String q = options.get(queryOptionName);
+        if (q == null || q.isEmpty())
+            throw new IllegalArgumentException(queryOptionName + " must not be empty");
+        String k = options.get(topKOptionName);
+        if (k == null || Integer.parseInt(k) <= 0)
+            throw new IllegalArgumentException(topKOptionName + " must be greater than 0");
+        return true;
+    }
+
+}
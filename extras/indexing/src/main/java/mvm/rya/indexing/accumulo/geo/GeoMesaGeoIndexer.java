@@ -140,6 +140,10 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
     private FeatureSource<SimpleFeatureType, SimpleFeature> featureSource;
     private SimpleFeatureType featureType;
     private boolean isInit = false;
+
+    //features waiting to be written, see flush()
+    private DefaultFeatureCollection pendingFeatures = new DefaultFeatureCollection();
+    private int bufferSize;
    
     //initialization occurs in setConf because index is created using reflection
     @Override
@@ -164,6 +168,7 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
 
     private void init() throws IOException {
         validPredicates = ConfigUtils.getGeoPredicates(conf);
+        bufferSize = ConfigUtils.getGeoBufferSize(conf);
 
         DataStore dataStore = createDataStore(conf);
         
@@ -229,12 +234,13 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
         return featureType;
     }
 
+    /**
+     * Features are buffered and written to the feature store in batches of {@link ConfigUtils#GEO_BUFFER_SIZE}; they
+     * are not visible to queries until the buffer fills or {@link #flush()} is called.
+     */
     @Override
     public void storeStatements(Collection<RyaStatement> ryaStatements) throws IOException {
-        // create a feature collection
-        DefaultFeatureCollection featureCollection = new DefaultFeatureCollection();
-
-        
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
         for (RyaStatement ryaStatement : ryaStatements) {
 
             Statement statement = RyaToRdfConversions.convertStatement(ryaStatement);
@@ -244,20 +250,34 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
 
             if (isValidPredicate && (statement.getObject() instanceof Literal)) {
                 try {
-                    SimpleFeature feature = createFeature(featureType, statement);
-                    featureCollection.add(feature);
+                    features.add(createFeature(featureType, statement));
                 } catch (ParseException e) {
                     logger.warn("Error getting geo from statement: " + statement.toString(), e);
                 }
             }
         }
 
-        // write this feature collection to the store
-        if (!featureCollection.isEmpty()) {
-            featureStore.addFeatures(featureCollection);
+        if (features.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (SimpleFeature feature : features) {
+                pendingFeatures.add(feature);
+            }
+            if (pendingFeatures.size() >= bufferSize) {
+                writePendingFeatures();
+            }
         }
     }
 
+    private synchronized void writePendingFeatures() throws IOException {
+        if (pendingFeatures.isEmpty()) {
+            return;
+        }
+        DefaultFeatureCollection featureCollection = pendingFeatures;
+        pendingFeatures = new DefaultFeatureCollection();
+        featureStore.addFeatures(featureCollection);
+    }
 
     @Override
     public void storeStatement(RyaStatement statement) throws IOException {
@@ -425,7 +445,7 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
 
     @Override
     public void flush() throws IOException {
-        // TODO cache and flush features instead of writing them one at a time
+        writePendingFeatures();
     }
 
     @Override
@@ -439,6 +459,14 @@ public class GeoMesaGeoIndexer extends AbstractAccumuloIndexer implements GeoInd
        return ConfigUtils.getGeoTablename(conf);
     }
 
+    /**
+     * GeoMesa writes its tables itself.
+     */
+    @Override
+    public List<String> getTableNames() {
+        return Collections.emptyList();
+    }
+
 
 
   
@@ -9,7 +9,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -30,11 +29,13 @@ import mvm.rya.indexing.TemporalInstant;
 import mvm.rya.indexing.TemporalInterval;
 import mvm.rya.indexing.accumulo.ConfigUtils;
 import mvm.rya.indexing.accumulo.StatementSerializer;
+import mvm.rya.indexing.accumulo.temporal.iterators.StatementConstraintFilter;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
@@ -51,7 +52,6 @@ import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.openrdf.model.Literal;
-import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.query.QueryEvaluationException;
@@ -74,6 +74,8 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
     private Configuration conf;
 
     private MultiTableBatchWriter mtbw;
+    /** false once the index writes through a writer that it was given */
+    private boolean ownsWriter = true;
 
     private BatchWriter temporalIndexBatchWriter;
 
@@ -232,7 +234,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
         Text cqEnd = new Text(KeyParts.CQ_END);
         
         // Start Begin index
-        Text keyText =new Text(interval.getAsKeyBeginning());
+        Text keyText = intervalKey(KeyParts.INTERVAL_BEGIN_PREFIX, interval.getAsKeyBeginning());
         KeyParts.appendUniqueness(statement, keyText);
         Mutation m = new Mutation(keyText);
         m.put(cf, cqBegin, statementValue);
@@ -240,7 +242,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
         writer.addMutation(m);
 
         // now the end index:
-        keyText = new Text(interval.getAsKeyEnd());
+        keyText = intervalKey(KeyParts.INTERVAL_END_PREFIX, interval.getAsKeyEnd());
         KeyParts.appendUniqueness(statement, keyText);
         m = new Mutation(keyText);
         m.put(cf, cqEnd, new Value(statementValue));
@@ -249,6 +251,15 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
     }
 
 
+    /**
+     * @return the interval's begin or end key in the interval rows with the given prefix
+     */
+    private static Text intervalKey(byte[] prefix, byte[] intervalKey) {
+        Text keyText = new Text(prefix);
+        keyText.append(intervalKey, 0, intervalKey.length);
+        return keyText;
+    }
+
     /**
      * Index a new interval
      * Make indexes that handle this expression:  
@@ -328,8 +339,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
     			}
     		};
     		ScannerBase scanner = query.doQuery(queryInstant, constraints);
-    	    // TODO currently context constraints are filtered on the client.
-            return getContextIteratorWrapper(scanner, constraints.getContext());
+            return getIteratorWrapper(scanner);
     }
 
     /**
@@ -354,7 +364,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
 			}
 		};
 		ScannerBase scanner = query.doQuery(queryInstant, constraints);
-		return getContextIteratorWrapper(scanner, constraints.getContext());
+		return getIteratorWrapper(scanner);
     }
     
     /**
@@ -368,7 +378,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
 			@Override
 			public Range getRange(KeyParts keyParts) {
 		    	Text start = Range.followingPrefix(keyParts.getQueryKey());  // <-- specific logic
-				Text endAt = null;  // no constraints							 // <-- specific logic
+				Text endAt = new Text(KeyParts.INTERVAL_BEGIN_PREFIX);  // no constraints, stop before the intervals // <-- specific logic
 				if (keyParts.constraintPrefix != null )  // Yes, has constraints
 					endAt = Range.followingPrefix(keyParts.constraintPrefix);
 				//System.out.println("Scanning queryInstantAfterInstant from after:" + KeyParts.toHumanString(start) + " up to:" + KeyParts.toHumanString(endAt));
@@ -376,7 +386,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
 			}
 		};
 		ScannerBase scanner = query.doQuery(queryInstant, constraints);
-		return getContextIteratorWrapper(scanner, constraints.getContext());
+		return getIteratorWrapper(scanner);
     }
 
 	/**
@@ -420,7 +430,7 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
 			}
 		};
 		ScannerBase scanner = query.doQuery(queryInterval.getHasBeginning(), constraints);
-		return getContextIteratorWrapper(scanner, constraints.getContext());
+		return getIteratorWrapper(scanner);
 	}
     /**
      * Get instances matching the beginning of a given interval.
@@ -445,77 +455,70 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
     /**
      * Get intervals stored in the repository matching the given interval.
      * Indexing Intervals  will probably change or be removed.  
-     * Currently predicate and subject constraints are filtered on the client.
+     * Subject and predicate constraints are filtered on the tablet servers.
      */
     @Override
 	public CloseableIteration<Statement, QueryEvaluationException> queryIntervalEquals(
 	        TemporalInterval query, StatementContraints contraints)
 	        throws QueryEvaluationException {
-	    Scanner scanner = getScanner();
-	    if (scanner != null) {
-	        // get rows where the start and end match.
-	        Range range = Range.prefix(new Text(query.getAsKeyBeginning()));
-	        scanner.setRange(range);
-	        if (contraints.hasContext())
-	        	scanner.fetchColumn(new Text(contraints.getContext().toString()), new Text(KeyParts.CQ_BEGIN));
-	        else
-	        	scanner.fetchColumn(new Text(""), new Text(KeyParts.CQ_BEGIN));
-	    }
-	    // Iterator<Entry<Key, Value>> iter = scanner.iterator();
-	    // while (iter.hasNext()) {
-	    // System.out.println("queryIntervalEquals results:"+iter.next());
-	    // }
-	    //return getConstrainedIteratorWrapper(scanner, contraints);
-	    return getIteratorWrapper(scanner);
+	    // get rows where the start and end match.
+	    Range range = Range.prefix(intervalKey(KeyParts.INTERVAL_BEGIN_PREFIX, query.getAsKeyBeginning()));
+	    return queryIntervals(range, KeyParts.CQ_BEGIN, contraints);
 	}
 
 	/**
 	 * find intervals stored in the repository before the given Interval. Find interval endings that are
 	 * before the given beginning.
      * Indexing Intervals  will probably change or be removed.  
-     * Currently predicate and subject constraints are filtered on the client.
+     * Subject and predicate constraints are filtered on the tablet servers.
 	 */
 	@Override
 	public CloseableIteration<Statement, QueryEvaluationException> queryIntervalBefore(
 			TemporalInterval queryInterval, StatementContraints constraints) throws QueryEvaluationException
 	{
-		Scanner scanner = getScanner();
-		if (scanner != null) {
-			// get rows where the end date is less than the queryInterval.getBefore()
-			Range range = new Range(null, false, new Key(new Text(queryInterval.getHasBeginning().getAsKeyBytes())), false);
-			scanner.setRange(range);
-			 if (constraints.hasContext())
-				 scanner.fetchColumn(new Text(constraints.getContext().toString()), new Text(KeyParts.CQ_END));
-		      else
-		    	  scanner.fetchColumn(new Text(""), new Text(KeyParts.CQ_END));
-		}
-		return getIteratorWrapper(scanner);
+		// get rows where the end date is less than the queryInterval.getBefore()
+		Range range = new Range(new Key(new Text(KeyParts.INTERVAL_END_PREFIX)), true,
+				new Key(intervalKey(KeyParts.INTERVAL_END_PREFIX, queryInterval.getHasBeginning().getAsKeyBytes())), false);
+		return queryIntervals(range, KeyParts.CQ_END, constraints);
 	}
 
 	/**
 	 * Interval after given interval.  Find intervals that begin after the endings of the given interval.
 	 * Use the special following prefix mechanism to avoid matching the beginning date.
      * Indexing Intervals  will probably change or be removed.  
-     * Currently predicate and subject and context constraints are filtered on the client.
+     * Subject and predicate constraints are filtered on the tablet servers.
 	 */
 	@Override
 	public CloseableIteration<Statement, QueryEvaluationException> queryIntervalAfter(
 	        TemporalInterval queryInterval, StatementContraints constraints)
 	        throws QueryEvaluationException {
-	
-	    Scanner scanner = getScanner();
-	    if (scanner != null) {
-	        // get rows where the start date is greater than the queryInterval.getEnd()
-	        Range range = new Range(new Key(Range.followingPrefix(new Text(queryInterval.getHasEnd().getAsKeyBytes()))), false, null, true);
-	        scanner.setRange(range);
-	        
-	        if (constraints.hasContext())
-	        	scanner.fetchColumn(new Text(constraints.getContext().toString()), new Text(KeyParts.CQ_BEGIN));
-	        else
-	        	scanner.fetchColumn(new Text(""), new Text(KeyParts.CQ_BEGIN));
-	    }
-	    // TODO currently predicate, subject and context constraints are filtered on the clients
-	    return getIteratorWrapper(scanner);
+	    // get rows where the start date is greater than the queryInterval.getEnd()
+	    Text after = Range.followingPrefix(new Text(queryInterval.getHasEnd().getAsKeyBytes()));
+	    Range range = new Range(new Key(intervalKey(KeyParts.INTERVAL_BEGIN_PREFIX, after.copyBytes())), false,
+	            new Key(new Text(KeyParts.INTERVAL_END_PREFIX)), false);
+	    return queryIntervals(range, KeyParts.CQ_BEGIN, constraints);
+	}
+
+	/**
+	 * Scans the begin or end rows of the stored intervals. The interval rows are sorted by the begin or end time
+	 * and kept apart from the instants, so the range only covers intervals that can match. Entries that miss the
+	 * subject or predicate constraints are dropped by a {@link StatementConstraintFilter} before they leave the tablet
+	 * server.
+	 */
+	private CloseableIteration<Statement, QueryEvaluationException> queryIntervals(Range range, String cq,
+			StatementContraints constraints) throws QueryEvaluationException {
+		Scanner scanner = getScanner();
+		scanner.setRange(range);
+		if (constraints.hasContext())
+			scanner.fetchColumn(new Text(constraints.getContext().toString()), new Text(cq));
+		else
+			scanner.fetchColumn(new Text(""), new Text(cq));
+		if (StatementConstraintFilter.hasConstraints(constraints)) {
+			IteratorSetting setting = new IteratorSetting(20, "temporalConstraints", StatementConstraintFilter.class);
+			StatementConstraintFilter.setConstraints(setting, constraints);
+			scanner.addScanIterator(setting);
+		}
+		return getIteratorWrapper(scanner);
 	}
 	// --
 	// -- END of Query functions.  Next up, general stuff used by the queries above.
@@ -603,155 +606,6 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
         };
     }
 
-    
-    /**
-     * An iteration wrapper for a loaded scanner that is returned for partially supported interval queries above.
-     * 
-     * @param scanner  the results to iterate, then close.
-     * @param constraints  limit statements returned by next() to those matching the constraints.
-     * @return an anonymous object that will iterate the resulting statements from a given scanner.
-     * @throws QueryEvaluationException 
-     */
-	private static CloseableIteration<Statement, QueryEvaluationException> getConstrainedIteratorWrapper(final Scanner scanner, final StatementContraints constraints) {
-		if (!constraints.hasContext() && !constraints.hasSubject() && !constraints.hasPredicates())
-			return getIteratorWrapper(scanner);
-		return new ConstrainedIteratorWrapper(scanner) {
-			@Override
-			public boolean allowedBy(Statement statement) {
-				return allowedByConstraints(statement, constraints);
-			}
-		};
-	}
-    /**
-     * An iteration wrapper for a loaded scanner that is returned for queries above.
-     * Currently, this temporal index supports contexts only on the client, using this filter.
-     * 
-     * @param scanner  the results to iterate, then close.
-     * @param constraints  limit statements returned by next() to those matching the constraints.
-     * @return an anonymous object that will iterate the resulting statements from a given scanner.
-     * @throws QueryEvaluationException 
-     */
-	private static CloseableIteration<Statement, QueryEvaluationException> getContextIteratorWrapper(final ScannerBase scanner, final Resource context) {
-		if (context==null)
-			return getIteratorWrapper(scanner);
-		return new ConstrainedIteratorWrapper(scanner) {
-			@Override
-			public boolean allowedBy(Statement statement) {
-				return allowedByContext(statement,  context);
-			}
-		};
-	}
-	/**
-	 * Wrap a scanner in a iterator that will filter statements based on a boolean allowedBy().
-	 * If the allowedBy function returns false for the next statement, it is skipped.
-	 * This is used for to do client side, what the index cannot (yet) do on the server side.
-	 */
-    abstract static class ConstrainedIteratorWrapper implements CloseableIteration<Statement, QueryEvaluationException> {
-        	private Statement nextStatement=null;
-        	private boolean isInitialized = false;
-        	final private Iterator<Entry<Key, Value>> i;
-        	final private ScannerBase scanner;
-        	
-        	ConstrainedIteratorWrapper(ScannerBase scanner) {
-        		this.scanner = scanner;
-        		i=scanner.iterator();
-        	}
-            @Override
-            public boolean hasNext() throws QueryEvaluationException {
-            	if (!isInitialized)
-            		internalGetNext();
-            	return (nextStatement != null) ;
-            }
-
-            @Override
-            public Statement next() throws QueryEvaluationException {
-            	if (nextStatement==null) {
-            		if (!isInitialized)
-            			internalGetNext();
-            		if (nextStatement==null)
-            			throw new NoSuchElementException();
-				}
-            	// use this one, then get the next one loaded.
-            	Statement thisStatement = this.nextStatement;
-            	internalGetNext();
-            	return thisStatement;
-            }
-
-			/**
-			 * Gets the next statement meeting constraints and stores in nextStatement.  
-			 * Sets null when all done, or on exception.
-			 * @throws QueryEvaluationException
-			 */
-			private void internalGetNext()
-					throws QueryEvaluationException {
-				isInitialized=true;
-				this.nextStatement = null;  // Default on done or error.
-				Statement statement = null;
-				while (i.hasNext()) {
-	            	Entry<Key, Value> entry = i.next();
-	                Value v = entry.getValue();
-	                try {
-	                    String dataString = Text.decode(v.get(), 0, v.getSize());
-	                    statement = StatementSerializer.readStatement(dataString);
-	                } catch (CharacterCodingException e) {
-	                    logger.error("Error decoding value=" + Arrays.toString(v.get()), e);
-	                    throw new QueryEvaluationException(e);
-	                } catch (IOException e) {
-	                    logger.error("Error de-serializing statement, string=" + v.get(), e);
-	                    throw new QueryEvaluationException(e);
-	                }
-	                if (allowedBy(statement)) {
-	    				this.nextStatement = statement;
-						return;
-					}
-            	}
-			}
-			public abstract boolean allowedBy(Statement s);
-			
-            @Override
-            public void remove() {
-                throw new UnsupportedOperationException("Remove not implemented");
-            }
-
-            @Override
-            public void close() throws QueryEvaluationException {
-                scanner.close();
-            }
-        }
-
-    /**
-     * Does the statement meet the constraints? Match predicate, subject, and context.
-     * @param statement  Candidate statement to be allowed or not.
-     * @param contraints  fields that are non-null must match the statement's components, otherwise it is not allowed.
-     * @return true if the parts of the statement match the statementConstraints' parts.
-     */
-    protected static boolean allowedByConstraints(Statement statement, StatementContraints constraints) {
-
-    	if (constraints.hasSubject() && ! constraints.getSubject().toString().equals(statement.getSubject().toString()))
-        	{System.out.println("Constrain subject: "+constraints.getSubject()+" != " + statement.getSubject()); return false;}
-    		//return false;
-
-    	if (! allowedByContext(statement, constraints.getContext())) 
-		    return false;
-    	    //{System.out.println("Constrain context: "+constraints.getContext()+" != " + statement.getContext()); return false;}
-	
-    	if (constraints.hasPredicates() && ! constraints.getPredicates().contains(statement.getPredicate()))
-    		return false;
-    	    //{System.out.println("Constrain predicate: "+constraints.getPredicates()+" != " + statement.getPredicate()); return false;}
-    	
-    	System.out.println("allow statement: "+ statement.toString()); 
-		return true;
-	}
-
-	/**
-	 * Allow only if the context matches the statement.  This is a client side filter.
-	 * @param statement
-	 * @param context
-	 * @return
-	 */
-	protected static boolean allowedByContext(Statement statement, Resource context) {
-		return context==null || context.equals( statement.getContext() );
-	}
 
 	@Override
     public Set<URI> getIndexablePredicates() {
@@ -759,6 +613,27 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
         return validPredicates;
     }
 
+    /**
+     * Writes the index through the given writer, which its owner closes, instead of the index's own.
+     */
+    @Override
+    public void setMultiTableBatchWriter(MultiTableBatchWriter writer) throws IOException {
+        try {
+            if (ownsWriter) {
+                mtbw.close();
+            }
+            temporalIndexBatchWriter = writer.getBatchWriter(temporalIndexTableName);
+            mtbw = writer;
+            ownsWriter = false;
+        } catch (AccumuloException e) {
+            throw new IOException(e);
+        } catch (AccumuloSecurityException e) {
+            throw new IOException(e);
+        } catch (TableNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Flush the data to the batchwriter.
      * Throws a IOException as required by the flushable interface,
@@ -783,9 +658,11 @@ public class AccumuloTemporalIndexer extends AbstractAccumuloIndexer implements
     @Override
     public void close() throws IOException {
         try {
-
-            mtbw.close();
-
+            if (ownsWriter) {
+                mtbw.close();
+            } else {
+                mtbw.flush();
+            }
         } catch (MutationsRejectedException e) {
             String msg = "Error while closing the batch writer.";
             logger.error(msg, e);
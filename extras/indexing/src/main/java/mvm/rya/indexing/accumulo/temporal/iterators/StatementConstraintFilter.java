@@ -0,0 +1,114 @@
+package mvm.rya.indexing.accumulo.temporal.iterators;
+
+/*
+ * #%L
+ * mvm.rya.indexing.accumulo
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mvm.rya.indexing.StatementContraints;
+import mvm.rya.indexing.accumulo.StatementSerializer;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Filter;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+/**
+ * Tablet server filter that drops temporal index entries whose statement does not match the subject and predicate
+ * constraints of a query. The statement is read from the entry's value. Contexts are the column family of the
+ * entries and are constrained by fetching the column instead.
+ */
+public class StatementConstraintFilter extends Filter {
+    private static final Logger logger = Logger.getLogger(StatementConstraintFilter.class);
+
+    private static final String SUBJECT_OPTION = "subject";
+    private static final String PREDICATES_OPTION = "predicates";
+    private static final char PREDICATE_DELIMITER = '\u0000';
+
+    private String subject;
+    private Set<String> predicates;
+
+    /**
+     * @return true if the constraints include anything this filter checks
+     */
+    public static boolean hasConstraints(StatementContraints constraints) {
+        return constraints.hasSubject() || constraints.hasPredicates();
+    }
+
+    public static void setConstraints(IteratorSetting setting, StatementContraints constraints) {
+        if (constraints.hasSubject()) {
+            setting.addOption(SUBJECT_OPTION, constraints.getSubject().toString());
+        }
+        if (constraints.hasPredicates()) {
+            Set<String> predicates = new HashSet<String>();
+            for (URI predicate : constraints.getPredicates()) {
+                predicates.add(predicate.toString());
+            }
+            setting.addOption(PREDICATES_OPTION, StringUtils.join(predicates, PREDICATE_DELIMITER));
+        }
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException {
+        super.init(source, options, env);
+        subject = options.get(SUBJECT_OPTION);
+        predicates = null;
+        if (options.containsKey(PREDICATES_OPTION)) {
+            predicates = new HashSet<String>();
+            for (String predicate : StringUtils.split(options.get(PREDICATES_OPTION), PREDICATE_DELIMITER)) {
+                predicates.add(predicate);
+            }
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        StatementConstraintFilter copy = (StatementConstraintFilter) super.deepCopy(env);
+        copy.subject = subject;
+        copy.predicates = predicates;
+        return copy;
+    }
+
+    @Override
+    public boolean accept(Key k, Value v) {
+        Statement statement;
+        try {
+            statement = StatementSerializer.readStatement(Text.decode(v.get(), 0, v.getSize()));
+        } catch (IOException e) {
+            logger.warn("Skipping temporal index entry that is not a statement, key=" + k, e);
+            return false;
+        }
+        if (subject != null && !subject.equals(statement.getSubject().toString())) {
+            return false;
+        }
+        return predicates == null || predicates.contains(statement.getPredicate().toString());
+    }
+}
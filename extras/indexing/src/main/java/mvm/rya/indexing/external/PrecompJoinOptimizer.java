@@ -708,6 +708,27 @@ public class PrecompJoinOptimizer implements QueryOptimizer, Configurable {
             SailException, QueryEvaluationException, TableNotFoundException, AccumuloException,
             AccumuloSecurityException {
 
+        Connector c = ConfigUtils.getConnector(conf);
+        Map<String, String> indexTables = getIndexTables(conf, c);
+        List<ExternalTupleSet> index = Lists.newArrayList();
+
+        if (indexTables.isEmpty()) {
+            System.out.println("No Index found");
+        } else {
+            for (String table : indexTables.keySet()) {
+                String indexSparqlString = indexTables.get(table);
+                index.add(new AccumuloIndexSet(indexSparqlString, c, table));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the SPARQL of each index table, keyed by table name. The tables are the configured
+     *         {@link RdfCloudTripleStoreConfiguration#getPcjTables() PCJ tables}, or every table named with the
+     *         table prefix and "INDEX" if none are configured.
+     */
+    static Map<String, String> getIndexTables(Configuration conf, Connector c) throws TableNotFoundException {
         List<String> tables = null;
 
         if (conf instanceof RdfCloudTripleStoreConfiguration) {
@@ -715,7 +736,6 @@ public class PrecompJoinOptimizer implements QueryOptimizer, Configurable {
         }
 
         String tablePrefix = conf.get(RdfCloudTripleStoreConfiguration.CONF_TBL_PREFIX);
-        Connector c = ConfigUtils.getConnector(conf);
         Map<String, String> indexTables = Maps.newLinkedHashMap();
 
         if (tables != null && !tables.isEmpty()) {
@@ -738,16 +758,6 @@ public class PrecompJoinOptimizer implements QueryOptimizer, Configurable {
             }
 
         }
-        List<ExternalTupleSet> index = Lists.newArrayList();
-
-        if (indexTables.isEmpty()) {
-            System.out.println("No Index found");
-        } else {
-            for (String table : indexTables.keySet()) {
-                String indexSparqlString = indexTables.get(table);
-                index.add(new AccumuloIndexSet(indexSparqlString, c, table));
-            }
-        }
-        return index;
+        return indexTables;
     }
 }
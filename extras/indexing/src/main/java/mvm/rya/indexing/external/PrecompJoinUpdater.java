@@ -0,0 +1,256 @@
+package mvm.rya.indexing.external;
+
+/*
+ * #%L
+ * mvm.rya.indexing.accumulo
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.accumulo.AccumuloRyaDAO;
+import mvm.rya.accumulo.experimental.AbstractAccumuloIndexer;
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.resolver.RyaToRdfConversions;
+import mvm.rya.indexing.accumulo.ConfigUtils;
+import mvm.rya.indexing.external.tupleSet.AccumuloIndexSet;
+import mvm.rya.rdftriplestore.RdfCloudTripleStore;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps the precomputed join (PCJ) tables up to date as statements are added through the DAO. Register it as an
+ * additional indexer, see {@link ConfigUtils#USE_PCJ_UPDATER}.
+ * <p>
+ * Each new statement is matched against the statement patterns of every PCJ query. A match binds the pattern's
+ * variables, and only the query with those bindings, the delta join, is evaluated against the store. Its results are
+ * written to every variable order of the PCJ table. The delta joins run on {@link #flush()}, after the DAO has
+ * flushed the core tables, so statements added in the same batch join with each other.
+ * <p>
+ * The PCJ tables are read when the updater is configured. Deletes are not applied.
+ */
+public class PrecompJoinUpdater extends AbstractAccumuloIndexer {
+    private static final Logger logger = Logger.getLogger(PrecompJoinUpdater.class);
+
+    private Configuration conf;
+    private List<Pcj> pcjs;
+    private final List<Delta> pending = new ArrayList<Delta>();
+
+    private RdfCloudTripleStore store;
+    private SailConnection connection;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        try {
+            Connector connector = ConfigUtils.getConnector(conf);
+            Map<String, String> indexTables = PrecompJoinOptimizer.getIndexTables(conf, connector);
+            pcjs = new ArrayList<Pcj>(indexTables.size());
+            for (Map.Entry<String, String> e : indexTables.entrySet()) {
+                pcjs.add(new Pcj(new AccumuloIndexSet(e.getValue(), connector, e.getKey())));
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to initialize index.  Throwing Runtime Exception. ", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * The PCJ tables are created and dropped on their own, so purging or dropping the store leaves them alone.
+     *
+     * @return null, the updater owns no table
+     */
+    @Override
+    public String getTableName() {
+        return null;
+    }
+
+    @Override
+    public void storeStatement(RyaStatement statement) throws IOException {
+        if (pcjs.isEmpty()) {
+            return;
+        }
+        Statement st = RyaToRdfConversions.convertStatement(statement);
+        for (Pcj pcj : pcjs) {
+            for (StatementPattern pattern : pcj.patterns) {
+                BindingSet bindings = match(pattern, st);
+                if (bindings != null) {
+                    synchronized (pending) {
+                        pending.add(new Delta(pcj, bindings));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        List<Delta> deltas;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            deltas = new ArrayList<Delta>(pending);
+            pending.clear();
+        }
+        try {
+            SailConnection conn = getConnection();
+            for (Pcj pcj : pcjs) {
+                List<BindingSet> results = new ArrayList<BindingSet>();
+                // the same delta join comes up once per pattern a statement matches
+                Set<BindingSet> evaluated = new LinkedHashSet<BindingSet>();
+                for (Delta delta : deltas) {
+                    if (delta.pcj != pcj || !evaluated.add(delta.bindings)) {
+                        continue;
+                    }
+                    CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = conn.evaluate(
+                            pcj.indexSet.getTupleExpr().clone(), null, delta.bindings, false);
+                    try {
+                        while (iter.hasNext()) {
+                            results.add(iter.next());
+                        }
+                    } finally {
+                        iter.close();
+                    }
+                }
+                if (!results.isEmpty()) {
+                    long added = pcj.indexSet.addResults(results.iterator());
+                    logger.debug("Added " + added + " results to " + pcj.indexSet.getTableName());
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Unable to update the precomputed joins", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+            if (store != null) {
+                store.shutDown();
+            }
+        } catch (SailException e) {
+            throw new IOException(e);
+        } finally {
+            connection = null;
+            store = null;
+        }
+    }
+
+    /**
+     * The delta joins are read through a store of their own. It writes to no additional indexers, and does not
+     * answer the queries from the PCJ tables that it is updating.
+     */
+    private SailConnection getConnection() throws Exception {
+        if (connection == null) {
+            AccumuloRdfConfiguration storeConf = new AccumuloRdfConfiguration(conf);
+            storeConf.setStrings(AccumuloRdfConfiguration.CONF_ADDITIONAL_INDEXERS, new String[] {});
+            storeConf.unset(RdfCloudTripleStoreConfiguration.CONF_PCJ_OPTIMIZER);
+
+            AccumuloRyaDAO dao = new AccumuloRyaDAO();
+            dao.setConnector(ConfigUtils.getConnector(conf));
+            dao.setConf(storeConf);
+            store = new RdfCloudTripleStore();
+            store.setConf(storeConf);
+            store.setRyaDAO(dao);
+            store.initialize();
+            connection = store.getConnection();
+        }
+        return connection;
+    }
+
+    /**
+     * @return the bindings of the pattern's variables if the statement matches the pattern, null otherwise
+     */
+    static BindingSet match(StatementPattern pattern, Statement st) {
+        QueryBindingSet bindings = new QueryBindingSet();
+        if (!bind(pattern.getSubjectVar(), st.getSubject(), bindings)
+                || !bind(pattern.getPredicateVar(), st.getPredicate(), bindings)
+                || !bind(pattern.getObjectVar(), st.getObject(), bindings)) {
+            return null;
+        }
+        Var contextVar = pattern.getContextVar();
+        if (contextVar != null && (st.getContext() != null || contextVar.hasValue())
+                && !bind(contextVar, st.getContext(), bindings)) {
+            return null;
+        }
+        return bindings;
+    }
+
+    private static boolean bind(Var var, Value value, QueryBindingSet bindings) {
+        if (var.hasValue()) {
+            return var.getValue().equals(value);
+        }
+        Value bound = bindings.getValue(var.getName());
+        if (bound != null) {
+            return bound.equals(value);
+        }
+        bindings.addBinding(var.getName(), value);
+        return true;
+    }
+
+    private static class Pcj {
+        private final AccumuloIndexSet indexSet;
+        private final List<StatementPattern> patterns;
+
+        private Pcj(AccumuloIndexSet indexSet) {
+            this.indexSet = indexSet;
+            this.patterns = Lists.newArrayList(StatementPatternCollector.process(indexSet.getTupleExpr()));
+        }
+    }
+
+    private static class Delta {
+        private final Pcj pcj;
+        private final BindingSet bindings;
+
+        private Delta(Pcj pcj, BindingSet bindings) {
+            this.pcj = pcj;
+            this.bindings = bindings;
+        }
+    }
+}
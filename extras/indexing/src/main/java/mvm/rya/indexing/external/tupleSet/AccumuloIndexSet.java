@@ -137,6 +137,22 @@ public class AccumuloIndexSet extends ExternalTupleSet implements ExternalBatchi
     }
 
     
+    /**
+     * Lays out the index of the query without reading or writing its table, see {@link BulkIndexSetBuilder}.
+     */
+    AccumuloIndexSet(ParsedTupleQuery pq, Connector accCon, String tablename) {
+        super(null);
+        this.tablename = tablename;
+        this.accCon = accCon;
+        setProjectionExpr((Projection) pq.getTupleExpr());
+
+        varOrder = new ArrayList<String>(bindingslist.size());
+        for (int j = 0; j < bindingslist.size(); j++) {
+            varOrder.add(Joiner.on("\u0000").join(listShift(bindingslist, j)));
+        }
+        this.setSupportedVariableOrderMap(createSupportedVarOrderMap(varOrder));
+    }
+
     //TODO set supportedVarOrderMap 
     public AccumuloIndexSet(String sparql, SailRepositoryConnection conn, Connector accCon, String tablename) throws MalformedQueryException, SailException,
             QueryEvaluationException, MutationsRejectedException, TableNotFoundException {
@@ -185,41 +201,108 @@ public class AccumuloIndexSet extends ExternalTupleSet implements ExternalBatchi
         
        
         varOrder = new ArrayList<String>(bindingslist.size());
- 
+        for (int j = 0; j < bindingslist.size(); j++) {
+            varOrder.add(Joiner.on("\u0000").join(listShift(bindingslist, j)));
+        }
+
         while (iter.hasNext()) {
-            
-            BindingSet bs = iter.next();
-            List<String> shiftBindingList = null;
-            for (int j = 0; j < bindingslist.size(); j++) {
-                StringBuffer sb = new StringBuffer();
-                shiftBindingList = listShift(bindingslist, j);  //TODO calling this each time not efficient
-                String order = "";
-                for (String b : shiftBindingList) {
-                    String val = bindings.get(b).create(bs.getValue(b));
-                    sb.append(val).append("\u0000");
-                    if (order.length() == 0) {
-                        order = b;
-                    } else {
-                        order = order + "\u0000" + b;
-                    }
-                }
-                
-                if (varOrder.size() < bindingslist.size()) {
-                    varOrder.add(order);
-                }
-                
-                //System.out.println("String buffer is " + sb);
-                Mutation m = new Mutation(sb.deleteCharAt(sb.length() - 1).toString());
-                m.put(new Text(varOrder.get(j)), new Text(""), new org.apache.accumulo.core.data.Value(new byte[]{}));
-                w.addMutation(m);
-            }
+            addBindingSet(w, iter.next());
             tableSize += 1;
         }
         
         setLocalityGroups(tablename, accCon, varOrder);
         this.setSupportedVariableOrderMap(createSupportedVarOrderMap(varOrder));
          
-        
+        w.addMutation(metadataMutation(sparql, -1));
+     
+        w.close();
+        iter.close();
+    }
+
+    /**
+     * Writes one row per variable order for each result, into the order's locality group. Results that are already
+     * in the table are overwritten, and not counted again.
+     *
+     * @param results new results of this index's query
+     * @return the number of distinct results written
+     */
+    public long addResults(Iterator<BindingSet> results) throws TableNotFoundException, MutationsRejectedException {
+        String sparql = getSparql();
+        BatchWriter w = accCon.createBatchWriter(tablename, WRITER_MAX_MEMORY, WRITER_MAX_LATNECY, WRITER_MAX_WRITE_THREADS);
+        long added = 0;
+        try {
+            Set<String> rows = new HashSet<String>();
+            while (results.hasNext()) {
+                BindingSet bs = results.next();
+                boolean isNew = !contains(bs);
+                if (rows.add(addBindingSet(w, bs)) && isNew) {
+                    added++;
+                }
+            }
+            if (added > 0) {
+                long oldSize = tableSize;
+                tableSize += added;
+                w.addMutation(metadataMutation(sparql, oldSize));
+            }
+        } finally {
+            w.close();
+        }
+        return added;
+    }
+
+    /**
+     * @return the row written for the first variable order
+     */
+    private String addBindingSet(BatchWriter w, BindingSet bs) throws MutationsRejectedException {
+        String firstRow = null;
+        for (int j = 0; j < varOrder.size(); j++) {
+            String row = toRow(bs, j);
+            if (firstRow == null) {
+                firstRow = row;
+            }
+            Mutation m = new Mutation(row);
+            m.put(new Text(varOrder.get(j)), new Text(""), new org.apache.accumulo.core.data.Value(new byte[]{}));
+            w.addMutation(m);
+        }
+        return firstRow;
+    }
+
+    /**
+     * @return the row of the result in the given variable order
+     */
+    String toRow(BindingSet bs, int order) {
+        StringBuffer sb = new StringBuffer();
+        for (String b : varOrder.get(order).split("\u0000")) {
+            sb.append(bindings.get(b).create(bs.getValue(b))).append("\u0000");
+        }
+        return sb.deleteCharAt(sb.length() - 1).toString();
+    }
+
+    List<String> getVarOrders() {
+        return varOrder;
+    }
+
+    void setTableSize(long tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    private boolean contains(BindingSet bs) throws TableNotFoundException {
+        StringBuffer sb = new StringBuffer();
+        for (String b : bindingslist) {
+            sb.append(bindings.get(b).create(bs.getValue(b))).append("\u0000");
+        }
+        Scanner s = accCon.createScanner(tablename, new Authorizations());
+        s.setRange(Range.exact(new Text(sb.deleteCharAt(sb.length() - 1).toString()), new Text(varOrder.get(0))));
+        return s.iterator().hasNext();
+    }
+
+    /**
+     * The "~SPARQL" row holds the size of the table in its column family, the variable orders in its column
+     * qualifier and the query in its value.
+     *
+     * @param oldSize size recorded before, whose entry is deleted; negative if there is none
+     */
+    Mutation metadataMutation(String sparql, long oldSize) {
         String orders = "";
         
         for(String s : varOrder) {
@@ -231,17 +314,28 @@ public class AccumuloIndexSet extends ExternalTupleSet implements ExternalBatchi
             }
         }
         
-        
         Mutation m = new Mutation("~SPARQL");
+        if (oldSize >= 0) {
+            m.putDelete(new Text("" + oldSize), new Text(orders));
+        }
         Value v = new Value(sparql.getBytes());
         m.put(new Text("" + tableSize), new Text(orders), v);
-        w.addMutation(m);
-     
-        w.close();
-        iter.close();
+        return m;
     }
 
-    
+    private String getSparql() throws TableNotFoundException {
+        Scanner s = accCon.createScanner(tablename, new Authorizations());
+        s.setRange(Range.exact(new Text("~SPARQL")));
+        Iterator<Entry<Key,Value>> i = s.iterator();
+        if (!i.hasNext()) {
+            throw new IllegalStateException("Index table contains no metadata!");
+        }
+        return i.next().getValue().toString();
+    }
+
+    public String getTableName() {
+        return tablename;
+    }
     
     
     @Override
@@ -326,7 +420,7 @@ public class AccumuloIndexSet extends ExternalTupleSet implements ExternalBatchi
     }
     
     
-    private void setLocalityGroups(String tableName, Connector conn, List<String> groups) {
+    void setLocalityGroups(String tableName, Connector conn, List<String> groups) {
         
         HashMap<String, Set<Text>> localityGroups = new HashMap<String, Set<Text>>();
 
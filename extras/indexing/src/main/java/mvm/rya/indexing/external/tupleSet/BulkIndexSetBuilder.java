@@ -0,0 +1,501 @@
+package mvm.rya.indexing.external.tupleSet;
+
+/*
+ * #%L
+ * mvm.rya.indexing.accumulo
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mvm.rya.api.persist.utils.HyperLogLog;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.ParsedTupleQuery;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+import org.openrdf.sail.SailException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Builds a precomputed join table in parallel and bulk imports it, for queries with too many results to write through
+ * a single connection and batch writer (see {@link AccumuloIndexSet#AccumuloIndexSet(String, SailRepositoryConnection,
+ * Connector, String)}).
+ * <p>
+ * The evaluation is partitioned by the first join variable: the projected variable that appears in the most statement
+ * patterns. Its values are read from one of those patterns and hashed into partitions, and each partition evaluates the
+ * query once per value, with the value bound, on a connection of its own. The values are written to a file per
+ * partition in the work directory, and read back by the partition when it is built.
+ * <p>
+ * A partition sorts its rows in memory up to {@link #setMaxBufferBytes(long) a byte budget}, then spills them as a run
+ * of one RFile per variable order, in that order's locality group. All of the files are bulk imported at once. Spills
+ * happen between values of the partition variable, so the runs of a partition never repeat a row, and a single value
+ * with more results than the budget takes the buffer over it. Queries with optional or union parts are evaluated as a
+ * single partition, which spills whenever the budget is reached.
+ * <p>
+ * The "~SPARQL" metadata row is written last, so the table is not picked up as an index before it is complete. Next to
+ * it, the "~STATS" row holds a HyperLogLog estimate of the number of distinct values of each variable order's first
+ * variable, with the order in the column qualifier.
+ * <p>
+ * At most {@link #getNumThreads()} partitions are built at once, each holding its distinct values and its row buffer.
+ */
+public class BulkIndexSetBuilder {
+    private static final Logger logger = Logger.getLogger(BulkIndexSetBuilder.class);
+
+    public static final String STATS_ROW = "~STATS";
+    public static final String CARDINALITY_CF = "~cardinality";
+
+    /** within about 1% */
+    private static final int STATS_PRECISION = 14;
+    /** estimated heap used by a buffered row next to its bytes */
+    private static final int ROW_OVERHEAD = 64;
+
+    private final SailRepository repo;
+    private final Connector accCon;
+    private final FileSystem fs;
+    private final Path workDir;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int numPartitions = 4 * numThreads;
+    private long maxBufferBytes = 32L << 20;
+
+    /**
+     * @param repo the store to evaluate the query against
+     * @param accCon connector to the instance holding the index table
+     * @param fs file system shared with the tablet servers
+     * @param workDir directory for the RFiles, replaced on every build
+     */
+    public BulkIndexSetBuilder(SailRepository repo, Connector accCon, FileSystem fs, Path workDir) {
+        this.repo = Preconditions.checkNotNull(repo);
+        this.accCon = Preconditions.checkNotNull(accCon);
+        this.fs = Preconditions.checkNotNull(fs);
+        this.workDir = Preconditions.checkNotNull(workDir);
+    }
+
+    public void setNumThreads(int numThreads) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be greater than 0");
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumPartitions(int numPartitions) {
+        Preconditions.checkArgument(numPartitions > 0, "numPartitions must be greater than 0");
+        this.numPartitions = numPartitions;
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * @param maxBufferBytes the rows a partition sorts in memory before it writes them out, across all variable orders
+     */
+    public void setMaxBufferBytes(long maxBufferBytes) {
+        Preconditions.checkArgument(maxBufferBytes > 0, "maxBufferBytes must be greater than 0");
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    public long getMaxBufferBytes() {
+        return maxBufferBytes;
+    }
+
+    /**
+     * Evaluates the query and loads its results into the table, which must exist and be empty.
+     *
+     * @return the index of the table
+     */
+    public AccumuloIndexSet build(String sparql, String tablename) throws MalformedQueryException,
+            QueryEvaluationException, RepositoryException, AccumuloException, AccumuloSecurityException,
+            TableNotFoundException, IOException {
+        ParsedTupleQuery pq = (ParsedTupleQuery) new SPARQLParser().parseQuery(sparql, null);
+        final AccumuloIndexSet indexSet = new AccumuloIndexSet(pq, accCon, tablename);
+        final List<String> orders = indexSet.getVarOrders();
+
+        final Path filesDir = new Path(workDir, "files");
+        Path failuresDir = new Path(workDir, "failures");
+        if (fs.exists(workDir)) {
+            fs.delete(workDir, true);
+        }
+        fs.mkdirs(filesDir);
+        fs.mkdirs(failuresDir);
+
+        final List<HyperLogLog> leadingValues = new ArrayList<HyperLogLog>(orders.size());
+        for (int j = 0; j < orders.size(); j++) {
+            leadingValues.add(new HyperLogLog(STATS_PRECISION));
+        }
+
+        List<Partition> partitions = partition(indexSet, new Path(workDir, "values"));
+        logger.info("Building " + tablename + " in " + partitions.size() + " partitions");
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("rya-pcj-build-%d").build());
+        long tableSize = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>(partitions.size());
+            for (final Partition partition : partitions) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return writePartition(indexSet, partition, filesDir, leadingValues);
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                tableSize += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building " + tablename);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfInstanceOf(cause, QueryEvaluationException.class);
+            Throwables.propagateIfInstanceOf(cause, RepositoryException.class);
+            Throwables.propagateIfInstanceOf(cause, IOException.class);
+            throw Throwables.propagate(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        indexSet.setLocalityGroups(tablename, accCon, orders);
+        accCon.tableOperations().importDirectory(tablename, filesDir.toString(), failuresDir.toString(), true);
+        if (fs.listStatus(failuresDir).length > 0) {
+            throw new IOException("Files failed to import into " + tablename + ", see " + failuresDir);
+        }
+
+        indexSet.setTableSize(tableSize);
+        BatchWriter w = accCon.createBatchWriter(tablename, new BatchWriterConfig());
+        try {
+            Mutation stats = new Mutation(STATS_ROW);
+            for (int j = 0; j < orders.size(); j++) {
+                stats.put(new Text(CARDINALITY_CF), new Text(orders.get(j).replace("\u0000", ";")),
+                        new Value(Long.toString(leadingValues.get(j).estimate()).getBytes()));
+            }
+            w.addMutation(stats);
+            w.addMutation(indexSet.metadataMutation(sparql, -1));
+        } finally {
+            w.close();
+        }
+        fs.delete(workDir, true);
+        logger.info("Built " + tablename + " with " + tableSize + " results");
+        return indexSet;
+    }
+
+    /**
+     * Splits the query on the values of its first join variable, or into a single unbound partition if it has none. The
+     * values of each partition are written to a file of their own in the directory.
+     */
+    private List<Partition> partition(AccumuloIndexSet indexSet, Path valuesDir) throws RepositoryException,
+            QueryEvaluationException, IOException {
+        final boolean[] partial = new boolean[1];
+        indexSet.getTupleExpr().visit(new QueryModelVisitorBase<RuntimeException>() {
+            @Override
+            public void meet(LeftJoin node) {
+                partial[0] = true;
+            }
+
+            @Override
+            public void meet(Union node) {
+                partial[0] = true;
+            }
+        });
+
+        StatementPattern partitionPattern = null;
+        String partitionVar = null;
+        if (!partial[0]) {
+            List<StatementPattern> patterns = StatementPatternCollector.process(indexSet.getTupleExpr());
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (StatementPattern pattern : patterns) {
+                for (Var var : pattern.getVarList()) {
+                    if (!var.hasValue() && indexSet.getTupleExpr().getAssuredBindingNames().contains(var.getName())) {
+                        Integer count = counts.get(var.getName());
+                        counts.put(var.getName(), count == null ? 1 : count + 1);
+                    }
+                }
+            }
+            int best = 0;
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                if (e.getValue() > best) {
+                    best = e.getValue();
+                    partitionVar = e.getKey();
+                }
+            }
+            for (StatementPattern pattern : patterns) {
+                if (partitionVar != null && pattern.getBindingNames().contains(partitionVar)) {
+                    partitionPattern = pattern;
+                    break;
+                }
+            }
+        }
+
+        List<Partition> partitions = new ArrayList<Partition>();
+        if (partitionPattern == null) {
+            partitions.add(new Partition(0, null));
+            return partitions;
+        }
+        fs.mkdirs(valuesDir);
+        List<Writer> writers = new ArrayList<Writer>(numPartitions);
+        SailRepositoryConnection conn = repo.getConnection();
+        try {
+            for (int i = 0; i < numPartitions; i++) {
+                Partition partition = new Partition(i, partitionVar, new Path(valuesDir, "values-" + i));
+                partitions.add(partition);
+                writers.add(new BufferedWriter(new OutputStreamWriter(fs.create(partition.values), "UTF-8")));
+            }
+            CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = conn.getSailConnection()
+                    .evaluate(partitionPattern.clone(), null, new EmptyBindingSet(), false);
+            try {
+                while (iter.hasNext()) {
+                    org.openrdf.model.Value value = iter.next().getValue(partitionVar);
+                    Writer writer = writers.get((value.hashCode() & Integer.MAX_VALUE) % numPartitions);
+                    writer.write(NTriplesUtil.toNTriplesString(value));
+                    writer.write('\n');
+                }
+            } finally {
+                iter.close();
+            }
+        } catch (SailException e) {
+            throw new RepositoryException(e);
+        } finally {
+            conn.close();
+            for (Writer writer : writers) {
+                writer.close();
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the distinct values of the partition
+     */
+    private Set<org.openrdf.model.Value> readValues(Partition partition) throws IOException {
+        Set<org.openrdf.model.Value> values = new HashSet<org.openrdf.model.Value>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(partition.values), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                values.add(NTriplesUtil.parseValue(line, ValueFactoryImpl.getInstance()));
+            }
+        } finally {
+            reader.close();
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates the partition and writes its rows, in runs of one file per variable order.
+     *
+     * @return the number of distinct results in the partition
+     */
+    private long writePartition(AccumuloIndexSet indexSet, Partition partition, Path filesDir,
+            List<HyperLogLog> leadingValues) throws RepositoryException, QueryEvaluationException, IOException {
+        PartitionWriter writer = new PartitionWriter(indexSet, partition.id, filesDir);
+        SailRepositoryConnection conn = repo.getConnection();
+        try {
+            if (partition.var == null) {
+                evaluate(conn, indexSet, new EmptyBindingSet(), writer, true);
+            } else {
+                for (org.openrdf.model.Value value : readValues(partition)) {
+                    QueryBindingSet bindings = new QueryBindingSet();
+                    bindings.addBinding(partition.var, value);
+                    evaluate(conn, indexSet, bindings, writer, false);
+                    if (writer.isFull()) {
+                        writer.spill();
+                    }
+                }
+            }
+            writer.spill();
+        } catch (SailException e) {
+            throw new RepositoryException(e);
+        } finally {
+            conn.close();
+        }
+
+        synchronized (leadingValues) {
+            for (int j = 0; j < leadingValues.size(); j++) {
+                leadingValues.get(j).merge(writer.leading.get(j));
+            }
+        }
+        return writer.size;
+    }
+
+    /**
+     * @param spillWhenFull spill in the middle of the results, when there are no values to spill between
+     */
+    private static void evaluate(SailRepositoryConnection conn, AccumuloIndexSet indexSet, BindingSet bindings,
+            PartitionWriter writer, boolean spillWhenFull) throws SailException, QueryEvaluationException, IOException {
+        CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = conn.getSailConnection().evaluate(
+                indexSet.getTupleExpr().clone(), null, bindings, false);
+        try {
+            while (iter.hasNext()) {
+                writer.add(iter.next());
+                if (spillWhenFull && writer.isFull()) {
+                    writer.spill();
+                }
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
+    private static class Partition {
+        private final int id;
+        private final String var;
+        private final Path values;
+
+        private Partition(int id, String var) {
+            this(id, var, null);
+        }
+
+        private Partition(int id, String var, Path values) {
+            this.id = id;
+            this.var = var;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Sorts the rows of one partition, and writes them out as a run of one RFile per variable order when asked to.
+     */
+    private class PartitionWriter {
+        private final AccumuloIndexSet indexSet;
+        private final List<String> orders;
+        private final int partition;
+        private final Path filesDir;
+        //Text sorts by its UTF-8 bytes, as the keys of the file must be, where String would sort by UTF-16 chars
+        private final List<SortedSet<Text>> rows;
+        private final List<HyperLogLog> leading;
+        private long bytes = 0;
+        private int runs = 0;
+        private long size = 0;
+
+        private PartitionWriter(AccumuloIndexSet indexSet, int partition, Path filesDir) {
+            this.indexSet = indexSet;
+            this.orders = indexSet.getVarOrders();
+            this.partition = partition;
+            this.filesDir = filesDir;
+            this.rows = new ArrayList<SortedSet<Text>>(orders.size());
+            this.leading = new ArrayList<HyperLogLog>(orders.size());
+            for (int j = 0; j < orders.size(); j++) {
+                rows.add(new TreeSet<Text>());
+                leading.add(new HyperLogLog(STATS_PRECISION));
+            }
+        }
+
+        private void add(BindingSet bs) {
+            for (int j = 0; j < rows.size(); j++) {
+                Text row = new Text(indexSet.toRow(bs, j));
+                if (rows.get(j).add(row)) {
+                    bytes += row.getLength() + ROW_OVERHEAD;
+                }
+            }
+        }
+
+        private boolean isFull() {
+            return bytes >= maxBufferBytes;
+        }
+
+        private void spill() throws IOException {
+            if (rows.get(0).isEmpty()) {
+                return;
+            }
+            size += rows.get(0).size();
+            for (int j = 0; j < orders.size(); j++) {
+                String order = orders.get(j);
+                Path file = new Path(filesDir, "part-" + partition + "-" + j + "-" + runs + ".rf");
+                FileSKVWriter writer = FileOperations.getInstance().openWriter(file.toString(), fs, fs.getConf(),
+                        AccumuloConfiguration.getDefaultConfiguration());
+                try {
+                    writer.startNewLocalityGroup(order.replace("\u0000", ""),
+                            Collections.<ByteSequence> singleton(new ArrayByteSequence(order)));
+                    Text cf = new Text(order);
+                    Text cq = new Text();
+                    HyperLogLog sketch = leading.get(j);
+                    for (Text row : rows.get(j)) {
+                        writer.append(new Key(row, cf, cq), new Value(new byte[] {}));
+                        int end = row.find("\u0000");
+                        sketch.add(end < 0 ? row.toString() : Text.decode(row.getBytes(), 0, end));
+                    }
+                } finally {
+                    writer.close();
+                }
+                rows.get(j).clear();
+            }
+            runs++;
+            bytes = 0;
+        }
+    }
+}
@@ -22,7 +22,9 @@ package mvm.rya.indexing.accumulo.freetext;
 
 import info.aduna.iteration.CloseableIteration;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -54,6 +56,7 @@ import org.openrdf.model.impl.URIImpl;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.RDFS;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class AccumuloFreeTextIndexerTest {
@@ -130,6 +133,42 @@ public class AccumuloFreeTextIndexerTest {
         f.close();
     }
 
+    @Test
+    public void testInfixWildcardAndFuzzySearch() throws Exception {
+        AccumuloFreeTextIndexer f = new AccumuloFreeTextIndexer();
+        f.setConf(conf);
+
+        ValueFactory vf = new ValueFactoryImpl();
+        Statement hat = vf.createStatement(new URIImpl("foo:subj1"), RDFS.LABEL, vf.createLiteral("this is a new hat"));
+        Statement heart = vf.createStatement(new URIImpl("foo:subj2"), RDFS.LABEL, vf.createLiteral("a heart of gold"));
+        f.storeStatement(RdfToRyaConversions.convertStatement(hat));
+        f.flush();
+
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("h*t", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("*ha*", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(), getSet(f.queryText("b*t", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("hta~2", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("nw~ & hat", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(), getSet(f.queryText("hta~", EMPTY_CONSTRAINTS)));
+        // too short for its trigrams, and starts with another letter than "new"
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("xe~2", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("*t", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(), getSet(f.queryText("*ear*", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat), getSet(f.queryText("hart~", EMPTY_CONSTRAINTS)));
+
+        // the cached expansions pick up the new term, whether indexed by an anchored character or by trigrams
+        f.storeStatement(RdfToRyaConversions.convertStatement(heart));
+        f.flush();
+        Assert.assertEquals(Sets.newHashSet(hat, heart), getSet(f.queryText("h*t", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat, heart), getSet(f.queryText("*t", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(heart), getSet(f.queryText("*ear*", EMPTY_CONSTRAINTS)));
+        Assert.assertEquals(Sets.newHashSet(hat, heart), getSet(f.queryText("hart~", EMPTY_CONSTRAINTS)));
+
+        Assert.assertEquals("\"a*b\" & a\u001ab & !*c", AccumuloFreeTextIndexer.markInfixWildcards("\"a*b\" & a*b & !*c"));
+
+        f.close();
+    }
+
     @Test
     public void testRestrictPredicatesSearch() throws Exception {
         conf.setStrings(ConfigUtils.FREETEXT_PREDICATES_LIST, "pred:1,pred:2");
@@ -192,6 +231,39 @@ public class AccumuloFreeTextIndexerTest {
         f.close();
     }
 
+    @Test
+    public void testRankedSearch() throws Exception {
+        // a single shard, so every document is scored against the same statistics
+        conf.setInt(ConfigUtils.FREETEXT_DOC_NUM_PARTITIONS, 1);
+
+        AccumuloFreeTextIndexer f = new AccumuloFreeTextIndexer();
+        f.setConf(conf);
+
+        ValueFactory vf = new ValueFactoryImpl();
+        URI predicate = RDFS.LABEL;
+        Statement shortHat = vf.createStatement(new URIImpl("foo:subj1"), predicate, vf.createLiteral("red hat"));
+        Statement longHat = vf.createStatement(new URIImpl("foo:subj2"), predicate,
+                vf.createLiteral("a very wide blue hat with a long brim"));
+        Statement car = vf.createStatement(new URIImpl("foo:subj3"), predicate, vf.createLiteral("red car"));
+        f.storeStatement(RdfToRyaConversions.convertStatement(shortHat));
+        f.storeStatement(RdfToRyaConversions.convertStatement(longHat));
+        f.storeStatement(RdfToRyaConversions.convertStatement(car));
+        f.flush();
+
+        // shorter documents rank first
+        Assert.assertEquals(Lists.newArrayList(shortHat), getList(f.queryText("hat", EMPTY_CONSTRAINTS, 1)));
+        Assert.assertEquals(Lists.newArrayList(shortHat, longHat), getList(f.queryText("hat", EMPTY_CONSTRAINTS, 5)));
+
+        // documents matching more terms rank first
+        Assert.assertEquals(shortHat, getList(f.queryText("red | hat", EMPTY_CONSTRAINTS, 3)).get(0));
+        Assert.assertEquals(3, getList(f.queryText("red | hat", EMPTY_CONSTRAINTS, 3)).size());
+
+        Assert.assertEquals(Lists.newArrayList(), getList(f.queryText("hat & !red", new StatementContraints().setSubject(new URIImpl("foo:subj1")), 5)));
+        Assert.assertEquals(Sets.newHashSet(shortHat, longHat, car), getSet(f.queryText("red | hat", EMPTY_CONSTRAINTS)));
+
+        f.close();
+    }
+
     public static void printTables(Configuration conf) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
         TableOperations tops = ConfigUtils.getConnector(conf).tableOperations();
 
@@ -210,6 +282,14 @@ public class AccumuloFreeTextIndexerTest {
 
     }
 
+    private static <X> List<X> getList(CloseableIteration<X, ?> iter) throws Exception {
+        List<X> list = new ArrayList<X>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list;
+    }
+
     private static <X> Set<X> getSet(CloseableIteration<X, ?> iter) throws Exception {
         Set<X> set = new HashSet<X>();
         while (iter.hasNext()) {
@@ -139,6 +139,7 @@ public class GeoIndexerSfTest {
         g.storeStatement(statement(D));
         g.storeStatement(statement(F));
         g.storeStatement(statement(E));
+        g.flush();
     }
 
     private static RyaStatement statement(Geometry geo) {
@@ -831,6 +831,49 @@ public final class AccumuloTemporalIndexerTest {
 
     }
 
+    /**
+     * Interval queries with subject and predicate constraints, which are applied on the tablet servers.
+     * {@link AccumuloTemporalIndexer#queryIntervalBefore(TemporalInterval, StatementContraints)}
+     * {@link AccumuloTemporalIndexer#queryIntervalAfter(TemporalInterval, StatementContraints)}
+     */
+    @Test
+    public void testQueryIntervalWithConstraints() throws IOException, QueryEvaluationException {
+        ValueFactory vf = new ValueFactoryImpl();
+        URI pred2_circa = vf.createURI(URI_PROPERTY_CIRCA);
+        Statement circa_B00_E01 = new StatementImpl(vf.createURI("foo:event0"), pred2_circa, vf.createLiteral(tvB00_E01.toString()));
+        Statement circa_B30_E32 = new StatementImpl(vf.createURI("foo:event7"), pred2_circa, vf.createLiteral(tvB30_E32.toString()));
+        tIndexer.storeStatement(convertStatement(spo_B00_E01));
+        tIndexer.storeStatement(convertStatement(spo_B29_E30));
+        tIndexer.storeStatement(convertStatement(spo_B30_E32));
+        tIndexer.storeStatement(convertStatement(circa_B00_E01));
+        tIndexer.storeStatement(convertStatement(circa_B30_E32));
+        // instants should be ignored.
+        tIndexer.storeStatement(convertStatement(seriesSpo[1]));
+        tIndexer.storeStatement(convertStatement(seriesSpo[31]));
+        tIndexer.flush();
+
+        StatementContraints predicateConstraint = new StatementContraints();
+        predicateConstraint.setPredicates(new HashSet<URI>(Arrays.asList(pred2_circa)));
+        CloseableIteration<Statement, QueryEvaluationException> iter;
+        iter = tIndexer.queryIntervalBefore(tvB02_E31, predicateConstraint);
+        Assert.assertTrue("circa_B00_E01 should be found.", iter.hasNext());
+        Assert.assertEquals(circa_B00_E01, iter.next());
+        Assert.assertFalse("Find no more than one, but actually has more.", iter.hasNext());
+        iter.close();
+
+        StatementContraints subjectConstraint = new StatementContraints();
+        subjectConstraint.setSubject(vf.createURI("foo:event1"));
+        iter = tIndexer.queryIntervalAfter(tvB02_E29, subjectConstraint);
+        Assert.assertTrue("spo_B30_E32 should be found.", iter.hasNext());
+        Assert.assertEquals(spo_B30_E32, iter.next());
+        Assert.assertFalse("Find no more than one, but actually has more.", iter.hasNext());
+        iter.close();
+
+        iter = tIndexer.queryIntervalEquals(tvB00_E01, subjectConstraint);
+        Assert.assertFalse("foo:event1 has no interval B00_E01.", iter.hasNext());
+        iter.close();
+    }
+
     /**
      * Test instant after a given instant WITH two different predicates as constraints.
      */
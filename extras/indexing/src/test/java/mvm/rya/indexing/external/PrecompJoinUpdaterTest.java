@@ -0,0 +1,147 @@
+package mvm.rya.indexing.external;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import junit.framework.Assert;
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.indexing.RyaSailFactory;
+import mvm.rya.indexing.accumulo.ConfigUtils;
+import mvm.rya.indexing.external.tupleSet.AccumuloIndexSet;
+import mvm.rya.rdftriplestore.RdfCloudTripleStore;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+
+public class PrecompJoinUpdaterTest {
+
+    private static final String INDEX_SPARQL = "SELECT ?e ?c ?l ?o " //
+            + "{" //
+            + "  ?e a ?c . "//
+            + "  ?e <http://www.w3.org/2000/01/rdf-schema#label> ?l . "//
+            + "  ?e <uri:talksTo> ?o . "//
+            + "}";
+
+    private String tablePrefix = "pcjupdate_";
+    private String indexTable = tablePrefix + "INDEX1";
+    private AccumuloRdfConfiguration conf;
+    private Connector accCon;
+    private SailRepository repo;
+    private SailRepositoryConnection conn;
+    private URI talksTo = new URIImpl("uri:talksTo");
+
+    @Before
+    public void init() throws Exception {
+        conf = new AccumuloRdfConfiguration();
+        conf.set(ConfigUtils.USE_MOCK_INSTANCE, "true");
+        conf.set(ConfigUtils.CLOUDBASE_INSTANCE, "instance");
+        conf.setTablePrefix(tablePrefix);
+
+        SailRepository loadRepo = new SailRepository(RyaSailFactory.getInstance(conf));
+        loadRepo.initialize();
+        SailRepositoryConnection loadConn = loadRepo.getConnection();
+        URI sub = new URIImpl("uri:entity");
+        loadConn.add(sub, RDF.TYPE, new URIImpl("uri:class"));
+        loadConn.add(sub, RDFS.LABEL, new LiteralImpl("label"));
+        loadConn.add(sub, talksTo, new URIImpl("uri:obj"));
+
+        accCon = new MockInstance("instance").getConnector("root", new PasswordToken("".getBytes()));
+        if (accCon.tableOperations().exists(indexTable)) {
+            accCon.tableOperations().delete(indexTable);
+        }
+        accCon.tableOperations().create(indexTable);
+        new AccumuloIndexSet(INDEX_SPARQL, loadConn, accCon, indexTable);
+        loadConn.close();
+        loadRepo.shutDown();
+
+        // the updater picks up the index tables when the store starts
+        conf.setBoolean(ConfigUtils.USE_PCJ_UPDATER, true);
+        repo = new SailRepository(RyaSailFactory.getInstance(conf));
+        repo.initialize();
+        conn = repo.getConnection();
+    }
+
+    @After
+    public void close() throws Exception {
+        conn.close();
+        repo.shutDown();
+        for (String table : accCon.tableOperations().list()) {
+            if (table.startsWith(tablePrefix)) {
+                accCon.tableOperations().delete(table);
+            }
+        }
+    }
+
+    @Test
+    public void testAddedStatementsUpdateIndex() throws Exception {
+        Assert.assertEquals(1, countResults());
+
+        // a new entity, complete once its last statement arrives
+        URI sub2 = new URIImpl("uri:entity2");
+        conn.add(sub2, RDF.TYPE, new URIImpl("uri:class2"));
+        conn.add(sub2, RDFS.LABEL, new LiteralImpl("label2"));
+        Assert.assertEquals(1, countResults());
+        conn.add(sub2, talksTo, new URIImpl("uri:obj2"));
+        Assert.assertEquals(2, countResults());
+
+        // a new statement that joins with statements stored before the index was built
+        conn.add(new URIImpl("uri:entity"), talksTo, new URIImpl("uri:obj3"));
+        Assert.assertEquals(3, countResults());
+
+        // a statement that is already indexed adds nothing
+        conn.add(sub2, talksTo, new URIImpl("uri:obj2"));
+        Assert.assertEquals(3, countResults());
+
+        Assert.assertEquals(3.0, new AccumuloIndexSet(INDEX_SPARQL, accCon, indexTable).cardinality());
+    }
+
+    @Test
+    public void testPurgeLeavesIndex() throws Exception {
+        // the updater does not own the index tables
+        ((RdfCloudTripleStore) repo.getSail()).getRyaDAO().purge(conf);
+        Assert.assertTrue(accCon.tableOperations().exists(indexTable));
+        Assert.assertEquals(1, countResults());
+    }
+
+    /**
+     * @return the number of results in each of the variable order locality groups, which must agree
+     */
+    private int countResults() throws Exception {
+        Scanner scanner = accCon.createScanner(indexTable, new Authorizations());
+        Map<Text, Integer> counts = new HashMap<Text, Integer>();
+        for (Entry<Key, Value> e : scanner) {
+            if (e.getKey().getRow().toString().equals("~SPARQL")) {
+                continue;
+            }
+            Text order = e.getKey().getColumnFamily();
+            Integer count = counts.get(order);
+            counts.put(order, count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals(4, counts.size());
+        Integer count = null;
+        for (Integer c : counts.values()) {
+            if (count != null) {
+                Assert.assertEquals(count, c);
+            }
+            count = c;
+        }
+        return count;
+    }
+}
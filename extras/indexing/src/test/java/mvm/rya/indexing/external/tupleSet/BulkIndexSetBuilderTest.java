@@ -0,0 +1,190 @@
+package mvm.rya.indexing.external.tupleSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import junit.framework.Assert;
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.indexing.RyaSailFactory;
+import mvm.rya.indexing.accumulo.ConfigUtils;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+
+public class BulkIndexSetBuilderTest {
+
+    private static final String INDEX_SPARQL = "SELECT ?e ?c ?l ?o " //
+            + "{" //
+            + "  ?e a ?c . "//
+            + "  ?e <http://www.w3.org/2000/01/rdf-schema#label> ?l . "//
+            + "  ?e <uri:talksTo> ?o . "//
+            + "}";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private String tablePrefix = "bulkpcj_";
+    private Connector accCon;
+    private SailRepository repo;
+    private SailRepositoryConnection conn;
+
+    @Before
+    public void init() throws Exception {
+        AccumuloRdfConfiguration conf = new AccumuloRdfConfiguration();
+        conf.set(ConfigUtils.USE_MOCK_INSTANCE, "true");
+        conf.set(ConfigUtils.CLOUDBASE_INSTANCE, "instance");
+        conf.setTablePrefix(tablePrefix);
+
+        repo = new SailRepository(RyaSailFactory.getInstance(conf));
+        repo.initialize();
+        conn = repo.getConnection();
+
+        URI talksTo = new URIImpl("uri:talksTo");
+        for (int i = 0; i < 20; i++) {
+            URI sub = new URIImpl("uri:entity" + i);
+            conn.add(sub, RDF.TYPE, new URIImpl("uri:class" + (i % 3)));
+            conn.add(sub, RDFS.LABEL, new LiteralImpl("label" + i));
+            for (int j = 0; j <= i % 4; j++) {
+                conn.add(sub, talksTo, new URIImpl("uri:obj" + j));
+            }
+        }
+        // no label, so not in the index
+        conn.add(new URIImpl("uri:entity20"), RDF.TYPE, new URIImpl("uri:class0"));
+
+        accCon = new MockInstance("instance").getConnector("root", new PasswordToken("".getBytes()));
+    }
+
+    @After
+    public void close() throws Exception {
+        conn.close();
+        repo.shutDown();
+        for (String table : accCon.tableOperations().list()) {
+            if (table.startsWith(tablePrefix)) {
+                accCon.tableOperations().delete(table);
+            }
+        }
+    }
+
+    @Test
+    public void testBuildMatchesIndexSet() throws Exception {
+        String table = tablePrefix + "INDEX1";
+        String bulkTable = tablePrefix + "INDEX2";
+        accCon.tableOperations().create(table);
+        accCon.tableOperations().create(bulkTable);
+
+        AccumuloIndexSet expected = new AccumuloIndexSet(INDEX_SPARQL, conn, accCon, table);
+
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        BulkIndexSetBuilder builder = new BulkIndexSetBuilder(repo, accCon, fs,
+                new Path(tempFolder.getRoot().getAbsolutePath(), "pcj"));
+        builder.setNumThreads(2);
+        builder.setNumPartitions(3);
+        AccumuloIndexSet built = builder.build(INDEX_SPARQL, bulkTable);
+
+        Assert.assertEquals(50.0, expected.cardinality());
+        Assert.assertEquals(50.0, built.cardinality());
+        Assert.assertEquals(50.0, new AccumuloIndexSet(INDEX_SPARQL, accCon, bulkTable).cardinality());
+        Assert.assertEquals(getRows(table), getRows(bulkTable));
+
+        Map<String, Long> stats = new HashMap<String, Long>();
+        Scanner scanner = accCon.createScanner(bulkTable, new Authorizations());
+        scanner.setRange(Range.exact(new Text(BulkIndexSetBuilder.STATS_ROW),
+                new Text(BulkIndexSetBuilder.CARDINALITY_CF)));
+        for (Entry<Key, Value> e : scanner) {
+            String order = e.getKey().getColumnQualifier().toString();
+            stats.put(order.substring(0, order.indexOf(';')), Long.parseLong(e.getValue().toString()));
+        }
+        //estimates
+        Assert.assertEquals(4, stats.size());
+        Assert.assertEquals(20, stats.get("e"), 1);
+        Assert.assertEquals(3, stats.get("c"), 1);
+        Assert.assertEquals(20, stats.get("l"), 1);
+        Assert.assertEquals(4, stats.get("o"), 1);
+    }
+
+    @Test
+    public void testBuildSpillsRuns() throws Exception {
+        String table = tablePrefix + "INDEX1";
+        String bulkTable = tablePrefix + "INDEX2";
+        accCon.tableOperations().create(table);
+        accCon.tableOperations().create(bulkTable);
+        new AccumuloIndexSet(INDEX_SPARQL, conn, accCon, table);
+
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        BulkIndexSetBuilder builder = new BulkIndexSetBuilder(repo, accCon, fs,
+                new Path(tempFolder.getRoot().getAbsolutePath(), "pcj"));
+        builder.setNumPartitions(2);
+        //every value is written out as a run of its own
+        builder.setMaxBufferBytes(1);
+        AccumuloIndexSet built = builder.build(INDEX_SPARQL, bulkTable);
+
+        Assert.assertEquals(50.0, built.cardinality());
+        Assert.assertEquals(getRows(table), getRows(bulkTable));
+    }
+
+    @Test
+    public void testBuildSortsRowsByBytes() throws Exception {
+        //a character above the surrogates sorts after a supplementary character as UTF-16, before it as UTF-8
+        URI talksTo = new URIImpl("uri:talksTo");
+        URI fi = new URIImpl("uri:entityFi");
+        conn.add(fi, RDF.TYPE, new URIImpl("uri:class0"));
+        conn.add(fi, RDFS.LABEL, new LiteralImpl("\uFB01"));
+        conn.add(fi, talksTo, new URIImpl("uri:obj0"));
+        URI smile = new URIImpl("uri:entitySmile");
+        conn.add(smile, RDF.TYPE, new URIImpl("uri:class0"));
+        conn.add(smile, RDFS.LABEL, new LiteralImpl("\uD83D\uDE00"));
+        conn.add(smile, talksTo, new URIImpl("uri:obj0"));
+
+        String table = tablePrefix + "INDEX1";
+        String bulkTable = tablePrefix + "INDEX2";
+        accCon.tableOperations().create(table);
+        accCon.tableOperations().create(bulkTable);
+        new AccumuloIndexSet(INDEX_SPARQL, conn, accCon, table);
+
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        BulkIndexSetBuilder builder = new BulkIndexSetBuilder(repo, accCon, fs,
+                new Path(tempFolder.getRoot().getAbsolutePath(), "pcj"));
+        //one partition, so both rows go to the same file
+        builder.setNumPartitions(1);
+        AccumuloIndexSet built = builder.build(INDEX_SPARQL, bulkTable);
+
+        Assert.assertEquals(52.0, built.cardinality());
+        Assert.assertEquals(getRows(table), getRows(bulkTable));
+    }
+
+    private Set<String> getRows(String table) throws Exception {
+        Set<String> rows = new HashSet<String>();
+        Scanner scanner = accCon.createScanner(table, new Authorizations());
+        for (Entry<Key, Value> e : scanner) {
+            if (!e.getKey().getRow().toString().startsWith("~")) {
+                rows.add(e.getKey().getRow() + "|" + e.getKey().getColumnFamily());
+            }
+        }
+        return rows;
+    }
+}
@@ -31,6 +31,26 @@ class IntermediateProspect implements WritableComparable<IntermediateProspect> {
         return 0
     }
 
+    boolean equals(o) {
+        if (this.is(o)) return true
+        if (getClass() != o.class) return false
+
+        return compareTo((IntermediateProspect) o) == 0
+    }
+
+    /**
+     * Hashes the enum by name, the partitioner needs the same hash in every JVM.
+     */
+    int hashCode() {
+        int result
+        result = (index != null ? index.hashCode() : 0)
+        result = 31 * result + (data != null ? data.hashCode() : 0)
+        result = 31 * result + (dataType != null ? dataType.hashCode() : 0)
+        result = 31 * result + (tripleValueType != null ? tripleValueType.name().hashCode() : 0)
+        result = 31 * result + (visibility != null ? visibility.hashCode() : 0)
+        return result
+    }
+
     @Override
     void write(DataOutput dataOutput) {
         dataOutput.writeUTF(index);
@@ -2,5 +2,5 @@ package mvm.rya.prospector.domain;
 
 public enum TripleValueType {
 
-    subject, predicate, object, entity, subjectpredicate, predicateobject, subjectobject
+    subject, predicate, object, entity, subjectpredicate, predicateobject, subjectobject, objectsketch
 }
\ No newline at end of file
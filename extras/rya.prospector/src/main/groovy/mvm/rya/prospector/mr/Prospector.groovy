@@ -14,6 +14,7 @@ import org.apache.hadoop.mapreduce.Job
 import org.apache.hadoop.io.LongWritable
 import org.apache.commons.lang.time.DateUtils
 
+import mvm.rya.api.persist.utils.ProspectSketch
 import mvm.rya.prospector.domain.IntermediateProspect
 
 import com.google.common.collect.Lists
@@ -69,11 +70,19 @@ class Prospector extends Configured implements Tool {
         }
 
         job.setMapOutputKeyClass(IntermediateProspect.class);
-        job.setMapOutputValueClass(LongWritable.class);
-
-        job.setMapperClass(ProspectorMapper.class);
-        job.setCombinerClass(ProspectorCombiner.class);
-        job.setReducerClass(ProspectorReducer.class);
+        if (conf.getBoolean(APPROXIMATE, false)) {
+            job.setMapOutputValueClass(ProspectSketch.class);
+
+            job.setMapperClass(SketchProspectorMapper.class);
+            job.setCombinerClass(SketchProspectorCombiner.class);
+            job.setReducerClass(SketchProspectorReducer.class);
+        } else {
+            job.setMapOutputValueClass(LongWritable.class);
+
+            job.setMapperClass(ProspectorMapper.class);
+            job.setCombinerClass(ProspectorCombiner.class);
+            job.setReducerClass(ProspectorReducer.class);
+        }
         job.waitForCompletion(true);
 
         int success = job.isSuccessful() ? 0 : 1;
@@ -10,6 +10,7 @@ import mvm.rya.prospector.plans.IndexWorkPlanManager
 import mvm.rya.prospector.plans.impl.ServicesBackedIndexWorkPlanManager
 
 import org.apache.commons.lang.time.DateUtils
+import org.apache.hadoop.conf.Configurable
 import org.apache.hadoop.mapreduce.Mapper
 
 /**
@@ -30,6 +31,11 @@ class ProspectorMapper extends Mapper {
         long now = context.getConfiguration().getLong("DATE", System.currentTimeMillis());
 		ryaContext = RyaTripleContext.getInstance(new AccumuloRdfConfiguration(context.getConfiguration()));
         truncatedDate = DateUtils.truncate(new Date(now), Calendar.MINUTE);
+        plans.each { plan ->
+            if (plan instanceof Configurable) {
+                plan.setConf(context.getConfiguration())
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,25 @@
+package mvm.rya.prospector.mr
+
+import mvm.rya.prospector.plans.impl.SketchPlan
+
+import org.apache.hadoop.mapreduce.Reducer
+
+/**
+ * Merges the sketches of the map tasks of a node.
+ */
+class SketchProspectorCombiner extends Reducer {
+
+    private SketchPlan plan
+
+    @Override
+    public void setup(Reducer.Context context) throws IOException, InterruptedException {
+        super.setup(context);
+
+        plan = new SketchPlan(context.getConfiguration())
+    }
+
+    @Override
+    protected void reduce(def prospect, Iterable values, Reducer.Context context) {
+        context.write(prospect, plan.merge(values))
+    }
+}
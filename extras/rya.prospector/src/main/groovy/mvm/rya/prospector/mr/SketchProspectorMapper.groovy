@@ -0,0 +1,54 @@
+package mvm.rya.prospector.mr
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration
+import mvm.rya.api.RdfCloudTripleStoreConstants
+import mvm.rya.api.domain.RyaStatement
+import mvm.rya.api.persist.utils.ProspectSketch
+import mvm.rya.api.resolver.RyaTripleContext
+import mvm.rya.api.resolver.triple.TripleRow
+import mvm.rya.prospector.domain.IntermediateProspect
+import mvm.rya.prospector.plans.impl.SketchPlan
+
+import org.apache.hadoop.mapreduce.Mapper
+
+/**
+ * Adds each triple to the sketches of the {@link SketchPlan}, and writes the sketches when the split is done.
+ */
+class SketchProspectorMapper extends Mapper {
+
+    private RyaTripleContext ryaContext;
+    private SketchPlan plan
+    private Map<IntermediateProspect, ProspectSketch> sketches = new HashMap<IntermediateProspect, ProspectSketch>()
+
+    @Override
+    public void setup(Mapper.Context context) throws IOException, InterruptedException {
+        super.setup(context);
+
+        ryaContext = RyaTripleContext.getInstance(new AccumuloRdfConfiguration(context.getConfiguration()));
+        plan = new SketchPlan(context.getConfiguration())
+    }
+
+    @Override
+    public void map(def row, def data, Mapper.Context context) {
+        RyaStatement ryaStatement = ryaContext.deserializeTriple(RdfCloudTripleStoreConstants.TABLE_LAYOUT.SPO,
+                new TripleRow(
+                        row.row.bytes,
+                        row.columnFamily.bytes,
+                        row.columnQualifier.bytes,
+                        row.timestamp,
+                        row.columnVisibility.bytes,
+                        data.get()
+                )
+        )
+        plan.map(ryaStatement, sketches)
+    }
+
+    @Override
+    public void cleanup(Mapper.Context context) throws IOException, InterruptedException {
+        sketches.each { prospect, sketch ->
+            context.write(prospect, sketch)
+        }
+        sketches.clear()
+        super.cleanup(context)
+    }
+}
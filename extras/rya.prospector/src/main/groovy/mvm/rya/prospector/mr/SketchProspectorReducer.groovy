@@ -0,0 +1,29 @@
+package mvm.rya.prospector.mr
+
+import mvm.rya.prospector.plans.impl.SketchPlan
+
+import org.apache.commons.lang.time.DateUtils
+import org.apache.hadoop.mapreduce.Reducer
+
+/**
+ * Merges the sketches of all map tasks and writes them to the prospects table.
+ */
+class SketchProspectorReducer extends Reducer {
+
+    private Date truncatedDate;
+    private SketchPlan plan
+
+    @Override
+    public void setup(Reducer.Context context) throws IOException, InterruptedException {
+        super.setup(context);
+
+        long now = context.getConfiguration().getLong("DATE", System.currentTimeMillis());
+        truncatedDate = DateUtils.truncate(new Date(now), Calendar.MINUTE);
+        plan = new SketchPlan(context.getConfiguration())
+    }
+
+    @Override
+    protected void reduce(def prospect, Iterable values, Reducer.Context context) {
+        plan.reduce(prospect, values, truncatedDate, context)
+    }
+}
@@ -1,6 +1,7 @@
 package mvm.rya.prospector.plans.impl
 
 import mvm.rya.api.domain.RyaStatement
+import mvm.rya.api.persist.utils.ObjectStatsKeys
 import mvm.rya.prospector.domain.IndexEntry
 import mvm.rya.prospector.domain.IntermediateProspect
 import mvm.rya.prospector.domain.TripleValueType
@@ -13,6 +14,8 @@ import org.apache.accumulo.core.data.Range
 import org.apache.accumulo.core.data.Value
 import org.apache.accumulo.core.security.Authorizations
 import org.apache.accumulo.core.security.ColumnVisibility
+import org.apache.hadoop.conf.Configurable
+import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.io.LongWritable
 import org.apache.hadoop.io.Text
 import org.apache.hadoop.mapreduce.Reducer
@@ -20,26 +23,44 @@ import org.openrdf.model.util.URIUtil
 import org.openrdf.model.vocabulary.XMLSchema;
 
 import static mvm.rya.prospector.utils.ProspectorConstants.COUNT;
+import static mvm.rya.prospector.utils.ProspectorConstants.DEFAULT_OBJECT_EXACT_THRESHOLD;
+import static mvm.rya.prospector.utils.ProspectorConstants.OBJECT_EXACT_THRESHOLD;
 import mvm.rya.api.RdfCloudTripleStoreConstants
 
 /**
  * Date: 12/3/12
  * Time: 12:28 PM
  */
-class CountPlan implements IndexWorkPlan {
+class CountPlan implements IndexWorkPlan, Configurable {
+
+    private Configuration conf
+    private long objectExactThreshold = DEFAULT_OBJECT_EXACT_THRESHOLD
+
+    @Override
+    void setConf(Configuration conf) {
+        this.conf = conf
+        objectExactThreshold = conf.getLong(OBJECT_EXACT_THRESHOLD, DEFAULT_OBJECT_EXACT_THRESHOLD)
+    }
+
+    @Override
+    Configuration getConf() {
+        return conf
+    }
 
     @Override
     Collection<Map.Entry<IntermediateProspect, LongWritable>> map(RyaStatement ryaStatement) {
         def subject = ryaStatement.getSubject()
         def predicate = ryaStatement.getPredicate()
 		def subjpred = ryaStatement.getSubject().data + DELIM + ryaStatement.getPredicate().data
-		def predobj = ryaStatement.getPredicate().data + DELIM + ryaStatement.getObject().data
-		def subjobj = ryaStatement.getSubject().data + DELIM + ryaStatement.getObject().data
+		def predobj = ryaStatement.getPredicate().data + DELIM + ObjectStatsKeys.objectKey(ryaStatement.getObject().data)
+		def subjobj = ryaStatement.getSubject().data + DELIM + ObjectStatsKeys.objectKey(ryaStatement.getObject().data)
         def object = ryaStatement.getObject()
         def localIndex = URIUtil.getLocalNameIndex(subject.data)
         def namespace = subject.data.substring(0, localIndex - 1)
         def visibility = new String(ryaStatement.columnVisibility)
-        return [
+        def objectKey = ObjectStatsKeys.objectKey(object.data)
+        def objectDataType = object.dataType.stringValue()
+        def entries = [
                 new CustomEntry<IntermediateProspect, LongWritable>(
                         new IntermediateProspect(index: COUNT,
                                 data: subject.data,
@@ -56,8 +77,15 @@ class CountPlan implements IndexWorkPlan {
                         ), ONE),
                 new CustomEntry<IntermediateProspect, LongWritable>(
                         new IntermediateProspect(index: COUNT,
-                                data: object.data,
-                                dataType: object.dataType.stringValue(),
+                                data: objectKey,
+                                dataType: objectDataType,
+                                tripleValueType: TripleValueType.object,
+                                visibility: visibility
+                        ), ONE),
+                new CustomEntry<IntermediateProspect, LongWritable>(
+                        new IntermediateProspect(index: COUNT,
+                                data: objectKey,
+                                dataType: ObjectStatsKeys.ANY_DATATYPE,
                                 tripleValueType: TripleValueType.object,
                                 visibility: visibility
                         ), ONE),
@@ -90,6 +118,22 @@ class CountPlan implements IndexWorkPlan {
                                 visibility: visibility
                         ), ONE),
         ]
+        if (objectExactThreshold <= 0) {
+            return entries
+        }
+        // the less frequent objects are only counted in the sketch, see reduce
+        [objectDataType, ObjectStatsKeys.ANY_DATATYPE].each { dataType ->
+            ObjectStatsKeys.sketchCells(dataType, objectKey).each { cell ->
+                entries.add(new CustomEntry<IntermediateProspect, LongWritable>(
+                        new IntermediateProspect(index: COUNT,
+                                data: cell,
+                                dataType: ObjectStatsKeys.ANY_DATATYPE,
+                                tripleValueType: TripleValueType.objectsketch,
+                                visibility: visibility
+                        ), ONE))
+            }
+        }
+        return entries
     }
 
     @Override
@@ -113,6 +157,11 @@ class CountPlan implements IndexWorkPlan {
         }
 
         def indexType = prospect.tripleValueType.name()
+        if (prospect.tripleValueType == TripleValueType.object &&
+                sum < context.configuration.getLong(OBJECT_EXACT_THRESHOLD, DEFAULT_OBJECT_EXACT_THRESHOLD)) {
+            // counted in the object sketch
+            return
+        }
 
 		// not sure if this is the best idea..
         if ((sum >= 0) ||
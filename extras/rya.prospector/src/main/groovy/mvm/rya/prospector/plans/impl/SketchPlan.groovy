@@ -0,0 +1,135 @@
+package mvm.rya.prospector.plans.impl
+
+import mvm.rya.api.domain.RyaStatement
+import mvm.rya.api.persist.utils.ObjectStatsKeys
+import mvm.rya.api.persist.utils.ProspectSketch
+import mvm.rya.prospector.domain.IntermediateProspect
+import mvm.rya.prospector.domain.TripleValueType
+import mvm.rya.prospector.utils.ProspectorUtils
+
+import org.apache.accumulo.core.data.Mutation
+import org.apache.accumulo.core.data.Value
+import org.apache.accumulo.core.security.ColumnVisibility
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.io.DataOutputBuffer
+import org.apache.hadoop.mapreduce.Reducer
+import org.openrdf.model.util.URIUtil
+import org.openrdf.model.vocabulary.XMLSchema
+
+import static mvm.rya.prospector.plans.IndexWorkPlan.DELIM
+import static mvm.rya.prospector.plans.IndexWorkPlan.URITYPE
+import static mvm.rya.prospector.utils.ProspectorConstants.*
+
+/**
+ * The prospector's approximate mode. Instead of a count per value and composite, each map task keeps a
+ * {@link ProspectSketch} per triple value type and visibility, and the distinct subjects and objects of each
+ * predicate, and emits them when it is done. The combiner and reducer merge them, so the shuffle and the prospects
+ * table hold a few sketches rather than several records per triple.
+ * <p>
+ * The heavy hitters that were counted exactly are also written as count rows, in the layout of the {@link CountPlan},
+ * so the readers of exact counts keep working for the most frequent values.
+ */
+class SketchPlan {
+
+    static final List<TripleValueType> COUNTED = [TripleValueType.subject, TripleValueType.predicate,
+            TripleValueType.object, TripleValueType.subjectpredicate, TripleValueType.subjectobject,
+            TripleValueType.predicateobject, TripleValueType.entity]
+
+    private final int depth
+    private final int width
+    private final int heavyHitters
+    private final int precision
+
+    SketchPlan(Configuration conf) {
+        depth = conf.getInt(SKETCH_DEPTH, DEFAULT_SKETCH_DEPTH)
+        width = conf.getInt(SKETCH_WIDTH, DEFAULT_SKETCH_WIDTH)
+        heavyHitters = conf.getInt(SKETCH_HEAVY_HITTERS, DEFAULT_SKETCH_HEAVY_HITTERS)
+        precision = conf.getInt(SKETCH_PRECISION, DEFAULT_SKETCH_PRECISION)
+    }
+
+    /**
+     * Adds the statement to the sketches of its visibility.
+     */
+    void map(RyaStatement ryaStatement, Map<IntermediateProspect, ProspectSketch> sketches) {
+        def subject = ryaStatement.subject.data
+        def predicate = ryaStatement.predicate.data
+        def objectKey = ObjectStatsKeys.objectKey(ryaStatement.object.data)
+        def visibility = new String(ryaStatement.columnVisibility)
+        def keys = [
+                (TripleValueType.subject): subject,
+                (TripleValueType.predicate): predicate,
+                (TripleValueType.object): ProspectSketch.objectKey(ryaStatement.object.dataType.stringValue(), ryaStatement.object.data),
+                (TripleValueType.subjectpredicate): subject + DELIM + predicate,
+                (TripleValueType.subjectobject): subject + DELIM + objectKey,
+                (TripleValueType.predicateobject): predicate + DELIM + objectKey,
+                (TripleValueType.entity): subject.substring(0, URIUtil.getLocalNameIndex(subject) - 1),
+        ]
+        keys.each { type, key ->
+            def prospect = new IntermediateProspect(index: ProspectSketch.SKETCH_TYPE,
+                    data: type.name(),
+                    dataType: "",
+                    tripleValueType: type,
+                    visibility: visibility)
+            def sketch = sketches.get(prospect)
+            if (sketch == null) {
+                sketch = ProspectSketch.counts(depth, width, heavyHitters)
+                sketches.put(prospect, sketch)
+            }
+            sketch.add(key)
+        }
+
+        def prospect = new IntermediateProspect(index: ProspectSketch.DISTINCT_TYPE,
+                data: predicate,
+                dataType: "",
+                tripleValueType: TripleValueType.predicate,
+                visibility: visibility)
+        def sketch = sketches.get(prospect)
+        if (sketch == null) {
+            sketch = ProspectSketch.distinct(precision)
+            sketches.put(prospect, sketch)
+        }
+        sketch.addDistinct(subject, objectKey)
+    }
+
+    /**
+     * @return a new sketch with all the sketches merged into it, which the MR framework may reuse
+     */
+    ProspectSketch merge(Iterable<ProspectSketch> sketches) {
+        def merged = new ProspectSketch()
+        sketches.each { sketch ->
+            merged.merge(sketch)
+        }
+        return merged
+    }
+
+    void reduce(IntermediateProspect prospect, Iterable<ProspectSketch> sketches, Date timestamp, Reducer.Context context) {
+        def sketch = merge(sketches)
+        def reverseTime = ProspectorUtils.getReverseIndexDateTime(timestamp)
+        def visibility = new ColumnVisibility(prospect.visibility)
+
+        def buffer = new DataOutputBuffer()
+        sketch.write(buffer)
+        def bytes = Arrays.copyOf(buffer.data, buffer.length)
+        Mutation m = new Mutation(prospect.index + DELIM + prospect.data + DELIM + reverseTime)
+        m.put(ProspectSketch.SKETCH_CF, "", visibility, timestamp.getTime(), new Value(bytes))
+        context.write(null, m)
+
+        if (prospect.index != ProspectSketch.SKETCH_TYPE) {
+            return
+        }
+        sketch.top.exactCounts.each { key, count ->
+            def data = key
+            def dataType = XMLSchema.STRING.stringValue()
+            if (prospect.tripleValueType == TripleValueType.object) {
+                def delim = key.indexOf(DELIM)
+                dataType = key.substring(0, delim)
+                data = key.substring(delim + 1)
+            } else if (prospect.tripleValueType in [TripleValueType.subject, TripleValueType.predicate, TripleValueType.entity]) {
+                dataType = URITYPE
+            }
+            Mutation exact = new Mutation(prospect.tripleValueType.name() + DELIM + data + DELIM + reverseTime)
+            exact.put(COUNT, dataType, visibility, timestamp.getTime(), new Value("${count}".getBytes()))
+            context.write(null, exact)
+        }
+    }
+}
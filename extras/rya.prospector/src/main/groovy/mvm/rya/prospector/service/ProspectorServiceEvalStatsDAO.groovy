@@ -2,6 +2,7 @@ package mvm.rya.prospector.service
 
 import mvm.rya.api.RdfCloudTripleStoreConfiguration
 import mvm.rya.api.persist.RdfEvalStatsDAO
+import mvm.rya.api.persist.utils.ObjectStatsKeys
 import mvm.rya.prospector.domain.TripleValueType
 import mvm.rya.prospector.utils.ProspectorConstants
 import org.apache.hadoop.conf.Configuration
@@ -75,6 +76,14 @@ class ProspectorServiceEvalStatsDAO implements RdfEvalStatsDAO<RdfCloudTripleSto
 		while (valueIt.hasNext()){
 			indexedValues.add(valueIt.next().stringValue());
 		}
+        if (card == CARDINALITY_OF.OBJECT || card == CARDINALITY_OF.SUBJECTOBJECT || card == CARDINALITY_OF.PREDICATEOBJECT) {
+            // long objects are counted under their hash
+            int last = indexedValues.size() - 1
+            indexedValues.set(last, ObjectStatsKeys.objectKey(indexedValues.get(last)))
+        }
+        if (card == CARDINALITY_OF.OBJECT) {
+            return getObjectCardinality(indexedValues.head(), ObjectStatsKeys.dataType(val.head()), auths)
+        }
 
         def indexEntries = prospectorService.query(null, ProspectorConstants.COUNT, triplePart, indexedValues, null /** what is the datatype here? */,
                 auths)
@@ -82,6 +91,37 @@ class ProspectorServiceEvalStatsDAO implements RdfEvalStatsDAO<RdfCloudTripleSto
         return indexEntries.size() > 0 ? indexEntries.head().count : -1
     }
 
+    /**
+     * Reads the exact count of the object from the latest prospect, or estimates it from the object sketch if the
+     * object was not frequent enough to get one.
+     */
+    private double getObjectCardinality(String objectKey, String dataType, String[] auths) {
+        // without the latest prospect time, each count is read from the latest prospect that has it
+        def prospects = prospectorService.getProspects(auths)
+        def latest = prospects.hasNext() ? [prospects.next()] : null
+
+        def indexEntries = prospectorService.query(latest, ProspectorConstants.COUNT, TripleValueType.object.name(),
+                [objectKey], dataType, auths)
+        if (indexEntries.size() > 0) {
+            return indexEntries.head().count
+        }
+
+        long estimate = Long.MAX_VALUE
+        for (String cell : ObjectStatsKeys.sketchCells(dataType, objectKey)) {
+            def cellEntries = prospectorService.query(latest, ProspectorConstants.COUNT,
+                    TripleValueType.objectsketch.name(), [cell], ObjectStatsKeys.ANY_DATATYPE, auths)
+            long count = 0
+            cellEntries.each { entry ->
+                // one entry per visibility
+                if (entry.timestamp == cellEntries.head().timestamp) {
+                    count += entry.count
+                }
+            }
+            estimate = Math.min(estimate, count)
+        }
+        return estimate > 0 ? estimate : -1
+    }
+
 	@Override
 	double getCardinality(RdfCloudTripleStoreConfiguration conf, CARDINALITY_OF card, List<Value> val, Resource context) {
 		return getCardinality(conf, card, val) //TODO: Not sure about the context yet
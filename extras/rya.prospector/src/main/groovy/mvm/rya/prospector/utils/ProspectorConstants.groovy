@@ -19,4 +19,19 @@ class ProspectorConstants {
     public static final String INSTANCE = "instance"
     public static final String ZOOKEEPERS = "zookeepers"
     public static final String MOCK = "mock"
+
+    // objects counted fewer times only get a count in the object sketch, 0 counts every object exactly
+    public static final String OBJECT_EXACT_THRESHOLD = "prospector.object.exact.threshold"
+    public static final long DEFAULT_OBJECT_EXACT_THRESHOLD = 0
+
+    // approximate mode, sketches instead of a count per value, see SketchPlan
+    public static final String APPROXIMATE = "prospector.approximate"
+    public static final String SKETCH_DEPTH = "prospector.sketch.depth"
+    public static final int DEFAULT_SKETCH_DEPTH = 4
+    public static final String SKETCH_WIDTH = "prospector.sketch.width"
+    public static final int DEFAULT_SKETCH_WIDTH = 1 << 14
+    public static final String SKETCH_HEAVY_HITTERS = "prospector.sketch.heavyhitters"
+    public static final int DEFAULT_SKETCH_HEAVY_HITTERS = 1000
+    public static final String SKETCH_PRECISION = "prospector.sketch.precision"
+    public static final int DEFAULT_SKETCH_PRECISION = 11
 }
@@ -23,11 +23,11 @@ package mvm.rya.joinselect;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import mvm.rya.accumulo.AccumuloRdfUtils;
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
@@ -58,6 +58,8 @@ import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.evaluation.impl.ExternalSet;
 import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -75,7 +77,8 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
   private boolean denormalized = false;
   private int FullTableCardinality = 0;
   private static final String DELIM = "\u0000";
-  private Map<String,Long> joinMap = new HashMap<String,Long>();;
+  // join cardinalities, bounded and expired like the eval stats DAO's cache
+  private Cache<String,Long> joinMap;
   private RdfEvalStatsDAO<RdfCloudTripleStoreConfiguration> resd;
 
   @Override
@@ -92,6 +95,8 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
       TableOperations tos = connector.tableOperations();
       AccumuloRdfUtils.createTableIfNotExist(tos, tableLayoutStrategy.getSelectivity());
       AccumuloRdfUtils.createTableIfNotExist(tos, tableLayoutStrategy.getProspects());
+      joinMap = CacheBuilder.newBuilder().maximumSize(conf.getStatsCacheSize())
+          .expireAfterWrite(conf.getStatsCacheExpiry(), TimeUnit.MILLISECONDS).build();
       initialized = true;
     } catch (Exception e) {
       throw new RdfDAOException(e);
@@ -128,6 +133,7 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
     if (!isInitialized()) {
       throw new IllegalStateException("Not initialized");
     }
+    joinMap.invalidateAll();
     initialized = false;
   }
 
@@ -205,12 +211,14 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
         return 0;
       }
 
-      if (joinMap.containsKey(cacheRow1)) {
-        card1 = joinMap.get(cacheRow1);
+      Long cached1 = joinMap.getIfPresent(cacheRow1);
+      Long cached2 = joinMap.getIfPresent(cacheRow2);
+      if (cached1 != null) {
+        card1 = cached1;
         contCard1 = true;
       }
-      if (joinMap.containsKey(cacheRow2)) {
-        card2 = joinMap.get(cacheRow2);
+      if (cached2 != null) {
+        card2 = cached2;
         contCard2 = true;
       }
 
@@ -277,14 +285,18 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
         return 0;
       }
 
-      if (joinMap.containsKey(cacheRow1) && joinMap.containsKey(cacheRow2)) {
-        card1 = joinMap.get(cacheRow1);
-        card2 = joinMap.get(cacheRow2);
+      Long cached1 = joinMap.getIfPresent(cacheRow1);
+      Long cached2 = joinMap.getIfPresent(cacheRow2);
+      Long cached3 = joinMap.getIfPresent(cacheRow3);
+      Long cached4 = joinMap.getIfPresent(cacheRow4);
+      if (cached1 != null && cached2 != null) {
+        card1 = cached1;
+        card2 = cached2;
         contCard1 = true;
       }
-      if (joinMap.containsKey(cacheRow3) && joinMap.containsKey(cacheRow4)) {
-        card3 = joinMap.get(cacheRow3);
-        card4 = joinMap.get(cacheRow4);
+      if (cached3 != null && cached4 != null) {
+        card3 = cached3;
+        card4 = cached4;
         contCard2 = true;
       }
 
@@ -571,8 +583,9 @@ public class AccumuloSelectivityEvalDAO implements SelectivityEvalDAO<RdfCloudTr
       Authorizations authorizations = getAuths(conf);
     
 
-    if (joinMap.containsKey("subjectpredicateobject" + DELIM + "FullTableCardinality")) {
-      FullTableCardinality = joinMap.get("subjectpredicateobject" + DELIM + "FullTableCardinality").intValue();
+    Long cached = joinMap.getIfPresent("subjectpredicateobject" + DELIM + "FullTableCardinality");
+    if (cached != null) {
+      FullTableCardinality = cached.intValue();
       return FullTableCardinality;
     }
 
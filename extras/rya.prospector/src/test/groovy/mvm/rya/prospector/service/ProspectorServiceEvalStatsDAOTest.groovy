@@ -2,12 +2,15 @@ package mvm.rya.prospector.service
 
 import com.google.common.collect.Iterators
 import mvm.rya.accumulo.AccumuloRdfConfiguration
+import mvm.rya.accumulo.AccumuloRdfEvalStatsDAO
 import mvm.rya.accumulo.AccumuloRyaDAO
 import mvm.rya.api.domain.RyaStatement
 import mvm.rya.api.domain.RyaType
 import mvm.rya.api.domain.RyaURI
 import mvm.rya.api.persist.RdfEvalStatsDAO
+import mvm.rya.prospector.domain.TripleValueType
 import mvm.rya.prospector.mr.Prospector
+import mvm.rya.prospector.utils.ProspectorConstants
 import org.apache.accumulo.core.client.Instance
 import org.apache.accumulo.core.client.mock.MockInstance
 import org.apache.accumulo.core.security.Authorizations
@@ -174,6 +177,138 @@ class ProspectorServiceEvalStatsDAOTest {
         connector.tableOperations().delete(outtable)
     }
 
+    @Test
+    public void testObjectCounts() throws Exception {
+
+        Instance mock = new MockInstance("accumulo");
+        def connector = mock.getConnector("user", "pass".bytes)
+        def outtable = "rya_prospects"
+        if (connector.tableOperations().exists(outtable))
+            connector.tableOperations().delete(outtable)
+        connector.tableOperations().create(outtable)
+
+        AccumuloRyaDAO ryaDAO = new AccumuloRyaDAO();
+        ryaDAO.setConnector(connector);
+        ryaDAO.init()
+
+        def longLiteral = "longliteral" * 20
+        (1..12).each { i ->
+            ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#obj" + i), new RyaURI("urn:gem#objpred"), new RyaType("frequent")))
+        }
+        ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#obj1"), new RyaURI("urn:gem#objpred"), new RyaType(longLiteral)))
+        ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#obj2"), new RyaURI("urn:gem#objpred"), new RyaType(XMLSchema.INTEGER, "42")))
+
+        def confFile = "stats_cluster_config.xml"
+        def confPath = new Path(getClass().getClassLoader().getResource(confFile).toString())
+        def args = (String[]) [confPath];
+        def prospectorConf = new Configuration()
+        // objects seen fewer than 10 times are only counted in the sketch
+        prospectorConf.setLong(ProspectorConstants.OBJECT_EXACT_THRESHOLD, 10)
+        ToolRunner.run(prospectorConf, new Prospector(), args);
+        ryaDAO.destroy()
+
+        def conf = new Configuration()
+        conf.addResource(confPath)
+        def rdfConf = new AccumuloRdfConfiguration(conf)
+        rdfConf.setAuths("U","FOUO")
+
+        def evalDao = new ProspectorServiceEvalStatsDAO(connector, rdfConf)
+        evalDao.init()
+        def accumuloEvalDao = new AccumuloRdfEvalStatsDAO()
+        accumuloEvalDao.setConnector(connector)
+        accumuloEvalDao.setConf(rdfConf)
+        accumuloEvalDao.init()
+
+        [evalDao, accumuloEvalDao].each { dao ->
+            assertEquals(12.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("frequent")]), 0.001)
+            assertEquals(1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl(longLiteral)]), 0.001)
+            assertEquals(1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("42", XMLSchema.INTEGER)]), 0.001)
+            assertEquals(-1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("42")]), 0.001)
+        }
+
+        // only the frequent object has an exact count, and no row holds the long literal
+        def objects = []
+        connector.createScanner(outtable, new Authorizations("U", "FOUO")).iterator().each {
+            def row = it.key.row.toString()
+            assert !row.contains(longLiteral)
+            if (row.startsWith("object\u0000")) {
+                objects.add(row.split("\u0000")[1])
+            }
+        }
+        assert objects.contains("frequent")
+        assert !objects.contains("42")
+
+        accumuloEvalDao.destroy()
+        connector.tableOperations().delete(outtable)
+    }
+
+    @Test
+    public void testApproximateCounts() throws Exception {
+
+        Instance mock = new MockInstance("accumulo");
+        def connector = mock.getConnector("user", "pass".bytes)
+        def outtable = "rya_prospects"
+        if (connector.tableOperations().exists(outtable))
+            connector.tableOperations().delete(outtable)
+        connector.tableOperations().create(outtable)
+
+        AccumuloRyaDAO ryaDAO = new AccumuloRyaDAO();
+        ryaDAO.setConnector(connector);
+        ryaDAO.init()
+
+        (1..12).each { i ->
+            ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#approx" + i), new RyaURI("urn:gem#approxpred"), new RyaType("common")))
+        }
+        ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#approx1"), new RyaURI("urn:gem#approxpred"), new RyaType("rare")))
+        ryaDAO.add(new RyaStatement(new RyaURI("urn:gem:etype#approx2"), new RyaURI("urn:gem#approxpred2"), new RyaType("rare")))
+
+        def confFile = "stats_cluster_config.xml"
+        def confPath = new Path(getClass().getClassLoader().getResource(confFile).toString())
+        def args = (String[]) [confPath];
+        def prospectorConf = new Configuration()
+        prospectorConf.setBoolean(ProspectorConstants.APPROXIMATE, true)
+        // few exact counts, the rest are estimated from the sketches
+        prospectorConf.setInt(ProspectorConstants.SKETCH_HEAVY_HITTERS, 2)
+        ToolRunner.run(prospectorConf, new Prospector(), args);
+        ryaDAO.destroy()
+
+        def conf = new Configuration()
+        conf.addResource(confPath)
+        def rdfConf = new AccumuloRdfConfiguration(conf)
+        rdfConf.setAuths("U","FOUO")
+
+        def dao = new AccumuloRdfEvalStatsDAO()
+        dao.setConnector(connector)
+        dao.setConf(rdfConf)
+        dao.init()
+
+        def pred = new URIImpl("urn:gem#approxpred")
+        def approx1 = new URIImpl("urn:gem:etype#approx1")
+        assertEquals(13.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.PREDICATE, [pred]), 0.001)
+        assertEquals(2.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.SUBJECT, [approx1]), 0.001)
+        assertEquals(12.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("common")]), 0.001)
+        assertEquals(2.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("rare")]), 0.001)
+        assertEquals(-1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, [new LiteralImpl("unseen")]), 0.001)
+        assertEquals(12.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.PREDICATEOBJECT, [pred, new LiteralImpl("common")]), 0.001)
+        assertEquals(1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.PREDICATEOBJECT, [pred, new LiteralImpl("rare")]), 0.001)
+        assertEquals(2.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTPREDICATE, [approx1, pred]), 0.001)
+        assertEquals(1.0, dao.getCardinality(rdfConf, RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTOBJECT, [approx1, new LiteralImpl("rare")]), 0.001)
+
+        // a sketch per type and a distinct row per predicate, and at most two exact counts per type
+        def counts = [:]
+        connector.createScanner(outtable, new Authorizations("U", "FOUO")).iterator().each {
+            def type = it.key.row.toString().split("\u0000")[0]
+            counts[type] = (counts[type] ?: 0) + 1
+        }
+        assertEquals(TripleValueType.values().length - 1, counts["sketch"])
+        TripleValueType.values().each { type ->
+            assert (counts[type.name()] ?: 0) <= 2
+        }
+
+        dao.destroy()
+        connector.tableOperations().delete(outtable)
+    }
+
     private void debugTable(def connector, String table) {
         connector.createScanner(table, new Authorizations((String[]) ["U", "FOUO"])).iterator().each {
             println it
@@ -229,7 +229,7 @@ public class StatementPatternStorage extends AccumuloStorage {
             //is it subclassof or subpropertyof
             if (RDF.TYPE.equals(predicate_value)) {
                 //try subclassof
-                Collection<URI> parents = inferenceEngine.findParents(inferenceEngine.getSubClassOfGraph(), (URI) object_value);
+                Collection<URI> parents = inferenceEngine.getSubClassOfParents((URI) object_value);
                 if (parents != null && parents.size() > 0) {
                     //subclassof relationships found
                     //don't add self, that will happen anyway later
@@ -246,7 +246,7 @@ public class StatementPatternStorage extends AccumuloStorage {
                 }
             } else if (predicate_value != null) {
                 //subpropertyof check
-                Set<URI> parents = inferenceEngine.findParents(inferenceEngine.getSubPropertyOfGraph(), (URI) predicate_value);
+                Set<URI> parents = inferenceEngine.getSubPropertyOfParents((URI) predicate_value);
                 for (URI parent : parents) {
                     Map.Entry<TABLE_LAYOUT, Range> temp =
                             createRange(subject_value, parent, object_value);
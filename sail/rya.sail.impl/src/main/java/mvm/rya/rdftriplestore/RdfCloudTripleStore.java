@@ -25,6 +25,7 @@ import mvm.rya.api.persist.RdfEvalStatsDAO;
 import mvm.rya.api.persist.RyaDAO;
 import mvm.rya.api.persist.RyaDAOException;
 import mvm.rya.api.persist.joinselect.SelectivityEvalDAO;
+import mvm.rya.rdftriplestore.evaluation.QueryExecutorPool;
 import mvm.rya.rdftriplestore.inference.InferenceEngine;
 import mvm.rya.rdftriplestore.namespace.NamespaceManager;
 import mvm.rya.rdftriplestore.provenance.ProvenanceCollector;
@@ -47,6 +48,7 @@ public class RdfCloudTripleStore extends SailBase {
     protected SelectivityEvalDAO selectEvalDAO;
     private NamespaceManager namespaceManager;
     protected ProvenanceCollector provenanceCollector;
+    protected QueryExecutorPool queryExecutorPool;
 
     private ValueFactory vf = new ValueFactoryImpl();
 
@@ -89,6 +91,10 @@ public class RdfCloudTripleStore extends SailBase {
         if (namespaceManager == null) {
             this.namespaceManager = new NamespaceManager(ryaDAO, this.conf);
         }
+
+        if (queryExecutorPool == null) {
+            this.queryExecutorPool = new QueryExecutorPool(this.conf);
+        }
     }
 
     @Override
@@ -103,6 +109,9 @@ public class RdfCloudTripleStore extends SailBase {
             if (rdfEvalStatsDAO != null) {
                 rdfEvalStatsDAO.destroy();
             }
+            if (queryExecutorPool != null) {
+                queryExecutorPool.shutdown();
+            }
             ryaDAO.destroy();
         } catch (Exception e) {
             throw new SailException(e);
@@ -167,6 +176,14 @@ public class RdfCloudTripleStore extends SailBase {
         this.namespaceManager = namespaceManager;
     }
 
+    public QueryExecutorPool getQueryExecutorPool() {
+        return queryExecutorPool;
+    }
+
+    public void setQueryExecutorPool(QueryExecutorPool queryExecutorPool) {
+        this.queryExecutorPool = queryExecutorPool;
+    }
+
     public ProvenanceCollector getProvenanceCollector() {
 		return provenanceCollector;
 	}
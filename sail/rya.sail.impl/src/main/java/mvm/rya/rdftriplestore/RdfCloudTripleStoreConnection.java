@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
 
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
 import mvm.rya.api.RdfCloudTripleStoreConstants;
@@ -38,16 +39,20 @@ import mvm.rya.api.domain.RyaURI;
 import mvm.rya.api.persist.RdfEvalStatsDAO;
 import mvm.rya.api.persist.RyaDAO;
 import mvm.rya.api.persist.RyaDAOException;
+import mvm.rya.api.persist.RyaGroupCommit;
 import mvm.rya.api.persist.joinselect.SelectivityEvalDAO;
+import mvm.rya.api.persist.query.QueryCancellation;
 import mvm.rya.api.persist.utils.RyaDAOHelper;
 import mvm.rya.api.resolver.RdfToRyaConversions;
 import mvm.rya.rdftriplestore.evaluation.FilterRangeVisitor;
 import mvm.rya.rdftriplestore.evaluation.ParallelEvaluationStrategyImpl;
+import mvm.rya.rdftriplestore.evaluation.QueryExecutorPool;
 import mvm.rya.rdftriplestore.evaluation.QueryJoinSelectOptimizer;
 import mvm.rya.rdftriplestore.evaluation.RdfCloudTripleStoreEvaluationStatistics;
 import mvm.rya.rdftriplestore.evaluation.RdfCloudTripleStoreSelectivityEvaluationStatistics;
 import mvm.rya.rdftriplestore.evaluation.SeparateFilterJoinsVisitor;
 import mvm.rya.rdftriplestore.inference.InferenceEngine;
+import mvm.rya.rdftriplestore.inference.InferenceEngineException;
 import mvm.rya.rdftriplestore.inference.InverseOfVisitor;
 import mvm.rya.rdftriplestore.inference.SameAsVisitor;
 import mvm.rya.rdftriplestore.inference.SubClassOfVisitor;
@@ -72,6 +77,7 @@ import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.Dataset;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.algebra.QueryRoot;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
@@ -165,6 +171,9 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
 
                 ryaDAO.add(statement);
             }
+            if (inferenceEngine != null) {
+                inferenceEngine.statementAdded(subject, predicate, object);
+            }
         } catch (RyaDAOException e) {
             throw new SailException(e);
         }
@@ -181,8 +190,13 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
                 graphs[i] = RdfToRyaConversions.convertResource(aresource[i]);
             }
             ryaDAO.dropGraph(conf, graphs);
+            if (inferenceEngine != null) {
+                inferenceEngine.statementsRemoved(null, null, null);
+            }
         } catch (RyaDAOException e) {
             throw new SailException(e);
+        } catch (InferenceEngineException e) {
+            throw new SailException(e);
         }
     }
 
@@ -199,7 +213,14 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
     @Override
     protected void commitInternal() throws SailException {
         verifyIsOpen();
-        //There is no transactional layer
+        //There is no transactional layer, but a dao that groups commits has to make everything added so far durable
+        if (ryaDAO instanceof RyaGroupCommit) {
+            try {
+                ((RyaGroupCommit) ryaDAO).flush();
+            } catch (RyaDAOException e) {
+                throw new SailException(e);
+            }
+        }
     }
 
     @Override
@@ -264,6 +285,11 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
             if (limitBinding != null) {
                 queryConf.setLimit(Long.parseLong(limitBinding.getValue().stringValue()));
             }
+
+            Binding timeoutBinding = bindings.getBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_TIMEOUT);
+            if (timeoutBinding != null) {
+                queryConf.setQueryTimeout(Long.parseLong(timeoutBinding.getValue().stringValue()));
+            }
         } else {
             bindings = new QueryBindingSet();
         }
@@ -272,6 +298,13 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
             tupleExpr = new QueryRoot(tupleExpr);
         }
 
+        //every query gets its own cancellation, closing the query cancels whatever is still running
+        Long timeout = queryConf.getQueryTimeout();
+        final QueryCancellation cancellation = timeout != null ? new QueryCancellation(timeout) : new QueryCancellation();
+        queryConf.setCancellation(cancellation);
+
+        QueryExecutorPool.QuerySlot admitted = null;
+        Future<?> scheduledDeadline = null;
         try {
             List<Class<QueryOptimizer>> optimizers = queryConf.getOptimizers();
             Class<QueryOptimizer> pcjOptimizer = queryConf.getPcjOptimizer();
@@ -292,8 +325,19 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
                 opt.optimize(tupleExpr, dataset, bindings);
             }
             
+            QueryExecutorPool executorPool = store.getQueryExecutorPool();
+            if (executorPool != null) {
+                admitted = executorPool.admit(queryConf);
+                scheduledDeadline = executorPool.scheduleDeadline(cancellation);
+            }
+            final Future<?> deadline = scheduledDeadline;
+            final QueryExecutorPool.QuerySlot querySlot = admitted;
+            if (querySlot != null) {
+                //batch scanners of this query may not use more threads than its share of the pool
+                queryConf.setNumThreads(querySlot.getParallelism());
+            }
             final ParallelEvaluationStrategyImpl strategy = new ParallelEvaluationStrategyImpl(
-                    new StoreTripleSource(queryConf), inferenceEngine, dataset, queryConf);
+                    new StoreTripleSource(queryConf), inferenceEngine, dataset, queryConf, querySlot);
             
                 (new BindingAssigner()).optimize(tupleExpr, dataset, bindings);
                 (new ConstantOptimizer(strategy)).optimize(tupleExpr, dataset,
@@ -374,6 +418,9 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
             }
             if (stats != null) {
 
+                if (stats instanceof RdfCloudTripleStoreEvaluationStatistics) {
+                    ((RdfCloudTripleStoreEvaluationStatistics) stats).prefetch(tupleExpr);
+                }
                 if (stats instanceof RdfCloudTripleStoreSelectivityEvaluationStatistics) {
 
                     (new QueryJoinSelectOptimizer((RdfCloudTripleStoreSelectivityEvaluationStatistics) stats,
@@ -396,28 +443,79 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
                 
                 @Override
                 public BindingSet next() throws QueryEvaluationException {
-                    return iter.next();
+                    strategy.checkCancelled();
+                    try {
+                        return iter.next();
+                    } catch (RuntimeException e) {
+                        throw cancelledOr(e);
+                    }
                 }
                 
                 @Override
                 public boolean hasNext() throws QueryEvaluationException {
-                    return iter.hasNext();
+                    strategy.checkCancelled();
+                    boolean hasNext;
+                    try {
+                        hasNext = iter.hasNext();
+                    } catch (QueryEvaluationException e) {
+                        throw cancelledOr(e);
+                    } catch (RuntimeException e) {
+                        throw cancelledOr(e);
+                    }
+                    //the iterators underneath may simply end when their scanners are closed
+                    strategy.checkCancelled();
+                    return hasNext;
+                }
+
+                /**
+                 * A failure caused by closing the scanners of a cancelled query is reported as the cancellation.
+                 */
+                private QueryEvaluationException cancelledOr(Exception e) {
+                    if (cancellation.isCancelled()) {
+                        return new QueryInterruptedException(cancellation.getReason(), e);
+                    }
+                    return e instanceof QueryEvaluationException ? (QueryEvaluationException) e : new QueryEvaluationException(e);
                 }
                 
                 @Override
                 public void close() throws QueryEvaluationException {
-                    iter.close();
-                    strategy.shutdown();
+                    try {
+                        cancelDeadline(deadline);
+                        cancellation.cancel();
+                        iter.close();
+                    } finally {
+                        strategy.shutdown();
+                        releaseSlot(querySlot);
+                    }
                 }
             };
             return iterWrap;
         } catch (QueryEvaluationException e) {
+            cancelDeadline(scheduledDeadline);
+            cancellation.cancel();
+            releaseSlot(admitted);
             throw new SailException(e);
         } catch (Exception e) {
+            cancelDeadline(scheduledDeadline);
+            cancellation.cancel();
+            releaseSlot(admitted);
             throw new SailException(e);
         }
     }
 
+    private void cancelDeadline(Future<?> deadline) {
+        //only a query admitted by the pool has a deadline
+        if (deadline != null) {
+            store.getQueryExecutorPool().cancelDeadline(deadline);
+        }
+    }
+
+    private void releaseSlot(QueryExecutorPool.QuerySlot querySlot) {
+        if (querySlot != null) {
+            querySlot.release();
+        }
+    }
+
     @Override
     protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal()
             throws SailException {
@@ -559,8 +657,13 @@ public class RdfCloudTripleStoreConnection extends SailConnectionBase {
 
                 ryaDAO.delete(statement, conf);
             }
+            if (inferenceEngine != null) {
+                inferenceEngine.statementsRemoved(subject, predicate, object);
+            }
         } catch (RyaDAOException e) {
             throw new SailException(e);
+        } catch (InferenceEngineException e) {
+            throw new SailException(e);
         }
     }
 
@@ -26,27 +26,46 @@ import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.impl.EmptyBindingSet;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Joins the left hand binding sets with a statement pattern, sending them to the store in batches. Up to
+ * {@link ParallelEvaluationStrategyImpl#getBindingSetLookahead()} batches are evaluated ahead on the strategy's
+ * executor while earlier ones are consumed. Each batch buffers a bounded number of results, so a slow consumer holds
+ * the workers back. The batch size starts at {@link ParallelEvaluationStrategyImpl#getBindingSetBatchSize()} and is
+ * halved or doubled from the latency and result count of the batches already done. When the query is cancelled the
+ * workers stop between results and the consumer fails with a {@link org.openrdf.query.QueryInterruptedException}.
  */
 public class MultipleBindingSetsIterator extends LookAheadIteration<BindingSet, QueryEvaluationException> {
 
+    private static final BindingSet END_OF_BATCH = new EmptyBindingSet();
+    private static final int MIN_BATCH_SIZE = 16;
+    private static final int RESULT_BUFFER_SIZE = 1000;
+    private static final long TARGET_BATCH_LATENCY = 250; //ms
+
     private final ParallelEvaluationStrategyImpl strategy;
     private final CloseableIteration leftIter;
     private StatementPattern stmtPtrn;
-    private CloseableIteration<BindingSet, QueryEvaluationException> iter;
-    //TODO: configurable
-    private int batchSize = 1000;
+    private final Executor executor;
+    private final int lookahead;
+    private final int maxBatchSize;
+    private int batchSize;
+    private final Queue<Batch> batches = new LinkedList<Batch>();
 
     public MultipleBindingSetsIterator(ParallelEvaluationStrategyImpl strategy, TupleExpr leftArg, StatementPattern stmtPattern, BindingSet bindings)
             throws QueryEvaluationException {
-        this.strategy = strategy;
-        leftIter = strategy.evaluate(leftArg, bindings);
-        this.stmtPtrn = stmtPattern;
-        initIter();
+        this(strategy, strategy.evaluate(leftArg, bindings), stmtPattern, bindings);
     }
 
     public MultipleBindingSetsIterator(ParallelEvaluationStrategyImpl strategy, CloseableIteration leftIter, StatementPattern stmtPattern, BindingSet bindings)
@@ -54,43 +73,80 @@ public class MultipleBindingSetsIterator extends LookAheadIteration<BindingSet,
         this.strategy = strategy;
         this.leftIter = leftIter;
         this.stmtPtrn = stmtPattern;
-        initIter();
+        this.executor = strategy.getExecutor();
+        this.lookahead = (executor != null) ? strategy.getBindingSetLookahead() : 1;
+        this.batchSize = strategy.getBindingSetBatchSize();
+        this.maxBatchSize = batchSize * 10;
+        fillBatches();
     }
 
-    protected void initIter() throws QueryEvaluationException {
+    /**
+     * Pulls left hand binding sets until {@link #lookahead} batches are queued. Batches after the first are handed to
+     * the executor; a batch that could not be handed off is run on this thread when its turn comes.
+     */
+    protected void fillBatches() throws QueryEvaluationException {
         try {
-            Collection<BindingSet> sets = new ArrayList<BindingSet>();
-            int i = 0;
-            while (leftIter.hasNext()) {
-                //default to 1K for the batch size
-                if (i >= batchSize) {
-                    break;
+            strategy.checkCancelled();
+            while (batches.size() < lookahead && leftIter.hasNext()) {
+                Collection<BindingSet> sets = new ArrayList<BindingSet>(batchSize);
+                while (sets.size() < batchSize && leftIter.hasNext()) {
+                    sets.add((BindingSet) leftIter.next());
+                }
+                Batch batch = new Batch(sets);
+                batches.add(batch);
+                if (batches.size() > 1) {
+                    submit(batch);
                 }
-                sets.add((BindingSet) leftIter.next());
-                i++;
             }
-            if (iter != null) iter.close();
-            iter = strategy.evaluate(stmtPtrn, sets);
+        } catch (QueryEvaluationException e) {
+            throw e;
         } catch (Exception e) {
             throw new QueryEvaluationException(e);
         }
     }
 
+    private void submit(Batch batch) {
+        if (executor instanceof QueryExecutorPool.QuerySlot) {
+            ((QueryExecutorPool.QuerySlot) executor).tryExecute(batch);
+        } else {
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException ignore) {
+                //the batch runs on this thread instead
+            }
+        }
+    }
+
     protected BindingSet getNextElement()
             throws QueryEvaluationException {
-        try {
-            while (true) {
-                if (iter.hasNext()) {
-                    return iter.next();
-                }
-
-                if (leftIter.hasNext()) {
-                    initIter();
-                } else
-                    return null;
+        while (true) {
+            strategy.checkCancelled();
+            Batch batch = batches.peek();
+            if (batch == null) {
+                return null;
             }
-        } catch (Exception e) {
-            throw new QueryEvaluationException(e);
+            BindingSet next = batch.take();
+            if (next != END_OF_BATCH) {
+                return next;
+            }
+            batches.poll();
+            if (batch.error != null) {
+                throw batch.error;
+            }
+            resize(batch);
+            fillBatches();
+        }
+    }
+
+    /**
+     * Halves the batch size when batches are slow or produce more results than can be buffered, and doubles it when
+     * they come back quickly.
+     */
+    protected void resize(Batch batch) {
+        if (batch.latency > TARGET_BATCH_LATENCY * 2 || batch.results > RESULT_BUFFER_SIZE * lookahead) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if (batch.latency < TARGET_BATCH_LATENCY / 2 && batch.sets.size() == batchSize) {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
         }
     }
 
@@ -98,10 +154,114 @@ public class MultipleBindingSetsIterator extends LookAheadIteration<BindingSet,
             throws QueryEvaluationException {
         try {
             super.handleClose();
+            for (Batch batch : batches) {
+                batch.cancel();
+            }
+            batches.clear();
             leftIter.close();
-            iter.close();
+        } catch (QueryEvaluationException e) {
+            throw e;
         } catch (Exception e) {
             throw new QueryEvaluationException(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * One batch of left hand binding sets. It is either run by a worker, which feeds the bounded result queue, or, if
+     * no worker has started it by the time it is needed, evaluated directly by the consumer.
+     */
+    private class Batch implements Runnable {
+        private final Collection<BindingSet> sets;
+        private final BlockingQueue<BindingSet> queue = new LinkedBlockingQueue<BindingSet>(RESULT_BUFFER_SIZE);
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        private volatile QueryEvaluationException error;
+        private volatile long latency;
+        private volatile int results;
+        private CloseableIteration<BindingSet, QueryEvaluationException> local;
+        private long localStart;
+
+        private Batch(Collection<BindingSet> sets) {
+            this.sets = sets;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int count = 0;
+            try {
+                CloseableIteration<BindingSet, QueryEvaluationException> iter = strategy.evaluate(stmtPtrn, sets);
+                try {
+                    while (!isStopped() && iter.hasNext()) {
+                        BindingSet next = iter.next();
+                        count++;
+                        //back pressure: wait while the consumer catches up
+                        while (!isStopped() && !queue.offer(next, 100, TimeUnit.MILLISECONDS)) {
+                        }
+                    }
+                } finally {
+                    iter.close();
+                }
+            } catch (QueryEvaluationException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                error = new QueryEvaluationException(e);
+            } catch (RuntimeException e) {
+                error = new QueryEvaluationException(e);
+            } finally {
+                latency = System.currentTimeMillis() - start;
+                results = count;
+                try {
+                    while (!isStopped() && !queue.offer(END_OF_BATCH, 100, TimeUnit.MILLISECONDS)) {
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }
+        }
+
+        private boolean isStopped() {
+            return cancelled || strategy.isCancelled();
+        }
+
+        private BindingSet take() throws QueryEvaluationException {
+            if (local == null && started.compareAndSet(false, true)) {
+                //nobody picked this batch up, evaluate it here so the query never waits on a busy pool
+                localStart = System.currentTimeMillis();
+                local = strategy.evaluate(stmtPtrn, sets);
+            }
+            if (local != null) {
+                strategy.checkCancelled();
+                if (local.hasNext()) {
+                    results++;
+                    return local.next();
+                }
+                local.close();
+                latency = System.currentTimeMillis() - localStart;
+                return END_OF_BATCH;
+            }
+            try {
+                BindingSet next;
+                //a cancelled worker stops offering, so do not wait on it for good
+                while ((next = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    strategy.checkCancelled();
+                }
+                return next;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryEvaluationException(e);
+            }
+        }
+
+        private void cancel() throws QueryEvaluationException {
+            cancelled = true;
+            started.set(true);
+            queue.clear();
+            if (local != null) {
+                local.close();
+            }
+        }
+    }
+}
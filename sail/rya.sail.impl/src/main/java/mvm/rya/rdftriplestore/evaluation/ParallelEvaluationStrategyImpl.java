@@ -34,11 +34,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
 import mvm.rya.api.RdfCloudTripleStoreUtils;
+import mvm.rya.api.persist.query.QueryCancellation;
 import mvm.rya.api.utils.NullableStatementImpl;
 import mvm.rya.rdftriplestore.RdfCloudTripleStoreConnection;
 import mvm.rya.rdftriplestore.inference.InferenceEngine;
@@ -54,6 +56,7 @@ import org.openrdf.model.Value;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.Dataset;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.algebra.Filter;
 import org.openrdf.query.algebra.Join;
 import org.openrdf.query.algebra.QueryRoot;
@@ -79,11 +82,26 @@ public class ParallelEvaluationStrategyImpl extends EvaluationStrategyImpl {
     private int numOfThreads = 10;
     private boolean performant = true;
     private boolean displayQueryPlan = false;
-    private ExecutorService executorService;
+    private boolean parallelJoin = false;
+    private int bindingSetBatchSize = 1000;
+    private int bindingSetLookahead = 1;
+    private Executor executor;
+    private ExecutorService ownedExecutorService;
     private InferenceEngine inferenceEngine;
+    private QueryCancellation cancellation;
 
+    /**
+     * Creates a strategy with its own thread pool, which is torn down by {@link #shutdown()}. Prefer
+     * {@link #ParallelEvaluationStrategyImpl(RdfCloudTripleStoreConnection.StoreTripleSource, InferenceEngine, Dataset, RdfCloudTripleStoreConfiguration, Executor)}
+     * with a shared executor when evaluating many queries.
+     */
     public ParallelEvaluationStrategyImpl(RdfCloudTripleStoreConnection.StoreTripleSource tripleSource, InferenceEngine inferenceEngine,
                                           Dataset dataset, RdfCloudTripleStoreConfiguration conf) {
+        this(tripleSource, inferenceEngine, dataset, conf, null);
+    }
+
+    public ParallelEvaluationStrategyImpl(RdfCloudTripleStoreConnection.StoreTripleSource tripleSource, InferenceEngine inferenceEngine,
+                                          Dataset dataset, RdfCloudTripleStoreConfiguration conf, Executor executor) {
         super(tripleSource, dataset);
         Integer nthreads = conf.getNumThreads();
         this.numOfThreads = (nthreads != null) ? nthreads : this.numOfThreads;
@@ -91,8 +109,20 @@ public class ParallelEvaluationStrategyImpl extends EvaluationStrategyImpl {
         this.performant = (val != null) ? val : this.performant;
         val = conf.isDisplayQueryPlan();
         this.displayQueryPlan = (val != null) ? val : this.displayQueryPlan;
-        this.executorService = Executors.newFixedThreadPool(this.numOfThreads);
+        val = conf.isParallelJoin();
+        this.parallelJoin = (val != null) ? val : this.parallelJoin;
+        Integer batchSize = conf.getBindingSetBatchSize();
+        this.bindingSetBatchSize = (batchSize != null) ? batchSize : this.bindingSetBatchSize;
+        Integer lookahead = conf.getBindingSetLookahead();
+        this.bindingSetLookahead = (lookahead != null) ? lookahead : this.bindingSetLookahead;
+        if (executor != null) {
+            this.executor = executor;
+        } else {
+            this.ownedExecutorService = Executors.newFixedThreadPool(this.numOfThreads);
+            this.executor = this.ownedExecutorService;
+        }
         this.inferenceEngine = inferenceEngine;
+        this.cancellation = conf.getCancellation();
     }
 
     @Override
@@ -127,17 +157,22 @@ public class ParallelEvaluationStrategyImpl extends EvaluationStrategyImpl {
                         return new FilterIterator(filter, new MultipleBindingSetsIterator(this, new Join(buffer, fcj_left), (StatementPattern) fcj_right, bindings), this);
                     }
                 }
-                //TODO: add a configuration flag for ParallelJoinIterator
-                return new JoinIterator(this, join, bindings);
+                return joinIterator(join, bindings);
             } else {
-                //TODO: add a configuration flag for ParallelJoinIterator
-                return new JoinIterator(this, join, bindings);
+                return joinIterator(join, bindings);
             }
         } else {
             return super.evaluate(join, bindings);
         }
     }
 
+    protected CloseableIteration<BindingSet, QueryEvaluationException> joinIterator(Join join, BindingSet bindings) throws QueryEvaluationException {
+        if (parallelJoin) {
+            return new ParallelJoinIterator(this, join, bindings, executor, numOfThreads);
+        }
+        return new JoinIterator(this, join, bindings);
+    }
+
     @Override
     public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(StatementPattern sp, BindingSet bindings) throws QueryEvaluationException {
         //TODO: Wonder if creating a Collection here hurts performance
@@ -274,7 +309,44 @@ public class ParallelEvaluationStrategyImpl extends EvaluationStrategyImpl {
             return var.getValue();
     }
 
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the cancellation of the query being evaluated, null if it cannot be cancelled
+     */
+    public QueryCancellation getCancellation() {
+        return cancellation;
+    }
+
+    public boolean isCancelled() {
+        return cancellation != null && cancellation.isCancelled();
+    }
+
+    /**
+     * @throws QueryInterruptedException if the query was cancelled or its deadline passed
+     */
+    public void checkCancelled() throws QueryInterruptedException {
+        if (isCancelled()) {
+            throw new QueryInterruptedException(cancellation.getReason());
+        }
+    }
+
+    public int getBindingSetBatchSize() {
+        return bindingSetBatchSize;
+    }
+
+    public int getBindingSetLookahead() {
+        return bindingSetLookahead;
+    }
+
+    /**
+     * Stops the thread pool if this strategy created its own. A shared executor is left running.
+     */
     public void shutdown() {
-        executorService.shutdownNow();
+        if (ownedExecutorService != null) {
+            ownedExecutorService.shutdownNow();
+        }
     }
 }
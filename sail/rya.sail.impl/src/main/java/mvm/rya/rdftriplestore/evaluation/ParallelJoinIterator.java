@@ -25,17 +25,25 @@ import info.aduna.iteration.LookAheadIteration;
 
 import java.util.NoSuchElementException;
 import java.util.Queue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import mvm.rya.api.persist.query.QueryCancellation;
 
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.algebra.Join;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
 import org.openrdf.query.impl.EmptyBindingSet;
 
 /**
+ * Evaluates the right hand side of a join once per left hand binding set, on the executor. When the query is cancelled,
+ * or the iterator closed, the workers stop between results and the consumer fails with a
+ * {@link QueryInterruptedException}.
  */
 public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEvaluationException> {
 
@@ -45,19 +53,33 @@ public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEv
     private final Join join;
     private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
 
-    private ExecutorService executorService;
+    private Executor executor;
     private Queue<ParallelIteratorWork> workQueue = new LinkedBlockingQueue<ParallelIteratorWork>();
     private ParallelIteratorWork currentWork;
     private int batch;
+    private final QueryCancellation cancellation;
+    private volatile boolean closed = false;
 
-    public ParallelJoinIterator(EvaluationStrategy strategy, Join join, BindingSet bindings, ExecutorService executorService, int batch)
+    public ParallelJoinIterator(EvaluationStrategy strategy, Join join, BindingSet bindings, Executor executor, int batch)
             throws QueryEvaluationException {
         this.strategy = strategy;
         this.join = join;
         leftIter = strategy.evaluate(join.getLeftArg(), bindings);
 
-        this.executorService = executorService;
+        this.executor = executor;
         this.batch = batch;
+        this.cancellation = (strategy instanceof ParallelEvaluationStrategyImpl)
+                ? ((ParallelEvaluationStrategyImpl) strategy).getCancellation() : null;
+    }
+
+    private boolean isStopped() {
+        return closed || (cancellation != null && cancellation.isCancelled());
+    }
+
+    private void checkCancelled() throws QueryInterruptedException {
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new QueryInterruptedException(cancellation.getReason());
+        }
     }
 
 
@@ -66,16 +88,22 @@ public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEv
 
         try {
             while (leftIter.hasNext() || !workQueue.isEmpty() || currentWork != null) {
+                checkCancelled();
                 if (!workQueue.isEmpty() && currentWork == null) {
                     currentWork = workQueue.poll();
                 }
 
                 if (currentWork != null) {
-                    BindingSet bindingSet = currentWork.queue.poll();
-                    if (EMPTY_BINDING_SET.equals(bindingSet)) {
-                        currentWork = null;
+                    //blocks until the work produces a result or finishes, waking up to see if the query was cancelled
+                    BindingSet bindingSet = currentWork.queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (bindingSet == null) {
                         continue;
-                    } else if (bindingSet == null) {
+                    }
+                    if (bindingSet == EMPTY_BINDING_SET) {
+                        if (currentWork.error != null) {
+                            throw currentWork.error;
+                        }
+                        currentWork = null;
                         continue;
                     }
                     return bindingSet;
@@ -86,21 +114,45 @@ public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEv
                         if (leftIter.hasNext()) {
                             ParallelIteratorWork work = new ParallelIteratorWork((BindingSet) leftIter.next(), join.getRightArg());
                             workQueue.add(work);
-                            executorService.execute(work);
+                            submit(work);
                         } else
                             break;
                     }
                 } catch (NoSuchElementException ignore) {
                 }
             }
+        } catch (QueryEvaluationException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
         } catch (Exception e) {
             throw new QueryEvaluationException(e);
         }
         return null;
     }
 
+    /**
+     * Hands the work to the executor without waiting for it. Work that cannot be handed off runs on this thread, which
+     * may itself be a worker of an outer join holding the permits that the work would wait for.
+     */
+    private void submit(ParallelIteratorWork work) {
+        if (executor instanceof QueryExecutorPool.QuerySlot) {
+            if (!((QueryExecutorPool.QuerySlot) executor).tryExecute(work)) {
+                work.run();
+            }
+        } else {
+            try {
+                executor.execute(work);
+            } catch (RejectedExecutionException e) {
+                work.run();
+            }
+        }
+    }
+
     @Override
     protected void handleClose() throws QueryEvaluationException {
+        closed = true;
         try {
             super.handleClose();
             leftIter.close();
@@ -115,6 +167,7 @@ public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEv
         private BindingSet leftBindingSet;
         private TupleExpr rightTupleExpr;
         public LinkedBlockingQueue<BindingSet> queue = new LinkedBlockingQueue<BindingSet>();
+        private volatile QueryEvaluationException error;
 
         private ParallelIteratorWork(BindingSet leftBindingSet, TupleExpr rightTupleExpr) {
             this.leftBindingSet = leftBindingSet;
@@ -125,13 +178,20 @@ public class ParallelJoinIterator extends LookAheadIteration<BindingSet, QueryEv
         public void run() {
             try {
                 CloseableIteration<BindingSet, QueryEvaluationException> iter = strategy.evaluate(rightTupleExpr, leftBindingSet);
-                while (iter.hasNext()) {
-                    queue.add(iter.next());
+                try {
+                    while (!isStopped() && iter.hasNext()) {
+                        queue.add(iter.next());
+                    }
+                } finally {
+                    iter.close();
                 }
-                queue.add(EMPTY_BINDING_SET);
-                iter.close();
             } catch (QueryEvaluationException e) {
-                throw new RuntimeException(e);
+                error = e;
+            } catch (RuntimeException e) {
+                error = new QueryEvaluationException(e);
+            } finally {
+                //always signal completion so the consumer does not wait forever
+                queue.add(EMPTY_BINDING_SET);
             }
         }
     }
@@ -0,0 +1,291 @@
+package mvm.rya.rdftriplestore.evaluation;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+import mvm.rya.api.persist.query.QueryCancellation;
+
+import org.apache.log4j.Logger;
+import org.openrdf.query.QueryEvaluationException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Store wide pool of query worker threads. Queries are admitted through {@link #admit(RdfCloudTripleStoreConfiguration)},
+ * which bounds the number of queries running at once, and each admitted query gets a {@link QuerySlot} that limits how
+ * many of its tasks may be in flight on the shared threads. Work that does not fit in the bounded wait queue is run on
+ * the submitting thread and counted as a rejection. A single shared timer cancels queries whose deadline passes, see
+ * {@link #scheduleDeadline(QueryCancellation)}.
+ */
+public class QueryExecutorPool {
+    private static Logger logger = Logger.getLogger(QueryExecutorPool.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor deadlines;
+    private final Semaphore querySlots;
+    private final int maxConcurrentQueries;
+    private final long admissionTimeout;
+
+    private final AtomicInteger activeQueries = new AtomicInteger();
+    private final AtomicLong rejectedQueries = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    public QueryExecutorPool(RdfCloudTripleStoreConfiguration conf) {
+        this(conf.getExecutorThreads(), conf.getExecutorQueueSize(), conf.getMaxConcurrentQueries(), conf.getAdmissionTimeout());
+    }
+
+    public QueryExecutorPool(int numThreads, int queueSize, int maxConcurrentQueries, long admissionTimeout) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be greater than 0");
+        Preconditions.checkArgument(queueSize > 0, "queueSize must be greater than 0");
+        Preconditions.checkArgument(maxConcurrentQueries > 0, "maxConcurrentQueries must be greater than 0");
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.admissionTimeout = admissionTimeout;
+        this.querySlots = new Semaphore(maxConcurrentQueries, true);
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new QueryThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.deadlines = new ScheduledThreadPoolExecutor(1, new DeadlineThreadFactory());
+    }
+
+    /**
+     * Waits for a free query slot, up to the admission timeout.
+     *
+     * @param conf query configuration, used for the per query parallelism ({@link RdfCloudTripleStoreConfiguration#getNumThreads()})
+     * @return a slot that must be {@link QuerySlot#release() released} when the query is closed
+     * @throws QueryEvaluationException if no slot became available in time
+     */
+    public QuerySlot admit(RdfCloudTripleStoreConfiguration conf) throws QueryEvaluationException {
+        boolean acquired;
+        try {
+            acquired = querySlots.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        }
+        if (!acquired) {
+            rejectedQueries.incrementAndGet();
+            throw new QueryEvaluationException("Query rejected: " + maxConcurrentQueries
+                    + " queries already running and no slot freed within " + admissionTimeout + "ms");
+        }
+        activeQueries.incrementAndGet();
+        int parallelism = Math.min(conf.getNumThreads(), executor.getMaximumPoolSize());
+        return new QuerySlot(parallelism);
+    }
+
+    /**
+     * Cancels the query when its deadline passes, so its scanners are closed even if nobody is reading its results.
+     *
+     * @return pass it to {@link #cancelDeadline(Future)} when the query is closed, null if the query has no deadline
+     */
+    public Future<?> scheduleDeadline(final QueryCancellation cancellation) {
+        if (!cancellation.hasDeadline()) {
+            return null;
+        }
+        return deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                logger.info("Cancelling query after its deadline");
+                cancellation.timeout();
+            }
+        }, cancellation.getRemaining(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels a deadline scheduled by {@link #scheduleDeadline(QueryCancellation)} and drops it from the timer queue,
+     * which would otherwise hold every closed query until its deadline passed.
+     */
+    public void cancelDeadline(Future<?> deadline) {
+        if (deadline != null && deadline.cancel(false)) {
+            deadlines.purge();
+        }
+    }
+
+    public int getPendingDeadlines() {
+        return deadlines.getQueue().size();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public int getActiveQueries() {
+        return activeQueries.get();
+    }
+
+    public int getWaitingQueries() {
+        return querySlots.getQueueLength();
+    }
+
+    public long getRejectedQueryCount() {
+        return rejectedQueries.get();
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTasks.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    /**
+     * The share of the pool held by a single query. Tasks submitted through it run on the shared threads, but never
+     * more than {@link #getParallelism()} at a time.
+     */
+    public class QuerySlot implements Executor {
+        private final int parallelism;
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private QuerySlot(int parallelism) {
+            this.parallelism = parallelism;
+            this.permits = new Semaphore(parallelism);
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * Waits for a free permit, unless called from one of the pool's own threads: a task waiting there for permits
+         * held by the tasks that wait on it would deadlock the query, so the task is run on the calling thread when no
+         * permit is free.
+         */
+        @Override
+        public void execute(final Runnable task) {
+            if (released.get()) {
+                throw new RejectedExecutionException("Query slot already released");
+            }
+            if (Thread.currentThread() instanceof QueryThread) {
+                if (!tryExecute(task)) {
+                    task.run();
+                }
+                return;
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //queue is full, run on the caller so the query still makes progress
+                rejectedTasks.incrementAndGet();
+                logger.debug("Query executor queue full, running task on calling thread");
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * Submits the task only if this query has a free permit and the pool has room for it.
+         *
+         * @return false if the task was not submitted, in which case the caller should run it itself
+         */
+        public boolean tryExecute(final Runnable task) {
+            if (released.get() || !permits.tryAcquire()) {
+                return false;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                rejectedTasks.incrementAndGet();
+                permits.release();
+                return false;
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                activeQueries.decrementAndGet();
+                querySlots.release();
+            }
+        }
+    }
+
+    private static class DeadlineThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "rya-query-deadline");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class QueryThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new QueryThread(r, "rya-query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class QueryThread extends Thread {
+        private QueryThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+}
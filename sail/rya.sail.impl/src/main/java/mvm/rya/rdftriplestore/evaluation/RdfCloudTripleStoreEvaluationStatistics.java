@@ -28,10 +28,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+import mvm.rya.api.persist.BatchRdfEvalStatsDAO;
+import mvm.rya.api.persist.CardinalityLookup;
 import mvm.rya.api.persist.RdfEvalStatsDAO;
 import mvm.rya.api.persist.RdfEvalStatsDAO.CARDINALITY_OF;
 import mvm.rya.rdftriplestore.inference.DoNotExpandSP;
@@ -52,6 +56,7 @@ import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.UnaryTupleOperator;
 import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 
 /**
  * Class RdfCloudTripleStoreEvaluationStatistics
@@ -64,6 +69,7 @@ public class RdfCloudTripleStoreEvaluationStatistics extends EvaluationStatistic
     private RdfEvalStatsDAO rdfEvalStatsDAO;
     protected boolean pushEmptyRdfTypeDown = true;
     protected boolean useCompositeCardinalities = true;
+    private final Map<CardinalityLookup, Double> prefetched = new HashMap<CardinalityLookup, Double>();
 
     public RdfCloudTripleStoreEvaluationStatistics(RdfCloudTripleStoreConfiguration conf, RdfEvalStatsDAO rdfEvalStatsDAO) {
         checkNotNull(conf);
@@ -93,6 +99,68 @@ public class RdfCloudTripleStoreEvaluationStatistics extends EvaluationStatistic
         return new RdfCloudTripleStoreCardinalityCalculator(this);
     }
 
+    /**
+     * Looks up the cardinalities of all statement patterns of the query at once, if the DAO can batch them. Call it
+     * before the joins are ordered, the patterns' cardinalities are then answered from the prefetched ones.
+     */
+    public void prefetch(TupleExpr expr) {
+        if (!(rdfEvalStatsDAO instanceof BatchRdfEvalStatsDAO)) {
+            return;
+        }
+        Set<CardinalityLookup> lookups = new HashSet<CardinalityLookup>();
+        for (StatementPattern sp : StatementPatternCollector.process(expr)) {
+            if (sp instanceof FixedStatementPattern) {
+                continue;
+            }
+            CardinalityLookup lookup = getLookup((Resource) sp.getSubjectVar().getValue(),
+                    (URI) sp.getPredicateVar().getValue(), sp.getObjectVar().getValue(),
+                    sp.getContextVar() != null ? (Resource) sp.getContextVar().getValue() : null);
+            if (lookup != null) {
+                lookups.add(lookup);
+            }
+        }
+        if (!lookups.isEmpty()) {
+            prefetched.putAll(((BatchRdfEvalStatsDAO) rdfEvalStatsDAO).getCardinalities(conf, lookups));
+        }
+    }
+
+    /**
+     * @return the lookup of the most selective cardinality for the pattern's constants, or null if it has none
+     */
+    protected CardinalityLookup getLookup(Resource subj, URI pred, Value obj, Resource context) {
+        if (pred != null && pushEmptyRdfTypeDown && RDF.TYPE.equals(pred) && subj == null && obj == null) {
+            return null;
+        }
+        List<Value> values = new ArrayList<Value>();
+        CARDINALITY_OF card;
+        if (subj != null) {
+            card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECT;
+            values.add(subj);
+            if (useCompositeCardinalities) {
+                if (pred != null) {
+                    values.add(pred);
+                    card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTPREDICATE;
+                } else if (obj != null) {
+                    values.add(obj);
+                    card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTOBJECT;
+                }
+            }
+        } else if (pred != null) {
+            card = RdfEvalStatsDAO.CARDINALITY_OF.PREDICATE;
+            values.add(pred);
+            if (useCompositeCardinalities && obj != null) {
+                values.add(obj);
+                card = RdfEvalStatsDAO.CARDINALITY_OF.PREDICATEOBJECT;
+            }
+        } else if (obj != null) {
+            card = RdfEvalStatsDAO.CARDINALITY_OF.OBJECT;
+            values.add(obj);
+        } else {
+            return null;
+        }
+        return new CardinalityLookup(card, values, context);
+    }
+
     public RdfEvalStatsDAO getRdfEvalStatsDAO() {
         return rdfEvalStatsDAO;
     }
@@ -179,58 +247,22 @@ public class RdfCloudTripleStoreEvaluationStatistics extends EvaluationStatistic
              * asking the full rdf:type of everything.
              */
             double cardinality = Double.MAX_VALUE - 1;
-            try {
-                if (subj != null) {
-                	List<Value> values = new ArrayList<Value>();
-                	CARDINALITY_OF card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECT;
-            		values.add(subj);
-            		if (useCompositeCardinalities){
-                   	    if (pred != null){
-                    		values.add(pred);
-                    		card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTPREDICATE;
-                    	}
-                   	    else if (obj != null){
-                    		values.add(obj);
-                    		card = RdfEvalStatsDAO.CARDINALITY_OF.SUBJECTOBJECT;
-                   	    }
-            		}
-                	double evalCard = evalCard = rdfEvalStatsDAO.getCardinality(conf, card, values, context);
-                	// the cardinality will be -1 if there was no value found (if the index does not exist)
-                    if (evalCard >= 0) {
-                        cardinality = Math.min(cardinality, evalCard);
-                    } else {
-                        cardinality = 1;
+            CardinalityLookup lookup = statistics.getLookup(subj, pred, obj, context);
+            if (lookup != null) {
+                try {
+                    Double evalCard = statistics.prefetched.get(lookup);
+                    if (evalCard == null) {
+                        evalCard = rdfEvalStatsDAO.getCardinality(conf, lookup.getCard(), lookup.getValues(), context);
                     }
-                }
-                else if (pred != null) {
-                	List<Value> values = new ArrayList<Value>();
-                	CARDINALITY_OF card = RdfEvalStatsDAO.CARDINALITY_OF.PREDICATE;
-            		values.add(pred);
-            		if (useCompositeCardinalities){
-                   	    if (obj != null){
-                    		values.add(obj);
-                    		card = RdfEvalStatsDAO.CARDINALITY_OF.PREDICATEOBJECT;
-                   	    }
-            		}
-                	double evalCard = evalCard = rdfEvalStatsDAO.getCardinality(conf, card, values, context);
-                    if (evalCard >= 0) {
-                        cardinality = Math.min(cardinality, evalCard);
-                    } else {
-                        cardinality = 1;
-                    }
-                }
-                else if (obj != null) {
-                	List<Value> values = new ArrayList<Value>();
-            		values.add(obj);
-                    double evalCard = rdfEvalStatsDAO.getCardinality(conf, RdfEvalStatsDAO.CARDINALITY_OF.OBJECT, values, context);
+                    // the cardinality will be -1 if there was no value found (if the index does not exist)
                     if (evalCard >= 0) {
                         cardinality = Math.min(cardinality, evalCard);
                     } else {
                         cardinality = 1;
                     }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
                 }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
             }
 
             return cardinality;
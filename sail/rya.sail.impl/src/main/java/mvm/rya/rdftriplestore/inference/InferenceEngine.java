@@ -20,6 +20,10 @@ package mvm.rya.rdftriplestore.inference;
  * #L%
  */
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
@@ -30,6 +34,7 @@ import mvm.rya.api.RdfCloudTripleStoreConfiguration;
 import mvm.rya.api.persist.RyaDAO;
 import mvm.rya.api.persist.RyaDAOException;
 import mvm.rya.api.persist.utils.RyaDAOHelper;
+import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
@@ -46,17 +51,25 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Will pull down inference relationships from dao every x seconds. <br>
+ * Will pull down inference relationships from dao on init and every x seconds. <br>
  * Will infer extra relationships. <br>
- * Will cache relationships in Graph for later use. <br>
+ * Will cache relationships as precomputed closures for later use. <br>
+ * <p/>
+ * The cached schema is immutable and replaced as a whole, so readers never see a half built one. Statements added
+ * through {@link #statementAdded(Resource, URI, Value)} update it incrementally; removals and the periodic refresh
+ * rebuild it from the dao.
  */
 public class InferenceEngine {
+    private static final Logger logger = Logger.getLogger(InferenceEngine.class);
 
-    private Graph subClassOfGraph;
-    private Graph subPropertyOfGraph;
-    private Set<URI> symmetricPropertySet;
-    private Map<URI, URI> inverseOfMap;
-    private Set<URI> transitivePropertySet;
+    private volatile Schema schema = Schema.EMPTY;
+    private final Object updateLock = new Object();
+    //statements added while each running refresh loads, replayed onto its result
+    private final Set<List<Statement>> addedDuringRefresh = Collections
+            .newSetFromMap(new IdentityHashMap<List<Statement>, Boolean>());
+    //refreshes are numbered as they start, so one that loaded earlier never replaces one that loaded later
+    private long refreshStarted = 0;
+    private long refreshPublished = 0;
 
     private RyaDAO ryaDAO;
     private RdfCloudTripleStoreConfiguration conf;
@@ -78,19 +91,9 @@ public class InferenceEngine {
             checkArgument(ryaDAO.isInitialized(), "RdfDao is not initialized");
 
             if (schedule) {
-                timer = new Timer(InferenceEngine.class.getName());
-                timer.scheduleAtFixedRate(new TimerTask() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            refreshGraph();
-                        } catch (InferenceEngineException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
-                }, refreshGraphSchedule, refreshGraphSchedule);
+                //picks up schema statements written around this engine, like bulk loads
+                timer = new Timer(InferenceEngine.class.getName(), true);
+                timer.scheduleAtFixedRate(new RefreshTask(), refreshGraphSchedule, refreshGraphSchedule);
             }
             refreshGraph();
             setInitialized(true);
@@ -106,17 +109,51 @@ public class InferenceEngine {
         }
     }
 
+    /**
+     * Rebuilds the whole schema from the dao and publishes it. Statements added while this runs are applied to the new
+     * schema before it is published. Refreshes may overlap; the result of one is dropped if a refresh that started
+     * after it has already been published.
+     */
     public void refreshGraph() throws InferenceEngineException {
+        List<Statement> added = new ArrayList<Statement>();
+        long generation;
+        synchronized (updateLock) {
+            generation = ++refreshStarted;
+            addedDuringRefresh.add(added);
+        }
+        Schema refreshed = null;
+        try {
+            refreshed = loadSchema();
+        } finally {
+            if (refreshed == null) {
+                synchronized (updateLock) {
+                    addedDuringRefresh.remove(added);
+                }
+            }
+        }
+        synchronized (updateLock) {
+            addedDuringRefresh.remove(added);
+            if (generation < refreshPublished) {
+                return;
+            }
+            for (Statement st : added) {
+                refreshed = refreshed.with(st.getSubject(), st.getPredicate(), st.getObject());
+            }
+            refreshPublished = generation;
+            schema = refreshed;
+        }
+    }
+
+    private Schema loadSchema() throws InferenceEngineException {
         try {
             //get all subclassof
-            Graph graph = TinkerGraphFactory.createTinkerGraph();
+            SetMultimap<URI, URI> subClassOf = HashMultimap.create();
             CloseableIteration<Statement, QueryEvaluationException> iter = RyaDAOHelper.query(ryaDAO, null,
                     RDFS.SUBCLASSOF, null, conf);
             try {
                 while (iter.hasNext()) {
-                    String edgeName = RDFS.SUBCLASSOF.stringValue();
                     Statement st = iter.next();
-                    addStatementEdge(graph, edgeName, st);
+                    addEdge(subClassOf, st.getSubject(), st.getObject());
                 }
             } finally {
                 if (iter != null) {
@@ -124,17 +161,13 @@ public class InferenceEngine {
                 }
             }
 
-            subClassOfGraph = graph; //TODO: Should this be synchronized?
-
-            graph = TinkerGraphFactory.createTinkerGraph();
-
+            SetMultimap<URI, URI> subPropertyOf = HashMultimap.create();
             iter = RyaDAOHelper.query(ryaDAO, null,
                     RDFS.SUBPROPERTYOF, null, conf);
             try {
                 while (iter.hasNext()) {
-                    String edgeName = RDFS.SUBPROPERTYOF.stringValue();
                     Statement st = iter.next();
-                    addStatementEdge(graph, edgeName, st);
+                    addEdge(subPropertyOf, st.getSubject(), st.getObject());
                 }
             } finally {
                 if (iter != null) {
@@ -146,11 +179,10 @@ public class InferenceEngine {
             iter = RyaDAOHelper.query(ryaDAO, null, OWL.EQUIVALENTPROPERTY, null, conf);
             try {
                 while (iter.hasNext()) {
-                    String edgeName = RDFS.SUBPROPERTYOF.stringValue();
                     Statement st = iter.next();
-                    addStatementEdge(graph, edgeName, st);
+                    addEdge(subPropertyOf, st.getSubject(), st.getObject());
                     //reverse is also true
-                    addStatementEdge(graph, edgeName, new StatementImpl((Resource) st.getObject(), st.getPredicate(), st.getSubject()));
+                    addEdge(subPropertyOf, st.getObject(), st.getSubject());
                 }
             } finally {
                 if (iter != null) {
@@ -158,8 +190,6 @@ public class InferenceEngine {
                 }
             }
 
-            subPropertyOfGraph = graph; //TODO: Should this be synchronized?
-
             iter = RyaDAOHelper.query(ryaDAO, null, RDF.TYPE, OWL.SYMMETRICPROPERTY, conf);
             Set<URI> symProp = new HashSet();
             try {
@@ -172,7 +202,6 @@ public class InferenceEngine {
                     iter.close();
                 }
             }
-            symmetricPropertySet = symProp;
 
             iter = RyaDAOHelper.query(ryaDAO, null, RDF.TYPE, OWL.TRANSITIVEPROPERTY, conf);
             Set<URI> transProp = new HashSet();
@@ -186,7 +215,6 @@ public class InferenceEngine {
                     iter.close();
                 }
             }
-            transitivePropertySet = transProp;
 
             iter = RyaDAOHelper.query(ryaDAO, null, OWL.INVERSEOF, null, conf);
             Map<URI, URI> invProp = new HashMap();
@@ -201,12 +229,54 @@ public class InferenceEngine {
                     iter.close();
                 }
             }
-            inverseOfMap = invProp;
+            return new Schema(TransitiveClosure.build(subClassOf), TransitiveClosure.build(subPropertyOf),
+                    ImmutableSet.copyOf(symProp), ImmutableSet.copyOf(transProp), ImmutableMap.copyOf(invProp));
         } catch (QueryEvaluationException e) {
             throw new InferenceEngineException(e);
         }
     }
 
+    private static void addEdge(SetMultimap<URI, URI> edges, Value subj, Value obj) {
+        //only uris take part in the expansion
+        if (subj instanceof URI && obj instanceof URI) {
+            edges.put((URI) subj, (URI) obj);
+        }
+    }
+
+    /**
+     * Applies a newly added statement to the cached schema, if it is a schema statement.
+     */
+    public void statementAdded(Resource subj, URI pred, Value obj) {
+        if (!Schema.isSchemaStatement(pred, obj)) {
+            return;
+        }
+        synchronized (updateLock) {
+            schema = schema.with(subj, pred, obj);
+            if (!addedDuringRefresh.isEmpty()) {
+                Statement st = new StatementImpl(subj, pred, obj);
+                for (List<Statement> added : addedDuringRefresh) {
+                    added.add(st);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the cached schema if the removed pattern, where null matches anything, can match schema statements.
+     * The rebuild runs on the refresh timer when it is scheduled, otherwise before this returns.
+     */
+    public void statementsRemoved(Resource subj, URI pred, Value obj) throws InferenceEngineException {
+        boolean anyType = RDF.TYPE.equals(pred) && obj == null;
+        if (pred != null && !anyType && !Schema.isSchemaStatement(pred, obj)) {
+            return;
+        }
+        if (timer != null) {
+            timer.schedule(new RefreshTask(), 0);
+        } else {
+            refreshGraph();
+        }
+    }
+
     protected void addStatementEdge(Graph graph, String edgeName, Statement st) {
         Resource subj = st.getSubject();
         Vertex a = graph.getVertex(subj);
@@ -223,6 +293,11 @@ public class InferenceEngine {
         graph.addEdge(null, a, b, edgeName);
     }
 
+    /**
+     * @deprecated use {@link #getSubClassOfParents(URI)} or {@link #getSubPropertyOfParents(URI)}, which do not walk a
+     * graph
+     */
+    @Deprecated
     public Set<URI> findParents(Graph graph, URI vertexId) {
         Set<URI> parents = new HashSet();
         if (graph == null) {
@@ -251,23 +326,37 @@ public class InferenceEngine {
         }
     }
 
+    /**
+     * @return every class that is transitively a subClassOf the given one, never null
+     */
+    public Set<URI> getSubClassOfParents(URI type) {
+        return schema.subClassOf.getParents(type);
+    }
+
+    /**
+     * @return every property that is transitively a subPropertyOf (or equivalentProperty of) the given one, never null
+     */
+    public Set<URI> getSubPropertyOfParents(URI property) {
+        return schema.subPropertyOf.getParents(property);
+    }
+
     public boolean isSymmetricProperty(URI prop) {
-        return (symmetricPropertySet != null) && symmetricPropertySet.contains(prop);
+        return schema.symmetricProperties.contains(prop);
     }
 
     public URI findInverseOf(URI prop) {
-        return (inverseOfMap != null) ? inverseOfMap.get(prop) : (null);
+        return schema.inverseOf.get(prop);
     }
 
     public boolean isTransitiveProperty(URI prop) {
-        return (transitivePropertySet != null) && transitivePropertySet.contains(prop);
+        return schema.transitiveProperties.contains(prop);
     }
 
     /**
      * TODO: This chaining can be slow at query execution. the other option is to perform this in the query itself, but that will be constrained to how many levels we decide to go
      */
     public Set<Statement> findTransitiveProperty(Resource subj, URI prop, Value obj, Resource... contxts) throws InferenceEngineException {
-        if (transitivePropertySet.contains(prop)) {
+        if (isTransitiveProperty(prop)) {
             Set<Statement> sts = new HashSet();
             boolean goUp = subj == null;
             chainTransitiveProperty(subj, prop, obj, (goUp) ? (obj) : (subj), sts, goUp, contxts);
@@ -359,12 +448,28 @@ public class InferenceEngine {
         this.conf = conf;
     }
 
+    /**
+     * @deprecated builds a graph from the cached schema on every call, use {@link #getSubClassOfParents(URI)}
+     */
+    @Deprecated
     public Graph getSubClassOfGraph() {
-        return subClassOfGraph;
+        return toGraph(schema.subClassOf, RDFS.SUBCLASSOF);
     }
 
+    /**
+     * @deprecated builds a graph from the cached schema on every call, use {@link #getSubPropertyOfParents(URI)}
+     */
+    @Deprecated
     public Graph getSubPropertyOfGraph() {
-        return subPropertyOfGraph;
+        return toGraph(schema.subPropertyOf, RDFS.SUBPROPERTYOF);
+    }
+
+    private Graph toGraph(TransitiveClosure closure, URI edge) {
+        Graph graph = TinkerGraphFactory.createTinkerGraph();
+        for (Map.Entry<URI, URI> entry : closure.getEdges().entries()) {
+            addStatementEdge(graph, edge.stringValue(), new StatementImpl(entry.getKey(), edge, entry.getValue()));
+        }
+        return graph;
     }
 
     public long getRefreshGraphSchedule() {
@@ -376,27 +481,39 @@ public class InferenceEngine {
     }
 
     public Set<URI> getSymmetricPropertySet() {
-        return symmetricPropertySet;
+        return schema.symmetricProperties;
     }
 
     public void setSymmetricPropertySet(Set<URI> symmetricPropertySet) {
-        this.symmetricPropertySet = symmetricPropertySet;
+        synchronized (updateLock) {
+            Schema current = schema;
+            schema = new Schema(current.subClassOf, current.subPropertyOf, ImmutableSet.copyOf(symmetricPropertySet),
+                    current.transitiveProperties, current.inverseOf);
+        }
     }
 
     public Map<URI, URI> getInverseOfMap() {
-        return inverseOfMap;
+        return schema.inverseOf;
     }
 
     public void setInverseOfMap(Map<URI, URI> inverseOfMap) {
-        this.inverseOfMap = inverseOfMap;
+        synchronized (updateLock) {
+            Schema current = schema;
+            schema = new Schema(current.subClassOf, current.subPropertyOf, current.symmetricProperties,
+                    current.transitiveProperties, ImmutableMap.copyOf(inverseOfMap));
+        }
     }
 
     public Set<URI> getTransitivePropertySet() {
-        return transitivePropertySet;
+        return schema.transitiveProperties;
     }
 
     public void setTransitivePropertySet(Set<URI> transitivePropertySet) {
-        this.transitivePropertySet = transitivePropertySet;
+        synchronized (updateLock) {
+            Schema current = schema;
+            schema = new Schema(current.subClassOf, current.subPropertyOf, current.symmetricProperties,
+                    ImmutableSet.copyOf(transitivePropertySet), current.inverseOf);
+        }
     }
 
     public boolean isSchedule() {
@@ -406,4 +523,76 @@ public class InferenceEngine {
     public void setSchedule(boolean schedule) {
         this.schedule = schedule;
     }
+
+    private class RefreshTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                refreshGraph();
+            } catch (InferenceEngineException e) {
+                //keep the timer alive, the next run will try again
+                logger.error("Unable to refresh the inference schema", e);
+            }
+        }
+    }
+
+    /**
+     * One immutable version of the cached schema.
+     */
+    private static final class Schema {
+        static final Schema EMPTY = new Schema(TransitiveClosure.EMPTY, TransitiveClosure.EMPTY,
+                ImmutableSet.<URI>of(), ImmutableSet.<URI>of(), ImmutableMap.<URI, URI>of());
+
+        private final TransitiveClosure subClassOf;
+        private final TransitiveClosure subPropertyOf;
+        private final ImmutableSet<URI> symmetricProperties;
+        private final ImmutableSet<URI> transitiveProperties;
+        private final ImmutableMap<URI, URI> inverseOf;
+
+        private Schema(TransitiveClosure subClassOf, TransitiveClosure subPropertyOf, ImmutableSet<URI> symmetricProperties,
+                       ImmutableSet<URI> transitiveProperties, ImmutableMap<URI, URI> inverseOf) {
+            this.subClassOf = subClassOf;
+            this.subPropertyOf = subPropertyOf;
+            this.symmetricProperties = symmetricProperties;
+            this.transitiveProperties = transitiveProperties;
+            this.inverseOf = inverseOf;
+        }
+
+        private static boolean isSchemaStatement(URI pred, Value obj) {
+            return RDFS.SUBCLASSOF.equals(pred) || RDFS.SUBPROPERTYOF.equals(pred) || OWL.EQUIVALENTPROPERTY.equals(pred)
+                    || OWL.INVERSEOF.equals(pred)
+                    || (RDF.TYPE.equals(pred) && (OWL.SYMMETRICPROPERTY.equals(obj) || OWL.TRANSITIVEPROPERTY.equals(obj)));
+        }
+
+        /**
+         * @return this schema with the statement added, or this schema if it is not a schema statement
+         */
+        private Schema with(Resource subj, URI pred, Value obj) {
+            if (!(subj instanceof URI) || !(obj instanceof URI)) {
+                return this;
+            }
+            URI s = (URI) subj;
+            URI o = (URI) obj;
+            if (RDFS.SUBCLASSOF.equals(pred)) {
+                return new Schema(subClassOf.withEdge(s, o), subPropertyOf, symmetricProperties, transitiveProperties, inverseOf);
+            } else if (RDFS.SUBPROPERTYOF.equals(pred)) {
+                return new Schema(subClassOf, subPropertyOf.withEdge(s, o), symmetricProperties, transitiveProperties, inverseOf);
+            } else if (OWL.EQUIVALENTPROPERTY.equals(pred)) {
+                return new Schema(subClassOf, subPropertyOf.withEdge(s, o).withEdge(o, s), symmetricProperties,
+                        transitiveProperties, inverseOf);
+            } else if (OWL.INVERSEOF.equals(pred)) {
+                Map<URI, URI> invProp = new HashMap<URI, URI>(inverseOf);
+                invProp.put(s, o);
+                invProp.put(o, s);
+                return new Schema(subClassOf, subPropertyOf, symmetricProperties, transitiveProperties, ImmutableMap.copyOf(invProp));
+            } else if (RDF.TYPE.equals(pred) && OWL.SYMMETRICPROPERTY.equals(o)) {
+                return new Schema(subClassOf, subPropertyOf, ImmutableSet.<URI>builder().addAll(symmetricProperties).add(s).build(),
+                        transitiveProperties, inverseOf);
+            } else if (RDF.TYPE.equals(pred) && OWL.TRANSITIVEPROPERTY.equals(o)) {
+                return new Schema(subClassOf, subPropertyOf, symmetricProperties,
+                        ImmutableSet.<URI>builder().addAll(transitiveProperties).add(s).build(), inverseOf);
+            }
+            return this;
+        }
+    }
 }
@@ -65,7 +65,7 @@ public class SubClassOfVisitor extends AbstractInferVisitor {
 //            node.replaceWith(join);
 
             URI subclassof_uri = (URI) objVar.getValue();
-            Collection<URI> parents = inferenceEngine.findParents(inferenceEngine.getSubClassOfGraph(), subclassof_uri);
+            Collection<URI> parents = inferenceEngine.getSubClassOfParents(subclassof_uri);
             if (parents != null && parents.size() > 0) {
                 String s = UUID.randomUUID().toString();
                 Var typeVar = new Var(s);
@@ -31,6 +31,7 @@ import org.openrdf.model.vocabulary.SESAME;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.Var;
 
+import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
@@ -98,7 +99,7 @@ public class SubPropertyOfVisitor extends AbstractInferVisitor {
 //            }
 
             URI subprop_uri = (URI) predVar.getValue();
-            Set<URI> parents = inferenceEngine.findParents(inferenceEngine.getSubPropertyOfGraph(), subprop_uri);
+            Set<URI> parents = new HashSet<URI>(inferenceEngine.getSubPropertyOfParents(subprop_uri));
             if (parents != null && parents.size() > 0) {
                 String s = UUID.randomUUID().toString();
                 Var typeVar = new Var(s);
@@ -0,0 +1,115 @@
+package mvm.rya.rdftriplestore.inference;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.URI;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Immutable transitive closure of a schema relation such as rdfs:subClassOf. For an edge {@code a -> b} (a subClassOf
+ * b), the parents of b are a and every node with a path to a, which is what the query rewriters expand b into.
+ * Parents are precomputed, so a lookup is a single map get. Adding an edge returns a new closure that only
+ * recomputes the nodes the edge can reach.
+ */
+final class TransitiveClosure {
+    static final TransitiveClosure EMPTY = new TransitiveClosure(ImmutableSetMultimap.<URI, URI>of(),
+            ImmutableMap.<URI, ImmutableSet<URI>>of());
+
+    //direct edges, from the narrower to the broader node
+    private final ImmutableSetMultimap<URI, URI> edges;
+    private final ImmutableMap<URI, ImmutableSet<URI>> parents;
+
+    private TransitiveClosure(ImmutableSetMultimap<URI, URI> edges, ImmutableMap<URI, ImmutableSet<URI>> parents) {
+        this.edges = edges;
+        this.parents = parents;
+    }
+
+    static TransitiveClosure build(SetMultimap<URI, URI> edges) {
+        ImmutableSetMultimap<URI, URI> forward = ImmutableSetMultimap.copyOf(edges);
+        ImmutableSetMultimap<URI, URI> reverse = forward.inverse();
+        Map<URI, ImmutableSet<URI>> parents = new HashMap<URI, ImmutableSet<URI>>();
+        for (URI node : reverse.keySet()) {
+            parents.put(node, ImmutableSet.copyOf(walk(reverse, node)));
+        }
+        return new TransitiveClosure(forward, ImmutableMap.copyOf(parents));
+    }
+
+    /**
+     * @return every node with a path to the given one, never null
+     */
+    Set<URI> getParents(URI node) {
+        ImmutableSet<URI> found = parents.get(node);
+        return found != null ? found : ImmutableSet.<URI>of();
+    }
+
+    ImmutableSetMultimap<URI, URI> getEdges() {
+        return edges;
+    }
+
+    TransitiveClosure withEdge(URI from, URI to) {
+        if (edges.containsEntry(from, to)) {
+            return this;
+        }
+        ImmutableSetMultimap<URI, URI> newEdges = ImmutableSetMultimap.<URI, URI>builder().putAll(edges).put(from, to).build();
+        //every node reachable from the new edge gains its source and the source's parents
+        Set<URI> gained = new HashSet<URI>(getParents(from));
+        gained.add(from);
+        Map<URI, ImmutableSet<URI>> newParents = new HashMap<URI, ImmutableSet<URI>>(parents);
+        Set<URI> reached = walk(newEdges, to);
+        if (reached.contains(from)) {
+            //the edge closes a cycle, everything on it shares parents, simpler to rebuild
+            return build(newEdges);
+        }
+        reached.add(to);
+        for (URI node : reached) {
+            newParents.put(node, ImmutableSet.<URI>builder().addAll(getParents(node)).addAll(gained).build());
+        }
+        return new TransitiveClosure(newEdges, ImmutableMap.copyOf(newParents));
+    }
+
+    /**
+     * @return the nodes reachable from start, which includes start only if it is on a cycle
+     */
+    private static Set<URI> walk(SetMultimap<URI, URI> adjacency, URI start) {
+        Set<URI> seen = new HashSet<URI>();
+        Deque<URI> queue = new ArrayDeque<URI>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (URI next : adjacency.get(queue.poll())) {
+                if (seen.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+        return seen;
+    }
+}
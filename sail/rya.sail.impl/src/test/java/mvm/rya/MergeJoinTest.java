@@ -366,4 +366,121 @@ public class MergeJoinTest {
         assertFalse(join.hasNext());
         join.close();
     }
+
+    @Test
+    public void testMergeJoinPredicateOnlyMultiWay() throws Exception {
+        RyaURI pred1 = new RyaURI(litdupsNS, "pred1");
+        RyaURI pred2 = new RyaURI(litdupsNS, "pred2");
+        RyaURI pred3 = new RyaURI(litdupsNS, "pred3");
+        RyaURI subj1 = new RyaURI(litdupsNS, "subj1");
+        RyaURI subj2 = new RyaURI(litdupsNS, "subj2");
+
+        //objects 0-19 for pred1, the even ones for pred2, the multiples of 3 for pred3
+        for (int i = 0; i < 20; i++) {
+            RyaType obj = new RyaType("obj" + (char) ('a' + i));
+            dao.add(new RyaStatement(subj1, pred1, obj));
+            dao.add(new RyaStatement(subj2, pred1, obj));
+            if (i % 2 == 0) {
+                dao.add(new RyaStatement(subj1, pred2, obj));
+            }
+            if (i % 3 == 0) {
+                dao.add(new RyaStatement(subj2, pred3, obj));
+            }
+        }
+
+        MergeJoin mergeJoin = new MergeJoin(dao.getQueryEngine());
+        CloseableIteration<RyaStatement, RyaDAOException> join = mergeJoin.join(null, pred1, pred2, pred3);
+        Set<RyaStatement> results = new HashSet<RyaStatement>();
+        while (join.hasNext()) {
+            RyaStatement next = join.next();
+            assertEquals(pred1, next.getPredicate());
+            results.add(new RyaStatement(next.getSubject(), next.getPredicate(), next.getObject()));
+        }
+        join.close();
+
+        Set<RyaStatement> expected = new HashSet<RyaStatement>();
+        for (int i = 0; i < 20; i += 6) {
+            RyaType obj = new RyaType("obj" + (char) ('a' + i));
+            expected.add(new RyaStatement(subj1, pred1, obj));
+            expected.add(new RyaStatement(subj2, pred1, obj));
+        }
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void testMergeJoinEarlyExhaustion() throws Exception {
+        RyaURI pred1 = new RyaURI(litdupsNS, "pred1");
+        RyaURI pred2 = new RyaURI(litdupsNS, "pred2");
+        RyaURI pred3 = new RyaURI(litdupsNS, "pred3");
+        RyaURI subj1 = new RyaURI(litdupsNS, "subj1");
+        RyaURI subj2 = new RyaURI(litdupsNS, "subj2");
+        for (int i = 0; i < 50; i++) {
+            RyaType obj = new RyaType("obj" + (100 + i));
+            dao.add(new RyaStatement(subj1, pred1, obj));
+            dao.add(new RyaStatement(subj2, pred2, obj));
+        }
+        //pred3 runs out on the second key
+        dao.add(new RyaStatement(subj1, pred3, new RyaType("obj105")));
+
+        MergeJoin mergeJoin = new MergeJoin(dao.getQueryEngine());
+        CloseableIteration<RyaStatement, RyaDAOException> join = mergeJoin.join(null, pred1, pred2, pred3);
+        assertTrue(join.hasNext());
+        assertEquals(new RyaType("obj105"), join.next().getObject());
+        assertFalse(join.hasNext());
+        assertFalse(join.hasNext());
+        join.close();
+
+        //every object of pred4 sorts before those of pred1
+        RyaURI pred4 = new RyaURI(litdupsNS, "pred4");
+        dao.add(new RyaStatement(subj1, pred4, new RyaType("obj000")));
+        join = mergeJoin.join(null, pred1, pred4);
+        assertFalse(join.hasNext());
+        join.close();
+
+        //subject join where one input ends before the others
+        RyaType one = new RyaType("1");
+        RyaType two = new RyaType("2");
+        for (int i = 0; i < 30; i++) {
+            dao.add(new RyaStatement(new RyaURI(litdupsNS, "subj" + (100 + i)), pred1, one));
+        }
+        dao.add(new RyaStatement(new RyaURI(litdupsNS, "subj101"), pred1, two));
+        CloseableIteration<RyaURI, RyaDAOException> subjects = mergeJoin.join(null, new CustomEntry<RyaURI, RyaType>(pred1, one),
+                new CustomEntry<RyaURI, RyaType>(pred1, two));
+        assertTrue(subjects.hasNext());
+        assertEquals(new RyaURI(litdupsNS, "subj101"), subjects.next());
+        assertFalse(subjects.hasNext());
+        subjects.close();
+    }
+
+    @Test
+    public void testMergeJoinSameDataDifferentType() throws Exception {
+        RyaURI pred1 = new RyaURI(litdupsNS, "pred1");
+        RyaURI pred2 = new RyaURI(litdupsNS, "pred2");
+        RyaURI subj1 = new RyaURI(litdupsNS, "subj1");
+        RyaURI subj2 = new RyaURI(litdupsNS, "subj2");
+        RyaURI subj3 = new RyaURI(litdupsNS, "subj3");
+        RyaURI subj4 = new RyaURI(litdupsNS, "subj4");
+        //the same data as a literal and as a uri, interleaved by subject in the po table
+        RyaType literal = new RyaType(litdupsNS + "value");
+        RyaURI uri = new RyaURI(litdupsNS + "value");
+
+        dao.add(new RyaStatement(subj1, pred1, literal));
+        dao.add(new RyaStatement(subj2, pred1, uri));
+        dao.add(new RyaStatement(subj3, pred1, literal));
+        dao.add(new RyaStatement(subj4, pred1, new RyaType(litdupsNS + "value2")));
+        dao.add(new RyaStatement(subj1, pred2, uri));
+        dao.add(new RyaStatement(subj4, pred2, new RyaType(litdupsNS + "value2")));
+
+        MergeJoin mergeJoin = new MergeJoin(dao.getQueryEngine());
+        CloseableIteration<RyaStatement, RyaDAOException> join = mergeJoin.join(null, pred1, pred2);
+        Set<RyaURI> subjects = new HashSet<RyaURI>();
+        while (join.hasNext()) {
+            RyaStatement next = join.next();
+            subjects.add(next.getSubject());
+        }
+        join.close();
+        assertEquals(2, subjects.size());
+        assertTrue(subjects.contains(subj2));
+        assertTrue(subjects.contains(subj4));
+    }
 }
@@ -50,9 +50,11 @@ import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.QueryResultHandlerException;
 import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.TupleQueryResultHandler;
 import org.openrdf.query.TupleQueryResultHandlerException;
 import org.openrdf.query.Update;
@@ -201,6 +203,36 @@ public class RdfCloudTripleStoreConnectionTest extends TestCase {
         assertEquals(cth.getCount(), 1);
     }
 
+    public void testQueryTimeoutInterrupts() throws Exception {
+        RepositoryConnection conn = repository.getConnection();
+        URI loadPerc = vf.createURI(litdupsNS, "loadPerc");
+        for (int i = 0; i < 20; i++) {
+            conn.add(cpu, loadPerc, vf.createURI(litdupsNS, "uri" + i));
+        }
+        conn.commit();
+
+        String query = "select * where {" +
+                "?x <" + loadPerc.stringValue() + "> ?o1." +
+                "}";
+        TupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query);
+        tupleQuery.setBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_TIMEOUT, vf.createLiteral(1000L));
+        TupleQueryResult result = tupleQuery.evaluate();
+        try {
+            assertTrue(result.hasNext());
+            result.next();
+            //the deadline closes the scanners, which must not read as the end of the results
+            Thread.sleep(1500);
+            while (result.hasNext()) {
+                result.next();
+            }
+            fail("Expected the query to fail once its deadline passed");
+        } catch (QueryInterruptedException expected) {
+        } finally {
+            result.close();
+        }
+        conn.close();
+    }
+
     public void testPOObjRange() throws Exception {
         RepositoryConnection conn = repository.getConnection();
         URI loadPerc = vf.createURI(litdupsNS, "loadPerc");
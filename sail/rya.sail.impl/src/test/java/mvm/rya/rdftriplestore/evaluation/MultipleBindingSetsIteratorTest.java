@@ -0,0 +1,216 @@
+package mvm.rya.rdftriplestore.evaluation;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.persist.query.QueryCancellation;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Literal;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+public class MultipleBindingSetsIteratorTest {
+
+    private final StatementPattern pattern = new StatementPattern(new Var("x"), new Var("p"), new Var("y"));
+    private AccumuloRdfConfiguration conf;
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        conf = new AccumuloRdfConfiguration();
+        conf.setBindingSetBatchSize(16);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderAndCompletenessAcrossBatches() throws Exception {
+        conf.setBindingSetLookahead(3);
+        StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, executor, 3);
+        MultipleBindingSetsIterator iter = new MultipleBindingSetsIterator(strategy, left(200), pattern,
+                new EmptyBindingSet());
+
+        List<BindingSet> results = drain(iter);
+        Assert.assertEquals(600, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(i / 3, intValue(results.get(i), "x"));
+            Assert.assertEquals(i % 3, intValue(results.get(i), "y"));
+        }
+        //batches after the first ran ahead on the workers
+        Assert.assertTrue(strategy.threads.size() > 1);
+        Assert.assertEquals(0, strategy.openIterations.get());
+    }
+
+    @Test
+    public void testSlowConsumerHoldsWorkersBack() throws Exception {
+        conf.setBindingSetLookahead(2);
+        //2 batches of 16 binding sets, 3200 results each
+        StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, executor, 200);
+        MultipleBindingSetsIterator iter = new MultipleBindingSetsIterator(strategy, left(32), pattern,
+                new EmptyBindingSet());
+
+        Assert.assertTrue(iter.hasNext());
+        Assert.assertEquals(0, intValue(iter.next(), "x"));
+        Thread.sleep(500);
+        //the second batch fills its buffer, plus the result it is waiting to offer, and no more
+        Assert.assertTrue(strategy.producedByWorkers.get() > 0);
+        Assert.assertTrue(strategy.producedByWorkers.get() <= 1001);
+
+        List<BindingSet> results = drain(iter);
+        Assert.assertEquals(6399, results.size());
+        Assert.assertEquals(31, intValue(results.get(results.size() - 1), "x"));
+        Assert.assertEquals(6400, strategy.produced.get());
+    }
+
+    @Test
+    public void testSaturatedPoolRunsOnCaller() throws Exception {
+        conf.setBindingSetLookahead(3);
+        conf.setNumThreads(1);
+        QueryExecutorPool pool = new QueryExecutorPool(1, 1, 1, 50);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            QueryExecutorPool.QuerySlot slot = pool.admit(conf);
+            //the slot's only permit is taken, so no batch can be handed off
+            slot.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            });
+            StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, slot, 2);
+            List<BindingSet> results = drain(new MultipleBindingSetsIterator(strategy, left(100), pattern,
+                    new EmptyBindingSet()));
+            Assert.assertEquals(200, results.size());
+            Assert.assertEquals(Collections.singleton(Thread.currentThread()), strategy.threads);
+            slot.release();
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+
+        //an executor that rejects every batch
+        StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 2);
+        List<BindingSet> results = drain(new MultipleBindingSetsIterator(strategy, left(100), pattern,
+                new EmptyBindingSet()));
+        Assert.assertEquals(200, results.size());
+        Assert.assertEquals(99, intValue(results.get(199), "x"));
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), strategy.threads);
+    }
+
+    @Test
+    public void testCancelStopsWorkers() throws Exception {
+        conf.setBindingSetLookahead(3);
+        QueryCancellation cancellation = new QueryCancellation();
+        conf.setCancellation(cancellation);
+        StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, executor, 1000);
+        strategy.delayPerResult = 1;
+        MultipleBindingSetsIterator iter = new MultipleBindingSetsIterator(strategy, left(64), pattern,
+                new EmptyBindingSet());
+        try {
+            Assert.assertTrue(iter.hasNext());
+            iter.next();
+            cancellation.cancel();
+            //only the batch this thread evaluates itself is still open
+            awaitOpenIterations(strategy, 1);
+            int produced = strategy.produced.get();
+            try {
+                iter.hasNext();
+                Assert.fail("Expected the cancelled query to fail");
+            } catch (QueryInterruptedException expected) {
+            }
+            Thread.sleep(200);
+            Assert.assertEquals(produced, strategy.produced.get());
+        } finally {
+            iter.close();
+        }
+        Assert.assertEquals(0, strategy.openIterations.get());
+    }
+
+    /**
+     * Waits for the workers to close their iterations.
+     */
+    static void awaitOpenIterations(StubEvaluationStrategy strategy, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (strategy.openIterations.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, strategy.openIterations.get());
+    }
+
+    static CloseableIteratorIteration<BindingSet, QueryEvaluationException> left(int size) {
+        List<BindingSet> sets = new ArrayList<BindingSet>(size);
+        for (int i = 0; i < size; i++) {
+            QueryBindingSet bs = new QueryBindingSet();
+            bs.addBinding("x", ValueFactoryImpl.getInstance().createLiteral(i));
+            sets.add(bs);
+        }
+        return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(sets.iterator());
+    }
+
+    static List<BindingSet> drain(MultipleBindingSetsIterator iter) throws QueryEvaluationException {
+        List<BindingSet> results = new ArrayList<BindingSet>();
+        try {
+            while (iter.hasNext()) {
+                results.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return results;
+    }
+
+    static int intValue(BindingSet bs, String name) {
+        return ((Literal) bs.getValue(name)).intValue();
+    }
+}
@@ -0,0 +1,128 @@
+package mvm.rya.rdftriplestore.evaluation;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.persist.query.QueryCancellation;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
+import org.openrdf.query.algebra.BindingSetAssignment;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+public class ParallelJoinIteratorTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancelStopsWorkers() throws Exception {
+        AccumuloRdfConfiguration conf = new AccumuloRdfConfiguration();
+        QueryCancellation cancellation = new QueryCancellation();
+        conf.setCancellation(cancellation);
+        StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, executor, 10000);
+        strategy.delayPerResult = 1;
+
+        Join join = new Join(assignment("x", 8), new StatementPattern(new Var("x"), new Var("p"), new Var("y")));
+
+        ParallelJoinIterator iter = new ParallelJoinIterator(strategy, join, new EmptyBindingSet(), executor, 4);
+        try {
+            Assert.assertTrue(iter.hasNext());
+            iter.next();
+            cancellation.cancel();
+            MultipleBindingSetsIteratorTest.awaitOpenIterations(strategy, 0);
+            int produced = strategy.produced.get();
+            try {
+                iter.hasNext();
+                Assert.fail("Expected the cancelled query to fail");
+            } catch (QueryInterruptedException expected) {
+            }
+            Thread.sleep(200);
+            Assert.assertEquals(produced, strategy.produced.get());
+            Assert.assertTrue(produced < 80000);
+        } finally {
+            iter.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testNestedJoinWithParallelismOne() throws Exception {
+        AccumuloRdfConfiguration conf = new AccumuloRdfConfiguration();
+        conf.setParallelJoin(true);
+        conf.setNumThreads(1);
+        QueryExecutorPool pool = new QueryExecutorPool(1, 1, 1, 50);
+        try {
+            QueryExecutorPool.QuerySlot slot = pool.admit(conf);
+            StubEvaluationStrategy strategy = new StubEvaluationStrategy(conf, slot, 2);
+            //the right hand side of each join is a join of its own, so the workers build inner parallel joins
+            Join inner = new Join(assignment("w", 2), new StatementPattern(new Var("w"), new Var("p"), new Var("y")));
+            Join middle = new Join(assignment("z", 3), inner);
+            Join outer = new Join(assignment("x", 4), middle);
+
+            CloseableIteration<BindingSet, QueryEvaluationException> iter = strategy.evaluate(outer, new EmptyBindingSet());
+            int count = 0;
+            try {
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+            } finally {
+                iter.close();
+            }
+            Assert.assertEquals(4 * 3 * 2 * 2, count);
+            slot.release();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static BindingSetAssignment assignment(String name, int size) {
+        List<BindingSet> sets = new ArrayList<BindingSet>();
+        for (int i = 0; i < size; i++) {
+            QueryBindingSet bs = new QueryBindingSet();
+            bs.addBinding(name, ValueFactoryImpl.getInstance().createLiteral(i));
+            sets.add(bs);
+        }
+        BindingSetAssignment assignment = new BindingSetAssignment();
+        assignment.setBindingSets(sets);
+        return assignment;
+    }
+}
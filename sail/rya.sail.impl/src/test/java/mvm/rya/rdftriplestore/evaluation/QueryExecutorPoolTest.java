@@ -0,0 +1,131 @@
+package mvm.rya.rdftriplestore.evaluation;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.api.persist.query.QueryCancellation;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.query.QueryEvaluationException;
+
+public class QueryExecutorPoolTest {
+
+    private AccumuloRdfConfiguration conf;
+    private QueryExecutorPool pool;
+
+    @Before
+    public void init() {
+        conf = new AccumuloRdfConfiguration();
+        conf.setNumThreads(2);
+        pool = new QueryExecutorPool(4, 10, 2, 50);
+    }
+
+    @After
+    public void close() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        QueryExecutorPool.QuerySlot first = pool.admit(conf);
+        QueryExecutorPool.QuerySlot second = pool.admit(conf);
+        Assert.assertEquals(2, pool.getActiveQueries());
+
+        try {
+            pool.admit(conf);
+            Assert.fail("third query should not be admitted");
+        } catch (QueryEvaluationException expected) {
+        }
+        Assert.assertEquals(1, pool.getRejectedQueryCount());
+
+        first.release();
+        first.release(); //releasing twice must not free two slots
+        QueryExecutorPool.QuerySlot third = pool.admit(conf);
+        Assert.assertEquals(2, pool.getActiveQueries());
+
+        second.release();
+        third.release();
+        Assert.assertEquals(0, pool.getActiveQueries());
+    }
+
+    @Test
+    public void testPerQueryParallelism() throws Exception {
+        QueryExecutorPool.QuerySlot slot = pool.admit(conf);
+        Assert.assertEquals(2, slot.getParallelism());
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) {
+            slot.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ignore) {
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        slot.release();
+    }
+
+    @Test
+    public void testCancelledDeadlinesArePurged() throws Exception {
+        Assert.assertNull(pool.scheduleDeadline(new QueryCancellation()));
+
+        QueryCancellation open = new QueryCancellation(60000);
+        Future<?> openDeadline = pool.scheduleDeadline(open);
+        for (int i = 0; i < 100; i++) {
+            pool.cancelDeadline(pool.scheduleDeadline(new QueryCancellation(60000)));
+        }
+        //only the query still running holds a place in the timer queue
+        Assert.assertEquals(1, pool.getPendingDeadlines());
+
+        pool.cancelDeadline(openDeadline);
+        Assert.assertEquals(0, pool.getPendingDeadlines());
+        Assert.assertFalse(open.isCancelled());
+
+        QueryCancellation expiring = new QueryCancellation(10);
+        pool.scheduleDeadline(expiring);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!expiring.isTimedOut() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(expiring.isTimedOut());
+    }
+}
@@ -0,0 +1,104 @@
+package mvm.rya.rdftriplestore.evaluation;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mvm.rya.api.RdfCloudTripleStoreConfiguration;
+
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+/**
+ * Evaluates a statement pattern without a store: every binding set in yields resultsPerSet binding sets, the input with
+ * y bound to 0 up to resultsPerSet - 1, in order.
+ */
+class StubEvaluationStrategy extends ParallelEvaluationStrategyImpl {
+
+    private final int resultsPerSet;
+    private final Thread consumer = Thread.currentThread();
+    final AtomicInteger produced = new AtomicInteger();
+    final AtomicInteger producedByWorkers = new AtomicInteger();
+    final AtomicInteger openIterations = new AtomicInteger();
+    final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+    volatile long delayPerResult = 0;
+
+    StubEvaluationStrategy(RdfCloudTripleStoreConfiguration conf, Executor executor, int resultsPerSet) {
+        super(null, null, null, conf, executor);
+        this.resultsPerSet = resultsPerSet;
+    }
+
+    @Override
+    public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(StatementPattern sp, Collection<BindingSet> bindings)
+            throws QueryEvaluationException {
+        threads.add(Thread.currentThread());
+        openIterations.incrementAndGet();
+        final List<BindingSet> sets = new ArrayList<BindingSet>(bindings);
+        return new LookAheadIteration<BindingSet, QueryEvaluationException>() {
+            private int set = 0;
+            private int k = 0;
+
+            @Override
+            protected BindingSet getNextElement() throws QueryEvaluationException {
+                if (set >= sets.size()) {
+                    return null;
+                }
+                if (delayPerResult > 0) {
+                    try {
+                        Thread.sleep(delayPerResult);
+                    } catch (InterruptedException e) {
+                        throw new QueryEvaluationException(e);
+                    }
+                }
+                QueryBindingSet result = new QueryBindingSet(sets.get(set));
+                result.addBinding("y", ValueFactoryImpl.getInstance().createLiteral(k));
+                produced.incrementAndGet();
+                if (Thread.currentThread() != consumer) {
+                    producedByWorkers.incrementAndGet();
+                }
+                if (++k == resultsPerSet) {
+                    k = 0;
+                    set++;
+                }
+                return result;
+            }
+
+            @Override
+            protected void handleClose() throws QueryEvaluationException {
+                super.handleClose();
+                openIterations.decrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package mvm.rya.rdftriplestore.inference;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+
+import mvm.rya.accumulo.AccumuloRdfConfiguration;
+import mvm.rya.accumulo.AccumuloRyaDAO;
+import mvm.rya.api.persist.RyaDAO;
+import mvm.rya.api.resolver.RdfToRyaConversions;
+
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDFS;
+
+import com.google.common.collect.ImmutableSet;
+
+public class InferenceEngineTest {
+    private ValueFactory vf = new ValueFactoryImpl();
+    private URI a = vf.createURI("urn:test#a");
+    private URI b = vf.createURI("urn:test#b");
+    private URI c = vf.createURI("urn:test#c");
+    private URI d = vf.createURI("urn:test#d");
+
+    private AccumuloRdfConfiguration conf;
+    private AccumuloRyaDAO dao;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new AccumuloRdfConfiguration();
+        conf.setTablePrefix("inference_");
+        dao = new AccumuloRyaDAO();
+        dao.setConnector(new MockInstance("inference").getConnector("", ""));
+        dao.setConf(conf);
+        dao.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dao.destroy();
+    }
+
+    @Test(timeout = 20000)
+    public void testOverlappingRefreshes() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread[] slow = new Thread[1];
+        //holds the slow refresh between its subClassOf query and the rest of its load
+        RyaDAO gated = (RyaDAO) Proxy.newProxyInstance(RyaDAO.class.getClassLoader(), new Class[]{RyaDAO.class},
+                new InvocationHandler() {
+                    private int queries = 0;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (Thread.currentThread() == slow[0] && method.getName().equals("getQueryEngine")
+                                && ++queries == 2) {
+                            loading.countDown();
+                            release.await();
+                        }
+                        try {
+                            return method.invoke(dao, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        final InferenceEngine engine = new InferenceEngine();
+        engine.setConf(conf);
+        engine.setRyaDAO(gated);
+        engine.setSchedule(false);
+
+        add(a, b);
+        final Exception[] failure = new Exception[1];
+        slow[0] = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    engine.refreshGraph();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        slow[0].start();
+        loading.await();
+
+        //a later refresh finishes first, then a statement is added while the slow one is still loading
+        add(b, c);
+        engine.refreshGraph();
+        add(c, d);
+        engine.statementAdded(c, RDFS.SUBCLASSOF, d);
+
+        release.countDown();
+        slow[0].join();
+        Assert.assertNull(failure[0]);
+        Assert.assertEquals(ImmutableSet.of(a, b), engine.getSubClassOfParents(c));
+        Assert.assertEquals(ImmutableSet.of(a, b, c), engine.getSubClassOfParents(d));
+    }
+
+    private void add(URI subclass, URI superclass) throws Exception {
+        dao.add(RdfToRyaConversions.convertStatement(new StatementImpl(subclass, RDFS.SUBCLASSOF, superclass)));
+    }
+}
@@ -0,0 +1,87 @@
+package mvm.rya.rdftriplestore.inference;
+
+/*
+ * #%L
+ * mvm.rya.rya.sail.impl
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDFS;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+
+public class TransitiveClosureTest {
+    private ValueFactory vf = new ValueFactoryImpl();
+    private URI a = vf.createURI("urn:test#a");
+    private URI b = vf.createURI("urn:test#b");
+    private URI c = vf.createURI("urn:test#c");
+    private URI d = vf.createURI("urn:test#d");
+
+    @Test
+    public void testBuild() throws Exception {
+        SetMultimap<URI, URI> edges = HashMultimap.create();
+        edges.put(a, b);
+        edges.put(b, c);
+        edges.put(d, c);
+        TransitiveClosure closure = TransitiveClosure.build(edges);
+        Assert.assertEquals(ImmutableSet.of(a, b, d), closure.getParents(c));
+        Assert.assertEquals(ImmutableSet.of(a), closure.getParents(b));
+        Assert.assertTrue(closure.getParents(a).isEmpty());
+    }
+
+    @Test
+    public void testIncrementalMatchesBuild() throws Exception {
+        TransitiveClosure closure = TransitiveClosure.EMPTY.withEdge(b, c).withEdge(d, c).withEdge(a, b);
+        SetMultimap<URI, URI> edges = HashMultimap.create();
+        edges.put(a, b);
+        edges.put(b, c);
+        edges.put(d, c);
+        TransitiveClosure built = TransitiveClosure.build(edges);
+        for (URI node : new URI[]{a, b, c, d}) {
+            Assert.assertEquals(built.getParents(node), closure.getParents(node));
+        }
+
+        //closing a cycle makes every node on it a parent of the others
+        TransitiveClosure cycle = closure.withEdge(c, a);
+        Assert.assertEquals(ImmutableSet.of(a, b, c, d), cycle.getParents(a));
+        Assert.assertEquals(ImmutableSet.of(a, b, c, d), cycle.getParents(c));
+        //the original closure is untouched
+        Assert.assertTrue(closure.getParents(a).isEmpty());
+    }
+
+    @Test
+    public void testStatementAdded() throws Exception {
+        InferenceEngine engine = new InferenceEngine();
+        engine.statementAdded(a, RDFS.SUBCLASSOF, b);
+        engine.statementAdded(b, RDFS.SUBCLASSOF, c);
+        Set<URI> parents = engine.getSubClassOfParents(c);
+        Assert.assertEquals(ImmutableSet.of(a, b), parents);
+        Assert.assertTrue(engine.getSubPropertyOfParents(c).isEmpty());
+
+        engine.statementAdded(a, RDFS.SUBPROPERTYOF, b);
+        Assert.assertEquals(ImmutableSet.of(a), engine.getSubPropertyOfParents(b));
+    }
+}
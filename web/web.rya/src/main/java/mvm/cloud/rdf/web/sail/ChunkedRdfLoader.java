@@ -0,0 +1,195 @@
+package mvm.cloud.rdf.web.sail;
+
+/*
+ * #%L
+ * mvm.rya.web.rya
+ * %%
+ * Copyright (C) 2014 Rya
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import mvm.rya.api.domain.RyaStatement;
+import mvm.rya.api.persist.RyaDAO;
+import mvm.rya.api.persist.RyaDAOException;
+import mvm.rya.api.persist.RyaGroupCommit;
+import mvm.rya.api.resolver.RdfToRyaConversions;
+import mvm.rya.rdftriplestore.RdfCloudTripleStore;
+import mvm.rya.rdftriplestore.inference.InferenceEngine;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Adds parsed statements to a repository in chunks of at most chunkSize statements, so an upload of any size holds
+ * one chunk in memory. When the repository is backed by an {@link RdfCloudTripleStore} a chunk goes to its
+ * {@link RyaDAO} as one batch, otherwise it is added and committed through a repository connection.
+ * <p>
+ * Once a chunk is committed a line is written to the acknowledgement writer:
+ * <pre>chunk &lt;chunk number&gt; &lt;statements in the chunk&gt; &lt;statements so far&gt; &lt;bytes read so far&gt;</pre>
+ */
+public class ChunkedRdfLoader implements RDFHandler {
+
+    private final RepositoryConnection conn;
+    private final Resource[] contexts;
+    private final int chunkSize;
+    private final PrintWriter ack;
+    private final CountingInputStream upload;
+
+    private final RdfCloudTripleStore store;
+    private final List<Statement> chunk;
+    private int chunks = 0;
+    private long total = 0;
+
+    /**
+     * @param repository the repository to add to
+     * @param conn a connection of the repository, used when it is not backed by an {@link RdfCloudTripleStore}
+     * @param contexts the contexts to add every statement to, as for {@link RepositoryConnection#add(Iterable, Resource...)}
+     * @param chunkSize statements per chunk
+     * @param ack written to and flushed after every chunk
+     * @param upload counts the bytes of the upload read so far
+     */
+    public ChunkedRdfLoader(Repository repository, RepositoryConnection conn, Resource[] contexts, int chunkSize,
+                            PrintWriter ack, CountingInputStream upload) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        this.conn = conn;
+        this.contexts = contexts;
+        this.chunkSize = chunkSize;
+        this.ack = ack;
+        this.upload = upload;
+        if (repository instanceof SailRepository && ((SailRepository) repository).getSail() instanceof RdfCloudTripleStore) {
+            this.store = (RdfCloudTripleStore) ((SailRepository) repository).getSail();
+        } else {
+            this.store = null;
+        }
+        this.chunk = new ArrayList<Statement>();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public void startRDF() throws RDFHandlerException {
+    }
+
+    @Override
+    public void endRDF() throws RDFHandlerException {
+        commitChunk();
+    }
+
+    @Override
+    public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+    }
+
+    @Override
+    public void handleStatement(Statement st) throws RDFHandlerException {
+        chunk.add(st);
+        if (chunk.size() >= chunkSize) {
+            commitChunk();
+        }
+    }
+
+    @Override
+    public void handleComment(String comment) throws RDFHandlerException {
+    }
+
+    private void commitChunk() throws RDFHandlerException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            if (store != null) {
+                addToDao();
+            } else {
+                conn.add(chunk, contexts);
+                conn.commit();
+            }
+        } catch (RepositoryException e) {
+            throw new RDFHandlerException(e);
+        } catch (RyaDAOException e) {
+            throw new RDFHandlerException(e);
+        }
+        chunks++;
+        total += chunk.size();
+        ack.println("chunk " + chunks + " " + chunk.size() + " " + total + " " + upload.getCount());
+        ack.flush();
+        chunk.clear();
+    }
+
+    /**
+     * Converts the chunk as {@link mvm.rya.rdftriplestore.RdfCloudTripleStoreConnection} does for single statements,
+     * and waits until the batch is committed when the dao commits in groups.
+     */
+    private void addToDao() throws RyaDAOException {
+        String cv_s = store.getConf().getCv();
+        byte[] cv = cv_s == null ? null : cv_s.getBytes();
+        List<RyaStatement> statements = new ArrayList<RyaStatement>(chunk.size() * Math.max(1, contexts.length));
+        for (Statement st : chunk) {
+            Resource[] targets = contexts;
+            if (targets.length == 0) {
+                targets = new Resource[]{st.getContext()};
+            }
+            for (Resource context : targets) {
+                statements.add(new RyaStatement(
+                        RdfToRyaConversions.convertResource(st.getSubject()),
+                        RdfToRyaConversions.convertURI(st.getPredicate()),
+                        RdfToRyaConversions.convertValue(st.getObject()),
+                        context == null ? null : RdfToRyaConversions.convertResource(context),
+                        null, cv));
+            }
+        }
+        RyaDAO ryaDAO = store.getRyaDAO();
+        Iterator<RyaStatement> iter = statements.iterator();
+        if (ryaDAO instanceof RyaGroupCommit) {
+            try {
+                ((RyaGroupCommit) ryaDAO).addAsync(iter).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RyaDAOException(e);
+            } catch (ExecutionException e) {
+                throw new RyaDAOException(e.getCause());
+            }
+        } else {
+            ryaDAO.add(iter);
+        }
+        InferenceEngine inferenceEngine = store.getInferenceEngine();
+        if (inferenceEngine != null) {
+            for (Statement st : chunk) {
+                inferenceEngine.statementAdded(st.getSubject(), st.getPredicate(), st.getObject());
+            }
+        }
+    }
+}
@@ -24,11 +24,12 @@ import static mvm.rya.api.RdfCloudTripleStoreConstants.AUTH_NAMESPACE;
 import static mvm.rya.api.RdfCloudTripleStoreConstants.VALUE_FACTORY;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -42,6 +43,7 @@ import org.openrdf.model.Statement;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQuery;
 import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.Operation;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.QueryResultHandlerException;
@@ -64,6 +66,8 @@ import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
 import org.openrdf.rio.rdfxml.RDFXMLWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -73,6 +77,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import com.google.common.io.CountingInputStream;
+
 /**
  * Class RdfController
  * Date: Mar 7, 2012
@@ -82,6 +88,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 public class RdfController {
     
 	private static final int QUERY_TIME_OUT_SECONDS = 120;
+	private static final int LOAD_CHUNK_SIZE = 10000;
+	private static final int MAX_LOAD_CHUNK_SIZE = 100000;
 
     @Autowired
     Repository repository;
@@ -100,19 +108,8 @@ public class RdfController {
                          HttpServletRequest request,
                          HttpServletResponse response) {
         RepositoryConnection conn = null;
-		final Thread queryThread = Thread.currentThread();
 		auth = StringUtils.arrayToCommaDelimitedString(provider.getUserAuths(request));
-		Timer timer = new Timer();
-		timer.schedule(new TimerTask() {
-
-			@Override
-			public void run() {
-				System.out.println("interrupting");
-				queryThread.interrupt();
 
-			}
-		}, QUERY_TIME_OUT_SECONDS * 1000);
-		
 		try {
 			ServletOutputStream os = response.getOutputStream();
             conn = repository.getConnection();
@@ -169,8 +166,6 @@ public class RdfController {
                 }
             }
         }
-		
-		timer.cancel();
     }
     
     private void performQuery(String query, RepositoryConnection conn, String auth, String infer, String nullout, TupleQueryResultHandler handler) throws RepositoryException, MalformedQueryException, QueryEvaluationException, TupleQueryResultHandlerException {
@@ -179,6 +174,8 @@ public class RdfController {
             tupleQuery.setBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_AUTH, VALUE_FACTORY.createLiteral(auth));
         if (infer != null && infer.length() > 0)
             tupleQuery.setBinding(RdfCloudTripleStoreConfiguration.CONF_INFER, VALUE_FACTORY.createLiteral(Boolean.parseBoolean(infer)));
+        setQueryTimeout(tupleQuery);
+        tupleQuery.setMaxQueryTime(QUERY_TIME_OUT_SECONDS);
         if (nullout != null && nullout.length() > 0) {
             //output nothing, but still run query
             tupleQuery.evaluate(new TupleQueryResultHandler() {
@@ -218,6 +215,8 @@ public class RdfController {
         	graphQuery.setBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_AUTH, VALUE_FACTORY.createLiteral(auth));
         if (infer != null && infer.length() > 0)
         	graphQuery.setBinding(RdfCloudTripleStoreConfiguration.CONF_INFER, VALUE_FACTORY.createLiteral(Boolean.parseBoolean(infer)));
+        setQueryTimeout(graphQuery);
+        graphQuery.setMaxQueryTime(QUERY_TIME_OUT_SECONDS);
         if (nullout != null && nullout.length() > 0) {
             //output nothing, but still run query
         	// TODO this seems like a strange use case.
@@ -258,6 +257,7 @@ public class RdfController {
             update.setBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_AUTH, VALUE_FACTORY.createLiteral(auth));
         if (infer != null && infer.length() > 0)
             update.setBinding(RdfCloudTripleStoreConfiguration.CONF_INFER, VALUE_FACTORY.createLiteral(Boolean.parseBoolean(infer)));
+        setQueryTimeout(update);
 
         long startTime = System.currentTimeMillis();
 
@@ -269,7 +269,16 @@ public class RdfController {
         }
 
         System.out.format("Update Time = %.3f\n", (System.currentTimeMillis() - startTime) / 1000.);
-    }    
+    }
+
+    /**
+     * The store cancels the query at the deadline on its shared scheduler, closing its scanners, rather than a timer
+     * thread per request interrupting the servlet thread.
+     */
+    private static void setQueryTimeout(Operation operation) {
+        operation.setBinding(RdfCloudTripleStoreConfiguration.CONF_QUERY_TIMEOUT,
+                VALUE_FACTORY.createLiteral(QUERY_TIME_OUT_SECONDS * 1000L));
+    }
     
     private static final class CountingTupleQueryResultHandlerWrapper implements TupleQueryResultHandler {
     	private TupleQueryResultHandler indir;
@@ -340,4 +349,82 @@ public class RdfController {
             }
         }
     }
+
+    /**
+     * Loads an upload of any size without holding it in memory. The body is parsed straight from the request stream,
+     * gunzipped when sent with Content-Encoding gzip, and committed in chunks of chunksize statements. The response is
+     * plain text with one line per committed chunk, see {@link ChunkedRdfLoader}, followed by
+     * <pre>done &lt;chunks&gt; &lt;statements&gt; &lt;bytes&gt;</pre>
+     * or, if the upload could not be parsed or stored, by
+     * <pre>error &lt;statements committed&gt; &lt;message&gt;</pre>
+     * Chunks acknowledged before an error stay loaded. A chunksize outside 1 to {@value #MAX_LOAD_CHUNK_SIZE} is
+     * rejected with 400 before anything is read.
+     */
+    @RequestMapping(value = "/loadrdf/stream", method = RequestMethod.POST)
+    public void streamRdf(@RequestParam(required = false) String format,
+            @RequestParam(value = RdfCloudTripleStoreConfiguration.CONF_CV, required = false) String cv,
+            @RequestParam(required = false) String graph,
+            @RequestParam(value = "chunksize", required = false) Integer chunkSize,
+                          HttpServletRequest request,
+                          HttpServletResponse response)
+            throws RepositoryException, IOException {
+        if (chunkSize != null && (chunkSize <= 0 || chunkSize > MAX_LOAD_CHUNK_SIZE)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.setContentType("text/plain");
+            response.getWriter().println("error 0 chunksize must be between 1 and " + MAX_LOAD_CHUNK_SIZE);
+            return;
+        }
+        List<Resource> authList = new ArrayList<Resource>();
+        RDFFormat format_r = RDFFormat.RDFXML;
+        if (format != null) {
+            format_r = RDFFormat.valueOf(format);
+            if (format_r == null)
+                throw new RuntimeException("RDFFormat[" + format + "] not found");
+        }
+        if (graph != null) {
+        	authList.add(VALUE_FACTORY.createURI(graph));
+        }
+        if (cv != null && cv.length() > 0) {
+            String[] auths = cv.split("\\|");
+            for (String auth : auths) {
+                authList.add(VALUE_FACTORY.createURI(AUTH_NAMESPACE, auth));
+            }
+        }
+
+        CountingInputStream upload = new CountingInputStream(request.getInputStream());
+        InputStream in = upload;
+        if ("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(upload, 1 << 16);
+        }
+        response.setContentType("text/plain");
+        PrintWriter ack = response.getWriter();
+
+        RepositoryConnection conn = null;
+        ChunkedRdfLoader loader = null;
+        try {
+            conn = repository.getConnection();
+            loader = new ChunkedRdfLoader(repository, conn, authList.toArray(new Resource[authList.size()]),
+                    chunkSize == null ? LOAD_CHUNK_SIZE : chunkSize, ack, upload);
+            RDFParser parser = Rio.createParser(format_r, repository.getValueFactory());
+            parser.setRDFHandler(loader);
+            parser.parse(in, "");
+            ack.println("done " + loader.getChunks() + " " + loader.getTotal() + " " + upload.getCount());
+        } catch (RDFParseException e) {
+            loadFailed(response, ack, loader, e);
+        } catch (RDFHandlerException e) {
+            loadFailed(response, ack, loader, e);
+        } finally {
+            ack.flush();
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    private void loadFailed(HttpServletResponse response, PrintWriter ack, ChunkedRdfLoader loader, Exception e) {
+        if (!response.isCommitted()) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        }
+        ack.println("error " + (loader == null ? 0 : loader.getTotal()) + " " + e.getMessage());
+    }
 }
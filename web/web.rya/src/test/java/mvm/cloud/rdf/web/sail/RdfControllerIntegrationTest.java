@@ -1,10 +1,16 @@
 package mvm.cloud.rdf.web.sail;
 
+import info.aduna.iteration.Iterations;
+import mvm.rya.rdftriplestore.inference.InferenceEngine;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.rio.RDFFormat;
@@ -15,7 +21,10 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
@@ -33,6 +42,9 @@ public class RdfControllerIntegrationTest {
     @Autowired
     private Repository repository;
 
+    @Autowired
+    private InferenceEngine inferenceEngine;
+
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
@@ -63,4 +75,41 @@ public class RdfControllerIntegrationTest {
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.TEXT_XML));
     }
+
+    @Test
+    public void streamLoad() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<http://mynamespace/StreamType> <").append(RDFS.SUBCLASSOF).append("> <http://mynamespace/ProductType> .\n");
+        for (int i = 0; i < 25; i++) {
+            sb.append("<http://mynamespace/s").append(i).append("> <http://mynamespace#stream> \"o").append(i).append("\" .\n");
+        }
+        byte[] body = sb.toString().getBytes("UTF-8");
+
+        // added through the dao of the Rya store, not the connection
+        String acks = this.mockMvc.perform(post("/loadrdf/stream")
+                .param("format", RDFFormat.NTRIPLES.getName())
+                .param("chunksize", "10")
+                .content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = acks.trim().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("chunk 1 10 10 "));
+        assertTrue(lines[1].startsWith("chunk 2 10 20 "));
+        assertTrue(lines[2].startsWith("chunk 3 6 26 "));
+        assertEquals("done 3 26 " + body.length, lines[3]);
+
+        ValueFactory vf = repository.getValueFactory();
+        RepositoryConnection con = repository.getConnection();
+        try {
+            URI p = vf.createURI("http://mynamespace#stream");
+            assertEquals(25, Iterations.asList(con.getStatements(null, p, null, false)).size());
+            assertTrue(con.hasStatement(vf.createURI("http://mynamespace/s7"), p, vf.createLiteral("o7"), false));
+        } finally {
+            con.close();
+        }
+        assertTrue(inferenceEngine.getSubClassOfParents(vf.createURI("http://mynamespace/ProductType"))
+                .contains(vf.createURI("http://mynamespace/StreamType")));
+    }
 }
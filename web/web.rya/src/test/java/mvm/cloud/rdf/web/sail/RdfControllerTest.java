@@ -21,12 +21,19 @@ package mvm.cloud.rdf.web.sail;
  */
 
 import static org.hamcrest.Matchers.equalToIgnoringWhiteSpace;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import info.aduna.iteration.Iterations;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -156,4 +163,67 @@ public class RdfControllerTest {
 
     }
 
+    @Test
+    public void streamLoad() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            sb.append("<http://mynamespace/s").append(i).append("> <http://mynamespace#stream> \"o").append(i).append("\" .\n");
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(sb.toString().getBytes("UTF-8"));
+        gzip.close();
+
+        String acks = this.mockMvc.perform(post("/loadrdf/stream")
+                .param("format", RDFFormat.NTRIPLES.getName())
+                .param("chunksize", "10")
+                .header("Content-Encoding", "gzip")
+                .content(gzipped.toByteArray()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = acks.trim().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("chunk 1 10 10 "));
+        assertTrue(lines[2].startsWith("chunk 3 5 25 "));
+        assertEquals("done 3 25 " + gzipped.size(), lines[3]);
+
+        RepositoryConnection con = repository.getConnection();
+        URI p = repository.getValueFactory().createURI("http://mynamespace#stream");
+        assertEquals(25, Iterations.asList(con.getStatements(null, p, null, false)).size());
+        con.close();
+    }
+
+    @Test
+    public void streamLoadParseError() throws Exception {
+        String body = "<http://mynamespace/s1> <http://mynamespace#broken> \"o1\" .\n"
+                + "<http://mynamespace/s2> <http://mynamespace#broken> \n";
+        String acks = this.mockMvc.perform(post("/loadrdf/stream")
+                .param("format", RDFFormat.NTRIPLES.getName())
+                .param("chunksize", "1")
+                .content(body.getBytes("UTF-8")))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = acks.trim().split("\n");
+        assertTrue(lines[0].startsWith("chunk 1 1 1 "));
+        assertTrue(lines[lines.length - 1].startsWith("error 1 "));
+    }
+
+    @Test
+    public void streamLoadChunkSizeTooLarge() throws Exception {
+        String body = "<http://mynamespace/s1> <http://mynamespace#huge> \"o1\" .\n";
+        String acks = this.mockMvc.perform(post("/loadrdf/stream")
+                .param("format", RDFFormat.NTRIPLES.getName())
+                .param("chunksize", "2000000000")
+                .content(body.getBytes("UTF-8")))
+                .andExpect(status().isBadRequest())
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(acks.startsWith("error 0 "));
+
+        RepositoryConnection con = repository.getConnection();
+        URI p = repository.getValueFactory().createURI("http://mynamespace#huge");
+        assertEquals(0, Iterations.asList(con.getStatements(null, p, null, false)).size());
+        con.close();
+    }
+
 }